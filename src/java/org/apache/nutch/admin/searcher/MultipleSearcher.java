@@ -17,14 +17,21 @@
 package org.apache.nutch.admin.searcher;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
@@ -78,6 +85,22 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
   @Override
   public Hits search(Query query, int numHits, String dedupField,
           String sortField, boolean reverse) throws IOException {
+    return search(query, numHits, 0, dedupField, sortField, reverse);
+  }
+
+  @Override
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+          String dedupField, String sortField, boolean reverse)
+          throws IOException {
+    return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+            reverse, Long.MAX_VALUE);
+  }
+
+  /** Beans which did not answer by the deadline are skipped. */
+  @Override
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+          String dedupField, String sortField, boolean reverse, long deadline)
+          throws IOException {
     if (_searchBeans.length == 0) {
       return null;
     }
@@ -87,8 +110,8 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
     // start searching in thread
     for (int i = 0; i < _searchBeans.length; i++) {
       SearchRunnable searchRunnable = new SearchRunnable(i, _searchBeans[i],
-              query, numHits, dedupField, sortField, reverse,
-              arrayBlockingQueue);
+              query, numHits, maxHitsPerDup, dedupField, sortField, reverse,
+              deadline, arrayBlockingQueue);
       _threadPool.execute(searchRunnable);
     }
 
@@ -101,14 +124,26 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
               }
             });
 
-    // merge hits
-
+    // merge hits, keep all of them when deduplicating
+    int queueSize = maxHitsPerDup > 0 ? Integer.MAX_VALUE : numHits;
     long totalHits = 0;
+    boolean totalIsExact = true;
+    boolean complete = true;
     for (int i = 0; i < _searchBeans.length; i++) {
       SearchBucket bucket = null;
       Hits hits = null;
       try {
-        bucket = arrayBlockingQueue.take();
+        if (deadline == Long.MAX_VALUE) {
+          bucket = arrayBlockingQueue.take();
+        } else {
+          bucket = arrayBlockingQueue.poll(
+                  deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+          if (bucket == null) { // out of time, skip the remaining beans
+            totalIsExact = false;
+            complete = false;
+            break;
+          }
+        }
         hits = bucket.getHits();
       } catch (InterruptedException e) {
         e.printStackTrace();
@@ -119,20 +154,29 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
       }
 
       totalHits += hits.getTotal();
+      totalIsExact &= hits.totalIsExact();
+      complete &= hits.isComplete();
       int hitsLength = hits.getLength();
       for (int j = 0; j < hitsLength; j++) {
         Hit hit = hits.getHit(j);
         Hit newHit = new Hit(bucket.getId(), hit.getUniqueKey(), hit
                 .getSortValue(), hit.getDedupValue());
+        newHit.setMoreFromDupExcluded(hit.moreFromDupExcluded());
         hitQueue.add(newHit);
-        if (hitQueue.size() > numHits) { // if hit queue overfull
+        if (hitQueue.size() > queueSize) { // if hit queue overfull
           hitQueue.remove();
         }
       }
     }
     Hit[] culledResults = hitQueue.toArray(new Hit[hitQueue.size()]);
     Arrays.sort(culledResults, Collections.reverseOrder(hitQueue.comparator()));
-    return new Hits(totalHits, culledResults);
+    Hits results = new Hits(totalHits, culledResults);
+    results.setTotalIsExact(totalIsExact);
+    results.setComplete(complete);
+    if (maxHitsPerDup > 0) {
+      results = results.limitPerDup(numHits, maxHitsPerDup);
+    }
+    return results;
   }
 
   @Override
@@ -142,9 +186,47 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
 
   @Override
   public HitDetails[] getDetails(Hit[] hits) throws IOException {
-    HitDetails[] details = new HitDetails[hits.length];
+    return getDetails(hits, null);
+  }
+
+  @Override
+  public HitDetails[] getDetails(Hit[] hits, final String[] fields)
+          throws IOException {
+    // group hits by search bean, keeping their positions
+    Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
     for (int i = 0; i < hits.length; i++) {
-      details[i] = getDetails(hits[i]);
+      Integer indexNo = hits[i].getIndexNo();
+      List<Integer> group = groups.get(indexNo);
+      if (group == null) {
+        groups.put(indexNo, group = new ArrayList<Integer>());
+      }
+      group.add(i);
+    }
+
+    // fetch the details of each group in one call, groups in parallel
+    List<Callable<HitDetails[]>> tasks = new ArrayList<Callable<HitDetails[]>>();
+    for (Map.Entry<Integer, List<Integer>> entry : groups.entrySet()) {
+      final SearchBean searchBean = _searchBeans[entry.getKey()];
+      final Hit[] groupHits = new Hit[entry.getValue().size()];
+      for (int i = 0; i < groupHits.length; i++) {
+        groupHits[i] = hits[entry.getValue().get(i)];
+      }
+      tasks.add(new Callable<HitDetails[]>() {
+        public HitDetails[] call() throws IOException {
+          return fields == null ? searchBean.getDetails(groupHits)
+                  : searchBean.getDetails(groupHits, fields);
+        }
+      });
+    }
+
+    HitDetails[] details = new HitDetails[hits.length];
+    List<HitDetails[]> results = invokeAll(tasks);
+    int group = 0;
+    for (List<Integer> positions : groups.values()) {
+      HitDetails[] groupDetails = results.get(group++);
+      for (int i = 0; i < groupDetails.length; i++) {
+        details[positions.get(i)] = groupDetails[i];
+      }
     }
     return details;
   }
@@ -158,13 +240,73 @@ public class MultipleSearcher implements SearchBean, HitSummarizer {
   }
 
   @Override
-  public Summary[] getSummary(HitDetails[] details, Query query)
+  public Summary[] getSummary(HitDetails[] details, final Query query)
           throws IOException {
-    Summary[] summaries = new Summary[details.length];
+    // group details by segment bean, keeping their positions
+    Map<SegmentBean, List<Integer>> groups = new LinkedHashMap<SegmentBean, List<Integer>>();
     for (int i = 0; i < details.length; i++) {
-      summaries[i] = getSummary(details[i], query);
+      SegmentBean segmentBean = _segmentBeans.get(details[i].getValue("segment"));
+      List<Integer> group = groups.get(segmentBean);
+      if (group == null) {
+        groups.put(segmentBean, group = new ArrayList<Integer>());
+      }
+      group.add(i);
+    }
+
+    // each segment bean summarizes its details in parallel itself
+    List<Callable<Summary[]>> tasks = new ArrayList<Callable<Summary[]>>();
+    for (Map.Entry<SegmentBean, List<Integer>> entry : groups.entrySet()) {
+      final SegmentBean segmentBean = entry.getKey();
+      final HitDetails[] groupDetails = new HitDetails[entry.getValue().size()];
+      for (int i = 0; i < groupDetails.length; i++) {
+        groupDetails[i] = details[entry.getValue().get(i)];
+      }
+      tasks.add(new Callable<Summary[]>() {
+        public Summary[] call() throws IOException {
+          return segmentBean.getSummary(groupDetails, query);
+        }
+      });
+    }
+
+    Summary[] summaries = new Summary[details.length];
+    List<Summary[]> results = invokeAll(tasks);
+    int group = 0;
+    for (List<Integer> positions : groups.values()) {
+      Summary[] groupSummaries = results.get(group++);
+      for (int i = 0; i < groupSummaries.length; i++) {
+        summaries[positions.get(i)] = groupSummaries[i];
+      }
     }
     return summaries;
   }
 
+  /** Runs all but the last task in the thread pool and the last one in the
+   * calling thread, and waits for all of them. */
+  private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+    List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+    for (int i = 0; i < tasks.size(); i++) {
+      FutureTask<T> future = new FutureTask<T>(tasks.get(i));
+      futures.add(future);
+      if (i < tasks.size() - 1) {
+        _threadPool.execute(future);
+      } else {
+        future.run();
+      }
+    }
+    List<T> results = new ArrayList<T>(tasks.size());
+    for (FutureTask<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (InterruptedException e) {
+        throw new IOException(e.toString());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    return results;
+  }
+
 }
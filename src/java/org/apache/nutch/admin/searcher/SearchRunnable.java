@@ -34,19 +34,37 @@ public class SearchRunnable implements Runnable {
   private final int _id;
   private final SearchBean _searchBean;
   private final int _numHits;
+  private final int _maxHitsPerDup;
   private final Query _query;
+  private final long _deadline;
   private static final Log LOG = LogFactory.getLog(SearchRunnable.class);
 
   public SearchRunnable(int id, SearchBean searchBean, Query query,
           int numHits, String dedupField, String sortField, boolean reverse,
           BlockingQueue<SearchBucket> queue) {
+    this(id, searchBean, query, numHits, 0, dedupField, sortField, reverse,
+            queue);
+  }
+
+  public SearchRunnable(int id, SearchBean searchBean, Query query,
+          int numHits, int maxHitsPerDup, String dedupField, String sortField,
+          boolean reverse, BlockingQueue<SearchBucket> queue) {
+    this(id, searchBean, query, numHits, maxHitsPerDup, dedupField, sortField,
+            reverse, Long.MAX_VALUE, queue);
+  }
+
+  public SearchRunnable(int id, SearchBean searchBean, Query query,
+          int numHits, int maxHitsPerDup, String dedupField, String sortField,
+          boolean reverse, long deadline, BlockingQueue<SearchBucket> queue) {
     _id = id;
     _searchBean = searchBean;
     _query = query;
     _numHits = numHits;
+    _maxHitsPerDup = maxHitsPerDup;
     _dedupField = dedupField;
     _sortField = sortField;
     _reverse = reverse;
+    _deadline = deadline;
     _queue = queue;
   }
 
@@ -57,8 +75,8 @@ public class SearchRunnable implements Runnable {
         LOG.debug("start to search with bean [" + _searchBean
                 + "] with query [" + _query + "]");
       }
-      Hits hits = _searchBean.search(_query, _numHits, _dedupField, _sortField,
-              _reverse);
+      Hits hits = _searchBean.search(_query, _numHits, _maxHitsPerDup,
+              _dedupField, _sortField, _reverse, _deadline);
       if (LOG.isDebugEnabled()) {
         LOG.debug("bean [" + _searchBean + "] find hits [" + hits.getLength()
                 + "]");
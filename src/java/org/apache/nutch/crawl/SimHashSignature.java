@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseImpl;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.StringUtil;
+
+/**
+ * <p>An implementation of a page signature, which calculates a 64-bit
+ * SimHash fingerprint of the plain text of a page. Unlike the
+ * {@link MD5Signature} and {@link TextProfileSignature}, pages with similar
+ * text get fingerprints which differ only in a few bits, so near-duplicates
+ * can be found by comparing the Hamming distance of their fingerprints (see
+ * the "dedup.near.distance" property of
+ * {@link org.apache.nutch.indexer.DeleteDuplicates}). In case there is no
+ * text, it calculates a hash using the {@link MD5Signature}.</p>
+ * <p>The text is split into tokens of consecutive letters and digits, which
+ * are lower-cased and hashed on the fly, so no objects are created per token.
+ * Tokens equal or shorter than "db.signature.simhash.min_token_len" characters
+ * are discarded. Every token adds its hash to a vector of 64 bit counters,
+ * and the fingerprint has a bit set for every positive counter.</p>
+ * <p>The fingerprint is stored in the first 8 bytes of a 16 byte signature,
+ * the remaining bytes are zero. This keeps the signature the same length as
+ * an MD5 digest, so that it can be used for exact duplicate detection as
+ * well.</p>
+ */
+public class SimHashSignature extends Signature {
+
+  /** Length in bytes of the signature. */
+  public static final int SIGNATURE_LEN = 16;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  Signature fallback = new MD5Signature();
+
+  public byte[] calculate(Content content, Parse parse) {
+    String text = null;
+    if (parse != null) text = parse.getText();
+    if (text == null || text.length() == 0) return fallback.calculate(content, parse);
+    int minTokenLen = getConf().getInt("db.signature.simhash.min_token_len", 2);
+    long fingerprint = fingerprint(text, minTokenLen);
+    byte[] signature = new byte[SIGNATURE_LEN];
+    for (int i = 0; i < 8; i++) {
+      signature[i] = (byte)(fingerprint >>> (8 * (7 - i)));
+    }
+    return signature;
+  }
+
+  /**
+   * Calculate the SimHash fingerprint of a text.
+   * @param text text to tokenize
+   * @param minTokenLen tokens equal or shorter than this are discarded
+   */
+  public static long fingerprint(CharSequence text, int minTokenLen) {
+    int[] counts = new int[64];
+    long hash = FNV_OFFSET;
+    int tokenLen = 0;
+    int len = text.length();
+    for (int i = 0; i <= len; i++) {
+      char c = i < len ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        hash ^= Character.toLowerCase(c);
+        hash *= FNV_PRIME;
+        tokenLen++;
+      } else if (tokenLen > 0) {
+        if (tokenLen > minTokenLen) {
+          long h = mix(hash);
+          for (int bit = 0; bit < 64; bit++) {
+            if ((h & (1L << bit)) != 0) {
+              counts[bit]++;
+            } else {
+              counts[bit]--;
+            }
+          }
+        }
+        hash = FNV_OFFSET;
+        tokenLen = 0;
+      }
+    }
+    long fingerprint = 0;
+    for (int bit = 0; bit < 64; bit++) {
+      if (counts[bit] > 0) fingerprint |= 1L << bit;
+    }
+    return fingerprint;
+  }
+
+  /** Spread the bits of a FNV hash, so that all 64 bits are usable. */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /** Return the fingerprint stored in the first 8 bytes of a signature. */
+  public static long getFingerprint(byte[] signature) {
+    long fingerprint = 0;
+    for (int i = 0; i < 8 && i < signature.length; i++) {
+      fingerprint |= (signature[i] & 0xffL) << (8 * (7 - i));
+    }
+    return fingerprint;
+  }
+
+  /** Return the number of bits in which two fingerprints differ. */
+  public static int distance(long fingerprint1, long fingerprint2) {
+    return Long.bitCount(fingerprint1 ^ fingerprint2);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: SimHashSignature <dir>");
+      return;
+    }
+    SimHashSignature sig = new SimHashSignature();
+    sig.setConf(NutchConfiguration.create());
+    TextProfileSignature profile = new TextProfileSignature();
+    profile.setConf(sig.getConf());
+    File[] files = new File(args[0]).listFiles();
+    Parse[] parses = new Parse[files.length];
+    for (int i = 0; i < files.length; i++) {
+      FileInputStream fis = new FileInputStream(files[i]);
+      BufferedReader br = new BufferedReader(new InputStreamReader(fis, "UTF-8"));
+      StringBuffer text = new StringBuffer();
+      String line = null;
+      while ((line = br.readLine()) != null) {
+        if (text.length() > 0) text.append("\n");
+        text.append(line);
+      }
+      br.close();
+      parses[i] = new ParseImpl(text.toString(), null);
+    }
+    long[] fingerprints = new long[files.length];
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < files.length; i++) {
+      fingerprints[i] = getFingerprint(sig.calculate(null, parses[i]));
+    }
+    long simhashTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    for (int i = 0; i < files.length; i++) {
+      profile.calculate(null, parses[i]);
+    }
+    long profileTime = System.currentTimeMillis() - start;
+    for (int i = 0; i < files.length; i++) {
+      System.out.println(files[i] + "\t"
+          + StringUtil.toHexString(sig.calculate(null, parses[i])));
+      for (int j = 0; j < i; j++) {
+        int d = distance(fingerprints[i], fingerprints[j]);
+        if (d <= 3) {
+          System.out.println("\tdistance " + d + " to " + files[j]);
+        }
+      }
+    }
+    System.out.println("SimHashSignature: " + simhashTime
+        + " ms, TextProfileSignature: " + profileTime + " ms");
+  }
+}
@@ -54,6 +54,16 @@ import org.apache.lucene.document.Document;
  * the document with the highest score is retained. If this property is set
  * to false, only the document with the shortest URL is retained - all other
  * content duplicates are scheduled for deletion.</li>
+ * <li><b>Phase 2a - remove near duplicates (optional):</b><br/>
+ * If property "dedup.near.distance" is greater than 0, documents whose
+ * signature fingerprints (the first 64 bits, see
+ * {@link org.apache.nutch.crawl.SimHashSignature}) differ in at most that
+ * many bits are compared. The 64 bits are split into "dedup.near.distance"
+ * + 1 bands, so any two near duplicates are equal in at least one band and
+ * meet in the same reduce group. Only the documents retained by phase 2 are
+ * compared, and a document is scheduled for deletion if there is a better
+ * near duplicate, using the same criteria as in phase 2.
+ * </li>
  * <li><b>Phase 3 - delete documents:</b><br/>
  * In this phase documents scheduled for deletion are marked as deleted in
  * Lucene index(es).</li>
@@ -73,6 +83,12 @@ public class DeleteDuplicates extends Configured
 //   2. map indexes -> <md5, <md5, url, time, urlLen, index,doc>>
 //      partition by md5
 //      reduce, deleting all but with highest score (or shortest url).
+//
+//   2a. map survivors of 2 -> <band, <md5, url, time, urlLen, index,doc>>
+//      for each band of the 64-bit fingerprint in md5,
+//      reduce, deleting all with a better doc within the Hamming distance.
+//
+//   Phases 2 and 2a both keep the better doc by isBetter().
 
   public static class IndexDoc implements WritableComparable {
     private Text url = new Text();
@@ -292,6 +308,27 @@ public class DeleteDuplicates extends Configured
     }
   }
   
+  /**
+   * Return true if doc1 should be kept rather than doc2: the one with the
+   * higher score if <code>byScore</code>, else or on equal scores the one
+   * with the shorter url, then the higher score, then the first by url,
+   * index and doc.
+   */
+  static boolean isBetter(IndexDoc doc1, IndexDoc doc2, boolean byScore) {
+    if (byScore && doc1.score != doc2.score) {
+      return doc1.score > doc2.score;
+    } else if (doc1.urlLen != doc2.urlLen) {
+      return doc1.urlLen < doc2.urlLen;
+    } else if (doc1.score != doc2.score) {
+      return doc1.score > doc2.score;
+    }
+    int c = doc1.url.compareTo(doc2.url);
+    if (c != 0) return c < 0;
+    c = doc1.index.compareTo(doc2.index);
+    if (c != 0) return c < 0;
+    return doc1.doc < doc2.doc;
+  }
+
   public static class HashReducer implements Reducer<MD5Hash, IndexDoc, Text, IndexDoc> {
     boolean byScore;
     
@@ -321,9 +358,7 @@ public class DeleteDuplicates extends Configured
           continue;
         }
         IndexDoc toDelete = null, toKeep = null;
-        boolean metric = byScore ? (value.score > highest.score) : 
-                                   (value.urlLen < highest.urlLen);
-        if (metric) {
+        if (isBetter(value, highest, byScore)) {
           toDelete = highest;
           toKeep = value;
         } else {
@@ -339,13 +374,118 @@ public class DeleteDuplicates extends Configured
         output.collect(toDelete.url, toDelete);
         WritableUtils.cloneInto(highest, toKeep);
       }    
+      if (!highestSet) {
+        return;
+      }
       LOG.debug("-keep " + highest);
-      // no need to add this - in phase 2 we only process docs to delete them
-      // highest.keep = true;
-      // output.collect(key, highest);
+      // the survivors are compared again in phase 2a, phase 3 skips them
+      highest.keep = true;
+      output.collect(highest.url, highest);
     }
   }
     
+  public static class NearBandMapper
+    implements Mapper<Text, IndexDoc, LongWritable, IndexDoc> {
+    private int bands;
+    private LongWritable band = new LongWritable();
+
+    public void configure(JobConf job) {
+      bands = getBands(job.getInt("dedup.near.distance", 0));
+    }
+
+    public void close() {}
+
+    public void map(Text key, IndexDoc value,
+        OutputCollector<LongWritable, IndexDoc> output, Reporter reporter)
+      throws IOException {
+      // already marked in phase 1 or 2
+      if (!value.keep) return;
+      long fingerprint = value.hash.halfDigest();
+      for (int i = 0; i < bands; i++) {
+        int start = i * 64 / bands;
+        int width = (i + 1) * 64 / bands - start;
+        long bits = (fingerprint >>> start) & ((1L << width) - 1);
+        band.set(((long)i << 32) | bits);
+        output.collect(band, value);
+      }
+    }
+  }
+
+  /** Return the number of bands for a maximum Hamming distance. */
+  static int getBands(int distance) {
+    // at most 32 bits per band, at least one bit
+    return Math.min(Math.max(distance + 1, 2), 64);
+  }
+
+  public static class NearReducer
+    implements Reducer<LongWritable, IndexDoc, Text, IndexDoc> {
+    private boolean byScore;
+    private int distance;
+    private int maxBucket;
+    private List<IndexDoc> bucket = new ArrayList<IndexDoc>();
+    private List<IndexDoc> free = new ArrayList<IndexDoc>();
+
+    public void configure(JobConf job) {
+      byScore = job.getBoolean("dedup.keep.highest.score", true);
+      distance = job.getInt("dedup.near.distance", 0);
+      maxBucket = job.getInt("dedup.near.max.bucket", 1000);
+    }
+
+    public void close() {}
+
+    private boolean isNear(IndexDoc doc1, IndexDoc doc2) {
+      // exact duplicates are handled in phase 2
+      if (doc1.hash.equals(doc2.hash)) return false;
+      return Long.bitCount(doc1.hash.halfDigest() ^ doc2.hash.halfDigest())
+        <= distance;
+    }
+
+    public void reduce(LongWritable key, Iterator<IndexDoc> values,
+        OutputCollector<Text, IndexDoc> output, Reporter reporter)
+      throws IOException {
+      free.addAll(bucket);
+      bucket.clear();
+      boolean full = false;
+      while (values.hasNext()) {
+        IndexDoc value = values.next();
+        if (bucket.size() < maxBucket) {
+          IndexDoc doc = free.isEmpty()
+            ? new IndexDoc() : free.remove(free.size() - 1);
+          WritableUtils.cloneInto(doc, value);
+          bucket.add(doc);
+        } else {
+          // compare the overflow only with the buffered docs
+          if (!full) {
+            LOG.warn("Band " + Long.toHexString(key.get()) + " has more than "
+                + maxBucket + " docs, not all pairs will be compared");
+            full = true;
+          }
+          for (int i = 0; i < bucket.size(); i++) {
+            IndexDoc other = bucket.get(i);
+            if (isNear(value, other) && isBetter(other, value, byScore)) {
+              value.keep = false;
+              LOG.debug("-discard " + value + ", near " + other);
+              output.collect(value.url, value);
+              break;
+            }
+          }
+        }
+      }
+      for (int i = 0; i < bucket.size(); i++) {
+        IndexDoc doc = bucket.get(i);
+        for (int j = 0; j < bucket.size(); j++) {
+          IndexDoc other = bucket.get(j);
+          if (i != j && isNear(doc, other) && isBetter(other, doc, byScore)) {
+            doc.keep = false;
+            LOG.debug("-discard " + doc + ", near " + other);
+            output.collect(doc.url, doc);
+            break;
+          }
+        }
+      }
+    }
+  }
+
   private FileSystem fs;
 
   public void configure(JobConf job) {
@@ -469,6 +609,31 @@ public class DeleteDuplicates extends Configured
 
     JobClient.runJob(job);
 
+    Path outDir3 = null;
+    if (getConf().getInt("dedup.near.distance", 0) > 0) {
+      outDir3 =
+        new Path("dedup-near-"+
+                 Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+      job = new NutchJob(getConf());
+      job.setJobName("dedup 2a: content by near hash");
+
+      FileInputFormat.addInputPath(job, outDir2);
+      job.setInputFormat(SequenceFileInputFormat.class);
+      job.setMapperClass(NearBandMapper.class);
+      job.setMapOutputKeyClass(LongWritable.class);
+      job.setMapOutputValueClass(IndexDoc.class);
+      job.setSpeculativeExecution(false);
+
+      job.setReducerClass(NearReducer.class);
+      FileOutputFormat.setOutputPath(job, outDir3);
+
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(IndexDoc.class);
+      job.setOutputFormat(SequenceFileOutputFormat.class);
+
+      JobClient.runJob(job);
+    }
+
     // remove outDir1 - no longer needed
     fs.delete(outDir1, true);
     
@@ -476,6 +641,9 @@ public class DeleteDuplicates extends Configured
     job.setJobName("dedup 3: delete from index(es)");
 
     FileInputFormat.addInputPath(job, outDir2);
+    if (outDir3 != null) {
+      FileInputFormat.addInputPath(job, outDir3);
+    }
     job.setInputFormat(SequenceFileInputFormat.class);
     //job.setInputKeyClass(Text.class);
     //job.setInputValueClass(IndexDoc.class);
@@ -491,6 +659,9 @@ public class DeleteDuplicates extends Configured
     JobClient.runJob(job);
 
     fs.delete(outDir2, true);
+    if (outDir3 != null) {
+      fs.delete(outDir3, true);
+    }
 
     if (LOG.isInfoEnabled()) { LOG.info("Dedup: done"); }
   }
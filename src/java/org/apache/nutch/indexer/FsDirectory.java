@@ -28,8 +28,8 @@ import org.apache.hadoop.conf.Configuration;
 /** Reads a Lucene index stored in DFS. */
 public class FsDirectory extends Directory {
 
-  private FileSystem fs;
-  private Path directory;
+  protected FileSystem fs;
+  protected Path directory;
   private int ioFileBufferSize;
 
   public FsDirectory(FileSystem fs, Path directory, boolean create, Configuration conf)
@@ -150,7 +150,6 @@ public class FsDirectory extends Directory {
     /** Shared by clones. */
     private class Descriptor {
       public FSDataInputStream in;
-      public long position;                       // cache of in.getPos()
       public Descriptor(Path file, int ioFileBufferSize) throws IOException {
         this.in = fs.open(file);
       }
@@ -161,27 +160,19 @@ public class FsDirectory extends Directory {
     private boolean isClone;
 
     public DfsIndexInput(Path path, int ioFileBufferSize) throws IOException {
+      super(ioFileBufferSize);
       descriptor = new Descriptor(path,ioFileBufferSize);
       length = fs.getFileStatus(path).getLen();
     }
 
+    /** Uses a positional read, so that clones reading the same file in
+     * other threads don't have to wait for each other's seeks. */
     protected void readInternal(byte[] b, int offset, int len)
       throws IOException {
-      synchronized (descriptor) {
-        long position = getFilePointer();
-        if (position != descriptor.position) {
-          descriptor.in.seek(position);
-          descriptor.position = position;
-        }
-        int total = 0;
-        do {
-          int i = descriptor.in.read(b, offset+total, len-total);
-          if (i == -1)
-            throw new IOException("read past EOF");
-          descriptor.position += i;
-          total += i;
-        } while (total < len);
-      }
+      long position = getFilePointer();
+      if (position + len > length)
+        throw new IOException("read past EOF");
+      descriptor.in.readFully(position, b, offset, len);
     }
 
     public void close() throws IOException {
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Marks an index whose documents are sorted by decreasing boost, as written
+ * by {@link IndexSorter}, so that a search can stop early once no later
+ * document can score high enough.
+ *
+ * <p>The boost of a document is the norm of its <code>site</code> field.
+ * Lucene scores a term or phrase in a field as
+ * <code>weight * tf(freq) * norm(field, doc)</code>, so for each field the
+ * largest <code>tf(freq) * norm(field, doc) / boost(doc)</code> of any term
+ * is recorded, the field's maximum impact.  A query's score for a document
+ * is then at most its boost times the sum over the query's clauses of their
+ * weight times the maximum impact of their field.</p>
+ *
+ * <p>The marker is stored in the index directory with the version of the
+ * index it was computed for, so that it is ignored once the index
+ * changes.</p>
+ */
+public class ImpactOrder {
+
+  /** The name of the marker file in an index directory.  Lucene leaves
+   * files without an index extension alone. */
+  public static final String FILE_NAME = "impact.order";
+
+  /** The field whose norm is the boost of a document. */
+  public static final String BOOST_FIELD = "site";
+
+  private static final int FORMAT = 1;
+
+  private final long version;
+  private final Map<String, Float> maxImpacts;
+  private byte[] boostNorms;
+
+  private ImpactOrder(long version, Map<String, Float> maxImpacts) {
+    this.version = version;
+    this.maxImpacts = maxImpacts;
+  }
+
+  /** Returns the version of the index this was computed for. */
+  public long getVersion() { return version; }
+
+  /** Returns the maximum impact of a field, or zero if it has no terms. */
+  public float getMaxImpact(String field) {
+    Float impact = maxImpacts.get(field);
+    return impact == null ? 0.0f : impact.floatValue();
+  }
+
+  /** Returns the boost of a document, which is not greater than that of
+   * any earlier document. */
+  public float getBoost(int doc) {
+    return Similarity.decodeNorm(boostNorms[doc]);
+  }
+
+  /**
+   * Computes the maximum impacts of a sorted index, with one pass over all
+   * postings.
+   * @param reader an index sorted by {@link IndexSorter}
+   * @param similarity the similarity searches use
+   * @throws IOException if the index is not sorted by boost
+   */
+  public static ImpactOrder compute(IndexReader reader, Similarity similarity)
+    throws IOException {
+    if (!reader.hasNorms(BOOST_FIELD)) {
+      throw new IOException("Index has no " + BOOST_FIELD + " norms");
+    }
+    byte[] boostNorms = reader.norms(BOOST_FIELD);
+    float[] boosts = new float[boostNorms.length];
+    for (int doc = 0; doc < boosts.length; doc++) {
+      boosts[doc] = Similarity.decodeNorm(boostNorms[doc]);
+      if (doc > 0 && boosts[doc] > boosts[doc - 1]
+          && !reader.isDeleted(doc)) {
+        throw new IOException("Index is not sorted by boost at doc " + doc);
+      }
+    }
+
+    Map<String, Float> maxImpacts = new HashMap<String, Float>();
+    String field = null;
+    byte[] norms = null;
+    float max = 0.0f;
+    TermEnum terms = reader.terms();
+    TermDocs termDocs = reader.termDocs();
+    try {
+      while (terms.next()) {
+        Term term = terms.term();
+        if (term.field() != field) {              // fields are interned
+          if (field != null) {
+            maxImpacts.put(field, max);
+          }
+          field = term.field();
+          norms = reader.norms(field);
+          max = 0.0f;
+        }
+        termDocs.seek(terms);
+        while (termDocs.next()) {
+          int doc = termDocs.doc();
+          float norm = norms == null ? 1.0f : Similarity.decodeNorm(norms[doc]);
+          float impact = similarity.tf(termDocs.freq()) * norm;
+          if (impact > 0.0f) {
+            max = Math.max(max, boosts[doc] > 0.0f
+                           ? impact / boosts[doc] : Float.POSITIVE_INFINITY);
+          }
+        }
+      }
+      if (field != null) {
+        maxImpacts.put(field, max);
+      }
+    } finally {
+      termDocs.close();
+      terms.close();
+    }
+    return new ImpactOrder(reader.getVersion(), maxImpacts);
+  }
+
+  /** Writes this marker to an index directory. */
+  public void write(Directory directory) throws IOException {
+    IndexOutput out = directory.createOutput(FILE_NAME);
+    try {
+      out.writeInt(FORMAT);
+      out.writeLong(version);
+      out.writeVInt(maxImpacts.size());
+      for (Map.Entry<String, Float> entry : maxImpacts.entrySet()) {
+        out.writeString(entry.getKey());
+        out.writeInt(Float.floatToIntBits(entry.getValue()));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Returns the marker of an index, or null if it has none, or if it was
+   * computed for another version of the index. */
+  public static ImpactOrder read(IndexReader reader) throws IOException {
+    Directory directory = reader.directory();
+    if (!directory.fileExists(FILE_NAME)) {
+      return null;
+    }
+    IndexInput in = directory.openInput(FILE_NAME);
+    ImpactOrder order;
+    try {
+      if (in.readInt() != FORMAT) {
+        return null;
+      }
+      long version = in.readLong();
+      if (version != reader.getVersion()) {
+        return null;                              // changed since sorted
+      }
+      Map<String, Float> maxImpacts = new HashMap<String, Float>();
+      for (int i = in.readVInt(); i > 0; i--) {
+        String field = in.readString();
+        maxImpacts.put(field, Float.intBitsToFloat(in.readInt()));
+      }
+      order = new ImpactOrder(version, maxImpacts);
+    } finally {
+      in.close();
+    }
+    order.boostNorms = reader.norms(BOOST_FIELD);
+    return order.boostNorms == null ? null : order;
+  }
+}
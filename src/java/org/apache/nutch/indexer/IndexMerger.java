@@ -33,6 +33,7 @@ import org.apache.nutch.util.LogUtil;
 import org.apache.nutch.util.NutchConfiguration;
 
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.index.IndexWriter;
 
 /*************************************************************************
@@ -56,7 +57,9 @@ public class IndexMerger extends Configured implements Tool {
   }
   
   /**
-   * Merge all input indexes to the single output index
+   * Merge all input indexes to the single output index.  If
+   * <code>indexer.merge.sort</code> is set, the merged index is sorted by
+   * boost with {@link IndexSorter}, so that searches of it may stop early.
    */
   public void merge(Path[] indexes, Path outputIndex, Path localWorkingDir) throws IOException {
     LOG.info("merging indexes to: " + outputIndex);
@@ -76,6 +79,9 @@ public class IndexMerger extends Configured implements Tool {
 
     Path tmpLocalOutput = new Path(localWorkingDir, "merge-output");
     Path localOutput = fs.startLocalOutput(outputIndex, tmpLocalOutput);
+    boolean sort = getConf().getBoolean("indexer.merge.sort", false);
+    Path mergedOutput =
+      sort ? new Path(localWorkingDir, "merge-unsorted") : localOutput;
 
     Directory[] dirs = new Directory[indexes.length];
     for (int i = 0; i < indexes.length; i++) {
@@ -86,7 +92,7 @@ public class IndexMerger extends Configured implements Tool {
     //
     // Merge indices
     //
-    IndexWriter writer = new IndexWriter(localOutput.toString(), null, true);
+    IndexWriter writer = new IndexWriter(mergedOutput.toString(), null, true);
     writer.setMergeFactor(getConf().getInt("indexer.mergeFactor", IndexWriter.DEFAULT_MERGE_FACTOR));
     writer.setMaxBufferedDocs(getConf().getInt("indexer.minMergeDocs", IndexWriter.DEFAULT_MAX_BUFFERED_DOCS));
     writer.setMaxMergeDocs(getConf().getInt("indexer.maxMergeDocs", IndexWriter.DEFAULT_MAX_MERGE_DOCS));
@@ -97,6 +103,13 @@ public class IndexMerger extends Configured implements Tool {
     writer.addIndexes(dirs);
     writer.close();
 
+    if (sort) {
+      LOG.info("sorting merged index by boost");
+      new IndexSorter(getConf()).sort(
+          FSDirectory.getDirectory(mergedOutput.toString()),
+          FSDirectory.getDirectory(localOutput.toString()));
+    }
+
     //
     // Put target back
     //
@@ -113,7 +126,7 @@ public class IndexMerger extends Configured implements Tool {
   }
   
   public int run(String[] args) throws Exception {
-    String usage = "IndexMerger [-workingdir <workingdir>] outputIndex indexesDir...";
+    String usage = "IndexMerger [-workingdir <workingdir>] [-sort] outputIndex indexesDir...";
     if (args.length < 2) {
       System.err.println("Usage: " + usage);
       return -1;
@@ -131,6 +144,10 @@ public class IndexMerger extends Configured implements Tool {
       i++;
       workDir = new Path(args[i++], "indexmerger-" + System.currentTimeMillis());
     }
+    if ("-sort".equals(args[i])) {
+      i++;
+      getConf().setBoolean("indexer.merge.sort", true);
+    }
 
     Path outputIndex = new Path(args[i++]);
 
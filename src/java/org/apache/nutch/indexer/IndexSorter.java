@@ -260,19 +260,33 @@ public class IndexSorter extends Configured implements Tool {
   }
   
   public void sort(File directory) throws IOException {
+    sort(FSDirectory.getDirectory(new File(directory, "index")),
+         FSDirectory.getDirectory(new File(directory, "index-sorted")));
+  }
+
+  /** Writes a copy of an index sorted by boost, marked with its
+   * {@link ImpactOrder} so that searches of it can stop early. */
+  public void sort(Directory input, Directory output) throws IOException {
     LOG.info("IndexSorter: starting.");
     Date start = new Date();
     int termIndexInterval = getConf().getInt("indexer.termIndexInterval", 128);
-    IndexReader reader = IndexReader.open(new File(directory, "index"));
+    IndexReader reader = IndexReader.open(input);
 
     SortingReader sorter = new SortingReader(reader, oldToNew(reader));
-    IndexWriter writer = new IndexWriter(new File(directory, "index-sorted"),
-                                         null, true);
+    IndexWriter writer = new IndexWriter(output, null, true);
     writer.setTermIndexInterval
       (termIndexInterval);
     writer.setUseCompoundFile(false);
     writer.addIndexes(new IndexReader[] { sorter });
     writer.close();
+    reader.close();
+
+    IndexReader sorted = IndexReader.open(output);
+    try {
+      ImpactOrder.compute(sorted, new NutchSimilarity()).write(output);
+    } finally {
+      sorted.close();
+    }
     Date end = new Date();
     LOG.info("IndexSorter: done, " + (end.getTime() - start.getTime())
         + " total milliseconds");
@@ -58,6 +58,11 @@ public class HtmlParseFilters {
         }
     }                  
 
+  /** True if no filters are defined. */
+  public boolean isEmpty() {
+    return htmlParseFilters.length == 0;
+  }
+
   /** Run all defined filters. */
   public ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags, DocumentFragment doc) {
 
@@ -25,6 +25,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.oro.text.regex.MalformedPatternException;
 import org.apache.oro.text.regex.MatchResult;
 import org.apache.oro.text.regex.Pattern;
 import org.apache.oro.text.regex.PatternCompiler;
@@ -36,6 +37,10 @@ import org.apache.oro.text.regex.Perl5Matcher;
 /**
  * Extractor to extract {@link org.apache.nutch.parse.Outlink}s 
  * / URLs from plain text using Regular Expressions.
+ * <p>
+ * By default a hand-written scanner equivalent to the regular expression is
+ * used; set <code>parser.outlinks.regex</code> to use the regular expression
+ * itself.
  * 
  * @see <a
  *      href="http://wiki.java.net/bin/view/Javapedia/RegularExpressions">Comparison
@@ -82,14 +87,172 @@ public class OutlinkExtractor {
    * @return Array of <code>Outlink</code>s within found in plainText
    */
   public static Outlink[] getOutlinks(final String plainText, String anchor, Configuration conf) {
-    long start = System.currentTimeMillis();
+    if (conf != null && conf.getBoolean("parser.outlinks.regex", false)) {
+      return getOutlinksRegex(plainText, anchor);
+    }
+    return getOutlinksScanner(plainText, anchor);
+  }
+
+  /**
+   * Extracts outlinks with a hand-written scanner which finds exactly the
+   * same URLs as {@link #URL_PATTERN}.  Candidates are located by looking
+   * for the <code>':'</code> after a scheme, so text without any colons is
+   * skipped at the cost of a single pass.
+   */
+  static Outlink[] getOutlinksScanner(final String plainText, String anchor) {
+    if (plainText == null) {
+      return new Outlink[0];
+    }
     final List<Outlink> outlinks = new ArrayList<Outlink>();
+    final int length = plainText.length();
+    int pos = 0;                                  // end of the last match
+    int colon = plainText.indexOf(':', pos);
+    while (colon >= 0) {
+      int start = schemeStart(plainText, colon, pos);
+      int end = start < 0 ? -1 : urlEnd(plainText, colon + 1, length);
+      if (end < 0) {
+        colon = plainText.indexOf(':', colon + 1);
+        continue;
+      }
+      String url = plainText.substring(start, end);
+      try {
+        outlinks.add(new Outlink(url, anchor));
+      } catch (MalformedURLException mue) {
+        LOG.warn("Invalid url: '" + url + "', skipping.");
+      }
+      pos = end;
+      colon = plainText.indexOf(':', pos);
+    }
+    return outlinks.toArray(new Outlink[outlinks.size()]);
+  }
 
-    try {
+  /**
+   * Returns the leftmost start of a scheme which ends right before the colon
+   * at <code>colon</code> and does not start before <code>from</code>, or -1
+   * if there is none.  A scheme is a letter followed by 1 to 120 letters,
+   * digits, '+', '.' or '-'.
+   */
+  private static int schemeStart(String text, int colon, int from) {
+    int limit = Math.max(from, colon - 1 - MAX_SCHEME_TAIL);
+    int start = -1;
+    for (int i = colon - 1; i >= limit; i--) {
+      char c = text.charAt(i);
+      if (!isSchemeChar(c)) {
+        break;
+      }
+      if (i <= colon - 2 && isLetter(c)) {
+        start = i;
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Returns the end of the URL whose scheme-specific part starts at
+   * <code>pos</code>, or -1 if there is no valid URL there.
+   */
+  private static int urlEnd(String text, int pos, int length) {
+    if (pos >= length || !isFirstChar(text.charAt(pos))) {
+      return -1;
+    }
+    pos++;
+    int units = 0;
+    while (pos < length && units < MAX_PATH_UNITS) {
+      char c = text.charAt(pos);
+      if (isPathChar(c)) {
+        pos++;
+      } else if (c == '%' && pos + 2 < length
+                 && isHexDigit(text.charAt(pos + 1))
+                 && isHexDigit(text.charAt(pos + 2))) {
+        pos += 3;
+      } else {
+        break;
+      }
+      units++;
+    }
+    if (units == 0) {
+      return -1;
+    }
+    // optional fragment
+    if (pos + 1 < length && text.charAt(pos) == '#'
+        && isLetterOrDigit(text.charAt(pos + 1))) {
+      pos += 2;
+      int max = Math.min(length, pos + MAX_FRAGMENT_TAIL);
+      while (pos < max && isFragmentChar(text.charAt(pos))) {
+        pos++;
+      }
+    }
+    return pos;
+  }
+
+  private static final int MAX_SCHEME_TAIL = 120;
+  private static final int MAX_PATH_UNITS = 333;
+  private static final int MAX_FRAGMENT_TAIL = 1000;
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isLetterOrDigit(char c) {
+    return isLetter(c) || (c >= '0' && c <= '9');
+  }
+
+  private static boolean isHexDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+      || (c >= 'A' && c <= 'F');
+  }
+
+  private static boolean isSchemeChar(char c) {
+    return isLetterOrDigit(c) || c == '+' || c == '.' || c == '-';
+  }
+
+  private static boolean isFirstChar(char c) {
+    return isLetterOrDigit(c) || c == '/';
+  }
+
+  private static boolean isPathChar(char c) {
+    if (isLetterOrDigit(c)) {
+      return true;
+    }
+    switch (c) {
+    case '$': case '_': case '.': case '+': case '!': case '*': case ',':
+    case ';': case '/': case '?': case ':': case '@': case '&': case '~':
+    case '=': case '-':
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isFragmentChar(char c) {
+    return isPathChar(c) || c == '%';
+  }
+
+  /** The compiled {@link #URL_PATTERN}, which is read-only and can be
+   * shared by all threads. */
+  private static Pattern urlPattern;
+
+  private static synchronized Pattern getUrlPattern()
+    throws MalformedPatternException {
+    if (urlPattern == null) {
       final PatternCompiler cp = new Perl5Compiler();
-      final Pattern pattern = cp.compile(URL_PATTERN,
+      urlPattern = cp.compile(URL_PATTERN,
           Perl5Compiler.CASE_INSENSITIVE_MASK | Perl5Compiler.READ_ONLY_MASK
               | Perl5Compiler.MULTILINE_MASK);
+    }
+    return urlPattern;
+  }
+
+  /**
+   * Extracts outlinks by matching {@link #URL_PATTERN}.  Used if
+   * <code>parser.outlinks.regex</code> is set.
+   */
+  static Outlink[] getOutlinksRegex(final String plainText, String anchor) {
+    long start = System.currentTimeMillis();
+    final List<Outlink> outlinks = new ArrayList<Outlink>();
+
+    try {
+      final Pattern pattern = getUrlPattern();
       final PatternMatcher matcher = new Perl5Matcher();
 
       final PatternMatcherInput input = new PatternMatcherInput(plainText);
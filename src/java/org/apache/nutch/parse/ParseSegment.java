@@ -45,6 +45,8 @@ public class ParseSegment extends Configured implements Tool,
   public static final Log LOG = LogFactory.getLog(Parser.class);
   
   private ScoringFilters scfilters;
+
+  private long[] encodingTierCounts = EncodingDetector.getTierCounts();
   
   public ParseSegment() {
     this(null);
@@ -88,6 +90,8 @@ public class ParseSegment extends Configured implements Tool,
       return;
     }
 
+    reportEncodingTiers(reporter);
+
     for (Entry<Text, Parse> entry : parseResult) {
       Text url = entry.getKey();
       Parse parse = entry.getValue();
@@ -121,6 +125,19 @@ public class ParseSegment extends Configured implements Tool,
     }
   }
 
+  /** Reports which encoding detection tiers decided since the last call. */
+  private void reportEncodingTiers(Reporter reporter) {
+    long[] counts = EncodingDetector.getTierCounts();
+    EncodingDetector.Tier[] tiers = EncodingDetector.Tier.values();
+    for (int i = 0; i < counts.length; i++) {
+      long delta = counts[i] - encodingTierCounts[i];
+      if (delta > 0) {
+        reporter.incrCounter(tiers[i], delta);
+      }
+    }
+    encodingTierCounts = counts;
+  }
+
   public void reduce(Text key, Iterator<Writable> values,
                      OutputCollector<Text, Writable> output, Reporter reporter)
     throws IOException {
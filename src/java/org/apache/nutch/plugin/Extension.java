@@ -17,6 +17,7 @@
 package org.apache.nutch.plugin;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configurable;
@@ -76,6 +77,13 @@ public class Extension {
     return fAttributes.get(pKey);
   }
 
+  /**
+   * Returns all attributes of this extension.
+   */
+  Map<String, String> getAttributes() {
+    return fAttributes;
+  }
+
   /**
    * Returns the full class name of the extension point implementation
    * 
@@ -223,6 +223,15 @@ public class PluginDescriptor {
     fExportedLibs.add(url);
   }
 
+  /**
+   * Adds a exported library URL, as read from a {@link PluginSnapshot}.
+   * 
+   * @param pUrl
+   */
+  void addExportedLibUrl(URL pUrl) {
+    fExportedLibs.add(pUrl);
+  }
+
   /**
    * Returns the directory path of the plugin.
    * 
@@ -252,6 +261,15 @@ public class PluginDescriptor {
     fNotExportedLibs.add(url);
   }
 
+  /**
+   * Adds a not exported library URL, as read from a {@link PluginSnapshot}.
+   * 
+   * @param pUrl
+   */
+  void addNotExportedLibUrl(URL pUrl) {
+    fNotExportedLibs.add(pUrl);
+  }
+
   /**
    * Returns a array of libraries as URLs that are not exported by the plugin.
    * 
@@ -265,10 +283,12 @@ public class PluginDescriptor {
    * Returns a cached classloader for a plugin. Until classloader creation all
    * needed libraries are collected. A classloader use as first the plugins own
    * libraries and add then all exported libraries of dependend plugins.
+   * The classloader is only created when the plugin is used for the first
+   * time.
    * 
    * @return PluginClassLoader the classloader for the plugin
    */
-  public PluginClassLoader getClassLoader() {
+  public synchronized PluginClassLoader getClassLoader() {
     if (fClassLoader != null)
       return fClassLoader;
     ArrayList<URL> arrayList = new ArrayList<URL>();
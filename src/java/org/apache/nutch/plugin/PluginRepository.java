@@ -40,6 +40,10 @@ import org.apache.nutch.util.NutchConfiguration;
  * instance will be created later when it is required, this allow lazy plugin
  * loading.
  * 
+ * The registered plugins are cached in a {@link PluginSnapshot} (see property
+ * <code>plugin.snapshot.file</code>), so that new JVMs do not need to parse
+ * the manifest files again as long as the plugins did not change.
+ * 
  * @author joa23
  */
 public class PluginRepository {
@@ -66,16 +70,27 @@ public class PluginRepository {
     fExtensionPoints = new HashMap<String, ExtensionPoint>();
     this.conf = conf;
     this.auto = conf.getBoolean("plugin.auto-activation", true);
-    String[] pluginFolders = conf.getStrings("plugin.folders");
-    PluginManifestParser manifestParser = new PluginManifestParser(conf, this);
-    Map<String, PluginDescriptor> allPlugins = manifestParser
-        .parsePluginFolder(pluginFolders);
-    Pattern excludes = Pattern.compile(conf.get("plugin.excludes", ""));
-    Pattern includes = Pattern.compile(conf.get("plugin.includes", ""));
-    Map<String, PluginDescriptor> filteredPlugins = filter(excludes, includes,
-        allPlugins);
-    fRegisteredPlugins = getDependencyCheckedPlugins(filteredPlugins,
-        this.auto ? allPlugins : filteredPlugins);
+    long start = System.currentTimeMillis();
+    PluginSnapshot snapshot = PluginSnapshot.get(conf);
+    if (snapshot != null) {
+      fRegisteredPlugins = snapshot.read(conf, this);
+    }
+    boolean fromSnapshot = fRegisteredPlugins != null;
+    if (!fromSnapshot) {
+      String[] pluginFolders = conf.getStrings("plugin.folders");
+      PluginManifestParser manifestParser = new PluginManifestParser(conf, this);
+      Map<String, PluginDescriptor> allPlugins = manifestParser
+          .parsePluginFolder(pluginFolders);
+      Pattern excludes = Pattern.compile(conf.get("plugin.excludes", ""));
+      Pattern includes = Pattern.compile(conf.get("plugin.includes", ""));
+      Map<String, PluginDescriptor> filteredPlugins = filter(excludes, includes,
+          allPlugins);
+      fRegisteredPlugins = getDependencyCheckedPlugins(filteredPlugins,
+          this.auto ? allPlugins : filteredPlugins);
+      if (snapshot != null) {
+        snapshot.write(fRegisteredPlugins);
+      }
+    }
     installExtensionPoints(fRegisteredPlugins);
     try {
       installExtensions(fRegisteredPlugins);
@@ -83,6 +98,11 @@ public class PluginRepository {
         LOG.fatal(e.toString());
       throw new RuntimeException(e.getMessage());
     }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Plugins: loaded " + fRegisteredPlugins.size() + " plugins "
+          + (fromSnapshot ? "from snapshot " + snapshot.getFile() : "from manifests")
+          + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
     displayStatus();
   }
 
@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * A serialized snapshot of the registered plugins of a
+ * {@link PluginRepository}. Loading the snapshot avoids parsing all plugin
+ * manifests and resolving plugin dependencies in every new JVM.
+ *
+ * The snapshot is only used if it was written for the same plugin related
+ * configuration (<code>plugin.folders</code>, <code>plugin.includes</code>,
+ * <code>plugin.excludes</code> and <code>plugin.auto-activation</code>), and
+ * if the plugin directories and the modification times of their manifest
+ * files did not change since then. Otherwise the plugin folders are parsed
+ * as usual and the snapshot is rewritten.
+ */
+public class PluginSnapshot {
+
+  public static final Log LOG = PluginRepository.LOG;
+
+  /** Property naming the snapshot file. */
+  public static final String SNAPSHOT_FILE_KEY = "plugin.snapshot.file";
+
+  private static final int VERSION = 1;
+
+  private static final String[] CONF_KEYS = { "plugin.folders",
+    "plugin.includes", "plugin.excludes", "plugin.auto-activation" };
+
+  private File file;
+
+  private MD5Hash confHash;
+
+  private MD5Hash folderHash;
+
+  private PluginSnapshot(File file, MD5Hash confHash, MD5Hash folderHash) {
+    this.file = file;
+    this.confHash = confHash;
+    this.folderHash = folderHash;
+  }
+
+  /**
+   * Returns the snapshot for a configuration, or <code>null</code> if
+   * snapshots are disabled. A relative snapshot file name is resolved
+   * against <code>hadoop.tmp.dir</code>, so that snapshots are never written
+   * into the plugin folders, e.g. of the source tree.
+   */
+  public static PluginSnapshot get(Configuration conf) {
+    String name = conf.get(SNAPSHOT_FILE_KEY, "");
+    String[] folders = conf.getStrings("plugin.folders");
+    if (name.length() == 0 || folders == null) {
+      return null;
+    }
+    PluginManifestParser parser = new PluginManifestParser(conf, null);
+    List<File> directories = new ArrayList<File>();
+    for (String folder : folders) {
+      File directory = parser.getPluginFolder(folder);
+      if (directory != null) {
+        directories.add(directory);
+      }
+    }
+    File file = new File(name);
+    if (!file.isAbsolute()) {
+      file = new File(conf.get("hadoop.tmp.dir", "/tmp"), name);
+    }
+    StringBuilder buf = new StringBuilder();
+    for (String key : CONF_KEYS) {
+      buf.append(key).append('=').append(conf.get(key)).append('\n');
+    }
+    MD5Hash confHash = MD5Hash.digest(buf.toString());
+    buf.setLength(0);
+    for (File directory : directories) {
+      buf.append(directory.getAbsolutePath()).append('\n');
+      File[] subFolders = directory.listFiles();
+      if (subFolders == null) {
+        continue;
+      }
+      Arrays.sort(subFolders);
+      for (File subFolder : subFolders) {
+        if (!subFolder.isDirectory()) {
+          continue;
+        }
+        File manifest = new File(subFolder, "plugin.xml");
+        buf.append(subFolder.getName()).append(' ')
+          .append(manifest.lastModified()).append(' ')
+          .append(manifest.length()).append('\n');
+      }
+    }
+    MD5Hash folderHash = MD5Hash.digest(buf.toString());
+    return new PluginSnapshot(file, confHash, folderHash);
+  }
+
+  /** Returns the snapshot file. */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Reads the registered plugins from the snapshot file.
+   *
+   * @return the registered plugins, or <code>null</code> if the snapshot
+   *         does not exist or is not valid any more.
+   */
+  public List<PluginDescriptor> read(Configuration conf,
+      PluginRepository repository) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          return null;
+        }
+        MD5Hash hash = new MD5Hash();
+        hash.readFields(in);
+        if (!hash.equals(confHash)) {
+          LOG.info("Plugins: configuration changed, ignoring snapshot " + file);
+          return null;
+        }
+        hash.readFields(in);
+        if (!hash.equals(folderHash)) {
+          LOG.info("Plugins: plugin folders changed, ignoring snapshot " + file);
+          return null;
+        }
+        int count = in.readInt();
+        List<PluginDescriptor> plugins = new ArrayList<PluginDescriptor>(count);
+        for (int i = 0; i < count; i++) {
+          plugins.add(readPlugin(in, conf, repository));
+        }
+        return plugins;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Plugins: can't read snapshot " + file + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the registered plugins to the snapshot file. The file is
+   * replaced atomically, so concurrent readers never see a partial snapshot.
+   * Errors are only logged, as the snapshot is an optimization.
+   */
+  public void write(List<PluginDescriptor> plugins) {
+    file.getParentFile().mkdirs();
+    File tmp = new File(file.getParentFile(), "." + file.getName() + "."
+        + Long.toHexString(System.nanoTime()));
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmp)));
+      try {
+        out.writeInt(VERSION);
+        confHash.write(out);
+        folderHash.write(out);
+        out.writeInt(plugins.size());
+        for (PluginDescriptor plugin : plugins) {
+          writePlugin(out, plugin);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          throw new IOException("can't rename " + tmp);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Plugins: can't write snapshot " + file + ": " + e);
+      tmp.delete();
+    }
+  }
+
+  private static void writePlugin(DataOutputStream out, PluginDescriptor plugin)
+      throws IOException {
+    writeString(out, plugin.getPluginId());
+    writeString(out, plugin.getVersion());
+    writeString(out, plugin.getName());
+    writeString(out, plugin.getProviderName());
+    writeString(out, plugin.getPluginClass());
+    writeString(out, plugin.getPluginPath());
+    String[] dependencies = plugin.getDependencies();
+    out.writeInt(dependencies.length);
+    for (String dependency : dependencies) {
+      writeString(out, dependency);
+    }
+    writeUrls(out, plugin.getExportedLibUrls());
+    writeUrls(out, plugin.getNotExportedLibUrls());
+    ExtensionPoint[] points = plugin.getExtenstionPoints();
+    out.writeInt(points.length);
+    for (ExtensionPoint point : points) {
+      writeString(out, point.getId());
+      writeString(out, point.getName());
+      writeString(out, point.getSchema());
+    }
+    Extension[] extensions = plugin.getExtensions();
+    out.writeInt(extensions.length);
+    for (Extension extension : extensions) {
+      writeString(out, extension.getTargetPoint());
+      writeString(out, extension.getId());
+      writeString(out, extension.getClazz());
+      Map<String, String> attributes = extension.getAttributes();
+      out.writeInt(attributes.size());
+      for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+        writeString(out, attribute.getKey());
+        writeString(out, attribute.getValue());
+      }
+    }
+  }
+
+  private static PluginDescriptor readPlugin(DataInputStream in,
+      Configuration conf, PluginRepository repository) throws IOException {
+    String id = readString(in);
+    String version = readString(in);
+    String name = readString(in);
+    String providerName = readString(in);
+    String pluginClass = readString(in);
+    String path = readString(in);
+    PluginDescriptor plugin = new PluginDescriptor(id, version, name,
+        providerName, pluginClass, path, conf);
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      plugin.addDependency(readString(in));
+    }
+    count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      plugin.addExportedLibUrl(new URL(readString(in)));
+    }
+    count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      plugin.addNotExportedLibUrl(new URL(readString(in)));
+    }
+    count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      plugin.addExtensionPoint(new ExtensionPoint(readString(in),
+          readString(in), readString(in)));
+    }
+    count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String point = readString(in);
+      String extensionId = readString(in);
+      String clazz = readString(in);
+      Extension extension = new Extension(plugin, point, extensionId, clazz,
+          conf, repository);
+      int attributes = in.readInt();
+      for (int j = 0; j < attributes; j++) {
+        extension.addAttribute(readString(in), readString(in));
+      }
+      plugin.addExtension(extension);
+    }
+    return plugin;
+  }
+
+  private static void writeUrls(DataOutputStream out, URL[] urls)
+      throws IOException {
+    out.writeInt(urls.length);
+    for (URL url : urls) {
+      writeString(out, url.toString());
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Measures the time to build a plugin repository, with and without the
+   * snapshot.
+   */
+  public static void main(String[] args) throws Exception {
+    int repeat = 10;
+    for (int i = 0; i < args.length; i++) {
+      if ("-repeat".equals(args[i])) {
+        repeat = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: PluginSnapshot [-repeat n]");
+        return;
+      }
+    }
+    Configuration conf = NutchConfiguration.create();
+    String name = conf.get(SNAPSHOT_FILE_KEY, "");
+    if (name.length() == 0) {
+      System.err.println(SNAPSHOT_FILE_KEY + " is not set");
+      return;
+    }
+    // warm up and write the snapshot
+    new PluginRepository(conf);
+    Configuration noSnapshot = new Configuration(conf);
+    noSnapshot.set(SNAPSHOT_FILE_KEY, "");
+    long parseTime = 0;
+    long snapshotTime = 0;
+    for (int i = 0; i < repeat; i++) {
+      long start = System.currentTimeMillis();
+      new PluginRepository(noSnapshot);
+      parseTime += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      new PluginRepository(conf);
+      snapshotTime += System.currentTimeMillis() - start;
+    }
+    System.out.println("manifests: " + (parseTime / repeat)
+        + " ms, snapshot: " + (snapshotTime / repeat) + " ms");
+  }
+}
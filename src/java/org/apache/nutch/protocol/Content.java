@@ -126,6 +126,24 @@ public final class Content implements Writable{
   }
   
   public final void readFields(DataInput in) throws IOException {
+    readFields(in, null);
+  }
+
+  /**
+   * Reads the content and the values of one metadata name, skipping the
+   * other metadata without decoding it, e.g. to serve the content with its
+   * original <code>Content-Type</code>.  Older, compressed records are read
+   * whole.
+   *
+   * @param name the metadata to read, or null to read all
+   */
+  public static Content read(DataInput in, String name) throws IOException {
+    Content content = new Content();
+    content.readFields(in, name);
+    return content;
+  }
+
+  private void readFields(DataInput in, String name) throws IOException {
     metadata.clear();
     int sizeOrVersion = in.readInt();
     if (sizeOrVersion < 0) { // version
@@ -139,7 +157,11 @@ public final class Content implements Writable{
         in.readFully(content);
 
         contentType = Text.readString(in);
-        metadata.readFields(in);
+        if (name == null) {
+          metadata.readFields(in);
+        } else {
+          readMetadata(in, name);
+        }
         break;
       default:
         throw new VersionMismatchException((byte)VERSION, (byte)version);
@@ -154,6 +176,22 @@ public final class Content implements Writable{
     }
   }
 
+  /** Reads serialized metadata, keeping only the values of a name. */
+  private void readMetadata(DataInput in, String name) throws IOException {
+    int keySize = in.readInt();
+    for (int i = 0; i < keySize; i++) {
+      boolean keep = name.equals(Text.readString(in));
+      int valueSize = in.readInt();
+      for (int j = 0; j < valueSize; j++) {
+        if (keep) {
+          metadata.add(name, Text.readString(in));
+        } else {
+          Text.skip(in);
+        }
+      }
+    }
+  }
+
   public final void write(DataOutput out) throws IOException {
     out.writeInt(VERSION);
 
@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.nutch.indexer.FsDirectory;
+
+/**
+ * Reads an index stored in DFS for searching.  Files with one of the
+ * extensions in <code>searcher.fs.local.extensions</code>, e.g. the term
+ * dictionary and norms, are copied to <code>searcher.fs.local.dir</code> and
+ * read from there.  Other files are read in blocks of
+ * <code>searcher.fs.block.size</code> bytes with positional reads, keeping
+ * the most recently used blocks in a block cache, which may be shared by
+ * several directories.
+ */
+class CachingFsDirectory extends FsDirectory {
+
+  public static final Log LOG = LogFactory.getLog(CachingFsDirectory.class);
+
+  private final int blockSize;
+  private final WeightedCache<Long, byte[]> blocks;
+
+  /** Numbers opened files, so that they have distinct blocks in a shared
+   * cache. */
+  private static final AtomicInteger nextFileId = new AtomicInteger();
+
+  private final File localDir;
+  private final Set<String> localExtensions;
+  private final long localMaxBytes;
+  private final Set<String> localFiles = new HashSet<String>();
+  private long localBytes;
+
+  /** Returns a block cache bounded by
+   * <code>searcher.fs.block.cache.max.bytes</code>. */
+  static WeightedCache<Long, byte[]> createBlockCache(Configuration conf) {
+    return new WeightedCache<Long, byte[]>(Integer.MAX_VALUE,
+        conf.getLong("searcher.fs.block.cache.max.bytes", 64 * 1024 * 1024));
+  }
+
+  /**
+   * @param blocks the block cache, e.g. shared by all indexes of a searcher
+   */
+  CachingFsDirectory(FileSystem fs, Path directory,
+                     WeightedCache<Long, byte[]> blocks, Configuration conf)
+    throws IOException {
+    super(fs, directory, false, conf);
+    this.blockSize = conf.getInt("searcher.fs.block.size", 64 * 1024);
+    this.blocks = blocks;
+
+    String local = conf.get("searcher.fs.local.dir");
+    String[] extensions = conf.getStrings("searcher.fs.local.extensions");
+    this.localExtensions = new HashSet<String>();
+    if (extensions != null) {
+      localExtensions.addAll(Arrays.asList(extensions));
+    }
+    this.localMaxBytes = conf.getLong("searcher.fs.local.max.bytes",
+                                      1024L * 1024 * 1024);
+    if (local == null || local.length() == 0) {
+      this.localDir = null;
+    } else {
+      // one local directory per index, named after its path
+      String name = directory.makeQualified(fs).toString()
+        .replaceAll("[^A-Za-z0-9._-]", "_");
+      this.localDir = new File(local, name);
+      if (!localDir.isDirectory() && !localDir.mkdirs()) {
+        throw new IOException("Cannot create " + localDir);
+      }
+      removeStaleCopies();
+    }
+  }
+
+  /** Deletes local copies of files which are no longer in the index. */
+  private void removeStaleCopies() throws IOException {
+    Set<String> names = new HashSet<String>(Arrays.asList(list()));
+    File[] copies = localDir.listFiles();
+    for (int i = 0; copies != null && i < copies.length; i++) {
+      if (!names.contains(copies[i].getName())) {
+        copies[i].delete();
+      }
+    }
+  }
+
+  public IndexInput openInput(String name) throws IOException {
+    File copy = getLocalCopy(name);
+    if (copy != null) {
+      return new LocalIndexInput(copy, blockSize);
+    }
+    // blocks are cached per opened file, as segments.gen is rewritten
+    Path file = new Path(directory, name);
+    return new BlockIndexInput(fs.open(file), fs.getFileStatus(file).getLen(),
+                               nextFileId.getAndIncrement());
+  }
+
+  /** Returns the local copy of a file, copying it first, or null if the file
+   * is not to be copied. */
+  private synchronized File getLocalCopy(String name) throws IOException {
+    int dot = name.lastIndexOf('.');
+    if (localDir == null || dot < 0
+        || !localExtensions.contains(name.substring(dot + 1))) {
+      return null;
+    }
+    File copy = new File(localDir, name);
+    if (localFiles.contains(name)) {
+      return copy;
+    }
+    long length = fileLength(name);
+    if (localBytes + length > localMaxBytes) {
+      return null;
+    }
+    if (copy.length() != length) {               // index files never change
+      File tmp = new File(localDir, name + ".tmp");
+      fs.copyToLocalFile(new Path(directory, name), new Path(tmp.getPath()));
+      new File(localDir, "." + tmp.getName() + ".crc").delete();
+      if (!tmp.renameTo(copy)) {
+        throw new IOException("Cannot rename " + tmp + " to " + copy);
+      }
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Copied " + new Path(directory, name) + " to " + copy);
+      }
+    }
+    localFiles.add(name);
+    localBytes += length;
+    return copy;
+  }
+
+  public String toString() {
+    return super.toString() + ", blocks: " + blocks;
+  }
+
+  /** Reads through the block cache.  Clones share the stream. */
+  private class BlockIndexInput extends BufferedIndexInput {
+    private final FSDataInputStream in;
+    private final long length;
+    private final long fileId;
+    private boolean isClone;
+
+    BlockIndexInput(FSDataInputStream in, long length, int fileId) {
+      super(blockSize);
+      this.in = in;
+      this.length = length;
+      this.fileId = (long)fileId << 32;
+    }
+
+    protected void readInternal(byte[] b, int offset, int len)
+      throws IOException {
+      long position = getFilePointer();
+      if (position + len > length) {
+        throw new IOException("read past EOF");
+      }
+      while (len > 0) {
+        long block = position / blockSize;
+        int blockOffset = (int)(position - block * blockSize);
+        byte[] data = getBlock(block);
+        int count = Math.min(len, data.length - blockOffset);
+        System.arraycopy(data, blockOffset, b, offset, count);
+        position += count;
+        offset += count;
+        len -= count;
+      }
+    }
+
+    private byte[] getBlock(long block) throws IOException {
+      Long key = fileId | block;
+      byte[] data = blocks.get(key);
+      if (data == null) {
+        long start = block * blockSize;
+        data = new byte[(int)Math.min(blockSize, length - start)];
+        in.readFully(start, data, 0, data.length);
+        blocks.put(key, data, WeightedCache.OBJECT_OVERHEAD + data.length);
+      }
+      return data;
+    }
+
+    protected void seekInternal(long position) {} // handled in readInternal()
+
+    public long length() {
+      return length;
+    }
+
+    public void close() throws IOException {
+      if (!isClone) {
+        in.close();
+      }
+    }
+
+    public Object clone() {
+      BlockIndexInput clone = (BlockIndexInput)super.clone();
+      clone.isClone = true;
+      return clone;
+    }
+  }
+
+  /** Reads a local file with positional reads, which clones in other
+   * threads don't have to wait for. */
+  private static class LocalIndexInput extends BufferedIndexInput {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private boolean isClone;
+
+    LocalIndexInput(File path, int bufferSize) throws IOException {
+      super(bufferSize);
+      this.file = new RandomAccessFile(path, "r");
+      this.channel = file.getChannel();
+      this.length = file.length();
+    }
+
+    protected void readInternal(byte[] b, int offset, int len)
+      throws IOException {
+      long position = getFilePointer();
+      if (position + len > length) {
+        throw new IOException("read past EOF");
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, offset, len);
+      while (buffer.hasRemaining()) {
+        int count = channel.read(buffer, position);
+        if (count < 0) {
+          throw new IOException("read past EOF");
+        }
+        position += count;
+      }
+    }
+
+    protected void seekInternal(long position) {} // handled in readInternal()
+
+    public long length() {
+      return length;
+    }
+
+    public void close() throws IOException {
+      if (!isClone) {
+        file.close();
+      }
+    }
+
+    public Object clone() {
+      LocalIndexInput clone = (LocalIndexInput)super.clone();
+      clone.isClone = true;
+      return clone;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.lucene.search.HitCollector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+/** Collects the top-scoring hits of a query, keeping at most
+ * <code>maxHitsPerDup</code> hits with the same value of a dedup field.  The
+ * dedup values are taken from the field cache, so the deduplicated top hits
+ * are found in a single pass over the index, instead of searching again with
+ * prohibited terms for the excluded values. */
+class DedupCollector extends HitCollector {
+
+  /** The top docs found by a {@link DedupCollector}. */
+  static class DedupTopDocs extends TopDocs {
+    /** Per hit, true if lower-scoring hits with its dedup value were
+     * excluded. */
+    final boolean[] moreFromDupExcluded;
+    /** True if any hit was excluded. */
+    final boolean excluded;
+
+    DedupTopDocs(int totalHits, ScoreDoc[] scoreDocs, float maxScore,
+                 boolean[] moreFromDupExcluded, boolean excluded) {
+      super(totalHits, scoreDocs, maxScore);
+      this.moreFromDupExcluded = moreFromDupExcluded;
+      this.excluded = excluded;
+    }
+  }
+
+  private static class Entry extends ScoreDoc implements Comparable<Entry> {
+    private final Group group;
+
+    Entry(int doc, float score, Group group) {
+      super(doc, score);
+      this.group = group;
+    }
+
+    /** Orders worse hits first: lower score, then later doc. */
+    public int compareTo(Entry other) {
+      if (score != other.score) {
+        return score < other.score ? -1 : 1;
+      }
+      return other.doc - doc;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class Group extends ArrayList<Entry> {
+    /** The best hit excluded from this group. */
+    private Entry excluded;
+
+    void exclude(Entry entry) {
+      if (excluded == null || entry.compareTo(excluded) > 0) {
+        excluded = entry;
+      }
+    }
+  }
+
+  private final int numHits;
+  private final int maxHitsPerDup;
+  private final String[] dedupValues;
+
+  private final TreeSet<Entry> top = new TreeSet<Entry>();
+  private final Map<String, Group> groups = new HashMap<String, Group>();
+  private int totalHits;
+  private float maxScore = Float.NEGATIVE_INFINITY;
+
+  /**
+   * @param numHits number of hits to collect
+   * @param maxHitsPerDup maximum number of hits with the same dedup value
+   * @param dedupValues dedup value of each document, from the field cache
+   */
+  DedupCollector(int numHits, int maxHitsPerDup, String[] dedupValues) {
+    this.numHits = numHits;
+    this.maxHitsPerDup = maxHitsPerDup;
+    this.dedupValues = dedupValues;
+  }
+
+  public void collect(int doc, float score) {
+    if (score <= 0.0f) {
+      return;
+    }
+    totalHits++;
+    if (score > maxScore) {
+      maxScore = score;
+    }
+    add(doc, score);
+  }
+
+  /** Collects the top hits of another collector with the same parameters,
+   * which collected other documents, e.g. another slice of the index.  The
+   * best excluded hit of each of its groups is collected too, so that hits
+   * are marked as excluding others as if both had collected together. */
+  void collect(DedupCollector other) {
+    totalHits += other.totalHits;
+    if (other.maxScore > maxScore) {
+      maxScore = other.maxScore;
+    }
+    for (Entry entry : other.top) {
+      add(entry.doc, entry.score);
+    }
+    for (Group group : other.groups.values()) {
+      if (group.excluded != null) {
+        add(group.excluded.doc, group.excluded.score);
+      }
+    }
+  }
+
+  private void add(int doc, float score) {
+    if (top.size() >= numHits) {
+      Entry worst = top.first();
+      if (score < worst.score || (score == worst.score && doc > worst.doc)) {
+        return;                                   // not among the top hits
+      }
+    }
+
+    String value = dedupValues[doc];
+    if (value == null) {
+      value = "";
+    }
+    Group group = groups.get(value);
+    if (group == null) {
+      groups.put(value, group = new Group());
+    }
+
+    Entry entry = new Entry(doc, score, group);
+    if (group.size() >= maxHitsPerDup) {
+      Entry groupWorst = group.get(0);
+      for (int i = 1; i < group.size(); i++) {
+        if (group.get(i).compareTo(groupWorst) < 0) {
+          groupWorst = group.get(i);
+        }
+      }
+      if (entry.compareTo(groupWorst) < 0) {
+        group.exclude(entry);                     // worse than its group
+        return;
+      }
+      group.remove(groupWorst);                   // replace the group's worst
+      top.remove(groupWorst);
+      group.exclude(groupWorst);
+    }
+
+    group.add(entry);
+    top.add(entry);
+    if (top.size() > numHits) {                   // drop the overall worst
+      Entry worst = top.first();
+      top.remove(worst);
+      worst.group.remove(worst);
+    }
+  }
+
+  /** Returns the number of hits collected. */
+  int getTotalHits() {
+    return totalHits;
+  }
+
+  /** Returns the lowest score of the top hits, or negative infinity until
+   * there are <code>numHits</code> of them.  Later documents with at most
+   * this score are not collected. */
+  float minScore() {
+    return top.size() < numHits
+      ? Float.NEGATIVE_INFINITY : top.first().score;
+  }
+
+  /** Returns the top hits, best first.  Only hits excluded in favour of
+   * better hits with the same value count as excluded, not those which
+   * would not have been among the top hits anyway. */
+  DedupTopDocs topDocs() {
+    Entry threshold = top.size() >= numHits ? top.first() : null;
+    ScoreDoc[] scoreDocs = new ScoreDoc[top.size()];
+    boolean[] moreFromDupExcluded = new boolean[scoreDocs.length];
+    boolean excluded = false;
+    Iterator<Entry> i = top.iterator();
+    for (int n = scoreDocs.length - 1; n >= 0; n--) {
+      Entry entry = i.next();
+      Entry groupExcluded = entry.group.excluded;
+      scoreDocs[n] = entry;
+      moreFromDupExcluded[n] = groupExcluded != null
+        && (threshold == null || groupExcluded.compareTo(threshold) > 0);
+      excluded |= moreFromDupExcluded[n];
+    }
+    return new DedupTopDocs(totalHits, scoreDocs,
+                            totalHits == 0 ? Float.NaN : maxScore,
+                            moreFromDupExcluded, excluded);
+  }
+}
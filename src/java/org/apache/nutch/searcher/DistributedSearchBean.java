@@ -24,13 +24,20 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -38,140 +45,331 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.util.StringUtils;
 
+/** Searches a number of index shards in parallel and merges their results.
+ *
+ * Every line of <code>search-servers.txt</code> lists the servers of one
+ * shard as <code>host port</code> pairs, and every line of
+ * <code>solr-servers.txt</code> lists the URLs of one shard.  The servers
+ * of a shard are replicas serving the same index.  Each request goes to the
+ * live replica with the lowest moving average of recent response times.  If
+ * it has not answered after the <code>searcher.distributed.hedge.percentile</code>
+ * of the response times of its shard, the request is also sent to the next
+ * replica, and the first answer is used.  A replica which fails is taken
+ * out of rotation until it answers a ping again, and its request is retried
+ * on another replica.
+ *
+ * Unique keys of hits are only valid on the replica which found them, e.g.
+ * Lucene document numbers.  The keys of hits from shards with several
+ * replicas are therefore prefixed with the number of that replica and
+ * <code>'@'</code>, and details and explanations of a hit are requested
+ * from that replica.  Another replica is only asked if it fails.
+ *
+ * Every request creates its own tasks, which are run by a bounded thread
+ * pool configured by <code>searcher.distributed.threads</code> and
+ * <code>searcher.distributed.queue.size</code>.  When the pool and its queue
+ * are full, further tasks are rejected and their shards are skipped for
+ * that request.  Shards which do not answer within
+ * <code>searcher.distributed.timeout</code>, fail on all their replicas or
+ * have no live replica are skipped as well, so that a search returns the
+ * partial results of the other shards, with
+ * {@link Hits#totalIsExact()} and {@link Hits#isComplete()} false.
+ *
+ * A search with a deadline waits for the shards until the deadline, if that
+ * is sooner than the timeout.  The shards are asked to stop searching
+ * <code>searcher.distributed.deadline.margin</code> milliseconds earlier,
+ * so that the best hits they found by then arrive in time.  A search without
+ * a deadline passes none to the shards.
+ */
 public class DistributedSearchBean implements SearchBean {
 
-  private static final ExecutorService executor =
-    Executors.newCachedThreadPool();
+  /** Minimum number of response times of a shard before hedging. */
+  private static final int MIN_HEDGE_SAMPLES = 20;
 
-  private final ScheduledExecutorService pingService;
+  /** Separates the replica number from the key of a hit. */
+  private static final char REPLICA_SEPARATOR = '@';
 
-  private class SearchTask implements Callable<Hits> {
-    private int id;
+  private final ThreadPoolExecutor executor;
 
-    private Query query;
-    private int numHits;
-    private String dedupField;
-    private String sortField;
-    private boolean reverse;
+  private final ScheduledExecutorService pingService;
 
-    public SearchTask(int id) {
-      this.id = id;
+  /** A server of a shard. */
+  private class Replica {
+    private final SearchBean bean;
+    private volatile boolean live = true;
+    private double average;                       // guarded by this
+    private long responses;                       // guarded by this
+
+    Replica(SearchBean bean) {
+      this.bean = bean;
     }
 
-    public Hits call() throws Exception {
-      if (!liveServers[id]) {
-        return null;
-      }
-      return beans[id].search(query, numHits, dedupField, sortField, reverse);
+    synchronized void addResponseTime(long millis) {
+      average = responses == 0 ? millis : average + alpha * (millis - average);
+      responses++;
     }
 
-    public void setSearchArgs(Query query, int numHits, String dedupField,
-                              String sortField, boolean reverse) {
-      this.query = query;
-      this.numHits = numHits;
-      this.dedupField = dedupField;
-      this.sortField = sortField;
-      this.reverse = reverse;
+    synchronized double getAverage() {
+      return average;
     }
 
+    public String toString() {
+      return bean + (live ? "" : " (dead)") + ", average=" + getAverage();
+    }
   }
 
-  private class DetailTask implements Callable<HitDetails[]> {
-    private int id;
+  /** A part of the index, served by one or more replicas. */
+  private class Shard {
+    private final Replica[] replicas;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Shard(Replica[] replicas) {
+      this.replicas = replicas;
+    }
+
+    /** Returns the live replicas, starting with replica number
+     * <code>preferred</code> if it is live, then fastest first. */
+    Replica[] route(int preferred) {
+      Replica[] route = route();
+      if (preferred < 0 || preferred >= replicas.length
+          || !replicas[preferred].live || route.length == 0
+          || route[0] == replicas[preferred]) {
+        return route;
+      }
+      List<Replica> list = new ArrayList<Replica>(Arrays.asList(route));
+      list.remove(replicas[preferred]);
+      list.add(0, replicas[preferred]);
+      return list.toArray(new Replica[list.size()]);
+    }
 
-    private Hit[] hits;
+    /** Returns the live replicas, fastest first. */
+    Replica[] route() {
+      final List<Replica> live = new ArrayList<Replica>(replicas.length);
+      for (Replica replica : replicas) {
+        if (replica.live) {
+          live.add(replica);
+        }
+      }
+      if (live.size() > 1) {
+        final double[] snapshot = new double[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+          snapshot[i] = replicas[i].getAverage();
+        }
+        Collections.sort(live, new Comparator<Replica>() {
+          public int compare(Replica r1, Replica r2) {
+            return Double.compare(snapshot[indexOf(r1)], snapshot[indexOf(r2)]);
+          }
+        });
+      }
+      return live.toArray(new Replica[live.size()]);
+    }
 
-    public DetailTask(int id) {
-     this.id = id;
+    private int indexOf(Replica replica) {
+      for (int i = 0; i < replicas.length; i++) {
+        if (replicas[i] == replica) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    boolean isLive() {
+      for (Replica replica : replicas) {
+        if (replica.live) {
+          return true;
+        }
+      }
+      return false;
     }
 
-    public HitDetails[] call() throws Exception {
-      if (hits == null) {
-        return null;
+    /** Returns the delay before a hedged request, or -1 for none. */
+    long getHedgeDelay() {
+      if (hedgePercentile <= 0 || histogram.getCount() < MIN_HEDGE_SAMPLES) {
+        return -1;
       }
-      return beans[id].getDetails(hits);
+      return Math.max(histogram.getPercentile(hedgePercentile), hedgeMinDelay);
     }
 
-    public void setHits(Hit[] hits) {
-      this.hits = hits;
+    public String toString() {
+      return Arrays.asList(replicas).toString();
     }
+  }
 
+  /** A request to a shard. */
+  private interface ShardRequest<T> {
+    T call(SearchBean bean) throws IOException;
+  }
+
+  /** A request sent to one replica of a shard. */
+  private class Attempt<T> implements Runnable {
+    private final int shard;
+    private final Replica replica;
+    private final ShardRequest<T> request;
+    private final boolean first;
+    private volatile boolean cancelled;
+    private T result;
+    private Throwable error;
+
+    Attempt(int shard, Replica replica, ShardRequest<T> request,
+            boolean first) {
+      this.shard = shard;
+      this.replica = replica;
+      this.request = request;
+      this.first = first;
+    }
+
+    public void run() {
+      long start = System.currentTimeMillis();
+      try {
+        result = request.call(replica.bean);
+        long elapsed = System.currentTimeMillis() - start;
+        replica.addResponseTime(elapsed);
+        shards[shard].histogram.add(elapsed);
+      } catch (Throwable e) {
+        error = e;
+        if (!cancelled) {
+          replica.live = false;                   // until the next ping
+        }
+      }
+    }
   }
 
   private class PingWorker implements Runnable {
-    private int id;
+    private Replica replica;
 
-    public PingWorker(int id) {
-      this.id = id;
+    public PingWorker(Replica replica) {
+      this.replica = replica;
     }
 
     public void run()  {
       try {
-        if (beans[id].ping()) {
-          liveServers[id] = true;
+        if (replica.bean.ping()) {
+          replica.live = true;
         } else {
-          liveServers[id] = false;
+          replica.live = false;
         }
       } catch (IOException e) {
-        liveServers[id] = false;
+        replica.live = false;
       }
     }
   }
 
-  private volatile boolean liveServers[];
+  /** Names the worker threads and counts rejected tasks. */
+  private class PoolPolicy implements ThreadFactory, RejectedExecutionHandler {
+    private final AtomicInteger threads = new AtomicInteger();
 
-  private SearchBean[] beans;
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "DistributedSearch-"
+                                 + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
 
-  private List<Callable<Hits>> searchTasks;
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      rejected.incrementAndGet();
+      throw new RejectedExecutionException("Search thread pool is exhausted");
+    }
+  }
 
-  private List<Callable<HitDetails[]>> detailTasks;
+  private Shard[] shards;
 
   private List<PingWorker> pingWorkers;
 
   private long timeout;
 
+  private long deadlineMargin;
+
+  private double alpha;
+
+  private double hedgePercentile;
+
+  private long hedgeMinDelay;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong partial = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong hedged = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
   public DistributedSearchBean(Configuration conf,
                                Path luceneConfig, Path solrConfig)
   throws IOException {
-    FileSystem fs = FileSystem.get(conf);
-
-    this.timeout = conf.getLong("ipc.client.timeout", 60000);
+    this(conf, createBeans(conf, luceneConfig, solrConfig));
+  }
 
-    List<SearchBean> beanList = new ArrayList<SearchBean>();
+  /** Construct given the beans to search, one per shard. */
+  DistributedSearchBean(Configuration conf, SearchBean[] beans) {
+    this(conf, toShards(beans));
+  }
 
-    if (fs.exists(luceneConfig)) {
-      addLuceneBeans(beanList, luceneConfig, conf);
+  /** Construct given the replicas of each shard. */
+  DistributedSearchBean(Configuration conf, SearchBean[][] beans) {
+    this.timeout = conf.getLong("searcher.distributed.timeout",
+                                conf.getLong("ipc.client.timeout", 60000));
+    this.deadlineMargin =
+      conf.getLong("searcher.distributed.deadline.margin", 50);
+    this.alpha = conf.getFloat("searcher.distributed.average.weight", 0.3f);
+    this.hedgePercentile =
+      conf.getFloat("searcher.distributed.hedge.percentile", 0.95f);
+    this.hedgeMinDelay = conf.getLong("searcher.distributed.hedge.min.delay",
+                                      10);
+
+    shards = new Shard[beans.length];
+    pingWorkers = new ArrayList<PingWorker>();
+    for (int i = 0; i < beans.length; i++) {
+      Replica[] replicas = new Replica[beans[i].length];
+      for (int j = 0; j < replicas.length; j++) {
+        replicas[j] = new Replica(beans[i][j]);
+        pingWorkers.add(new PingWorker(replicas[j]));
+      }
+      shards[i] = new Shard(replicas);
     }
 
-    if (fs.exists(solrConfig)) {
-      addSolrBeans(beanList, solrConfig, conf);
+    int threads = conf.getInt("searcher.distributed.threads", 100);
+    int queueSize = conf.getInt("searcher.distributed.queue.size", 1000);
+    PoolPolicy policy = new PoolPolicy();
+    executor = new ThreadPoolExecutor(threads, threads,
+        60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+        policy, policy);
+    executor.allowCoreThreadTimeOut(true);
+
+    pingService =
+      Executors.newScheduledThreadPool(Math.max(pingWorkers.size(), 1));
+    for (PingWorker worker : pingWorkers) {
+      pingService.scheduleAtFixedRate(worker, 0, 10, TimeUnit.SECONDS);
     }
 
-    beans = beanList.toArray(new SearchBean[beanList.size()]);
+  }
 
-    liveServers = new boolean[beans.length];
-    for (int i = 0; i < liveServers.length; i++) {
-      liveServers[i] = true;
+  private static SearchBean[][] toShards(SearchBean[] beans) {
+    SearchBean[][] shards = new SearchBean[beans.length][];
+    for (int i = 0; i < beans.length; i++) {
+      shards[i] = new SearchBean[] { beans[i] };
     }
+    return shards;
+  }
 
-    searchTasks = new ArrayList<Callable<Hits>>();
-    detailTasks = new ArrayList<Callable<HitDetails[]>>();
-    pingWorkers = new ArrayList<PingWorker>();
+  private static SearchBean[][] createBeans(Configuration conf,
+                                            Path luceneConfig, Path solrConfig)
+  throws IOException {
+    FileSystem fs = FileSystem.get(conf);
 
-    for (int i = 0; i < beans.length; i++) {
-      searchTasks.add(new SearchTask(i));
-      detailTasks.add(new DetailTask(i));
-      pingWorkers.add(new PingWorker(i));
+    List<SearchBean[]> beanList = new ArrayList<SearchBean[]>();
+
+    if (fs.exists(luceneConfig)) {
+      addLuceneBeans(beanList, luceneConfig, conf);
     }
 
-    pingService = Executors.newScheduledThreadPool(beans.length);
-    for (PingWorker worker : pingWorkers) {
-      pingService.scheduleAtFixedRate(worker, 0, 10, TimeUnit.SECONDS);
+    if (fs.exists(solrConfig)) {
+      addSolrBeans(beanList, solrConfig, conf);
     }
 
+    return beanList.toArray(new SearchBean[beanList.size()][]);
   }
 
-  private static void addLuceneBeans(List<SearchBean> beanList,
+  private static void addLuceneBeans(List<SearchBean[]> beanList,
                                      Path luceneConfig, Configuration conf)
   throws IOException {
     Configuration newConf = new Configuration(conf);
@@ -179,41 +377,139 @@ public class DistributedSearchBean implements SearchBean {
     // do not retry connections
     newConf.setInt("ipc.client.connect.max.retries", 0);
 
-    List<InetSocketAddress> luceneServers =
-      NutchBean.readAddresses(luceneConfig, conf);
-    for (InetSocketAddress addr : luceneServers) {
-      beanList.add((RPCSearchBean) RPC.getProxy(RPCSearchBean.class,
-          LuceneSearchBean.VERSION, addr, newConf));
+    List<List<InetSocketAddress>> luceneServers =
+      NutchBean.readAddressGroups(luceneConfig, conf);
+    for (List<InetSocketAddress> addrs : luceneServers) {
+      SearchBean[] replicas = new SearchBean[addrs.size()];
+      for (int i = 0; i < replicas.length; i++) {
+        replicas[i] = (RPCSearchBean) RPC.getProxy(RPCSearchBean.class,
+            LuceneSearchBean.VERSION, addrs.get(i), newConf);
+      }
+      beanList.add(replicas);
     }
   }
 
-  private static void addSolrBeans(List<SearchBean> beanList,
+  private static void addSolrBeans(List<SearchBean[]> beanList,
                                    Path solrConfig, Configuration conf)
   throws IOException {
-    for (String solrServer : NutchBean.readConfig(solrConfig, conf)) {
-      beanList.add(new SolrSearchBean(conf, solrServer));
+    for (String line : NutchBean.readConfig(solrConfig, conf)) {
+      List<SearchBean> replicas = new ArrayList<SearchBean>();
+      StringTokenizer tokens = new StringTokenizer(line);
+      while (tokens.hasMoreTokens()) {
+        replicas.add(new SolrSearchBean(conf, tokens.nextToken()));
+      }
+      if (replicas.size() > 0) {
+        beanList.add(replicas.toArray(new SearchBean[replicas.size()]));
+      }
     }
   }
 
-  public String getExplanation(Query query, Hit hit) throws IOException {
-    return beans[hit.getIndexNo()].getExplanation(query, hit);
+  /** Returns the key of a hit found by a replica of a shard. */
+  private String toKey(int shard, int replica, String key) {
+    if (shards[shard].replicas.length == 1) {
+      return key;
+    }
+    return Integer.toString(replica) + REPLICA_SEPARATOR + key;
+  }
+
+  /** Returns the number of the replica which found a hit, or -1. */
+  private static int getReplicaNo(Hit hit) {
+    String key = hit.getUniqueKey();
+    int end = key.indexOf(REPLICA_SEPARATOR);
+    if (end <= 0) {
+      return -1;
+    }
+    for (int i = 0; i < end; i++) {
+      if (!Character.isDigit(key.charAt(i))) {
+        return -1;
+      }
+    }
+    return Integer.parseInt(key.substring(0, end));
+  }
+
+  /** Returns a hit as its shard returned it. */
+  private static Hit toShardHit(Hit hit) {
+    if (getReplicaNo(hit) < 0) {
+      return hit;
+    }
+    String key = hit.getUniqueKey();
+    return new Hit(hit.getIndexNo(),
+                   key.substring(key.indexOf(REPLICA_SEPARATOR) + 1),
+                   hit.getSortValue(), hit.getDedupValue());
+  }
+
+  /** Sends a request about a hit to the replica which found it, and to the
+   * other live replicas of its shard only if that fails. */
+  private <T> T call(Hit hit, ShardRequest<T> request) throws IOException {
+    Shard shard = shards[hit.getIndexNo()];
+    Replica[] route = shard.route(getReplicaNo(hit));
+    if (route.length == 0) {
+      throw new IOException("No live server for shard " + shard);
+    }
+    IOException error = null;
+    for (Replica replica : route) {
+      try {
+        return request.call(replica.bean);
+      } catch (IOException e) {
+        replica.live = false;                     // until the next ping
+        failed.incrementAndGet();
+        LOG.warn("Distributed request to " + replica.bean
+                 + " failed with exception: "
+                 + StringUtils.stringifyException(e));
+        error = e;
+      }
+    }
+    throw error;
+  }
+
+  public String getExplanation(final Query query, Hit hit)
+    throws IOException {
+    final Hit shardHit = toShardHit(hit);
+    return call(hit, new ShardRequest<String>() {
+      public String call(SearchBean bean) throws IOException {
+        return bean.getExplanation(query, shardHit);
+      }
+    });
   }
 
   public Hits search(Query query, int numHits, String dedupField,
                      String sortField, boolean reverse) throws IOException {
+    return search(query, numHits, 0, dedupField, sortField, reverse);
+  }
 
-    for (Callable<Hits> task : searchTasks) {
-      ((SearchTask)task).setSearchArgs(query, numHits, dedupField, sortField,
-          reverse);
-    }
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse)
+  throws IOException {
+    return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+                  reverse, Long.MAX_VALUE);
+  }
 
-    List<Future<Hits>> allHits;
-    try {
-      allHits =
-        executor.invokeAll(searchTasks, timeout, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
+  /** Each shard limits the hits per dedup value itself.  The merged hits
+   * are limited again, as shards may return hits with the same value. */
+  public Hits search(final Query query, final int numHits,
+                     final int maxHitsPerDup, final String dedupField,
+                     final String sortField, final boolean reverse,
+                     long deadline)
+  throws IOException {
+
+    // shards only get the caller's deadline, the timeout just bounds the wait
+    final long shardDeadline = deadline == Long.MAX_VALUE
+      ? Long.MAX_VALUE : deadline - deadlineMargin;
+    deadline = Math.min(deadline, System.currentTimeMillis() + timeout);
+    ShardRequest<Hits> request = new ShardRequest<Hits>() {
+      public Hits call(SearchBean bean) throws IOException {
+        return bean.search(query, numHits, maxHitsPerDup, dedupField,
+                           sortField, reverse, shardDeadline);
+      }
+    };
+    List<ShardRequest<Hits>> requests =
+      new ArrayList<ShardRequest<Hits>>(shards.length);
+    for (int i = 0; i < shards.length; i++) {
+      requests.add(request);
     }
+    boolean[] missing = new boolean[shards.length];
+    int[] answered = new int[shards.length];
+    List<Hits> allHits = invoke(requests, null, deadline, missing, answered);
 
     PriorityQueue<Hit> queue;            // cull top hits from results
     if (sortField == null || reverse) {
@@ -226,32 +522,32 @@ public class DistributedSearchBean implements SearchBean {
       });
     }
 
+    // keep all hits when deduplicating, the limit is applied after sorting
+    int queueSize = maxHitsPerDup > 0 ? Integer.MAX_VALUE : numHits;
     long totalHits = 0;
+    boolean totalIsExact = true;
+    boolean complete = true;
     int allHitsSize = allHits.size();
     for (int i = 0; i < allHitsSize; i++) {
-      Hits hits = null;
-      try {
-        hits = allHits.get(i).get();
-      } catch (InterruptedException e) {
-        // ignore
-      } catch (ExecutionException e) {
-        LOG.warn("Retrieving hits failed with exception: " +
-                 StringUtils.stringifyException(e.getCause()));
-      }
-
-      if (hits == null) {
+      Hits hits = allHits.get(i);
+      if (missing[i] || hits == null) {            // partial results
+        totalIsExact = false;
+        complete = false;
         continue;
       }
 
       totalHits += hits.getTotal();
+      totalIsExact &= hits.totalIsExact();
+      complete &= hits.isComplete();
 
       int hitsLength = hits.getLength();
       for (int j = 0; j < hitsLength; j++) {
         Hit hit = hits.getHit(j);
-        Hit newHit = new Hit(i, hit.getUniqueKey(),
+        Hit newHit = new Hit(i, toKey(i, answered[i], hit.getUniqueKey()),
                              hit.getSortValue(), hit.getDedupValue());
+        newHit.setMoreFromDupExcluded(hit.moreFromDupExcluded());
         queue.add(newHit);
-        if (queue.size() > numHits) {         // if hit queue overfull
+        if (queue.size() > queueSize) {       // if hit queue overfull
           queue.remove();
         }
       }
@@ -262,76 +558,377 @@ public class DistributedSearchBean implements SearchBean {
     Hit[] culledResults = queue.toArray(new Hit[queue.size()]);
     Arrays.sort(culledResults, Collections.reverseOrder(queue.comparator()));
 
-    return new Hits(totalHits, culledResults);
+    Hits results = new Hits(totalHits, culledResults);
+    results.setTotalIsExact(totalIsExact);
+    results.setComplete(complete);
+    if (maxHitsPerDup > 0) {
+      results = results.limitPerDup(numHits, maxHitsPerDup);
+    }
+    return results;
+  }
+
+  /**
+   * Sends requests to the shards in parallel and waits for them until the
+   * request timeout.
+   */
+  private <T> List<T> invoke(List<ShardRequest<T>> requests,
+                             int[] preferred) {
+    return invoke(requests, preferred, System.currentTimeMillis() + timeout,
+                  null, null);
+  }
+
+  /**
+   * Sends requests to the shards in parallel and waits for them until the
+   * deadline.  Requests are hedged and retried on other replicas, except
+   * that requests to a preferred replica are not hedged.
+   * @param requests the request for each shard, or null to skip a shard
+   * @param preferred if not null, the number of the replica of each shard
+   *        to send its request to first, or -1 for the fastest
+   * @param deadline the time in milliseconds since the epoch to wait until
+   * @param missing if not null, set to true for each shard which has no live
+   *        replica, failed, was rejected or did not finish in time
+   * @param answered if not null, set to the number of the replica which
+   *        answered for each shard with a result
+   * @return the result of each shard, or null if it has no result
+   */
+  private <T> List<T> invoke(List<ShardRequest<T>> requests, int[] preferred,
+                             long deadline, boolean[] missing,
+                             int[] answered) {
+    this.requests.incrementAndGet();
+    final int n = requests.size();
+    long now = System.currentTimeMillis();
+    final CompletionService<Attempt<T>> completion =
+      new ExecutorCompletionService<Attempt<T>>(executor);
+    final List<Attempt<T>> attempts = new ArrayList<Attempt<T>>();
+    final List<Future<Attempt<T>>> futures =
+      new ArrayList<Future<Attempt<T>>>();
+
+    final List<T> results = new ArrayList<T>(n);
+    final Replica[][] routes = new Replica[n][];
+    final int[] tried = new int[n];               // replicas tried per shard
+    final int[] running = new int[n];             // attempts running per shard
+    final long[] hedgeAt = new long[n];           // time of hedge, or -1
+    final boolean[] done = new boolean[n];
+    int pending = 0;
+    boolean complete = true;
+
+    for (int i = 0; i < n; i++) {
+      results.add(null);
+      hedgeAt[i] = -1;
+      if (requests.get(i) == null) {
+        done[i] = true;
+        continue;
+      }
+      int replica = preferred == null ? -1 : preferred[i];
+      routes[i] = shards[i].route(replica);
+      if (routes[i].length == 0) {                // no live replica
+        done[i] = true;
+        setMissing(missing, i);
+        complete = false;
+        continue;
+      }
+      if (!submit(completion, attempts, futures, i, routes[i][tried[i]++],
+                  requests.get(i), true)) {
+        done[i] = true;
+        setMissing(missing, i);
+        complete = false;
+        continue;
+      }
+      running[i]++;
+      pending++;
+      long delay = shards[i].getHedgeDelay();
+      if (routes[i].length > 1 && delay >= 0 && replica < 0) {
+        hedgeAt[i] = now + delay;
+      }
+    }
+
+    while (pending > 0) {
+      now = System.currentTimeMillis();
+      if (now >= deadline) {
+        break;
+      }
+      long wait = deadline - now;
+      for (int i = 0; i < n; i++) {
+        if (!done[i] && hedgeAt[i] >= 0) {
+          wait = Math.min(wait, hedgeAt[i] - now);
+        }
+      }
+      Future<Attempt<T>> future;
+      try {
+        future = completion.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+
+      if (future == null) {                       // time to hedge
+        now = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+          if (!done[i] && hedgeAt[i] >= 0 && hedgeAt[i] <= now) {
+            hedgeAt[i] = -1;
+            if (tried[i] < routes[i].length
+                && submit(completion, attempts, futures, i,
+                          routes[i][tried[i]++], requests.get(i), false)) {
+              running[i]++;
+              hedged.incrementAndGet();
+            }
+          }
+        }
+        continue;
+      }
+
+      Attempt<T> attempt;
+      try {
+        attempt = future.get();
+      } catch (Exception e) {                     // attempts catch all errors
+        throw new RuntimeException(e);
+      }
+      int i = attempt.shard;
+      running[i]--;
+      if (done[i]) {
+        continue;                                 // a slower attempt
+      }
+      if (attempt.error == null) {
+        results.set(i, attempt.result);
+        if (answered != null) {
+          answered[i] = shards[i].indexOf(attempt.replica);
+        }
+        done[i] = true;
+        pending--;
+        if (!attempt.first) {
+          hedgeWins.incrementAndGet();
+        }
+        continue;
+      }
+
+      failed.incrementAndGet();
+      LOG.warn("Distributed request to " + attempt.replica.bean
+               + " failed with exception: "
+               + StringUtils.stringifyException(attempt.error));
+      hedgeAt[i] = -1;
+      if (running[i] == 0) {                      // retry on another replica
+        if (tried[i] < routes[i].length
+            && submit(completion, attempts, futures, i, routes[i][tried[i]++],
+                      requests.get(i), false)) {
+          running[i]++;
+        } else {
+          done[i] = true;
+          pending--;
+          setMissing(missing, i);
+          complete = false;
+        }
+      }
+    }
+
+    for (int i = 0; i < attempts.size(); i++) {   // cancel late attempts
+      if (!futures.get(i).isDone()) {
+        attempts.get(i).cancelled = true;
+        futures.get(i).cancel(true);
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      if (!done[i]) {
+        timedOut.incrementAndGet();
+        setMissing(missing, i);
+        complete = false;
+      }
+    }
+    if (!complete) {
+      partial.incrementAndGet();
+    }
+    return results;
+  }
+
+  private static void setMissing(boolean[] missing, int shard) {
+    if (missing != null) {
+      missing[shard] = true;
+    }
+  }
+
+  private <T> boolean submit(CompletionService<Attempt<T>> completion,
+                             List<Attempt<T>> attempts,
+                             List<Future<Attempt<T>>> futures,
+                             int shard, Replica replica,
+                             ShardRequest<T> request, boolean first) {
+    Attempt<T> attempt = new Attempt<T>(shard, replica, request, first);
+    try {
+      futures.add(completion.submit(attempt, attempt));
+    } catch (RejectedExecutionException e) {
+      return false;                               // counted by the policy
+    }
+    attempts.add(attempt);
+    return true;
+  }
+
+  /** Returns the number of distributed requests. */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /** Returns the number of requests which did not get all results. */
+  public long getPartialRequests() {
+    return partial.get();
+  }
+
+  /** Returns the number of shard requests which timed out. */
+  public long getTimedOut() {
+    return timedOut.get();
+  }
+
+  /** Returns the number of server requests rejected by the thread pool. */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /** Returns the number of server requests which failed. */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /** Returns the number of hedged server requests. */
+  public long getHedged() {
+    return hedged.get();
+  }
+
+  /** Returns the number of shard requests answered by a second replica. */
+  public long getHedgeWins() {
+    return hedgeWins.get();
+  }
+
+  /** Returns the number of threads executing server requests. */
+  public int getActiveThreads() {
+    return executor.getActiveCount();
+  }
+
+  /** Returns the number of server requests waiting for a thread. */
+  public int getQueuedTasks() {
+    return executor.getQueue().size();
+  }
+
+  /** Returns the number of shards. */
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  /** Returns the histogram of the response times of a shard. */
+  public LatencyHistogram getLatencyHistogram(int shard) {
+    return shards[shard].histogram;
+  }
+
+  public String toString() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("requests=").append(getRequests())
+      .append(", partial=").append(getPartialRequests())
+      .append(", timedOut=").append(getTimedOut())
+      .append(", rejected=").append(getRejected())
+      .append(", failed=").append(getFailed())
+      .append(", hedged=").append(getHedged())
+      .append(", hedgeWins=").append(getHedgeWins())
+      .append(", active=").append(getActiveThreads())
+      .append(", queued=").append(getQueuedTasks())
+      .append(", largestPool=").append(executor.getLargestPoolSize());
+    for (int i = 0; i < shards.length; i++) {
+      buf.append("\nshard ").append(i).append(": ")
+        .append(shards[i].histogram).append(' ').append(shards[i]);
+    }
+    return buf.toString();
   }
 
   public void close() throws IOException {
     executor.shutdown();
     pingService.shutdown();
-    for (SearchBean bean : beans) {
-      bean.close();
+    for (Shard shard : shards) {
+      for (Replica replica : shard.replicas) {
+        replica.bean.close();
+      }
     }
   }
 
   public HitDetails getDetails(Hit hit) throws IOException {
-    return beans[hit.getIndexNo()].getDetails(hit);
+    final Hit shardHit = toShardHit(hit);
+    return call(hit, new ShardRequest<HitDetails>() {
+      public HitDetails call(SearchBean bean) throws IOException {
+        return bean.getDetails(shardHit);
+      }
+    });
   }
 
-  @SuppressWarnings("unchecked")
   public HitDetails[] getDetails(Hit[] hits) throws IOException {
-    List<Hit>[] hitList = new ArrayList[detailTasks.size()];
-
-    for (int i = 0; i < hitList.length; i++) {
-      hitList[i] = new ArrayList<Hit>();
-    }
+    return getDetails(hits, null);
+  }
 
+  /** Requests the details of the hits of each shard from the replica which
+   * found them, in one round per replica if hits of a shard were found by
+   * several replicas. */
+  @SuppressWarnings("unchecked")
+  public HitDetails[] getDetails(Hit[] hits, final String[] fields)
+    throws IOException {
+    HitDetails[] detailsArr = new HitDetails[hits.length];
+    boolean[] fetched = new boolean[hits.length];
+    int[] replicaNos = new int[hits.length];
     for (int i = 0; i < hits.length; i++) {
-      Hit hit = hits[i];
-      hitList[hit.getIndexNo()].add(hit);
+      replicaNos[i] = getReplicaNo(hits[i]);
     }
-
-    for (int i = 0; i < detailTasks.size(); i++) {
-      DetailTask task = (DetailTask)detailTasks.get(i);
-      if (hitList[i].size() > 0) {
-        task.setHits(hitList[i].toArray(new Hit[hitList[i].size()]));
-      } else {
-        task.setHits(null);
+    int remaining = hits.length;
+    while (remaining > 0) {
+      // positions of the hits of each shard found by the same replica
+      List<Integer>[] positions = new List[shards.length];
+      int[] preferred = new int[shards.length];
+      for (int i = 0; i < hits.length; i++) {
+        int shard = hits[i].getIndexNo();
+        if (fetched[i]) {
+          continue;
+        }
+        if (positions[shard] == null) {
+          positions[shard] = new ArrayList<Integer>();
+          preferred[shard] = replicaNos[i];
+        }
+        if (replicaNos[i] == preferred[shard]) {
+          positions[shard].add(i);
+        }
       }
-    }
 
-    List<Future<HitDetails[]>> allDetails;
-    try {
-      allDetails =
-        executor.invokeAll(detailTasks, timeout, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
-    }
-
-    /* getDetails(Hit[]) method assumes that HitDetails[i] returned corresponds
-     * to Hit[i] given as parameter. To keep this order, we have to 'merge'
-     * HitDetails[] returned from individual detailTasks.
-     */
-    HitDetails[][] detailsMatrix = new HitDetails[detailTasks.size()][];
-    for (int i = 0; i < detailsMatrix.length; i++) {
-      try {
-        detailsMatrix[i] = allDetails.get(i).get();
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      } catch (ExecutionException e) {
-        if (e.getCause() instanceof IOException) {
-          throw (IOException) e.getCause();
+      List<ShardRequest<HitDetails[]>> requests =
+        new ArrayList<ShardRequest<HitDetails[]>>(shards.length);
+      for (int i = 0; i < shards.length; i++) {
+        if (positions[i] == null) {
+          requests.add(null);
+          continue;
         }
-        throw new RuntimeException(e);
+        final Hit[] shardHits = new Hit[positions[i].size()];
+        for (int j = 0; j < shardHits.length; j++) {
+          shardHits[j] = toShardHit(hits[positions[i].get(j)]);
+        }
+        requests.add(new ShardRequest<HitDetails[]>() {
+          public HitDetails[] call(SearchBean bean) throws IOException {
+            if (bean instanceof RPCSearchBean) {  // use the compact encoding
+              return ((RPCSearchBean)bean).getDetailsList(
+                  new Hits(shardHits.length, shardHits), fields).getDetails();
+            }
+            return fields == null
+              ? bean.getDetails(shardHits) : bean.getDetails(shardHits, fields);
+          }
+        });
       }
-    }
 
-    int[] hitPos = new int[detailTasks.size()]; // keep track of where we are
-    HitDetails[] detailsArr = new HitDetails[hits.length];
-    for (int i = 0; i < detailsArr.length; i++) {
-      int indexNo = hits[i].getIndexNo();
-      detailsArr[i] = detailsMatrix[indexNo][(hitPos[indexNo]++)];
+      // getDetails(Hit[], String[]) returns the details of hits[i] at i
+      List<HitDetails[]> allDetails = invoke(requests, preferred);
+      for (int i = 0; i < shards.length; i++) {
+        if (positions[i] == null) {
+          continue;
+        }
+        HitDetails[] details = allDetails.get(i);
+        if (details == null || details.length != positions[i].size()) {
+          throw new IOException("Retrieving details from shard " + i
+                                + " failed or timed out");
+        }
+        for (int j = 0; j < details.length; j++) {
+          detailsArr[positions[i].get(j)] = details[j];
+          fetched[positions[i].get(j)] = true;
+          remaining--;
+        }
+      }
     }
-
     return detailsArr;
   }
 
@@ -151,6 +151,10 @@ public class DistributedSegmentBean implements SegmentBean {
     return getBean(details).getContent(details);
   }
 
+  public RawContent getRawContent(HitDetails details) throws IOException {
+    return getBean(details).getRawContent(details);
+  }
+
   public long getFetchDate(HitDetails details) throws IOException {
     return getBean(details).getFetchDate(details);
   }
@@ -17,6 +17,8 @@
 
 package org.apache.nutch.searcher;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 
 import java.util.ArrayList;
@@ -40,12 +42,13 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.*;
 import org.apache.hadoop.mapred.lib.*;
 import org.apache.nutch.crawl.*;
+import org.apache.nutch.net.protocols.Response;
 
 /** Implements {@link HitSummarizer} and {@link HitContent} for a set of
  * fetched segments. */
 public class FetchedSegments implements RPCSegmentBean {
 
-  public static final long VERSION = 1L;
+  public static final long VERSION = 2L;
 
   private static final ExecutorService executor =
     Executors.newCachedThreadPool();
@@ -115,16 +118,13 @@ public class FetchedSegments implements RPCSegmentBean {
 
   private static class Segment implements java.io.Closeable {
 
-    private static final Partitioner<Text, Writable> PARTITIONER =
-      new HashPartitioner<Text, Writable>();
-
     private final FileSystem fs;
     private final Path segmentDir;
 
-    private MapFile.Reader[] content;
-    private MapFile.Reader[] parseText;
-    private MapFile.Reader[] parseData;
-    private MapFile.Reader[] crawl;
+    private MapFileReaders content;
+    private MapFileReaders parseText;
+    private MapFileReaders parseData;
+    private MapFileReaders crawl;
     private final Configuration conf;
 
     public Segment(FileSystem fs, Path segmentDir, Configuration conf) throws IOException {
@@ -149,6 +149,24 @@ public class FetchedSegments implements RPCSegmentBean {
       return ((Content)getEntry(content, url, new Content())).getContent();
     }
 
+    public RawContent getRawContent(Text url) throws IOException {
+      synchronized (this) {
+        if (content == null)
+          content = getReaders(Content.DIR_NAME);
+      }
+      PartialContent entry = (PartialContent)getEntry(content, url,
+                                                      new PartialContent());
+      if (entry == null) {
+        return null;
+      }
+      Content c = entry.content;
+      String contentType = c.getMetadata().get(Response.CONTENT_TYPE);
+      if (contentType == null) {
+        contentType = c.getContentType();
+      }
+      return new RawContent(contentType, c.getContent());
+    }
+
     public ParseData getParseData(Text url) throws IOException {
       synchronized (this) {
         if (parseData == null)
@@ -165,28 +183,35 @@ public class FetchedSegments implements RPCSegmentBean {
       return (ParseText)getEntry(parseText, url, new ParseText());
     }
 
-    private MapFile.Reader[] getReaders(String subDir) throws IOException {
-      return MapFileOutputFormat.getReaders(fs, new Path(segmentDir, subDir), this.conf);
+    private MapFileReaders getReaders(String subDir) throws IOException {
+      return new MapFileReaders(fs, new Path(segmentDir, subDir), this.conf);
     }
 
-    private Writable getEntry(MapFile.Reader[] readers, Text url,
+    private Writable getEntry(MapFileReaders readers, Text url,
                               Writable entry) throws IOException {
-      return MapFileOutputFormat.getEntry(readers, PARTITIONER, url, entry);
+      return readers.get(url, entry);
     }
 
     public void close() throws IOException {
-      if (content != null) { closeReaders(content); }
-      if (parseText != null) { closeReaders(parseText); }
-      if (parseData != null) { closeReaders(parseData); }
-      if (crawl != null) { closeReaders(crawl); }
+      if (content != null) { content.close(); }
+      if (parseText != null) { parseText.close(); }
+      if (parseData != null) { parseData.close(); }
+      if (crawl != null) { crawl.close(); }
     }
 
-    private void closeReaders(MapFile.Reader[] readers) throws IOException {
-      for (int i = 0; i < readers.length; i++) {
-        readers[i].close();
-      }
+  }
+
+  /** Reads a Content with the Content-Type header only. */
+  private static class PartialContent implements Writable {
+    private Content content;
+
+    public void readFields(DataInput in) throws IOException {
+      content = Content.read(in, Response.CONTENT_TYPE);
     }
 
+    public void write(DataOutput out) throws IOException {
+      content.write(out);
+    }
   }
 
   private final ConcurrentMap<String, Segment> segments =
@@ -226,6 +251,10 @@ public class FetchedSegments implements RPCSegmentBean {
     return getSegment(details).getContent(getUrl(details));
   }
 
+  public RawContent getRawContent(HitDetails details) throws IOException {
+    return getSegment(details).getRawContent(getUrl(details));
+  }
+
   public ParseData getParseData(HitDetails details) throws IOException {
     return getSegment(details).getParseData(getUrl(details));
   }
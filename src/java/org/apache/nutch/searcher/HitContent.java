@@ -28,6 +28,10 @@ public interface HitContent extends Closeable {
   /** Returns the content of a hit document. */
   byte[] getContent(HitDetails details) throws IOException;
 
+  /** Returns the content of a hit document with its original content type,
+   * without reading its other metadata or its ParseData. */
+  RawContent getRawContent(HitDetails details) throws IOException;
+
   /** Returns the ParseData of a hit document. */
   ParseData getParseData(HitDetails details) throws IOException;
 
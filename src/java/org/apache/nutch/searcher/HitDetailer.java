@@ -27,4 +27,9 @@ public interface HitDetailer {
   /** Returns the details for a set of hits.  Hook for parallel IPC calls. */
   HitDetails[] getDetails(Hit[] hits) throws IOException;
 
+  /** Returns only the named fields of the details for a set of hits, or all
+   * fields if <code>fields</code> is null.  Cheaper to read and to send
+   * than all the stored fields of each hit. */
+  HitDetails[] getDetails(Hit[] hits, String[] fields) throws IOException;
+
 }
@@ -116,6 +116,16 @@ public final class HitDetails implements Writable {
     return getValue("segment") + "/" + getValue("url");
   }
 
+  /** Returns the estimated memory size in bytes, for caching. */
+  public long estimateSize() {
+    long size = WeightedCache.OBJECT_OVERHEAD;
+    for (int i = 0; i < length; i++) {
+      size += WeightedCache.OBJECT_OVERHEAD + 2 * fields[i].length()
+        + 2 * values[i].length();
+    }
+    return size;
+  }
+
   /** Display as HTML. */
   public String toHtml() {
     StringBuffer buffer = new StringBuffer();
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/** The details of a list of hits, as returned by a remote search server.
+ *
+ * <p>Unlike an array of {@link HitDetails}, this is written without a class
+ * name per element, each distinct field name is written only once and then
+ * referred to by number, and values are written as UTF-8 with variable-length
+ * lengths.  When the encoded details are larger than a threshold they are
+ * deflated as a whole, since titles, urls and anchors of a page of hits share
+ * much text.
+ */
+public final class HitDetailsList implements Writable {
+
+  private HitDetails[] details;
+  private int compressThreshold = -1;
+
+  public HitDetailsList() {}
+
+  /** Construct for details which are not compressed. */
+  public HitDetailsList(HitDetails[] details) {
+    this(details, -1);
+  }
+
+  /**
+   * Construct for details which are compressed when written.
+   * @param details the details of each hit
+   * @param compressThreshold the encoded size in bytes from which details
+   *        are compressed, or -1 to never compress them
+   */
+  public HitDetailsList(HitDetails[] details, int compressThreshold) {
+    this.details = details;
+    this.compressThreshold = compressThreshold;
+  }
+
+  /** Returns the details of each hit. */
+  public HitDetails[] getDetails() { return details; }
+
+  public void write(DataOutput out) throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    Map<String, Integer> names = new HashMap<String, Integer>();
+    for (int i = 0; i < details.length; i++) {
+      HitDetails hit = details[i];
+      WritableUtils.writeVInt(buffer, hit.getLength());
+      for (int j = 0; j < hit.getLength(); j++) {
+        String name = hit.getField(j);
+        Integer index = names.get(name);
+        if (index == null) {                      // first use, write it
+          WritableUtils.writeVInt(buffer, names.size());
+          Text.writeString(buffer, name);
+          names.put(name, names.size());
+        } else {
+          WritableUtils.writeVInt(buffer, index);
+        }
+        Text.writeString(buffer, hit.getValue(j));
+      }
+    }
+
+    WritableUtils.writeVInt(out, details.length);
+    int length = buffer.getLength();
+    if (compressThreshold < 0 || length < compressThreshold) {
+      out.writeBoolean(false);
+      WritableUtils.writeVInt(out, length);
+      out.write(buffer.getData(), 0, length);
+      return;
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(buffer.getData(), 0, length);
+      deflater.finish();
+      byte[] compressed = new byte[length + length / 1000 + 64];
+      int compressedLength = 0;
+      while (!deflater.finished()) {
+        if (compressedLength == compressed.length) {
+          byte[] larger = new byte[compressed.length * 2];
+          System.arraycopy(compressed, 0, larger, 0, compressedLength);
+          compressed = larger;
+        }
+        compressedLength += deflater.deflate(compressed, compressedLength,
+                                             compressed.length
+                                             - compressedLength);
+      }
+      out.writeBoolean(true);
+      WritableUtils.writeVInt(out, length);
+      WritableUtils.writeVInt(out, compressedLength);
+      out.write(compressed, 0, compressedLength);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    details = new HitDetails[WritableUtils.readVInt(in)];
+    boolean compressed = in.readBoolean();
+    byte[] bytes = new byte[WritableUtils.readVInt(in)];
+    if (compressed) {
+      byte[] input = new byte[WritableUtils.readVInt(in)];
+      in.readFully(input);
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(input);
+        if (inflater.inflate(bytes) != bytes.length
+            || !inflater.finished()) {
+          throw new IOException("Corrupt compressed details");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(e.toString());
+      } finally {
+        inflater.end();
+      }
+    } else {
+      in.readFully(bytes);
+    }
+
+    DataInputBuffer buffer = new DataInputBuffer();
+    buffer.reset(bytes, bytes.length);
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < details.length; i++) {
+      int length = WritableUtils.readVInt(buffer);
+      String[] fields = new String[length];
+      String[] values = new String[length];
+      for (int j = 0; j < length; j++) {
+        int index = WritableUtils.readVInt(buffer);
+        if (index == names.size()) {
+          names.add(Text.readString(buffer));
+        } else if (index > names.size()) {
+          throw new IOException("Bad field name reference: " + index);
+        }
+        fields[j] = names.get(index);
+        values[j] = Text.readString(buffer);
+      }
+      details[i] = new HitDetails(fields, values);
+    }
+  }
+
+}
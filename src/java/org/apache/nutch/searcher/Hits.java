@@ -20,16 +20,25 @@ package org.apache.nutch.searcher;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 
 /** A set of hits matching a query. */
 public final class Hits implements Writable {
 
   private long total;
   private boolean totalIsExact = true;
+  private boolean complete = true;
   private Hit[] top;
 
   public Hits() {}
@@ -50,6 +59,13 @@ public final class Hits implements Writable {
   /** Set {@link #totalIsExact()}. */
   public void setTotalIsExact(boolean isExact) { totalIsExact = isExact; }
 
+  /** False if the search stopped before it was done, e.g. at its deadline,
+   * so that these are only the best hits found by then. */
+  public boolean isComplete() { return complete; }
+
+  /** Set {@link #isComplete()}. */
+  public void setComplete(boolean complete) { this.complete = complete; }
+
   /** Returns the number of hits included in this current listing. */
   public int getLength() { return top.length; }
 
@@ -65,48 +81,239 @@ public final class Hits implements Writable {
     return results;
   }
 
+  /** Returns the first <code>numHits</code> of these hits, keeping at most
+   * <code>maxHitsPerDup</code> hits with the same dedup value.  The kept hits
+   * of values which had hits removed have {@link Hit#moreFromDupExcluded()}
+   * set, and the total is then only an estimate.  These hits must be in
+   * ranking order, and are modified. */
+  public Hits limitPerDup(int numHits, int maxHitsPerDup) {
+    Map<String, List<Hit>> dupToHits = new HashMap<String, List<Hit>>();
+    List<Hit> results = new ArrayList<Hit>();
+    boolean isExact = totalIsExact;
+    for (int i = 0; i < top.length && results.size() < numHits; i++) {
+      Hit hit = top[i];
+      List<Hit> dupHits = dupToHits.get(hit.getDedupValue());
+      if (dupHits == null) {
+        dupToHits.put(hit.getDedupValue(), dupHits = new ArrayList<Hit>());
+      }
+      if (dupHits.size() < maxHitsPerDup) {
+        results.add(hit);
+        dupHits.add(hit);
+      } else {                                    // exclude the hit
+        for (int j = 0; j < dupHits.size(); j++) {
+          dupHits.get(j).setMoreFromDupExcluded(true);
+        }
+        isExact = false;
+      }
+    }
+    Hits hits = new Hits(total, results.toArray(new Hit[results.size()]));
+    hits.setTotalIsExact(isExact);
+    hits.setComplete(complete);
+    return hits;
+  }
+
+  // the type of the sort values, written once per response
+  private static final byte SORT_FLOAT = 0;
+  private static final byte SORT_INT = 1;
+  private static final byte SORT_LONG = 2;
+  private static final byte SORT_TEXT = 3;
+  private static final byte SORT_OTHER = 4;       // followed by class name
+  private static final byte SORT_NONE = 5;        // hits without sort values
+
+  // the kind of key, in the low bits of each hit's header byte
+  private static final int KEY_DOC = 0;           // document number
+  private static final int KEY_GENERATION = 1;    // generation:document number
+  private static final int KEY_STRING = 2;
+  private static final int KEY_MASK = 3;
+  private static final int EXCLUDED = 4;          // moreFromDupExcluded
+  private static final int NO_SORT_VALUE = 8;
+
+  /** Writes these hits compactly: keys which are document numbers as
+   * variable-length ints, sort values of the common types without their
+   * class, and each distinct dedup value only once, later hits with the same
+   * value refer to it by number. */
   public void write(DataOutput out) throws IOException {
-    out.writeLong(total);                         // write total hits
-    out.writeInt(top.length);                     // write hits returned
-    if (top.length > 0)                           // write sort value class
-      Text.writeString(out, top[0].getSortValue().getClass().getName());
-                      
+    WritableUtils.writeVLong(out, total);         // write total hits
+    out.writeByte((totalIsExact ? 1 : 0)          // write flags
+                  | (complete ? 2 : 0));
+    WritableUtils.writeVInt(out, top.length);     // write hits returned
+    byte sortType = SORT_NONE;
+    Class<?> sortClass = null;
+    for (int i = 0; i < top.length && sortClass == null; i++) {
+      if (top[i].getSortValue() != null) {
+        sortClass = top[i].getSortValue().getClass();
+        sortType = sortType(sortClass);
+      }
+    }
+    if (top.length > 0) {                         // write sort value type
+      out.writeByte(sortType);
+      if (sortType == SORT_OTHER) {
+        Text.writeString(out, sortClass.getName());
+      }
+    }
+
+    Map<String, Integer> dedupValues = new HashMap<String, Integer>();
     for (int i = 0; i < top.length; i++) {
       Hit h = top[i];
-      Text.writeString(out, h.getUniqueKey());    // write uniqueKey
-      h.getSortValue().write(out);                // write sortValue
-      Text.writeString(out, h.getDedupValue());   // write dedupValue
+      String key = h.getUniqueKey();              // write header and key
+      int colon = key.indexOf(':');
+      int doc = parseDoc(key, colon + 1, key.length());
+      int generation = colon < 0 ? 0 : parseDoc(key, 0, colon);
+      WritableComparable sortValue = h.getSortValue();
+      int header = (h.moreFromDupExcluded() ? EXCLUDED : 0)
+        | (sortValue == null ? NO_SORT_VALUE : 0);
+      if (doc < 0 || generation < 0) {
+        out.writeByte(header | KEY_STRING);
+        Text.writeString(out, key);
+      } else if (colon < 0) {
+        out.writeByte(header | KEY_DOC);
+        WritableUtils.writeVInt(out, doc);
+      } else {
+        out.writeByte(header | KEY_GENERATION);
+        WritableUtils.writeVInt(out, generation);
+        WritableUtils.writeVInt(out, doc);
+      }
+
+      switch (sortValue == null ? SORT_NONE : sortType) { // write sortValue
+      case SORT_NONE:
+        break;
+      case SORT_FLOAT:
+        out.writeFloat(((FloatWritable)sortValue).get());
+        break;
+      case SORT_INT:
+        WritableUtils.writeVInt(out, ((IntWritable)sortValue).get());
+        break;
+      case SORT_LONG:
+        WritableUtils.writeVLong(out, ((LongWritable)sortValue).get());
+        break;
+      case SORT_TEXT:
+        ((Text)sortValue).write(out);
+        break;
+      default:
+        sortValue.write(out);
+      }
+
+      String dedupValue = h.getDedupValue();      // write dedupValue
+      if (dedupValue == null) {
+        dedupValue = "";
+      }
+      Integer index = dedupValues.get(dedupValue);
+      if (index == null) {                        // first use, write it
+        WritableUtils.writeVInt(out, dedupValues.size());
+        Text.writeString(out, dedupValue);
+        dedupValues.put(dedupValue, dedupValues.size());
+      } else {
+        WritableUtils.writeVInt(out, index);
+      }
     }
   }
 
   @SuppressWarnings("unchecked")
   public void readFields(DataInput in) throws IOException {
-    total = in.readLong();                        // read total hits
-    top = new Hit[in.readInt()];                  // read hits returned
+    total = WritableUtils.readVLong(in);          // read total hits
+    int flags = in.readByte();                    // read flags
+    totalIsExact = (flags & 1) != 0;
+    complete = (flags & 2) != 0;
+    top = new Hit[WritableUtils.readVInt(in)];    // read hits returned
+    byte sortType = SORT_OTHER;
     Class sortClass = null;
-    if (top.length > 0) {                         // read sort value class
-      try {
-        sortClass = Class.forName(Text.readString(in));
-      } catch (ClassNotFoundException e) {
-        throw new IOException(e.toString());
+    if (top.length > 0) {                         // read sort value type
+      sortType = in.readByte();
+      if (sortType == SORT_OTHER) {
+        try {
+          sortClass = Class.forName(Text.readString(in));
+        } catch (ClassNotFoundException e) {
+          throw new IOException(e.toString());
+        }
       }
     }
 
+    List<String> dedupValues = new ArrayList<String>();
     for (int i = 0; i < top.length; i++) {
-      String uniqueKey = Text.readString(in);            // read uniqueKey
+      int header = in.readByte();                 // read header and key
+      String uniqueKey;
+      switch (header & KEY_MASK) {
+      case KEY_DOC:
+        uniqueKey = Integer.toString(WritableUtils.readVInt(in));
+        break;
+      case KEY_GENERATION:
+        uniqueKey = WritableUtils.readVInt(in) + ":"
+          + WritableUtils.readVInt(in);
+        break;
+      default:
+        uniqueKey = Text.readString(in);
+      }
+
+      WritableComparable sortValue;               // read sortValue
+      switch ((header & NO_SORT_VALUE) != 0 ? SORT_NONE : sortType) {
+      case SORT_NONE:
+        sortValue = null;
+        break;
+      case SORT_FLOAT:
+        sortValue = new FloatWritable(in.readFloat());
+        break;
+      case SORT_INT:
+        sortValue = new IntWritable(WritableUtils.readVInt(in));
+        break;
+      case SORT_LONG:
+        sortValue = new LongWritable(WritableUtils.readVLong(in));
+        break;
+      case SORT_TEXT:
+        sortValue = new Text();
+        sortValue.readFields(in);
+        break;
+      default:
+        try {
+          sortValue = (WritableComparable)sortClass.newInstance();
+        } catch (Exception e) {
+          throw new IOException(e.toString());
+        }
+        sortValue.readFields(in);
+      }
 
-      WritableComparable sortValue = null;
-      try {
-        sortValue = (WritableComparable)sortClass.newInstance();
-      } catch (Exception e) {
-        throw new IOException(e.toString());
+      int index = WritableUtils.readVInt(in);     // read dedupValue
+      if (index == dedupValues.size()) {
+        dedupValues.add(Text.readString(in));
+      } else if (index > dedupValues.size()) {
+        throw new IOException("Bad dedup value reference: " + index);
       }
-      sortValue.readFields(in);                   // read sortValue
 
-      String dedupValue = Text.readString(in);    // read dedupValue
+      top[i] = new Hit(uniqueKey, sortValue, dedupValues.get(index));
+      top[i].setMoreFromDupExcluded((header & EXCLUDED) != 0);
+    }
+  }
+
+  private static byte sortType(Class<?> sortClass) {
+    if (sortClass == FloatWritable.class) {
+      return SORT_FLOAT;
+    } else if (sortClass == IntWritable.class) {
+      return SORT_INT;
+    } else if (sortClass == LongWritable.class) {
+      return SORT_LONG;
+    } else if (sortClass == Text.class) {
+      return SORT_TEXT;
+    }
+    return SORT_OTHER;
+  }
 
-      top[i] = new Hit(uniqueKey, sortValue, dedupValue);
+  /** Returns the number written from <code>start</code> to <code>end</code>
+   * in a key, or -1 unless it is written exactly as
+   * {@link Integer#toString(int)} would, so that it reads back the same. */
+  private static int parseDoc(String key, int start, int end) {
+    int length = end - start;
+    if (length < 1 || length > 9
+        || (length > 1 && key.charAt(start) == '0')) {
+      return -1;
+    }
+    int doc = 0;
+    for (int i = start; i < end; i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      doc = doc * 10 + (c - '0');
     }
+    return doc;
   }
 
 }
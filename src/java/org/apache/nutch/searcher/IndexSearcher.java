@@ -19,7 +19,20 @@ package org.apache.nutch.searcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -30,6 +43,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.FieldCache;
@@ -39,18 +54,90 @@ import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.nutch.indexer.FsDirectory;
+import org.apache.nutch.indexer.ImpactOrder;
 import org.apache.nutch.indexer.NutchSimilarity;
 
 /** Implements {@link Searcher} and {@link HitDetailer} for either a single
- * merged index, or a set of indexes. */
+ * merged index, or a set of indexes.
+ *
+ * <p>If <code>searcher.reopen.interval</code> is positive, the indexes are
+ * checked periodically for changes.  A changed index is reopened and warmed
+ * in the background while the old one still serves queries, then swapped in.
+ * Hits of older index generations carry their number in their key, so that
+ * their details can still be read until they are closed, once
+ * <code>searcher.reopen.grace</code> seconds, but at least
+ * <code>searcher.cache.expire</code> seconds, passed since they were
+ * replaced.</p>
+ *
+ * <p>If <code>searcher.parallel.threads</code> is positive, each search of
+ * a large index is split into slices of documents searched concurrently, see
+ * {@link LuceneQueryOptimizer}.</p> */
 public class IndexSearcher implements Searcher, HitDetailer {
 
-  private org.apache.lucene.search.Searcher luceneSearcher;
-  private org.apache.lucene.index.IndexReader reader;
+  public static final Log LOG = LogFactory.getLog(IndexSearcher.class);
+
+  /** An open index reader.  Searches hold a reference while they use it, so
+   * that it is only closed once it is no longer current and unused. */
+  private static class Generation {
+    private final int number;
+    private final IndexReader reader;
+    private final org.apache.lucene.search.IndexSearcher luceneSearcher;
+    private final ImpactOrder impacts;            // null unless sorted
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private long retired;
+
+    Generation(int number, IndexReader reader, ImpactOrder impacts) {
+      this.number = number;
+      this.reader = reader;
+      this.impacts = impacts;
+      this.luceneSearcher = new org.apache.lucene.search.IndexSearcher(reader);
+      this.luceneSearcher.setSimilarity(new NutchSimilarity());
+    }
+
+    /** Returns false if this generation has already been closed. */
+    boolean acquire() {
+      while (true) {
+        int count = refs.get();
+        if (count <= 0) {
+          return false;
+        }
+        if (refs.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() throws IOException {
+      if (refs.decrementAndGet() == 0) {
+        luceneSearcher.close();
+        reader.close();
+      }
+    }
+
+    /** Returns the key of a document in this generation.  Keys of the first
+     * generation are plain document numbers. */
+    String getKey(int doc) {
+      return number == 0
+        ? Integer.toString(doc) : number + ":" + Integer.toString(doc);
+    }
+  }
+
+  private volatile Generation current;
+  private final List<Generation> replaced =      // guarded by this
+    new ArrayList<Generation>();
   private LuceneQueryOptimizer optimizer;
   private FileSystem fs;
   private Configuration conf;
   private QueryFilters queryFilters;
+  private float rawHitsFactor;
+  private long reopenGrace;
+  private String[] warmupQueries;
+  private String[] warmupFields;
+  private String[] warmupFilters;
+  private ScheduledExecutorService reopenService;
+  private WeightedCache<Long, byte[]> blockCache; // shared by DFS indexes
+  private final List<Runnable> reopenListeners =
+    new CopyOnWriteArrayList<Runnable>();
 
   /** Construct given a number of indexes. */
   public IndexSearcher(Path[] indexDirs, Configuration conf) throws IOException {
@@ -72,43 +159,325 @@ public class IndexSearcher implements Searcher, HitDetailer {
   }
 
   private void init(IndexReader reader, Configuration conf) throws IOException {
-    this.reader = reader;
-    this.luceneSearcher = new org.apache.lucene.search.IndexSearcher(reader);
-    this.luceneSearcher.setSimilarity(new NutchSimilarity());
+    this.current = new Generation(0, reader, readImpactOrder(reader, conf));
     this.optimizer = new LuceneQueryOptimizer(conf);
-    this.queryFilters = new QueryFilters(conf);
+    this.queryFilters = new QueryFilters(conf,
+        NutchBean.<Query, org.apache.lucene.search.BooleanQuery>createCache(
+            conf, "searcher.query.translation.cache"));
+    this.rawHitsFactor =
+      conf.getFloat("searcher.hostgrouping.rawhits.factor", 2.0f);
+    // hits in the result cache must still get their details; results which
+    // never expire are cleared by the listeners when a generation closes
+    this.reopenGrace = Math.max(conf.getLong("searcher.reopen.grace", 900),
+                                conf.getLong("searcher.cache.expire", 600))
+      * 1000;
+    this.warmupQueries = conf.getStrings("searcher.warmup.queries");
+    this.warmupFields = conf.getStrings("searcher.warmup.fields");
+    this.warmupFilters = conf.getStrings("searcher.warmup.filters");
+    warm(current);
+
+    long interval = conf.getLong("searcher.reopen.interval", 0);
+    if (interval > 0) {
+      reopenService = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "IndexSearcher reopen");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      reopenService.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            reopen();
+          } catch (Throwable e) {
+            LOG.warn("Failed to reopen index", e);
+          }
+        }
+      }, interval, interval, TimeUnit.SECONDS);
+    }
   }
 
+  /** Returns the {@link ImpactOrder} of a single index sorted by boost, if
+   * <code>searcher.impact.order</code> is set, or null. */
+  private static ImpactOrder readImpactOrder(IndexReader reader,
+                                             Configuration conf)
+    throws IOException {
+    if (reader instanceof MultiReader
+        || !conf.getBoolean("searcher.impact.order", true)) {
+      return null;
+    }
+    ImpactOrder impacts = ImpactOrder.read(reader);
+    if (impacts != null && LOG.isInfoEnabled()) {
+      LOG.info("Index is sorted by boost, searches may stop early");
+    }
+    return impacts;
+  }
+
+  /** Local indexes are memory mapped if <code>searcher.index.mmap</code> is
+   * set.  Indexes in DFS are read through {@link CachingFsDirectory}s sharing
+   * one block cache, unless <code>searcher.fs.block.cache.max.bytes</code>
+   * is zero. */
   private Directory getDirectory(Path file) throws IOException {
     if ("file".equals(this.fs.getUri().getScheme())) {
       Path qualified = file.makeQualified(FileSystem.getLocal(conf));
       File fsLocal = new File(qualified.toUri());
-      return FSDirectory.getDirectory(fsLocal.getAbsolutePath());
+      Directory directory = FSDirectory.getDirectory(fsLocal.getAbsolutePath());
+      if (conf.getBoolean("searcher.index.mmap", false)) {
+        return new MappedDirectory(directory, fsLocal);
+      }
+      return directory;
+    } else if (conf.getLong("searcher.fs.block.cache.max.bytes", 1) > 0) {
+      if (blockCache == null) {
+        blockCache = CachingFsDirectory.createBlockCache(conf);
+      }
+      return new CachingFsDirectory(this.fs, file, blockCache, this.conf);
     } else {
       return new FsDirectory(this.fs, file, false, this.conf);
     }
   }
 
+  /**
+   * Adds a listener which is run whenever a new generation replaces the
+   * current one and whenever a replaced generation is closed, e.g. to clear
+   * caches of results and details which refer to older generations.
+   */
+  public void addReopenListener(Runnable listener) {
+    reopenListeners.add(listener);
+  }
+
+  private void notifyReopenListeners() {
+    for (Runnable listener : reopenListeners) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Reopens the indexes if they changed.  The new generation is warmed like
+   * the first one before it replaces the current one.  A replaced generation
+   * is closed once it is unused and its grace expired.
+   * @return true if a new generation was opened
+   */
+  public synchronized boolean reopen() throws IOException {
+    if (current == null) {
+      return false;                               // closed
+    }
+    releaseReplaced(false);
+    IndexReader reader = current.reader;
+    if (reader.isCurrent()) {
+      return false;
+    }
+    IndexReader newReader = reader.reopen();
+    if (newReader == reader) {
+      return false;
+    }
+    Generation generation = new Generation(current.number + 1, newReader,
+                                           readImpactOrder(newReader, conf));
+    try {
+      warm(generation);
+    } catch (IOException e) {
+      generation.release();
+      throw e;
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Opened index generation " + generation.number + " with "
+               + newReader.numDocs() + " documents");
+    }
+    current.retired = System.currentTimeMillis();
+    replaced.add(current);
+    current = generation;
+    notifyReopenListeners();
+    return true;
+  }
+
+  /** Releases the replaced generations, if forced or their grace expired. */
+  private void releaseReplaced(boolean force) throws IOException {
+    long now = System.currentTimeMillis();
+    boolean released = false;
+    Iterator<Generation> i = replaced.iterator();
+    while (i.hasNext()) {
+      Generation generation = i.next();
+      if (force || now - generation.retired >= reopenGrace) {
+        i.remove();
+        generation.release();
+        released = true;
+      }
+    }
+    if (released && !force) {
+      notifyReopenListeners();
+    }
+  }
+
+  /** Loads the field cache of the fields in
+   * <code>searcher.warmup.fields</code>, computes the filters of the queries
+   * in <code>searcher.warmup.filters</code> and runs the queries in
+   * <code>searcher.warmup.queries</code>. */
+  private void warm(Generation generation) throws IOException {
+    if (warmupFields != null) {
+      for (String field : warmupFields) {
+        FieldCache.DEFAULT.getStrings(generation.reader, field.trim());
+      }
+    }
+    if (warmupFilters != null) {
+      for (String query : warmupFilters) {
+        optimizer.warm(queryFilters.filter(Query.parse(query.trim(), conf)),
+                       generation.luceneSearcher, generation.reader);
+      }
+    }
+    if (warmupQueries != null) {
+      for (String query : warmupQueries) {
+        search(generation, Query.parse(query.trim(), conf), 10, null, null,
+               false, Long.MAX_VALUE);
+      }
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Warmed index generation " + generation.number
+               + ", filter cache: " + optimizer.getFilterCache());
+    }
+  }
+
+
+  /** Returns the current generation, with a reference to be released. */
+  private Generation acquire() throws IOException {
+    while (true) {
+      Generation generation = current;
+      if (generation == null) {
+        throw new IOException("Searcher closed");
+      }
+      if (generation.acquire()) {
+        return generation;
+      }
+    }
+  }
+
+  /** Returns the generation of a hit, with a reference to be released. */
+  private Generation acquire(Hit hit) throws IOException {
+    int number = getGeneration(hit);
+    Generation generation = current;
+    if (generation == null || generation.number != number) {
+      synchronized (this) {                       // may have just been swapped
+        generation = current != null && current.number == number
+          ? current : null;
+        for (Generation old : replaced) {
+          if (old.number == number) {
+            generation = old;
+          }
+        }
+      }
+    }
+    if (generation == null || generation.number != number
+        || !generation.acquire()) {
+      throw new IOException("Index generation " + number + " of hit "
+                            + hit.getUniqueKey() + " is closed");
+    }
+    return generation;
+  }
+
+  private static int getGeneration(Hit hit) {
+    String key = hit.getUniqueKey();
+    int colon = key.indexOf(':');
+    return colon < 0 ? 0 : Integer.parseInt(key.substring(0, colon));
+  }
+
+  private static int getDoc(Hit hit) {
+    String key = hit.getUniqueKey();
+    return Integer.parseInt(key.substring(key.indexOf(':') + 1));
+  }
+
   public Hits search(Query query, int numHits,
                      String dedupField, String sortField, boolean reverse)
 
     throws IOException {
+    Generation generation = acquire();
+    try {
+      return search(generation, query, numHits, dedupField, sortField,
+                    reverse, Long.MAX_VALUE);
+    } finally {
+      generation.release();
+    }
+  }
+
+  private Hits search(Generation generation, Query query, int numHits,
+                      String dedupField, String sortField, boolean reverse,
+                      long deadline)
+    throws IOException {
     org.apache.lucene.search.BooleanQuery luceneQuery =
       this.queryFilters.filter(query);
     return translateHits
-      (optimizer.optimize(luceneQuery, luceneSearcher, numHits,
-                          sortField, reverse),
+      (generation, optimizer.optimize(luceneQuery, generation.luceneSearcher,
+                                      numHits, 0, null, sortField, reverse,
+                                      deadline, generation.impacts),
        dedupField, sortField);
   }
 
+  /** Hits ranked by score are deduplicated while collecting them.  Sorted
+   * hits are searched with <code>searcher.hostgrouping.rawhits.factor</code>
+   * times more hits, which are then limited. */
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse)
+    throws IOException {
+    return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+                  reverse, Long.MAX_VALUE);
+  }
+
+  /** Documents are scored in blocks, and the search stops at the first
+   * block boundary past the deadline. */
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse,
+                     long deadline)
+    throws IOException {
+    Generation generation = acquire();
+    try {
+      if (maxHitsPerDup <= 0) {
+        return search(generation, query, numHits, dedupField, sortField,
+                      reverse, deadline);
+      }
+      if (sortField != null || reverse || dedupField == null) {
+        final int numHitsRaw = (int)(numHits * rawHitsFactor);
+        return search(generation, query, numHitsRaw, dedupField, sortField,
+                      reverse, deadline).limitPerDup(numHits, maxHitsPerDup);
+      }
+      org.apache.lucene.search.BooleanQuery luceneQuery =
+        this.queryFilters.filter(query);
+      String[] dedupValues =
+        FieldCache.DEFAULT.getStrings(generation.reader, dedupField);
+      return translateHits
+        (generation,
+         optimizer.optimize(luceneQuery, generation.luceneSearcher, numHits,
+                            maxHitsPerDup, dedupValues, null, false,
+                            deadline, generation.impacts),
+         dedupField, null);
+    } finally {
+      generation.release();
+    }
+  }
+
   public String getExplanation(Query query, Hit hit) throws IOException {
-    return luceneSearcher.explain(this.queryFilters.filter(query),
-        Integer.valueOf(hit.getUniqueKey())).toHtml();
+    Generation generation = acquire(hit);
+    try {
+      return generation.luceneSearcher.explain(this.queryFilters.filter(query),
+                                               getDoc(hit)).toHtml();
+    } finally {
+      generation.release();
+    }
   }
 
   public HitDetails getDetails(Hit hit) throws IOException {
+    return getDetails(hit, null);
+  }
 
-    Document doc = luceneSearcher.doc(Integer.valueOf(hit.getUniqueKey()));
+  private HitDetails getDetails(Hit hit, FieldSelector selector)
+    throws IOException {
+
+    Document doc;
+    Generation generation = acquire(hit);
+    try {
+      doc = selector == null
+        ? generation.luceneSearcher.doc(getDoc(hit))
+        : generation.luceneSearcher.doc(getDoc(hit), selector);
+    } finally {
+      generation.release();
+    }
 
     List docFields = doc.getFields();
     String[] fields = new String[docFields.size()];
@@ -123,19 +492,51 @@ public class IndexSearcher implements Searcher, HitDetailer {
   }
 
   public HitDetails[] getDetails(Hit[] hits) throws IOException {
+    return getDetails(hits, null);
+  }
+
+  /** Reads the stored fields of the hits in document order, which is
+   * their order in the index files.  Fields which are not named are skipped
+   * without being read. */
+  public HitDetails[] getDetails(final Hit[] hits, String[] fields)
+    throws IOException {
+    FieldSelector selector = fields == null ? null : new MapFieldSelector(fields);
+    final int[] docs = new int[hits.length];
+    Integer[] order = new Integer[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      docs[i] = getDoc(hits[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer i1, Integer i2) {
+        return docs[i1] < docs[i2] ? -1 : (docs[i1] == docs[i2] ? 0 : 1);
+      }
+    });
     HitDetails[] results = new HitDetails[hits.length];
-    for (int i = 0; i < hits.length; i++)
-      results[i] = getDetails(hits[i]);
+    for (int i = 0; i < order.length; i++) {
+      results[order[i]] = getDetails(hits[order[i]], selector);
+    }
     return results;
   }
 
-  private Hits translateHits(TopDocs topDocs,
+  private Hits translateHits(Generation generation, TopDocs topDocs,
                              String dedupField, String sortField)
     throws IOException {
 
+    boolean complete = true;
+    boolean totalIsExact = true;
+    if (topDocs instanceof LuceneQueryOptimizer.PartialTopDocs) {
+      LuceneQueryOptimizer.PartialTopDocs partialDocs =
+        (LuceneQueryOptimizer.PartialTopDocs)topDocs;
+      topDocs = partialDocs.docs;
+      complete = !partialDocs.timedOut;
+      totalIsExact = false;
+    }
+
     String[] dedupValues = null;
     if (dedupField != null) 
-      dedupValues = FieldCache.DEFAULT.getStrings(reader, dedupField);
+      dedupValues = FieldCache.DEFAULT.getStrings(generation.reader,
+                                                  dedupField);
 
     ScoreDoc[] scoreDocs = topDocs.scoreDocs;
     int length = scoreDocs.length;
@@ -162,14 +563,47 @@ public class IndexSearcher implements Searcher, HitDetailer {
 
       String dedupValue = dedupValues == null ? null : dedupValues[doc];
 
-      hits[i] = new Hit(Integer.toString(doc), sortValue, dedupValue);
+      hits[i] = new Hit(generation.getKey(doc), sortValue, dedupValue);
     }
-    return new Hits(topDocs.totalHits, hits);
+    Hits results = new Hits(topDocs.totalHits, hits);
+    if (topDocs instanceof DedupCollector.DedupTopDocs) {
+      DedupCollector.DedupTopDocs dedupDocs =
+        (DedupCollector.DedupTopDocs)topDocs;
+      for (int i = 0; i < length; i++) {
+        hits[i].setMoreFromDupExcluded(dedupDocs.moreFromDupExcluded[i]);
+      }
+      totalIsExact &= !dedupDocs.excluded;
+    }
+    results.setTotalIsExact(totalIsExact);
+    results.setComplete(complete);
+    return results;
   }
   
+  /** Returns the maximum number of slices a search is split into, or zero
+   * if searches are not split. */
+  public int getSliceCount() {
+    return optimizer.getSliceCount();
+  }
+
+  /** Returns the histogram of the search times of a slice, the first slice
+   * holding the first documents. */
+  public LatencyHistogram getSliceLatency(int slice) {
+    return optimizer.getSliceLatency(slice);
+  }
+
   public void close() throws IOException {
-    if (luceneSearcher != null) { luceneSearcher.close(); }
-    if (reader != null) { reader.close(); }
+    if (reopenService != null) { reopenService.shutdownNow(); }
+    optimizer.close();
+    if (LOG.isInfoEnabled()) {
+      for (int i = 0; i < getSliceCount(); i++) {
+        LOG.info("Slice " + i + " search times: " + getSliceLatency(i));
+      }
+    }
+    synchronized (this) {
+      releaseReplaced(true);
+      if (current != null) { current.release(); }
+      current = null;
+    }
   }
 
 }
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of latencies in milliseconds.  Buckets grow
+ * exponentially, so percentiles are accurate to about 20% of their value,
+ * from one millisecond up to about half an hour.
+ */
+public class LatencyHistogram {
+
+  private static final double GROWTH = 1.2;
+
+  private static final int BUCKETS = 76;
+
+  /** Upper bound in milliseconds of each bucket, the last is unbounded. */
+  private static final long[] BOUNDS = new long[BUCKETS];
+
+  static {
+    double bound = 1.0;
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      BOUNDS[i] = (long)Math.ceil(bound);
+      bound = Math.max(bound * GROWTH, BOUNDS[i] + 1);
+    }
+    BOUNDS[BUCKETS - 1] = Long.MAX_VALUE;
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /** Adds a latency. */
+  public void add(long millis) {
+    int low = 0;
+    int high = BUCKETS - 1;
+    while (low < high) {                          // find the first bound >= millis
+      int mid = (low + high) >>> 1;
+      if (BOUNDS[mid] < millis) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    counts.incrementAndGet(low);
+  }
+
+  /** Returns the number of latencies added. */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the latency below which the given fraction of latencies are,
+   * rounded up to the upper bound of its bucket, or -1 if the histogram is
+   * empty.
+   * @param fraction a value between 0 and 1, e.g. 0.95 for the 95th
+   *        percentile
+   */
+  public long getPercentile(double fraction) {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return -1;
+    }
+    long rank = (long)Math.ceil(fraction * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && seen > 0) {
+        return i == BUCKETS - 1 ? BOUNDS[BUCKETS - 2] : BOUNDS[i];
+      }
+    }
+    return BOUNDS[BUCKETS - 2];
+  }
+
+  /** Removes all latencies. */
+  public void clear() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  public String toString() {
+    return "count=" + getCount() + ", p50=" + getPercentile(0.5)
+      + ", p95=" + getPercentile(0.95) + ", p99=" + getPercentile(0.99);
+  }
+}
@@ -19,14 +19,26 @@ package org.apache.nutch.searcher;
 
 import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.*;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.misc.ChainedFilter;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.indexer.ImpactOrder;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.IOException;
 
@@ -34,139 +46,260 @@ import java.io.IOException;
  * caches these.  Only required clauses whose boost is zero are converted to
  * cached filters.  Range queries are converted to range filters.  This
  * accellerates query constraints like date, language, document format, etc.,
- * which do not affect ranking but might otherwise slow search considerably. */
+ * which do not affect ranking but might otherwise slow search considerably.
+ *
+ * <p>If <code>searcher.parallel.threads</code> is positive, large indexes are
+ * split into slices of consecutive documents, which are searched
+ * concurrently, and their top hits are merged.</p> */
 class LuceneQueryOptimizer {
 
-  // This thread provides a pseudo-clock service to all searching
-  // threads, so that they can count elapsed time with less overhead than
-  // repeatedly calling System.currentTimeMillis.
-  private TimerThread timerThread = null;
-
-  private static class TimerThread extends Thread {
-    private int tick;
-    // NOTE: we can avoid explicit synchronization here for several reasons:
-    // * updates to 32-bit-sized variables are atomic
-    // * only single thread modifies this value
-    // * use of volatile keyword ensures that it does not reside in
-    //   a register, but in main memory (so that changes are visible to
-    //   other threads).
-    // * visibility of changes does not need to be instantanous, we can
-    //   afford losing a tick or two.
-    //
-    // See section 17 of the Java Language Specification for details.
-    public volatile int timeCounter = 0;
-
-    boolean running = true;
-
-    public TimerThread(int tick) {
-      super("LQO timer thread");
-      this.tick = tick;
-      this.setDaemon(true);
-    }
+  /** Number of candidate documents between checks of the deadline. */
+  private static final int CHECK_INTERVAL = 1024;
 
-    public void run() {
-      while(running) {
-        timeCounter++;
-        try {
-          Thread.sleep(tick);
-        } catch (InterruptedException ie) {};
-      }
+  /** Scores may exceed their computed bound by float rounding. */
+  private static final float BOUND_SLACK = 1.0001f;
+
+  /** The top docs of a search which stopped early, at its deadline, at
+   * <code>searcher.max.hits</code> or once no later document of an index in
+   * {@link ImpactOrder} could be among them, with an estimated total. */
+  static class PartialTopDocs extends TopDocs {
+    /** The top docs found, e.g. a {@link DedupCollector.DedupTopDocs}. */
+    final TopDocs docs;
+    /** True if the search stopped at its deadline, so that better hits may
+     * have been missed, false if it stopped at the hit limit. */
+    final boolean timedOut;
+
+    PartialTopDocs(TopDocs docs, boolean timedOut) {
+      super(docs.totalHits, docs.scoreDocs, docs.getMaxScore());
+      this.docs = docs;
+      this.timedOut = timedOut;
     }
   }
 
-  private void initTimerThread(int p) {
-    if (timerThread == null || !timerThread.isAlive()) {
-      timerThread = new TimerThread(p);
-      timerThread.start();
+  /** Collects the top hits, exposing the score a hit must beat. */
+  private static class ImpactCollector extends TopDocCollector {
+    private final int numHits;
+
+    ImpactCollector(int numHits) {
+      super(numHits);
+      this.numHits = numHits;
     }
-  }
-  
 
-  @SuppressWarnings("serial")
-  private static class TimeExceeded extends RuntimeException {
-    public long maxTime;
-    private int maxDoc;
-    public TimeExceeded(long maxTime, int maxDoc) {
-      super("Exceeded search time: " + maxTime + " ms.");
-      this.maxTime = maxTime;
-      this.maxDoc = maxDoc;
+    /** Returns the lowest score of the top hits, or negative infinity until
+     * there are <code>numHits</code> of them. */
+    float minScore() {
+      return hq.size() < numHits
+        ? Float.NEGATIVE_INFINITY : ((ScoreDoc)hq.top()).score;
     }
   }
 
-  private static class LimitedCollector extends TopDocCollector {
-    private int maxHits;
-    private int maxTicks;
-    private int startTicks;
-    private TimerThread timer;
-    private int curTicks;
+  /** Orders score docs by decreasing score, then increasing doc. */
+  private static final Comparator<ScoreDoc> SCORE_ORDER =
+    new Comparator<ScoreDoc>() {
+      public int compare(ScoreDoc d1, ScoreDoc d2) {
+        if (d1.score != d2.score) {
+          return d1.score > d2.score ? -1 : 1;
+        }
+        return d1.doc - d2.doc;
+      }
+    };
 
-    public LimitedCollector(int numHits, int maxHits, int maxTicks,
-            TimerThread timer) {
-      super(numHits);
+  /** A range of documents, searched by one thread, and its results. */
+  private class Slice implements Runnable {
+    private final int number;
+    private final int start;
+    private final int end;
+    private final IndexReader reader;
+    private final Weight weight;
+    private final Filter filter;
+    private final HitCollector collector;
+    private final long deadline;
+    private final ImpactOrder impacts;
+    private final float maxImpact;
+    private final int maxHits;
+    private int stoppedAt;
+    private boolean bounded;
+
+    Slice(int number, int start, int end, IndexReader reader, Weight weight,
+          Filter filter, HitCollector collector, long deadline,
+          ImpactOrder impacts, float maxImpact, int maxHits) {
+      this.number = number;
+      this.start = start;
+      this.end = end;
+      this.reader = reader;
+      this.weight = weight;
+      this.filter = filter;
+      this.collector = collector;
+      this.deadline = deadline;
+      this.impacts = impacts;
+      this.maxImpact = maxImpact;
       this.maxHits = maxHits;
-      this.maxTicks = maxTicks;
-      if (timer != null) {
-    	this.timer = timer;
-        this.startTicks = timer.timeCounter;
-      }
     }
 
-    public void collect(int doc, float score) {
-      if (maxHits > 0 && getTotalHits() >= maxHits) {
-        throw new LimitExceeded(doc);
+    public void run() {
+      long begin = System.currentTimeMillis();
+      try {
+        stoppedAt = search(reader, weight, filter, collector, deadline,
+                           impacts, maxImpact, start, end, maxHits);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
-      if (timer != null) {
-        curTicks = timer.timeCounter;
-        // overflow check
-        if (curTicks < startTicks) curTicks += Integer.MAX_VALUE;
-        if (curTicks - startTicks > maxTicks) {
-          throw new TimeExceeded(timer.tick * (curTicks - startTicks), doc);
-        }
+      bounded = stoppedAt >= 0
+        && isBounded(stoppedAt, collector, impacts, maxImpact);
+      sliceLatencies[number].add(System.currentTimeMillis() - begin);
+    }
+
+    /** Returns the number of hits of this slice given those collected,
+     * estimated if the search stopped early. */
+    int getTotalHits(int hits) {
+      if (stoppedAt < 0) {
+        return hits;
       }
-      super.collect(doc, score);
+      return (int)(hits
+                   * ((end - start) / (float)Math.max(stoppedAt - start, 1)));
     }
   }
-  
-  @SuppressWarnings("serial")
-private static class LimitExceeded extends RuntimeException {
-    private int maxDoc;
-    public LimitExceeded(int maxDoc) { this.maxDoc = maxDoc; }    
-  }
-  
-  private LinkedHashMap<BooleanQuery, Filter> cache;                   // an LRU cache of QueryFilter
-  
+
+  /** Estimated bytes used by a cached filter besides its bits. */
+  static final int FILTER_OVERHEAD = 256;
+
+  private WeightedCache<BooleanQuery, Filter> cache;
+
   private float threshold;
 
+  private Set<String> alwaysFields;
+
+  private Set<String> neverFields;
+
   private int searcherMaxHits;
 
-  private int tickLength;
+  private long maxTime;
 
-  private int maxTickCount;
+  private ThreadPoolExecutor executor;
+
+  private int minSliceDocs;
+
+  private LatencyHistogram[] sliceLatencies;
   
   /**
    * Construct an optimizer that caches and uses filters for required clauses
-   * whose boost is zero.
-   * 
-   * @param cacheSize
-   *          the number of QueryFilters to cache
-   * @param threshold
-   *          the fraction of documents which must contain a term
+   * whose boost is zero.  Up to <code>searcher.filter.cache.size</code>
+   * filters weighing <code>searcher.filter.cache.max.bytes</code> are cached.
+   * Term clauses matching less than <code>searcher.filter.cache.threshold</code>
+   * of the documents are not cached, unless their field is in
+   * <code>searcher.filter.cache.always</code>.  Clauses with a field in
+   * <code>searcher.filter.cache.never</code> are never cached.
+   *
+   * <p>Up to <code>searcher.parallel.threads</code> threads search slices
+   * of at least <code>searcher.parallel.slice.min.docs</code> documents.
+   * When they are all busy, slices are searched by the calling thread, so
+   * that under load searches are no slower than without slices.</p>
    */
-  @SuppressWarnings("serial")
-public LuceneQueryOptimizer(Configuration conf) {
-    final int cacheSize = conf.getInt("searcher.filter.cache.size", 16);
+  public LuceneQueryOptimizer(Configuration conf) {
+    this.cache = new WeightedCache<BooleanQuery, Filter>(
+        conf.getInt("searcher.filter.cache.size", 16),
+        conf.getLong("searcher.filter.cache.max.bytes", 64 * 1024 * 1024));
     this.threshold = conf.getFloat("searcher.filter.cache.threshold",
         0.05f);
+    this.alwaysFields = getFields(conf, "searcher.filter.cache.always");
+    this.neverFields = getFields(conf, "searcher.filter.cache.never");
     this.searcherMaxHits = conf.getInt("searcher.max.hits", -1);
-    this.cache = new LinkedHashMap<BooleanQuery, Filter>(cacheSize, 0.75f, true) {
-      protected boolean removeEldestEntry(Map.Entry<BooleanQuery, Filter> eldest) {
-        return size() > cacheSize; // limit size of cache
+    int maxTickCount = conf.getInt("searcher.max.time.tick_count", -1);
+    if (maxTickCount > 0) {
+      this.maxTime = maxTickCount
+        * (long)conf.getInt("searcher.max.time.tick_length", 200);
+    }
+    int threads = conf.getInt("searcher.parallel.threads", 0);
+    if (threads > 0) {
+      this.minSliceDocs =
+        Math.max(conf.getInt("searcher.parallel.slice.min.docs", 100000), 1);
+      this.sliceLatencies = new LatencyHistogram[threads + 1];
+      for (int i = 0; i < sliceLatencies.length; i++) {
+        sliceLatencies[i] = new LatencyHistogram();
+      }
+      this.executor = new ThreadPoolExecutor(threads, threads,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "ParallelSearch-"
+                                         + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          }, new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r,
+                                          ThreadPoolExecutor executor) {
+              r.run();                            // also once closed
+            }
+          });
+      this.executor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  private static Set<String> getFields(Configuration conf, String name) {
+    Set<String> fields = new HashSet<String>();
+    String[] values = conf.getStrings(name);
+    if (values != null) {
+      for (String value : values) {
+        fields.add(value.trim());
       }
-    };
-    this.tickLength = conf.getInt("searcher.max.time.tick_length", 200);
-    this.maxTickCount = conf.getInt("searcher.max.time.tick_count", -1);
-    if (this.maxTickCount > 0) {
-      initTimerThread(this.tickLength);
+    }
+    return fields;
+  }
+
+  /** Returns the cache of filters. */
+  WeightedCache<BooleanQuery, Filter> getFilterCache() {
+    return cache;
+  }
+
+  /** Returns the maximum number of slices a search is split into, or zero
+   * if searches are not split. */
+  int getSliceCount() {
+    return sliceLatencies == null ? 0 : sliceLatencies.length;
+  }
+
+  /** Returns the histogram of the search times of a slice. */
+  LatencyHistogram getSliceLatency(int slice) {
+    return sliceLatencies[slice];
+  }
+
+  /** Returns the number of slices to split an index into. */
+  private int getSlices(int maxDoc) {
+    if (executor == null) {
+      return 1;
+    }
+    return Math.max(Math.min(sliceLatencies.length, maxDoc / minSliceDocs), 1);
+  }
+
+  /** Stops the threads searching slices. */
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /** Returns the field of a clause's query, or null if it has none or
+   * several. */
+  private static String getField(org.apache.lucene.search.Query query) {
+    if (query instanceof TermQuery) {
+      return ((TermQuery)query).getTerm().field();
+    } else if (query instanceof RangeQuery) {
+      return ((RangeQuery)query).getField();
+    } else if (query instanceof PrefixQuery) {
+      return ((PrefixQuery)query).getPrefix().field();
+    }
+    return null;
+  }
+
+  /** Computes and caches the filter of a query's filter clauses, if it has
+   * any, for an index, e.g. to warm a newly opened index with frequent
+   * filters. */
+  public void warm(BooleanQuery original, Searcher searcher,
+                   IndexReader reader) throws IOException {
+    Filter filter = getFilter(original, searcher, new BooleanQuery());
+    if (filter != null) {
+      filter.getDocIdSet(reader);
     }
   }
 
@@ -174,8 +307,14 @@ public LuceneQueryOptimizer(Configuration conf) {
                           Searcher searcher, int numHits,
                           String sortField, boolean reverse)
     throws IOException {
+    return optimize(original, searcher, numHits, 0, null, sortField, reverse,
+                    Long.MAX_VALUE);
+  }
 
-    BooleanQuery query = new BooleanQuery();
+  /** Returns the cached filter for the filter clauses of a query, or null if
+   * there are none, and adds its other clauses to <code>query</code>. */
+  private Filter getFilter(BooleanQuery original, Searcher searcher,
+                           BooleanQuery query) throws IOException {
     BooleanQuery cacheQuery = new BooleanQuery();
     BooleanQuery filterQuery = new BooleanQuery();
     ArrayList<Filter> filters = new ArrayList<Filter>();
@@ -183,10 +322,13 @@ public LuceneQueryOptimizer(Configuration conf) {
     BooleanClause[] clauses = original.getClauses();
     for (int i = 0; i < clauses.length; i++) {
       BooleanClause c = clauses[i];
+      String field = getField(c.getQuery());
       if (c.isRequired()                          // required
-          && c.getQuery().getBoost() == 0.0f) {   // boost is zero
+          && c.getQuery().getBoost() == 0.0f      // boost is zero
+          && !neverFields.contains(field)) {      // may be cached
 
         if (c.getQuery() instanceof TermQuery     // TermQuery
+            && !alwaysFields.contains(field)
             && (searcher.docFreq(((TermQuery)c.getQuery()).getTerm())
                 / (float)searcher.maxDoc()) < threshold) { // beneath threshold
           query.add(c);                           // don't filterize
@@ -215,63 +357,415 @@ public LuceneQueryOptimizer(Configuration conf) {
       query.add(c);                               // query it
     }
 
-    Filter filter = null;
-    if (cacheQuery.getClauses().length != 0) {
-      synchronized (cache) {                      // check cache
-        filter = cache.get(cacheQuery);
+    if (cacheQuery.getClauses().length == 0) {
+      return null;
+    }
+    Filter filter = cache.get(cacheQuery);        // check cache
+    if (filter == null) {                         // miss
+
+      if (filterQuery.getClauses().length != 0) // add filterQuery to filters
+        filters.add(new CachingWrapperFilter(new QueryWrapperFilter(filterQuery)));
+
+      if (filters.size() == 1) {                // convert filters to filter
+        filter = (Filter)filters.get(0);
+      } else {
+        filter = new ChainedFilter((Filter[])filters.toArray
+                                   (new Filter[filters.size()]),
+                                   ChainedFilter.AND);
       }
-      if (filter == null) {                       // miss
+      if (!(filter instanceof CachingWrapperFilter))     // make sure bits are cached
+        filter = new CachingWrapperFilter(filter);
 
-        if (filterQuery.getClauses().length != 0) // add filterQuery to filters
-          filters.add(new CachingWrapperFilter(new QueryWrapperFilter(filterQuery)));
+      // one bit per document, usually for a single reader
+      filter = cache.putIfAbsent(cacheQuery, filter,
+                                 searcher.maxDoc() / 8 + FILTER_OVERHEAD);
+    }
+    return filter;
+  }
 
-        if (filters.size() == 1) {                // convert filters to filter
-          filter = (Filter)filters.get(0);
-        } else {
-          filter = new ChainedFilter((Filter[])filters.toArray
-                                     (new Filter[filters.size()]),
-                                     ChainedFilter.AND);
-        }
-        if (!(filter instanceof CachingWrapperFilter))     // make sure bits are cached
-          filter = new CachingWrapperFilter(filter);
-        
-        synchronized (cache) {
-          cache.put(cacheQuery, filter);          // cache the filter
-        }
-      }        
+  /**
+   * Search for the top hits of a query.  If <code>maxHitsPerDup</code> is
+   * positive and hits are ranked by score, at most that many hits with the
+   * same dedup value are collected, and a
+   * {@link DedupCollector.DedupTopDocs} is returned.
+   *
+   * @param maxHitsPerDup the maximum hits with matching values, or zero
+   * @param dedupValues the dedup value of each document
+   */
+  public TopDocs optimize(BooleanQuery original,
+                          Searcher searcher, int numHits,
+                          int maxHitsPerDup, String[] dedupValues,
+                          String sortField, boolean reverse)
+    throws IOException {
+    return optimize(original, searcher, numHits, maxHitsPerDup, dedupValues,
+                    sortField, reverse, Long.MAX_VALUE);
+  }
+
+  /**
+   * Search for the top hits of a query until a deadline.  A search which
+   * reaches the deadline, <code>searcher.max.time.tick_count</code> ticks or,
+   * if ranked by score, <code>searcher.max.hits</code> hits stops between two
+   * documents, and a {@link PartialTopDocs} with the hits found so far and an
+   * estimated total is returned.  A search sorted by a field is not limited
+   * in hits, since the first hits in document order need not be its top hits.
+   *
+   * @param deadline the time in milliseconds since the epoch to stop at
+   */
+  public TopDocs optimize(BooleanQuery original,
+                          Searcher searcher, int numHits,
+                          int maxHitsPerDup, String[] dedupValues,
+                          String sortField, boolean reverse, long deadline)
+    throws IOException {
+    return optimize(original, searcher, numHits, maxHitsPerDup, dedupValues,
+                    sortField, reverse, deadline, null);
+  }
+
+  /**
+   * Search for the top hits of a query until a deadline, in an index which
+   * may be sorted by boost.  Then a search ranked by score also stops once
+   * the boost of the next document times the query's maximum impact is not
+   * greater than the lowest score of the top hits, since neither it nor any
+   * later document could be among them.  The top hits are exact, only the
+   * total is estimated.
+   *
+   * @param impacts the order of the searcher's index, or null
+   */
+  public TopDocs optimize(BooleanQuery original,
+                          Searcher searcher, int numHits,
+                          int maxHitsPerDup, String[] dedupValues,
+                          String sortField, boolean reverse, long deadline,
+                          ImpactOrder impacts)
+    throws IOException {
+
+    BooleanQuery query = new BooleanQuery();
+    Filter filter = getFilter(original, searcher, query);
+    if (maxTime > 0) {
+      deadline = Math.min(deadline, System.currentTimeMillis() + maxTime);
+    }
+    boolean scored = sortField == null && !reverse;
+    float maxImpact = Float.POSITIVE_INFINITY;
+    if (impacts != null && scored) {
+      maxImpact = getMaxImpact(query, searcher, impacts) * BOUND_SLACK;
     }
-    if (sortField == null && !reverse) {
+    if (Float.isInfinite(maxImpact)) {
+      impacts = null;                             // no bound for this query
+    }
+    int maxHits = scored ? searcherMaxHits : 0;
+    boolean limited =
+      maxHits > 0 || deadline != Long.MAX_VALUE || impacts != null;
 
-      // no hit limit
-      if (this.searcherMaxHits <= 0 && timerThread == null)  {
-        return searcher.search(query, filter, numHits);
+    boolean dedup = scored && maxHitsPerDup > 0 && dedupValues != null;
+
+    if (searcher instanceof org.apache.lucene.search.IndexSearcher
+        && (scored || sortField != null)) {
+      IndexReader reader =
+        ((org.apache.lucene.search.IndexSearcher)searcher).getIndexReader();
+      int slices = getSlices(reader.maxDoc());
+      if (slices > 1) {
+        return search(reader, query.weight(searcher), filter, numHits,
+                      dedup ? maxHitsPerDup : 0, dedupValues,
+                      scored ? null : new Sort(sortField, reverse),
+                      deadline, impacts, maxImpact, maxHits, slices);
       }
+    }
 
-      // hits limited in time or in count -- use a LimitedCollector
-      LimitedCollector collector = new LimitedCollector(numHits, searcherMaxHits,
-              maxTickCount, timerThread);
-      LimitExceeded exceeded = null;
-      TimeExceeded timeExceeded = null;
-      try {
-        searcher.search(query, filter, collector);
-      } catch (LimitExceeded le) {
-        exceeded = le;
-      } catch (TimeExceeded te) {
-        timeExceeded = te;
+    DedupCollector dedupCollector = null;
+    if (dedup) {
+      dedupCollector = new DedupCollector(numHits, maxHitsPerDup, dedupValues);
+    }
+
+    // no hit or time limit
+    if (!limited
+        || !(searcher instanceof org.apache.lucene.search.IndexSearcher)) {
+      if (!scored) {
+        return searcher.search(query, filter, numHits,
+                               new Sort(sortField, reverse));
       }
-      TopDocs results = collector.topDocs();
-      if (exceeded != null) {                     // limit was exceeded
-        results.totalHits = (int)                 // must estimate totalHits
-          (results.totalHits*(searcher.maxDoc()/(float)exceeded.maxDoc));
-      } else if (timeExceeded != null) {
-        // Estimate total hits.
-        results.totalHits = (int)(results.totalHits * (searcher.maxDoc()/(float)timeExceeded.maxDoc));
+      if (dedupCollector == null) {
+        return searcher.search(query, filter, numHits);
       }
+      searcher.search(query, filter, dedupCollector);
+      return dedupCollector.topDocs();
+    }
+
+    // hits limited in time or in count -- score documents ourselves
+    IndexReader reader =
+      ((org.apache.lucene.search.IndexSearcher)searcher).getIndexReader();
+    HitCollector collector = dedupCollector;
+    TopDocCollector topCollector = null;
+    if (collector == null) {
+      collector = topCollector = scored ? new ImpactCollector(numHits)
+        : new TopFieldDocCollector(reader, new Sort(sortField, reverse),
+                                   numHits);
+    }
+    int stoppedAt = search(reader, query.weight(searcher), filter, collector,
+                           deadline, impacts, maxImpact, 0, reader.maxDoc(),
+                           maxHits);
+    boolean bounded = stoppedAt >= 0
+      && isBounded(stoppedAt, collector, impacts, maxImpact);
+    TopDocs results = dedupCollector != null
+      ? dedupCollector.topDocs() : topCollector.topDocs();
+    if (stoppedAt < 0) {
       return results;
+    }
+    boolean timedOut = !bounded
+      && (maxHits <= 0 || results.totalHits < maxHits);
+    results.totalHits = (int)                     // must estimate totalHits
+      (results.totalHits * (reader.maxDoc() / (float)Math.max(stoppedAt, 1)));
+    return new PartialTopDocs(results, timedOut);
+  }
+
+  /**
+   * Searches slices of an index concurrently, each with its own collector,
+   * and merges their top hits like a single collector would have collected
+   * them.  Each slice stops at the deadline, at its share of
+   * <code>totalMaxHits</code>, or once it is bounded by the impact order of
+   * the index.
+   *
+   * @param sort the sort of the hits, or null to rank them by score
+   * @param totalMaxHits the number of hits to stop at, or zero for no limit
+   */
+  private TopDocs search(IndexReader reader, Weight weight, Filter filter,
+                         int numHits, int maxHitsPerDup, String[] dedupValues,
+                         Sort sort, long deadline, ImpactOrder impacts,
+                         float maxImpact, int totalMaxHits, int count)
+    throws IOException {
+    int maxDoc = reader.maxDoc();
+    int maxHits = totalMaxHits <= 0
+      ? -1 : (totalMaxHits + count - 1) / count;
+    Slice[] slices = new Slice[count];
+    for (int i = 0; i < count; i++) {
+      HitCollector collector;
+      if (maxHitsPerDup > 0) {
+        collector = new DedupCollector(numHits, maxHitsPerDup, dedupValues);
+      } else if (sort == null) {
+        collector = new ImpactCollector(numHits);
+      } else {
+        collector = new TopFieldDocCollector(reader, sort, numHits);
+      }
+      slices[i] = new Slice(i, (int)((long)maxDoc * i / count),
+                            (int)((long)maxDoc * (i + 1) / count), reader,
+                            weight, filter, collector, deadline, impacts,
+                            maxImpact, maxHits);
+    }
+
+    Future<?>[] futures = new Future<?>[count];
+    for (int i = 1; i < count; i++) {             // may run on this thread
+      futures[i] = executor.submit(slices[i]);
+    }
+    try {
+      slices[0].run();
+      for (int i = 1; i < count; i++) {
+        futures[i].get();
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while searching slices");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause.getCause() instanceof IOException) {
+        throw (IOException)cause.getCause();
+      }
+      throw new RuntimeException(cause);
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw e;
+    } finally {
+      for (int i = 1; i < count; i++) {
+        futures[i].cancel(false);
+      }
+    }
 
+    int totalHits = 0;
+    boolean partial = false;
+    boolean timedOut = false;
+    for (Slice slice : slices) {
+      int sliceHits = maxHitsPerDup > 0
+        ? ((DedupCollector)slice.collector).getTotalHits()
+        : ((TopDocCollector)slice.collector).getTotalHits();
+      totalHits += slice.getTotalHits(sliceHits);
+      if (slice.stoppedAt >= 0) {
+        partial = true;
+        timedOut |= !slice.bounded
+          && (maxHits <= 0 || sliceHits < maxHits);
+      }
+    }
+
+    TopDocs results;
+    if (maxHitsPerDup > 0) {
+      DedupCollector merged =
+        new DedupCollector(numHits, maxHitsPerDup, dedupValues);
+      for (Slice slice : slices) {
+        merged.collect((DedupCollector)slice.collector);
+      }
+      results = merged.topDocs();
+    } else {
+      ArrayList<ScoreDoc> scoreDocs = new ArrayList<ScoreDoc>();
+      float maxScore = Float.NaN;
+      for (Slice slice : slices) {
+        TopDocs docs = ((TopDocCollector)slice.collector).topDocs();
+        scoreDocs.addAll(Arrays.asList(docs.scoreDocs));
+        if (!(docs.getMaxScore() <= maxScore)) {  // NaN if no hits
+          maxScore = Float.isNaN(maxScore) ? docs.getMaxScore()
+            : Math.max(maxScore, docs.getMaxScore());
+        }
+      }
+      ScoreDoc[] all = scoreDocs.toArray(new ScoreDoc[scoreDocs.size()]);
+      Arrays.sort(all, sort == null ? SCORE_ORDER : fieldOrder(sort));
+      ScoreDoc[] top = new ScoreDoc[Math.min(all.length, numHits)];
+      System.arraycopy(all, 0, top, 0, top.length);
+      results = new TopDocs(0, top, maxScore);
+    }
+    results.totalHits = totalHits;
+    return partial ? new PartialTopDocs(results, timedOut) : results;
+  }
+
+  /** Orders field docs by the value of a single sort field, then by
+   * increasing doc, like {@link TopFieldDocCollector}. */
+  private static Comparator<ScoreDoc> fieldOrder(Sort sort) {
+    final boolean reverse = sort.getSort()[0].getReverse();
+    return new Comparator<ScoreDoc>() {
+      @SuppressWarnings("unchecked")
+      public int compare(ScoreDoc d1, ScoreDoc d2) {
+        Comparable v1 = ((FieldDoc)d1).fields[0];
+        Comparable v2 = ((FieldDoc)d2).fields[0];
+        int c;
+        if (v1 == null || v2 == null) {           // missing values first
+          c = v1 == null ? (v2 == null ? 0 : -1) : 1;
+        } else {
+          c = v1.compareTo(v2);
+        }
+        if (reverse) {
+          c = -c;
+        }
+        return c != 0 ? c : d1.doc - d2.doc;
+      }
+    };
+  }
+
+  /**
+   * Scores the documents matching a weight and a filter, in document order,
+   * and passes them to a collector.  The clock is read every
+   * {@link #CHECK_INTERVAL} candidate documents, so that a search past its
+   * deadline stops at the next block boundary instead of unwinding Lucene
+   * with an exception.
+   *
+   * @param impacts the order of the index, or null
+   * @param maxImpact the bound of the query's score divided by boost
+   * @param start the first document to search
+   * @param end the document after the last one to search
+   * @param maxHits the number of hits to stop at, or zero for no limit
+   * @return the document the search stopped at, or -1 if it was done
+   */
+  private int search(IndexReader reader, Weight weight, Filter filter,
+                     HitCollector collector, long deadline,
+                     ImpactOrder impacts, float maxImpact, int start, int end,
+                     int maxHits)
+    throws IOException {
+    if (System.currentTimeMillis() >= deadline) {
+      return start;
+    }
+    Scorer scorer = weight.scorer(reader);
+    if (scorer == null) {
+      return -1;
+    }
+    DocIdSetIterator filterDocs =
+      filter == null ? null : filter.getDocIdSet(reader).iterator();
+    boolean more;
+    if (filterDocs == null) {
+      more = start == 0 ? scorer.next() : scorer.skipTo(start);
+    } else {
+      more = (start == 0 ? filterDocs.next() : filterDocs.skipTo(start))
+        && scorer.skipTo(filterDocs.doc());
+    }
+    int candidates = 0;
+    int totalHits = 0;
+    while (more) {
+      int doc = scorer.doc();
+      if (doc >= end) {
+        return -1;                                // end of the slice
+      }
+      if (++candidates % CHECK_INTERVAL == 0
+          && System.currentTimeMillis() >= deadline) {
+        return doc;                               // out of time
+      }
+      if (impacts != null && isBounded(doc, collector, impacts, maxImpact)) {
+        return doc;                               // no better hits left
+      }
+      if (filterDocs != null && filterDocs.doc() != doc) {
+        more = filterDocs.doc() < doc ? filterDocs.skipTo(doc)
+          : scorer.skipTo(filterDocs.doc());
+        continue;                                 // leapfrog to a common doc
+      }
+      if (maxHits > 0 && totalHits >= maxHits) {
+        return doc;                               // enough hits
+      }
+      float score = scorer.score();
+      if (score > 0.0f) {
+        totalHits++;
+      }
+      collector.collect(doc, score);
+      more = filterDocs == null ? scorer.next()
+        : filterDocs.next() && scorer.skipTo(filterDocs.doc());
+    }
+    return -1;
+  }
+
+  /** True if no document from <code>doc</code> on can be among the top hits
+   * in a collector. */
+  private static boolean isBounded(int doc, HitCollector collector,
+                                   ImpactOrder impacts, float maxImpact) {
+    if (impacts == null) {
+      return false;
+    }
+    float minScore = collector instanceof DedupCollector
+      ? ((DedupCollector)collector).minScore()
+      : ((ImpactCollector)collector).minScore();
+    return impacts.getBoost(doc) * maxImpact <= minScore;
+  }
+
+  /**
+   * Returns the maximum score of a query for a document with a boost of
+   * one, or infinity if it can not be bounded.  Term and phrase clauses
+   * score at most their normalized weight times the maximum impact of their
+   * field, the score of a boolean query is at most the sum of its clauses.
+   */
+  private static float getMaxImpact(BooleanQuery query, Searcher searcher,
+                                    ImpactOrder impacts) throws IOException {
+    Weight weight = query.weight(searcher);       // the query norm it uses
+    float norm = query.getSimilarity(searcher)
+      .queryNorm(weight.sumOfSquaredWeights());
+    return getMaxImpact(query, norm, searcher, impacts);
+  }
+
+  private static float getMaxImpact(org.apache.lucene.search.Query query,
+                                    float norm, Searcher searcher,
+                                    ImpactOrder impacts) throws IOException {
+    String field;
+    if (query instanceof BooleanQuery) {
+      float sum = 0.0f;
+      for (BooleanClause clause : ((BooleanQuery)query).getClauses()) {
+        if (!clause.isProhibited()) {
+          sum += getMaxImpact(clause.getQuery(), norm * query.getBoost(),
+                              searcher, impacts);
+        }
+      }
+      return sum;
+    } else if (query instanceof TermQuery) {
+      field = ((TermQuery)query).getTerm().field();
+    } else if (query instanceof PhraseQuery) {
+      Term[] terms = ((PhraseQuery)query).getTerms();
+      if (terms.length == 0) {
+        return 0.0f;
+      }
+      field = terms[0].field();
     } else {
-      return searcher.search(query, filter, numHits,
-                             new Sort(sortField, reverse));
+      return Float.POSITIVE_INFINITY;
     }
+    Weight weight = query.weight(searcher);
+    weight.sumOfSquaredWeights();                 // renormalize like a clause
+    weight.normalize(norm);
+    return weight.getValue() * impacts.getMaxImpact(field);
   }
 }
@@ -30,7 +30,7 @@ import org.apache.nutch.util.HadoopFSUtil;
 
 public class LuceneSearchBean implements RPCSearchBean {
 
-  public static final long VERSION = 1L;
+  public static final long VERSION = 5L;
 
   private IndexSearcher searcher;
 
@@ -38,6 +38,8 @@ public class LuceneSearchBean implements RPCSearchBean {
 
   private Configuration conf;
 
+  private int compressThreshold;
+
   /**
    * Construct in a named directory.
    * @param conf
@@ -48,6 +50,8 @@ public class LuceneSearchBean implements RPCSearchBean {
   throws IOException {
     this.conf = conf;
     this.fs = FileSystem.get(this.conf);
+    this.compressThreshold =
+      conf.getInt("searcher.rpc.compress.threshold", 4096);
     init(indexDir, indexesDir);
   }
 
@@ -78,12 +82,33 @@ public class LuceneSearchBean implements RPCSearchBean {
     }
   }
 
+  /** Adds a listener run when the indexes are reopened.
+   * @see IndexSearcher#addReopenListener(Runnable) */
+  public void addReopenListener(Runnable listener) {
+    searcher.addReopenListener(listener);
+  }
+
   public Hits search(Query query, int numHits, String dedupField,
                      String sortField, boolean reverse)
   throws IOException {
     return searcher.search(query, numHits, dedupField, sortField, reverse);
   }
 
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse)
+  throws IOException {
+    return searcher.search(query, numHits, maxHitsPerDup, dedupField,
+                           sortField, reverse);
+  }
+
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse,
+                     long deadline)
+  throws IOException {
+    return searcher.search(query, numHits, maxHitsPerDup, dedupField,
+                           sortField, reverse, deadline);
+  }
+
   public String getExplanation(Query query, Hit hit) throws IOException {
     return searcher.getExplanation(query, hit);
   }
@@ -96,6 +121,19 @@ public class LuceneSearchBean implements RPCSearchBean {
     return searcher.getDetails(hits);
   }
 
+  public HitDetails[] getDetails(Hit[] hits, String[] fields)
+    throws IOException {
+    return searcher.getDetails(hits, fields);
+  }
+
+  public HitDetailsList getDetailsList(Hits hits, String[] fields)
+    throws IOException {
+    Hit[] array = hits.getHits(0, hits.getLength());
+    return new HitDetailsList(fields == null ? searcher.getDetails(array)
+                              : searcher.getDetails(array, fields),
+                              compressThreshold);
+  }
+
   public boolean ping() throws IOException {
     return true;
   }
@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+
+/**
+ * Looks up entries of the map files written by {@link MapFileOutputFormat},
+ * e.g. a segment sub-directory, from many threads at once.  A
+ * {@link MapFile.Reader} is synchronized for each lookup, so concurrent
+ * lookups of the same part wait for each other.  Here each part has a pool of
+ * data file readers sharing one in-memory key index, and lookups only wait
+ * when all readers of their part are busy.
+ *
+ * <p>The index is that of the map file, with a key every
+ * <code>io.map.index.interval</code> entries, or a denser one with a key every
+ * <code>searcher.segment.index.interval</code> entries, built by scanning the
+ * data file once, so that lookups read fewer entries.  Block compressed data
+ * files always use the index of the map file, since entries within a block
+ * can not be sought.</p>
+ */
+class MapFileReaders implements Closeable {
+
+  public static final Log LOG = LogFactory.getLog(MapFileReaders.class);
+
+  private static final Partitioner<Text, Writable> PARTITIONER =
+    new HashPartitioner<Text, Writable>();
+
+  /** A part with its key index and its pool of data file readers. */
+  private static class Part {
+    private final FileSystem fs;
+    private final Path data;
+    private final Configuration conf;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<SequenceFile.Reader> idle =
+      new ConcurrentLinkedQueue<SequenceFile.Reader>();
+    private final List<SequenceFile.Reader> readers =
+      new ArrayList<SequenceFile.Reader>();
+
+    private Text[] keys;
+    private long[] positions;
+
+    Part(FileSystem fs, Path dir, int maxReaders, int indexInterval,
+         Configuration conf) throws IOException {
+      this.fs = fs;
+      this.data = new Path(dir, MapFile.DATA_FILE_NAME);
+      this.conf = conf;
+      this.permits = new Semaphore(maxReaders);
+
+      SequenceFile.Reader reader = open();
+      try {
+        if (!Text.class.equals(reader.getKeyClass())) {
+          throw new IOException("Not keyed by Text: " + dir);
+        }
+        if (indexInterval > 0 && !reader.isBlockCompressed()) {
+          scanIndex(reader, indexInterval);
+          reader.seek(0);
+        } else {
+          readIndex(new Path(dir, MapFile.INDEX_FILE_NAME));
+        }
+      } catch (IOException e) {
+        close();                                  // the opened reader
+        throw e;
+      }
+      idle.add(reader);
+    }
+
+    /** Reads the index of the map file, one key per distinct position. */
+    private void readIndex(Path index) throws IOException {
+      List<Text> keyList = new ArrayList<Text>();
+      List<Long> positionList = new ArrayList<Long>();
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, index, conf);
+      try {
+        Text key = new Text();
+        LongWritable position = new LongWritable();
+        long last = -1;
+        while (reader.next(key, position)) {
+          if (position.get() != last) {
+            keyList.add(key);
+            positionList.add(position.get());
+            last = position.get();
+            key = new Text();
+          }
+        }
+      } finally {
+        reader.close();
+      }
+      setIndex(keyList, positionList);
+    }
+
+    /** Builds an index with every <code>interval</code>th key of the data
+     * file. */
+    private void scanIndex(SequenceFile.Reader reader, int interval)
+      throws IOException {
+      List<Text> keyList = new ArrayList<Text>();
+      List<Long> positionList = new ArrayList<Long>();
+      Text key = new Text();
+      for (long count = 0; ; count++) {
+        long position = reader.getPosition();
+        if (!reader.next(key)) {
+          break;
+        }
+        if (count % interval == 0) {
+          keyList.add(key);
+          positionList.add(position);
+          key = new Text();
+        }
+      }
+      setIndex(keyList, positionList);
+    }
+
+    private void setIndex(List<Text> keyList, List<Long> positionList) {
+      keys = keyList.toArray(new Text[keyList.size()]);
+      positions = new long[positionList.size()];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = positionList.get(i);
+      }
+    }
+
+    /** Returns the index of the last key at most <code>key</code>, or -1 if
+     * all keys are greater. */
+    private int indexOf(Text key) {
+      int low = 0;
+      int high = keys.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = keys[mid].compareTo(key);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return low - 1;
+    }
+
+    boolean get(Text key, Writable value) throws IOException {
+      int index = indexOf(key);
+      if (index < 0) {
+        return false;                             // before the first key
+      }
+      SequenceFile.Reader reader = acquire();
+      try {
+        reader.seek(positions[index]);
+        Text next = new Text();
+        while (reader.next(next)) {
+          int cmp = next.compareTo(key);
+          if (cmp == 0) {
+            reader.getCurrentValue(value);
+            return true;
+          } else if (cmp > 0) {
+            break;
+          }
+        }
+        return false;
+      } finally {
+        release(reader);
+      }
+    }
+
+    private SequenceFile.Reader acquire() throws IOException {
+      permits.acquireUninterruptibly();
+      SequenceFile.Reader reader = idle.poll();
+      if (reader == null) {
+        try {
+          reader = open();
+        } catch (IOException e) {
+          permits.release();
+          throw e;
+        }
+      }
+      return reader;
+    }
+
+    private void release(SequenceFile.Reader reader) {
+      idle.add(reader);
+      permits.release();
+    }
+
+    private SequenceFile.Reader open() throws IOException {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, data, conf);
+      synchronized (readers) {
+        readers.add(reader);
+      }
+      return reader;
+    }
+
+    void close() throws IOException {
+      synchronized (readers) {
+        for (SequenceFile.Reader reader : readers) {
+          reader.close();
+        }
+        readers.clear();
+      }
+    }
+  }
+
+  private final Part[] parts;
+
+  /**
+   * Opens the parts of a map file output.
+   *
+   * @param fs the file system
+   * @param dir the output directory, with a map file per part
+   * @param conf the configuration, with
+   *        <code>searcher.segment.readers</code>,
+   *        <code>searcher.segment.index.interval</code> and
+   *        <code>searcher.segment.io.buffer.size</code>
+   */
+  public MapFileReaders(FileSystem fs, Path dir, Configuration conf)
+    throws IOException {
+    int maxReaders = Math.max(1, conf.getInt("searcher.segment.readers", 4));
+    int indexInterval = conf.getInt("searcher.segment.index.interval", 0);
+    Configuration readerConf = new Configuration(conf);
+    readerConf.setInt("io.file.buffer.size",
+                      conf.getInt("searcher.segment.io.buffer.size", 4096));
+
+    // the same parts, in the same order, as MapFileOutputFormat.getReaders
+    Path[] names = FileUtil.stat2Paths(fs.listStatus(dir));
+    Arrays.sort(names);
+    parts = new Part[names.length];
+    try {
+      for (int i = 0; i < names.length; i++) {
+        parts[i] = new Part(fs, names[i], maxReaders, indexInterval,
+                            readerConf);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    if (LOG.isDebugEnabled()) {
+      int keys = 0;
+      for (Part part : parts) {
+        keys += part.keys.length;
+      }
+      LOG.debug("Opened " + dir + ": " + parts.length + " parts, " + keys
+                + " index keys");
+    }
+  }
+
+  /** Returns the number of parts. */
+  public int getPartCount() {
+    return parts.length;
+  }
+
+  /**
+   * Reads the value of a key into <code>value</code>.
+   *
+   * @return <code>value</code>, or null if the key is not found
+   */
+  public Writable get(Text key, Writable value) throws IOException {
+    Part part = parts[PARTITIONER.getPartition(key, value, parts.length)];
+    return part.get(key, value) ? value : null;
+  }
+
+  public void close() throws IOException {
+    for (Part part : parts) {
+      if (part != null) {
+        part.close();
+      }
+    }
+  }
+}
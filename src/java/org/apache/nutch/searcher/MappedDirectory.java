@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+
+/** A local index directory whose files are read through memory maps, so
+ * that reads are served from the page cache without system calls or
+ * copying into buffers.  Everything but reading is passed to another
+ * directory on the same files. */
+class MappedDirectory extends Directory {
+
+  /** Files are mapped in chunks, as a buffer is limited to 2GB. */
+  private static final int CHUNK_BITS = 30;
+
+  private final Directory delegate;
+  private final File directory;
+
+  /**
+   * @param delegate directory on the same files, e.g. an FSDirectory
+   * @param directory the local directory to map files from
+   */
+  MappedDirectory(Directory delegate, File directory) {
+    this.delegate = delegate;
+    this.directory = directory;
+  }
+
+  public IndexInput openInput(String name) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(directory, name), "r");
+    try {
+      return new MappedIndexInput(file);
+    } finally {
+      file.close();                               // maps stay valid
+    }
+  }
+
+  public String[] list() throws IOException {
+    return delegate.list();
+  }
+
+  public boolean fileExists(String name) throws IOException {
+    return delegate.fileExists(name);
+  }
+
+  public long fileModified(String name) throws IOException {
+    return delegate.fileModified(name);
+  }
+
+  public void touchFile(String name) throws IOException {
+    delegate.touchFile(name);
+  }
+
+  public void deleteFile(String name) throws IOException {
+    delegate.deleteFile(name);
+  }
+
+  public void renameFile(String from, String to) throws IOException {
+    delegate.renameFile(from, to);
+  }
+
+  public long fileLength(String name) throws IOException {
+    return delegate.fileLength(name);
+  }
+
+  public IndexOutput createOutput(String name) throws IOException {
+    return delegate.createOutput(name);
+  }
+
+  public Lock makeLock(String name) {
+    return delegate.makeLock(name);
+  }
+
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  public String toString() {
+    return getClass().getName() + "@" + directory;
+  }
+
+  private static class MappedIndexInput extends IndexInput {
+    private final ByteBuffer[] chunks;
+    private final long length;
+    private int chunk;
+    private ByteBuffer current;
+
+    MappedIndexInput(RandomAccessFile file) throws IOException {
+      length = file.length();
+      chunks = new ByteBuffer[(int)(length >>> CHUNK_BITS) + 1];
+      FileChannel channel = file.getChannel();
+      for (int i = 0; i < chunks.length; i++) {
+        long start = (long)i << CHUNK_BITS;
+        long size = Math.min(1L << CHUNK_BITS, length - start);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      }
+      current = chunks[0];
+    }
+
+    private MappedIndexInput(MappedIndexInput other) {
+      length = other.length;
+      chunks = new ByteBuffer[other.chunks.length];
+      for (int i = 0; i < chunks.length; i++) {
+        chunks[i] = other.chunks[i].duplicate();
+        chunks[i].position(other.chunks[i].position());
+      }
+      chunk = other.chunk;
+      current = chunks[chunk];
+    }
+
+    public byte readByte() throws IOException {
+      try {
+        return current.get();
+      } catch (BufferUnderflowException e) {
+        nextChunk();
+        return current.get();
+      }
+    }
+
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+      while (len > current.remaining()) {
+        int remaining = current.remaining();
+        current.get(b, offset, remaining);
+        offset += remaining;
+        len -= remaining;
+        nextChunk();
+      }
+      current.get(b, offset, len);
+    }
+
+    private void nextChunk() throws IOException {
+      if (chunk + 1 >= chunks.length) {
+        throw new IOException("read past EOF");
+      }
+      current = chunks[++chunk];
+      current.position(0);
+    }
+
+    public long getFilePointer() {
+      return ((long)chunk << CHUNK_BITS) + current.position();
+    }
+
+    public void seek(long pos) throws IOException {
+      if (pos > length) {
+        throw new IOException("seek past EOF");
+      }
+      chunk = (int)(pos >>> CHUNK_BITS);
+      current = chunks[chunk];
+      current.position((int)(pos - ((long)chunk << CHUNK_BITS)));
+    }
+
+    public long length() {
+      return length;
+    }
+
+    public void close() {}                        // unmapped when collected
+
+    public Object clone() {
+      return new MappedIndexInput(this);
+    }
+  }
+}
@@ -51,10 +51,12 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
   private SearchBean searchBean;
   private SegmentBean segmentBean;
   private final HitInlinks linkDb;
-
-  /** BooleanQuery won't permit more than 32 required/prohibited clauses.  We
-   * don't want to use too many of those. */
-  private static final int MAX_PROHIBITED_TERMS = 20;
+  private final ResultCache resultCache;
+  private final WeightedCache<String, HitDetails> detailsCache;
+  private final WeightedCache<String, Summary> summaryCache;
+  private final WeightedCache<String, Query> queryCache;
+  private final long timeBudget;
+  private final int compressThreshold;
 
   private final Configuration conf;
 
@@ -111,6 +113,32 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
     }
 
     linkDb = new LinkDbInlinks(fs, new Path(dir, "linkdb"), conf);
+    resultCache = ResultCache.get(conf);
+    detailsCache = createCache(conf, "searcher.details.cache");
+    summaryCache = createCache(conf, "searcher.summary.cache");
+    queryCache = createCache(conf, "searcher.query.parse.cache");
+    if (searchBean instanceof LuceneSearchBean) {
+      // cached hits refer to an index generation
+      ((LuceneSearchBean)searchBean).addReopenListener(new Runnable() {
+        public void run() {
+          clearCache();
+        }
+      });
+    }
+    timeBudget = conf.getLong("searcher.time.budget", -1);
+    compressThreshold = conf.getInt("searcher.rpc.compress.threshold", 4096);
+  }
+
+  /** Create a cache configured by <code>prefix.size</code> and
+   * <code>prefix.max.bytes</code>, or null if disabled. */
+  static <K, V> WeightedCache<K, V> createCache(Configuration conf,
+                                               String prefix) {
+    final int size = conf.getInt(prefix + ".size", 10000);
+    if (size <= 0) {
+      return null;
+    }
+    return new WeightedCache<K, V>(size,
+        conf.getLong(prefix + ".max.bytes", 8 * 1024 * 1024));
   }
 
   public static List<InetSocketAddress> readAddresses(Path path,
@@ -129,6 +157,29 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
     return addrs;
   }
 
+  /** Reads groups of addresses, one group of <code>host port</code> pairs
+   * per line. */
+  public static List<List<InetSocketAddress>> readAddressGroups(Path path,
+      Configuration conf) throws IOException {
+    final List<List<InetSocketAddress>> groups =
+      new ArrayList<List<InetSocketAddress>>();
+    for (final String line : readConfig(path, conf)) {
+      final List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+      final StringTokenizer tokens = new StringTokenizer(line);
+      while (tokens.hasMoreTokens()) {
+        final String host = tokens.nextToken();
+        if (tokens.hasMoreTokens()) {
+          final String port = tokens.nextToken();
+          addrs.add(new InetSocketAddress(host, Integer.parseInt(port)));
+        }
+      }
+      if (addrs.size() > 0) {
+        groups.add(addrs);
+      }
+    }
+    return groups;
+  }
+
   public static List<String> readConfig(Path path, Configuration conf)
   throws IOException {
     final FileSystem fs = FileSystem.get(conf);
@@ -158,12 +209,74 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
                      String dedupField, String sortField, boolean reverse)
     throws IOException {
 
-    return searchBean.search(query, numHits, dedupField, sortField, reverse);
+    return search(query, numHits, 0, dedupField, sortField, reverse,
+                  Long.MAX_VALUE);
+  }
+
+  /** Search using the result cache, if enabled.  Incomplete hits are not
+   * cached. */
+  private Hits searchCached(Query query, int numHits, int maxHitsPerDup,
+                            String dedupField, String sortField,
+                            boolean reverse, long deadline)
+    throws IOException {
+    if (resultCache == null) {
+      return searchBean.search(query, numHits, maxHitsPerDup, dedupField,
+                               sortField, reverse, deadline);
+    }
+    Hits hits = resultCache.get(query, numHits, maxHitsPerDup, dedupField,
+                                sortField, reverse);
+    if (hits == null) {
+      final long start = System.currentTimeMillis();
+      hits = searchBean.search(query, numHits, maxHitsPerDup, dedupField,
+                               sortField, reverse, deadline);
+      resultCache.put(query, numHits, maxHitsPerDup, dedupField, sortField,
+                      reverse, hits, System.currentTimeMillis() - start);
+    }
+    return hits;
   }
 
-  @SuppressWarnings("serial")
-  private class DupHits extends ArrayList<Hit> {
-    private boolean maxSizeExceeded;
+  /** Returns the cache of search results, or null if it is disabled. */
+  public ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /** Discards all cached results, details and summaries, e.g. after the indexes or segments
+   * searched by this bean changed. */
+  public void clearCache() {
+    if (resultCache != null) {
+      resultCache.clear();
+    }
+    if (detailsCache != null) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Clearing details cache: " + detailsCache);
+      }
+      detailsCache.clear();
+    }
+    if (summaryCache != null) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Clearing summary cache: " + summaryCache);
+      }
+      summaryCache.clear();
+    }
+  }
+
+  /** Returns the cache of hit details, or null if it is disabled. */
+  public WeightedCache<String, HitDetails> getDetailsCache() {
+    return detailsCache;
+  }
+
+  /** Returns the cache of summaries, or null if it is disabled. */
+  public WeightedCache<String, Summary> getSummaryCache() {
+    return summaryCache;
+  }
+
+  /** Parses a query, with the parsed queries cached by string and language
+   * up to <code>searcher.query.parse.cache.size</code> queries.  The clauses
+   * of the returned query are shared and must not be modified.
+   * @see Query#parse(String, String, WeightedCache, Configuration) */
+  public Query parse(String queryString, String queryLang)
+    throws IOException {
+    return Query.parse(queryString, queryLang, queryCache, conf);
   }
 
   /** Search for pages matching a query, eliminating excessive hits from the
@@ -220,115 +333,188 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
                      int maxHitsPerDup, String dedupField,
                      String sortField, boolean reverse)
        throws IOException {
+    return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+                  reverse, Long.MAX_VALUE);
+  }
+
+  /** Search as in {@link #search(Query,int,int,String,String,boolean)},
+   * until a deadline.  If <code>searcher.time.budget</code> is positive, a
+   * search stops that many milliseconds after it starts at the latest.  A
+   * search which is stopped returns the best hits found by then, with {@link
+   * Hits#isComplete()} false.
+   *
+   * @param deadline the time in milliseconds since the epoch to stop at
+   */
+  public Hits search(Query query, int numHits,
+                     int maxHitsPerDup, String dedupField,
+                     String sortField, boolean reverse, long deadline)
+       throws IOException {
+    if (timeBudget > 0) {
+      deadline = Math.min(deadline, System.currentTimeMillis() + timeBudget);
+    }
     if (maxHitsPerDup <= 0)                      // disable dup checking
-      return search(query, numHits, dedupField, sortField, reverse);
-
-    final float rawHitsFactor = this.conf.getFloat("searcher.hostgrouping.rawhits.factor", 2.0f);
-    int numHitsRaw = (int)(numHits * rawHitsFactor);
-    if (LOG.isInfoEnabled()) {
-      LOG.info("searching for "+numHitsRaw+" raw hits");
-    }
-    Hits hits = searchBean.search(query, numHitsRaw,
-                                dedupField, sortField, reverse);
-    final long total = hits.getTotal();
-    final Map<String, DupHits> dupToHits = new HashMap<String, DupHits>();
-    final List<Hit> resultList = new ArrayList<Hit>();
-    final Set<Hit> seen = new HashSet<Hit>();
-    final List<String> excludedValues = new ArrayList<String>();
-    boolean totalIsExact = true;
-    for (int rawHitNum = 0; rawHitNum < hits.getTotal(); rawHitNum++) {
-      // get the next raw hit
-      if (rawHitNum >= hits.getLength()) {
-        // optimize query by prohibiting more matches on some excluded values
-        final Query optQuery = (Query)query.clone();
-        for (int i = 0; i < excludedValues.size(); i++) {
-          if (i == MAX_PROHIBITED_TERMS)
-            break;
-          optQuery.addProhibitedTerm(excludedValues.get(i),
-                                     dedupField);
-        }
-        numHitsRaw = (int)(numHitsRaw * rawHitsFactor);
-        if (LOG.isInfoEnabled()) {
-          LOG.info("re-searching for "+numHitsRaw+" raw hits, query: "+optQuery);
-        }
-        hits = searchBean.search(optQuery, numHitsRaw,
-                               dedupField, sortField, reverse);
-        if (LOG.isInfoEnabled()) {
-          LOG.info("found "+hits.getTotal()+" raw hits");
-        }
-        rawHitNum = -1;
-        continue;
-      }
+      return searchCached(query, numHits, 0, dedupField, sortField, reverse,
+                          deadline);
 
-      final Hit hit = hits.getHit(rawHitNum);
-      if (seen.contains(hit))
-        continue;
-      seen.add(hit);
+    // we need to find one more than asked for, so that we can tell if
+    // there are more hits to be shown
+    return searchCached(query, numHits + 1, maxHitsPerDup, dedupField,
+                        sortField, reverse, deadline);
+  }
 
-      // get dup hits for its value
-      final String value = hit.getDedupValue();
-      DupHits dupHits = dupToHits.get(value);
-      if (dupHits == null)
-        dupToHits.put(value, dupHits = new DupHits());
+  public String getExplanation(Query query, Hit hit) throws IOException {
+    return searchBean.getExplanation(query, hit);
+  }
 
-      // does this hit exceed maxHitsPerDup?
-      if (dupHits.size() == maxHitsPerDup) {      // yes -- ignore the hit
-        if (!dupHits.maxSizeExceeded) {
+  private static String getDetailsKey(Hit hit) {
+    return hit.getIndexNo() + "/" + hit.getUniqueKey();
+  }
 
-          // mark prior hits with moreFromDupExcluded
-          for (int i = 0; i < dupHits.size(); i++) {
-            dupHits.get(i).setMoreFromDupExcluded(true);
-          }
-          dupHits.maxSizeExceeded = true;
+  private static String getDetailsKey(Hit hit, String fields) {
+    return fields == null
+      ? getDetailsKey(hit) : getDetailsKey(hit) + "\n" + fields;
+  }
 
-          excludedValues.add(value);              // exclude dup
-        }
-        totalIsExact = false;
-      } else {                                    // no -- collect the hit
-        resultList.add(hit);
-        dupHits.add(hit);
-
-        // are we done?
-        // we need to find one more than asked for, so that we can tell if
-        // there are more hits to be shown
-        if (resultList.size() > numHits)
-          break;
-      }
+  private static String getFieldsKey(String[] fields) {
+    if (fields == null) {
+      return null;
     }
-
-    final Hits results =
-      new Hits(total,
-               resultList.toArray(new Hit[resultList.size()]));
-    results.setTotalIsExact(totalIsExact);
-    return results;
+    final StringBuilder buf = new StringBuilder();
+    for (final String field : fields) {
+      buf.append(field).append(' ');
+    }
+    return buf.toString();
   }
 
+  private static String getSummaryKey(HitDetails details, String terms) {
+    return details.getValue("segment") + "\n" + details.getValue("url")
+      + "\n" + terms;
+  }
 
-  public String getExplanation(Query query, Hit hit) throws IOException {
-    return searchBean.getExplanation(query, hit);
+  private static String getTermsKey(Query query) {
+    final StringBuilder buf = new StringBuilder();
+    for (final String term : query.getTerms()) {
+      buf.append(term).append(' ');
+    }
+    return buf.toString();
   }
 
   public HitDetails getDetails(Hit hit) throws IOException {
-    return searchBean.getDetails(hit);
+    if (detailsCache == null) {
+      return searchBean.getDetails(hit);
+    }
+    final String key = getDetailsKey(hit);
+    HitDetails details = detailsCache.get(key);
+    if (details == null) {
+      details = searchBean.getDetails(hit);
+      detailsCache.put(key, details, details.estimateSize());
+    }
+    return details;
   }
 
   public HitDetails[] getDetails(Hit[] hits) throws IOException {
-    return searchBean.getDetails(hits);
+    return getDetails(hits, null);
+  }
+
+  public HitDetails[] getDetails(Hit[] hits, String[] fields)
+    throws IOException {
+    if (detailsCache == null) {
+      return fetchDetails(hits, fields);
+    }
+    final String fieldsKey = getFieldsKey(fields);
+    final HitDetails[] details = new HitDetails[hits.length];
+    final List<Hit> missing = new ArrayList<Hit>();
+    for (int i = 0; i < hits.length; i++) {
+      details[i] = detailsCache.get(getDetailsKey(hits[i], fieldsKey));
+      if (details[i] == null) {
+        missing.add(hits[i]);
+      }
+    }
+    if (missing.isEmpty()) {
+      return details;
+    }
+    // fetch all missing details in one call
+    final HitDetails[] fetched =
+      fetchDetails(missing.toArray(new Hit[missing.size()]), fields);
+    for (int i = 0, j = 0; i < hits.length; i++) {
+      if (details[i] == null) {
+        details[i] = fetched[j++];
+        detailsCache.put(getDetailsKey(hits[i], fieldsKey), details[i],
+                         details[i].estimateSize());
+      }
+    }
+    return details;
+  }
+
+  /** Serves {@link RPCSearchBean#getDetailsList(Hits, String[])} when this
+   * is run as a search server. */
+  public HitDetailsList getDetailsList(Hits hits, String[] fields)
+    throws IOException {
+    return new HitDetailsList(getDetails(hits.getHits(0, hits.getLength()),
+                                         fields), compressThreshold);
+  }
+
+  private HitDetails[] fetchDetails(Hit[] hits, String[] fields)
+    throws IOException {
+    return fields == null
+      ? searchBean.getDetails(hits) : searchBean.getDetails(hits, fields);
   }
 
   public Summary getSummary(HitDetails hit, Query query) throws IOException {
-    return segmentBean.getSummary(hit, query);
+    if (summaryCache == null) {
+      return segmentBean.getSummary(hit, query);
+    }
+    final String key = getSummaryKey(hit, getTermsKey(query));
+    Summary summary = summaryCache.get(key);
+    if (summary == null) {
+      summary = segmentBean.getSummary(hit, query);
+      if (summary != null) {
+        summaryCache.put(key, summary, summary.estimateSize());
+      }
+    }
+    return summary;
   }
 
   public Summary[] getSummary(HitDetails[] hits, Query query)
     throws IOException {
-    return segmentBean.getSummary(hits, query);
+    if (summaryCache == null) {
+      return segmentBean.getSummary(hits, query);
+    }
+    final String terms = getTermsKey(query);
+    final Summary[] summaries = new Summary[hits.length];
+    final List<HitDetails> missing = new ArrayList<HitDetails>();
+    for (int i = 0; i < hits.length; i++) {
+      summaries[i] = summaryCache.get(getSummaryKey(hits[i], terms));
+      if (summaries[i] == null) {
+        missing.add(hits[i]);
+      }
+    }
+    if (missing.isEmpty()) {
+      return summaries;
+    }
+    // summarize all missing hits in one call
+    final Summary[] fetched = segmentBean.getSummary(
+        missing.toArray(new HitDetails[missing.size()]), query);
+    for (int i = 0, j = 0; i < hits.length; i++) {
+      if (summaries[i] == null) {
+        summaries[i] = fetched[j++];
+        if (summaries[i] != null) {
+          summaryCache.put(getSummaryKey(hits[i], terms), summaries[i],
+                           summaries[i].estimateSize());
+        }
+      }
+    }
+    return summaries;
   }
 
   public byte[] getContent(HitDetails hit) throws IOException {
     return segmentBean.getContent(hit);
   }
 
+  public RawContent getRawContent(HitDetails hit) throws IOException {
+    return segmentBean.getRawContent(hit);
+  }
+
   public ParseData getParseData(HitDetails hit) throws IOException {
     return segmentBean.getParseData(hit);
   }
@@ -350,6 +536,7 @@ implements SearchBean, SegmentBean, HitInlinks, Closeable {
   }
 
   public void close() throws IOException {
+    clearCache();
     if (searchBean != null) { searchBean.close(); }
     if (segmentBean != null) { segmentBean.close(); }
     if (linkDb != null) { linkDb.close(); }
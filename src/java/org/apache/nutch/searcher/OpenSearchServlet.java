@@ -131,7 +131,7 @@ public class OpenSearchServlet extends HttpServlet {
         (sort == null ? "" : "&sort=" + sort + (reverse? "&reverse=true": "") +
         (dedupField == null ? "" : "&dedupField=" + dedupField));
 
-    Query query = Query.parse(queryString, queryLang, this.conf);
+    Query query = bean.parse(queryString, queryLang);
     if (NutchBean.LOG.isInfoEnabled()) {
       NutchBean.LOG.info("query: " + queryString);
       NutchBean.LOG.info("lang: " + queryLang);
@@ -163,6 +163,7 @@ public final class Query implements Writable, Cloneable, Configurable {
         (this.isRequired == other.isRequired) &&
         (this.isProhibited == other.isProhibited) &&
         (this.weight == other.weight) &&
+        this.field.equals(other.field) &&
         (this.termOrPhrase == null ? other.termOrPhrase == null :
          this.termOrPhrase.equals(other.termOrPhrase));
     }
@@ -172,6 +173,7 @@ public final class Query implements Writable, Cloneable, Configurable {
         (this.isRequired ? 0 : 1) ^
         (this.isProhibited ? 2 : 4) ^
         Float.floatToIntBits(this.weight) ^
+        this.field.hashCode() ^
         (this.termOrPhrase != null ? termOrPhrase.hashCode() : 0);
     }
     
@@ -262,7 +264,7 @@ public final class Query implements Writable, Cloneable, Configurable {
     public boolean equals(Object o) {
       if (!(o instanceof Phrase)) return false;
       Phrase other = (Phrase)o;
-      if (!(this.terms.length == this.terms.length))
+      if (!(this.terms.length == other.terms.length))
         return false;
       for (int i = 0; i < terms.length; i++) {
         if (!this.terms[i].equals(other.terms[i]))
@@ -429,6 +431,21 @@ public final class Query implements Writable, Cloneable, Configurable {
     return result.toArray(new String[result.size()]);
   }
 
+  /** Returns the estimated memory size in bytes, for caching. */
+  public long estimateSize() {
+    long size = WeightedCache.OBJECT_OVERHEAD;
+    for (int i = 0; i < clauses.size(); i++) {
+      Clause clause = clauses.get(i);
+      size += 2 * WeightedCache.OBJECT_OVERHEAD;
+      Term[] terms = clause.isPhrase()
+        ? clause.getPhrase().getTerms() : new Term[] { clause.getTerm() };
+      for (int j = 0; j < terms.length; j++) {
+        size += WeightedCache.OBJECT_OVERHEAD + 2 * terms[j].toString().length();
+      }
+    }
+    return size;
+  }
+
   /**
    * Parse a query from a string using a language specific analyzer.
    *
@@ -444,6 +461,30 @@ public final class Query implements Writable, Cloneable, Configurable {
             queryString, AnalyzerFactory.get(conf).get(queryLang), conf), conf);
   }
 
+  /**
+   * Parse a query from a string using a language specific analyzer, with the
+   * parsed queries cached by string and language.  Each call returns a copy,
+   * which may be added to, but the clauses are shared and must not be
+   * modified.
+   *
+   * @param cache the cache of parsed queries, or null to parse every time
+   * @see #parse(String, String, Configuration)
+   */
+  public static Query parse(String queryString, String queryLang,
+                            WeightedCache<String, Query> cache,
+                            Configuration conf) throws IOException {
+    if (cache == null) {
+      return parse(queryString, queryLang, conf);
+    }
+    String key = (queryLang == null ? "" : queryLang) + '\n' + queryString;
+    Query query = cache.get(key);
+    if (query == null) {
+      query = parse(queryString, queryLang, conf);
+      cache.put(key, query, query.estimateSize() + 2 * key.length());
+    }
+    return (Query)query.clone();
+  }
+
   /** Parse a query from a string. */
   public static Query parse(String queryString, Configuration conf) throws IOException {
     return parse(queryString, null, conf);
@@ -27,6 +27,7 @@ import org.apache.hadoop.conf.Configuration;
 
 import java.util.*;
 
+import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 
 /** Creates and caches {@link QueryFilter} implementing plugins.  QueryFilter
@@ -35,6 +36,9 @@ import org.apache.lucene.search.BooleanQuery;
  * query parser.  Raw fields are parsed as a single Query.Term, including
  * internal punctuation, while non-raw fields are parsed containing punctuation
  * are parsed as multi-token Query.Phrase's.
+ *
+ * <p>Translated queries may be cached in a {@link WeightedCache} passed to
+ * the constructor.</p>
  */
 public class QueryFilters {
   private static final Log LOG = LogFactory.getLog(QueryFilters.class);
@@ -42,6 +46,7 @@ public class QueryFilters {
   private QueryFilter[] queryFilters;
   private HashSet<String> FIELD_NAMES ;
   private HashSet<String> RAW_FIELD_NAMES;
+  private final WeightedCache<Query, BooleanQuery> cache;
 
   private static List<String> parseFieldNames(Extension extension,
                                            String attribute) {
@@ -51,6 +56,15 @@ public class QueryFilters {
   }
 
   public QueryFilters(Configuration conf) {
+    this(conf, null);
+  }
+
+  /**
+   * @param cache the cache of translated queries by parsed query, or null to
+   *        translate every time
+   */
+  public QueryFilters(Configuration conf,
+                      WeightedCache<Query, BooleanQuery> cache) {
     ObjectCache objectCache = ObjectCache.get(conf);
     this.queryFilters = (QueryFilter[]) objectCache.getObject(QueryFilter.class
         .getName());
@@ -94,10 +108,40 @@ public class QueryFilters {
       FIELD_NAMES = (HashSet<String>) objectCache.getObject("FIELD_NAMES");
       RAW_FIELD_NAMES = (HashSet<String>) objectCache.getObject("RAW_FIELD_NAMES");
     }
+    this.cache = cache;
   }              
 
-  /** Run all defined filters. */
+  /** Run all defined filters, or returns the cached translation of an equal
+   * query.  The clauses of the returned query are shared and must not be
+   * modified. */
   public BooleanQuery filter(Query input) throws QueryException {
+    if (cache == null) {
+      return translate(input);
+    }
+    BooleanQuery output = cache.get(input);
+    if (output == null) {
+      output = translate(input);
+      cache.put((Query)input.clone(), output,
+                input.estimateSize() + estimateSize(output));
+    }
+    return (BooleanQuery)output.clone();
+  }
+
+  /** Returns the estimated memory size in bytes of a Lucene query. */
+  private static long estimateSize(org.apache.lucene.search.Query query) {
+    if (query instanceof BooleanQuery) {
+      long size = 2 * WeightedCache.OBJECT_OVERHEAD;
+      BooleanClause[] clauses = ((BooleanQuery)query).getClauses();
+      for (int i = 0; i < clauses.length; i++) {
+        size += WeightedCache.OBJECT_OVERHEAD
+          + estimateSize(clauses[i].getQuery());
+      }
+      return size;
+    }
+    return 2 * WeightedCache.OBJECT_OVERHEAD + 2 * query.toString().length();
+  }
+
+  private BooleanQuery translate(Query input) throws QueryException {
     // first check that all field names are claimed by some plugin
     Clause[] clauses = input.getClauses();
     for (int i = 0; i < clauses.length; i++) {
@@ -16,8 +16,17 @@
  */
 package org.apache.nutch.searcher;
 
+import java.io.IOException;
+
 import org.apache.hadoop.ipc.VersionedProtocol;
 
 public interface RPCSearchBean extends SearchBean, VersionedProtocol {
 
+  /** Returns the details for a set of hits, like
+   * {@link #getDetails(Hit[], String[])}, in a form which is more compact on
+   * the wire.  The hits are passed as {@link Hits} for the same reason.
+   * @param fields the fields to return, or null for all stored fields */
+  HitDetailsList getDetailsList(Hits hits, String[] fields)
+    throws IOException;
+
 }
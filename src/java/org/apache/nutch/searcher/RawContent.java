@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/** The raw content of a hit document with its content type, as fetched.
+ * Unlike a {@link org.apache.nutch.protocol.Content}, it carries no url or
+ * metadata, so that it can be served as is, also from a remote segment
+ * server. */
+public final class RawContent implements Writable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private String contentType;
+  private byte[] content;
+
+  public RawContent() {}
+
+  /**
+   * @param contentType the content type, e.g. the <code>Content-Type</code>
+   *        header of the response
+   * @param content the content bytes, which are not copied
+   */
+  public RawContent(String contentType, byte[] content) {
+    this.contentType = contentType;
+    this.content = content;
+  }
+
+  /** Returns the content type. */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /** Returns the number of content bytes. */
+  public int getLength() {
+    return content.length;
+  }
+
+  /** Returns the content bytes. */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /** Writes the content bytes to a stream, in blocks, so that large
+   * contents are sent while they are written. */
+  public void writeTo(OutputStream out) throws IOException {
+    for (int off = 0; off < content.length; off += BUFFER_SIZE) {
+      out.write(content, off, Math.min(BUFFER_SIZE, content.length - off));
+    }
+  }
+
+  public void write(DataOutput out) throws IOException {
+    Text.writeString(out, contentType == null ? "" : contentType);
+    WritableUtils.writeVInt(out, content.length);
+    out.write(content);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    contentType = Text.readString(in);
+    if (contentType.length() == 0) {
+      contentType = null;
+    }
+    content = new byte[WritableUtils.readVInt(in)];
+    in.readFully(content);
+  }
+}
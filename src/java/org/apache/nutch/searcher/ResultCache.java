@@ -0,0 +1,305 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * An LRU cache of search results, bounded by the number of entries and by
+ * their estimated memory size, kept in a {@link WeightedCache}.
+ *
+ * Results are keyed by the normalized query (clauses in a canonical order)
+ * and the dedup and sort parameters, including the maximum number of hits
+ * per dedup value. A cached result for a larger number of
+ * hits also answers requests for fewer hits, so paging through the results
+ * of a query is served from one entry. Cached {@link Hit}s are copied on the
+ * way in and out, as callers modify them (see
+ * {@link Hit#setMoreFromDupExcluded(boolean)}).
+ *
+ * A cache belongs to one searcher and must be cleared when the indexes or
+ * segments behind that searcher change.
+ */
+public class ResultCache {
+  public static final Log LOG = LogFactory.getLog(ResultCache.class);
+
+  private static class Key {
+    private final String query;
+    private final int maxHitsPerDup;
+    private final String dedupField;
+    private final String sortField;
+    private final boolean reverse;
+    private final int hashCode;
+
+    Key(String query, int maxHitsPerDup, String dedupField, String sortField,
+        boolean reverse) {
+      this.query = query;
+      this.maxHitsPerDup = maxHitsPerDup;
+      this.dedupField = dedupField;
+      this.sortField = sortField;
+      this.reverse = reverse;
+      int h = query.hashCode();
+      h = 31 * h + maxHitsPerDup;
+      h = 31 * h + (dedupField == null ? 0 : dedupField.hashCode());
+      h = 31 * h + (sortField == null ? 0 : sortField.hashCode());
+      this.hashCode = reverse ? ~h : h;
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key)o;
+      return query.equals(other.query)
+        && maxHitsPerDup == other.maxHitsPerDup
+        && (dedupField == null ? other.dedupField == null
+            : dedupField.equals(other.dedupField))
+        && (sortField == null ? other.sortField == null
+            : sortField.equals(other.sortField))
+        && reverse == other.reverse;
+    }
+  }
+
+  private static class Entry {
+    private final int numHits;
+    private final Hits hits;
+    private final long time;
+
+    Entry(int numHits, Hits hits, long time) {
+      this.numHits = numHits;
+      this.hits = hits;
+      this.time = time;
+    }
+  }
+
+  private final WeightedCache<Key, Entry> entries;
+  private final long expire;
+
+  private long lookups;
+  private long hitCount;
+  private long misses;
+  private long missTime;
+
+  /**
+   * Construct a cache configured by <code>searcher.cache.size</code>,
+   * <code>searcher.cache.max.bytes</code> and
+   * <code>searcher.cache.expire</code>.
+   */
+  public ResultCache(Configuration conf) {
+    this(conf.getInt("searcher.cache.size", 1000),
+         conf.getLong("searcher.cache.max.bytes", 16 * 1024 * 1024),
+         conf.getLong("searcher.cache.expire", 600) * 1000);
+  }
+
+  /**
+   * @param maxEntries maximum number of cached queries
+   * @param maxBytes maximum estimated memory size of the cached results
+   * @param expire milliseconds after which a result is discarded, or zero
+   */
+  public ResultCache(int maxEntries, long maxBytes, long expire) {
+    this.entries = new WeightedCache<Key, Entry>(maxEntries, maxBytes);
+    this.expire = expire;
+  }
+
+  /** Returns a cache for a configuration, or null if caching is disabled. */
+  public static ResultCache get(Configuration conf) {
+    if (conf.getInt("searcher.cache.size", 1000) <= 0) {
+      return null;
+    }
+    return new ResultCache(conf);
+  }
+
+  /** Returns the normalized form of a query, used as cache key. */
+  static String normalize(Query query) {
+    Query.Clause[] clauses = query.getClauses();
+    String[] keys = new String[clauses.length];
+    for (int i = 0; i < clauses.length; i++) {
+      Query.Clause clause = clauses[i];
+      StringBuilder buf = new StringBuilder();
+      buf.append(clause.isRequired() ? '+' : clause.isProhibited() ? '-' : ' ');
+      buf.append(clause.getField()).append(':');
+      if (clause.isPhrase()) {
+        buf.append('"');
+        Query.Term[] terms = clause.getPhrase().getTerms();
+        for (int j = 0; j < terms.length; j++) {
+          if (j > 0) buf.append(' ');
+          buf.append(terms[j]);
+        }
+        buf.append('"');
+      } else {
+        buf.append(clause.getTerm());
+      }
+      if (clause.getWeight() != 1.0f) {
+        buf.append('^').append(clause.getWeight());
+      }
+      keys[i] = buf.toString();
+    }
+    // boolean clauses score the same in any order
+    Arrays.sort(keys);
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < keys.length; i++) {
+      buf.append(keys[i]).append('\n');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Returns the cached result for a search, or null if not cached.
+   */
+  public Hits get(Query query, int numHits, String dedupField,
+                  String sortField, boolean reverse) {
+    return get(query, numHits, 0, dedupField, sortField, reverse);
+  }
+
+  /**
+   * Returns the cached result for a search with at most
+   * <code>maxHitsPerDup</code> hits per dedup value, or null if not cached.
+   */
+  public Hits get(Query query, int numHits, int maxHitsPerDup,
+                  String dedupField, String sortField, boolean reverse) {
+    Key key = new Key(normalize(query), maxHitsPerDup, dedupField, sortField,
+                      reverse);
+    Entry entry;
+    synchronized (this) {
+      lookups++;
+      entry = entries.get(key);
+      if (entry != null && expire > 0
+          && System.currentTimeMillis() - entry.time > expire) {
+        entries.remove(key);
+        entry = null;
+      }
+      if (entry != null && entry.numHits < numHits
+          && entry.hits.getLength() < entry.hits.getTotal()) {
+        entry = null;                             // not enough hits cached
+      }
+      if (entry == null) {
+        return null;
+      }
+      hitCount++;
+    }
+    return copy(entry.hits, Math.min(numHits, entry.hits.getLength()));
+  }
+
+  /**
+   * Adds the result of a search to the cache.
+   * @param elapsed time in milliseconds the search took
+   */
+  public void put(Query query, int numHits, String dedupField,
+                  String sortField, boolean reverse, Hits hits, long elapsed) {
+    put(query, numHits, 0, dedupField, sortField, reverse, hits, elapsed);
+  }
+
+  /**
+   * Adds the result of a search with at most <code>maxHitsPerDup</code> hits
+   * per dedup value to the cache.  Incomplete hits, e.g. of a search which
+   * stopped at its deadline, are not added.
+   * @param elapsed time in milliseconds the search took
+   */
+  public void put(Query query, int numHits, int maxHitsPerDup,
+                  String dedupField, String sortField, boolean reverse,
+                  Hits hits, long elapsed) {
+    if (!hits.isComplete()) {
+      return;
+    }
+    Key key = new Key(normalize(query), maxHitsPerDup, dedupField, sortField,
+                      reverse);
+    Hits copy = copy(hits, hits.getLength());
+    long size = WeightedCache.OBJECT_OVERHEAD * 3 + 2 * key.query.length();
+    for (int i = 0; i < copy.getLength(); i++) {
+      Hit hit = copy.getHit(i);
+      String dedupValue = hit.getDedupValue();    // may be null
+      size += WeightedCache.OBJECT_OVERHEAD * 2
+        + 2 * hit.getUniqueKey().length()
+        + (dedupValue == null ? 0 : 2 * dedupValue.length());
+    }
+    synchronized (this) {
+      misses++;
+      missTime += elapsed;
+      Entry old = entries.get(key);
+      if (old != null && old.numHits > numHits) {
+        return;                                   // keep the larger result
+      }
+      entries.put(key, new Entry(numHits, copy, System.currentTimeMillis()),
+                  size);
+    }
+  }
+
+  private static Hits copy(Hits hits, int length) {
+    Hit[] top = new Hit[length];
+    for (int i = 0; i < length; i++) {
+      Hit hit = hits.getHit(i);
+      top[i] = new Hit(hit.getIndexNo(), hit.getUniqueKey(),
+                       hit.getSortValue(), hit.getDedupValue());
+      top[i].setMoreFromDupExcluded(hit.moreFromDupExcluded());
+    }
+    Hits result = new Hits(hits.getTotal(), top);
+    result.setTotalIsExact(hits.totalIsExact());
+    return result;
+  }
+
+  /** Removes all cached results. */
+  public synchronized void clear() {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Clearing result cache: " + this);
+    }
+    entries.clear();
+  }
+
+  /** Returns the number of cached results. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the estimated memory size of the cached results. */
+  public synchronized long getBytes() {
+    return entries.getWeight();
+  }
+
+  /** Returns the number of lookups. */
+  public synchronized long getLookups() {
+    return lookups;
+  }
+
+  /** Returns the number of lookups answered from the cache. */
+  public synchronized long getHits() {
+    return hitCount;
+  }
+
+  /** Returns the fraction of lookups answered from the cache. */
+  public synchronized float getHitRate() {
+    return lookups == 0 ? 0.0f : (float)hitCount / lookups;
+  }
+
+  /**
+   * Returns an estimate of the search time in milliseconds saved by the
+   * cache, based on the average time of searches which were not cached.
+   */
+  public synchronized long getSavedTime() {
+    return misses == 0 ? 0 : hitCount * missTime / misses;
+  }
+
+  public synchronized String toString() {
+    return "entries=" + entries.size() + ", bytes=" + entries.getWeight()
+      + ", lookups=" + lookups + ", hits=" + hitCount
+      + ", hitRate=" + getHitRate() + ", savedMs=" + getSavedTime();
+  }
+}
@@ -28,6 +28,25 @@ public interface Searcher extends Closeable {
               String dedupField, String sortField, boolean reverse)
     throws IOException;
 
+  /** Return the top-scoring hits for a query, with at most
+   * <code>maxHitsPerDup</code> hits with the same value of
+   * <code>dedupField</code>.  The remaining hits of values which had hits
+   * excluded have {@link Hit#moreFromDupExcluded()} set.  If maxHitsPerDup is
+   * zero then no hits are excluded. */
+  Hits search(Query query, int numHits, int maxHitsPerDup,
+              String dedupField, String sortField, boolean reverse)
+    throws IOException;
+
+  /** Return the top-scoring hits for a query, as in {@link
+   * #search(Query,int,int,String,String,boolean)}, found by
+   * <code>deadline</code>, in milliseconds since the epoch.  A search which
+   * is not done by then stops and returns the hits found so far, with
+   * {@link Hits#isComplete()} false and an estimated total. */
+  Hits search(Query query, int numHits, int maxHitsPerDup,
+              String dedupField, String sortField, boolean reverse,
+              long deadline)
+    throws IOException;
+
   /** Return an HTML-formatted explanation of how a query scored. */
   String getExplanation(Query query, Hit hit) throws IOException;
 }
@@ -18,10 +18,18 @@ package org.apache.nutch.searcher;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -40,11 +48,17 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 
+/** Searches a Solr server.  Requests share a pool of HTTP connections and
+ * responses are read in the binary format.  The fields shown with hits are
+ * fetched by the search request itself, so that details asked for with
+ * these fields, or without a field list, are then served from a cache,
+ * without querying Solr again. */
 public class SolrSearchBean implements SearchBean {
 
   public static final Log LOG = LogFactory.getLog(SolrSearchBean.class);
@@ -53,20 +67,104 @@ public class SolrSearchBean implements SearchBean {
 
   private final QueryFilters filters;
 
+  private final float rawHitsFactor;
+
+  /** The fields fetched with hits, including the id, or null to fetch all
+   * fields with the details only. */
+  private final Set<String> detailsFieldSet;
+
+  private final WeightedCache<String, HitDetails> detailsCache;
+
   public SolrSearchBean(Configuration conf, String solrServer)
   throws IOException {
-    solr = new CommonsHttpSolrServer(solrServer);
-    filters = new QueryFilters(conf);
+    this(conf, createServer(conf, solrServer));
+  }
+
+  /** Construct for a given server, e.g. a stand-in for tests. */
+  SolrSearchBean(Configuration conf, SolrServer solr) {
+    this.solr = solr;
+    filters = new QueryFilters(conf, NutchBean.<Query, BooleanQuery>createCache(
+        conf, "searcher.query.translation.cache"));
+    rawHitsFactor = conf.getFloat("searcher.hostgrouping.rawhits.factor", 2.0f);
+    detailsFieldSet = getDetailsFields(conf);
+    detailsCache = detailsFieldSet == null ? null
+      : NutchBean.<String, HitDetails>createCache(conf, "searcher.solr.details.cache");
+  }
+
+  private static SolrServer createServer(Configuration conf,
+                                         String solrServer)
+  throws IOException {
+    final MultiThreadedHttpConnectionManager connectionManager =
+      new MultiThreadedHttpConnectionManager();
+    final HttpConnectionManagerParams params = connectionManager.getParams();
+    final int maxConnections = conf.getInt("searcher.solr.max.connections",
+                                           100);
+    params.setMaxTotalConnections(maxConnections);
+    params.setDefaultMaxConnectionsPerHost(maxConnections);
+    final int timeout = conf.getInt("searcher.solr.timeout", 10000);
+    params.setConnectionTimeout(timeout);
+    params.setSoTimeout(timeout);
+    final CommonsHttpSolrServer server =
+      new CommonsHttpSolrServer(solrServer, new HttpClient(connectionManager));
+    if (conf.getBoolean("searcher.solr.javabin", true)) {
+      server.setParser(new BinaryResponseParser());
+    }
+    return server;
+  }
+
+  private static Set<String> getDetailsFields(Configuration conf) {
+    final Set<String> fields = new LinkedHashSet<String>();
+    for (final String field :
+           conf.get("searcher.solr.details.fields", "").split(",")) {
+      if (field.trim().length() > 0) {
+        fields.add(field.trim());
+      }
+    }
+    if (fields.isEmpty()) {
+      return null;
+    }
+    fields.add("id");
+    return fields;
   }
 
   public String getExplanation(Query query, Hit hit) throws IOException {
     return "SOLR backend does not support explanations yet.";
   }
 
-  @SuppressWarnings("unchecked")
+  /** Solr can't limit the hits per dedup value, so more hits are requested
+   * and limited here. */
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse)
+  throws IOException {
+    return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+                  reverse, Long.MAX_VALUE);
+  }
+
+  /** The time left until the deadline is passed to Solr as
+   * <code>timeAllowed</code>, and partial results are marked incomplete. */
+  public Hits search(Query query, int numHits, int maxHitsPerDup,
+                     String dedupField, String sortField, boolean reverse,
+                     long deadline)
+  throws IOException {
+    if (maxHitsPerDup <= 0) {
+      return search(query, numHits, dedupField, sortField, reverse, deadline);
+    }
+    final int numHitsRaw = (int)(numHits * rawHitsFactor);
+    return search(query, numHitsRaw, dedupField, sortField, reverse, deadline)
+      .limitPerDup(numHits, maxHitsPerDup);
+  }
+
   public Hits search(Query query, int numHits, String dedupField,
                      String sortField, boolean reverse)
   throws IOException {
+    return search(query, numHits, dedupField, sortField, reverse,
+                  Long.MAX_VALUE);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Hits search(Query query, int numHits, String dedupField,
+                      String sortField, boolean reverse, long deadline)
+  throws IOException {
 
     // filter query string
     final BooleanQuery bQuery = filters.filter(query);
@@ -75,13 +173,29 @@ public class SolrSearchBean implements SearchBean {
 
     solrQuery.setRows(numHits);
 
+    // fetch the details of the hits too, if they are cached
+    final Set<String> fields = new LinkedHashSet<String>();
+    if (detailsCache != null) {
+      fields.addAll(detailsFieldSet);
+    }
+    fields.add("id");
+    if (dedupField != null) {
+      fields.add(dedupField);
+    }
     if (sortField == null) {
-      solrQuery.setFields(dedupField, "score", "id");
+      fields.add("score");
       sortField = "score";
     } else {
-      solrQuery.setFields(dedupField, sortField, "id");
+      fields.add(sortField);
       solrQuery.setSortField(sortField, reverse ? ORDER.asc : ORDER.desc);
     }
+    solrQuery.setFields(fields.toArray(new String[fields.size()]));
+
+    if (deadline != Long.MAX_VALUE) {
+      long timeAllowed = deadline - System.currentTimeMillis();
+      solrQuery.setTimeAllowed((int)Math.max(1,
+        Math.min(timeAllowed, Integer.MAX_VALUE)));
+    }
 
     QueryResponse response;
     try {
@@ -116,65 +230,114 @@ public class SolrSearchBean implements SearchBean {
       final String uniqueKey = (String )solrDoc.getFirstValue("id");
 
       hitArr[i] = new Hit(uniqueKey, sortValue, dedupValue);
+
+      if (detailsCache != null) {
+        final HitDetails details = buildDetails(solrDoc, detailsFieldSet);
+        detailsCache.put(uniqueKey, details, details.estimateSize());
+      }
     }
 
-    return new Hits(docList.getNumFound(), hitArr);
+    final Hits hits = new Hits(docList.getNumFound(), hitArr);
+    if (Boolean.TRUE.equals(response.getResponseHeader()
+                            .get("partialResults"))) {
+      hits.setTotalIsExact(false);
+      hits.setComplete(false);
+    }
+    return hits;
   }
 
   public HitDetails getDetails(Hit hit) throws IOException {
-    QueryResponse response;
-    try {
-      response = solr.query(new SolrQuery("id:\"" + hit.getUniqueKey() + "\""));
-    } catch (final SolrServerException e) {
-      throw SolrWriter.makeIOException(e);
-    }
+    return getDetails(new Hit[] { hit }, null, false)[0];
+  }
 
-    final SolrDocumentList docList = response.getResults();
-    if (docList.getNumFound() == 0) {
-      return null;
-    }
+  public HitDetails[] getDetails(Hit[] hits) throws IOException {
+    return getDetails(hits, null);
+  }
 
-    return buildDetails(docList.get(0));
+  /** Details are served from those fetched with the hits, if they have the
+   * fields asked for, and otherwise fetched for all remaining hits in one
+   * request.  Without a field list, the details have the fields fetched with
+   * the hits, or all stored fields if none are. */
+  public HitDetails[] getDetails(Hit[] hits, String[] fields)
+    throws IOException {
+    return getDetails(hits, fields, true);
   }
 
-  public HitDetails[] getDetails(Hit[] hits) throws IOException {
+  private HitDetails[] getDetails(Hit[] hits, String[] fields,
+                                  boolean required)
+    throws IOException {
+    final HitDetails[] detailsArr = new HitDetails[hits.length];
+    final Set<String> fieldSet;
+    if (fields != null) {
+      fieldSet = new HashSet<String>(Arrays.asList(fields));
+    } else if (detailsCache != null) {
+      fieldSet = detailsFieldSet;
+    } else {
+      fieldSet = null;                            // all stored fields
+    }
+    final boolean cached = detailsCache != null && fieldSet != null
+      && detailsFieldSet.containsAll(fieldSet);
+    final List<Hit> missing = new ArrayList<Hit>();
+    for (int i = 0; i < hits.length; i++) {
+      final HitDetails details = cached
+        ? detailsCache.get(hits[i].getUniqueKey()) : null;
+      if (details == null) {
+        missing.add(hits[i]);
+      } else {
+        detailsArr[i] = select(details, fieldSet);
+      }
+    }
+    if (missing.isEmpty()) {
+      return detailsArr;
+    }
+
     final StringBuilder buf = new StringBuilder();
-    buf.append("(");
-    for (final Hit hit : hits) {
-      buf.append(" id:\"");
-      buf.append(hit.getUniqueKey());
+    buf.append("id:(");
+    for (final Hit hit : missing) {
+      buf.append(" \"");
+      buf.append(hit.getUniqueKey().replace("\\", "\\\\")
+                 .replace("\"", "\\\""));
       buf.append("\"");
     }
     buf.append(")");
 
+    final SolrQuery solrQuery = new SolrQuery(buf.toString());
+    solrQuery.setRows(missing.size());
+    if (fieldSet != null) {
+      // the id is needed to put the details in the order of the hits
+      final Set<String> solrFields = new LinkedHashSet<String>(fieldSet);
+      solrFields.add("id");
+      solrQuery.setFields(solrFields.toArray(new String[solrFields.size()]));
+    }
+
     QueryResponse response;
     try {
-      response = solr.query(new SolrQuery(buf.toString()));
+      response = solr.query(solrQuery);
     } catch (final SolrServerException e) {
       throw SolrWriter.makeIOException(e);
     }
 
-    final SolrDocumentList docList = response.getResults();
-    if (docList.size() < hits.length) {
-      throw new RuntimeException("Missing hit details! Found: " +
-                                 docList.size() + ", expecting: " +
-                                 hits.length);
-    }
-
     /* Response returned from SOLR server may be out of
      * order. So we make sure that nth element of HitDetails[]
      * is the detail of nth hit.
      */
+    final SolrDocumentList docList = response.getResults();
+    if (required && docList.size() < missing.size()) {
+      throw new RuntimeException("Missing hit details! Found: " +
+                                 docList.size() + ", expecting: " +
+                                 missing.size());
+    }
     final Map<String, HitDetails> detailsMap =
-      new HashMap<String, HitDetails>(hits.length);
+      new HashMap<String, HitDetails>(docList.size());
     for (final SolrDocument solrDoc : docList) {
-      final HitDetails details = buildDetails(solrDoc);
+      final HitDetails details = buildDetails(solrDoc, null);
       detailsMap.put(details.getValue("id"), details);
     }
 
-    final HitDetails[] detailsArr = new HitDetails[hits.length];
     for (int i = 0; i < hits.length; i++) {
-      detailsArr[i] = detailsMap.get(hits[i].getUniqueKey());
+      if (detailsArr[i] == null) {
+        detailsArr[i] = detailsMap.get(hits[i].getUniqueKey());
+      }
     }
 
     return detailsArr;
@@ -188,12 +351,27 @@ public class SolrSearchBean implements SearchBean {
     }
   }
 
-  public void close() throws IOException { }
+  public void close() throws IOException {
+    if (solr instanceof CommonsHttpSolrServer) {
+      final HttpConnectionManager connectionManager =
+        ((CommonsHttpSolrServer)solr).getHttpClient()
+        .getHttpConnectionManager();
+      if (connectionManager instanceof MultiThreadedHttpConnectionManager) {
+        ((MultiThreadedHttpConnectionManager)connectionManager).shutdown();
+      }
+    }
+  }
 
-  private static HitDetails buildDetails(SolrDocument solrDoc) {
+  /** Builds details from the given fields of a document, or from all its
+   * fields if null. */
+  private static HitDetails buildDetails(SolrDocument solrDoc,
+                                         Set<String> fieldSet) {
     final List<String> fieldList = new ArrayList<String>();
     final List<String> valueList = new ArrayList<String>();
     for (final String field : solrDoc.getFieldNames()) {
+      if (fieldSet != null && !fieldSet.contains(field)) {
+        continue;
+      }
       for (final Object o : solrDoc.getFieldValues(field)) {
         fieldList.add(field);
         valueList.add(o.toString());
@@ -205,6 +383,22 @@ public class SolrSearchBean implements SearchBean {
     return new HitDetails(fields, values);
   }
 
+  /** Returns the values of the given fields and of the id only. */
+  private static HitDetails select(HitDetails details, Set<String> fieldSet) {
+    final List<String> fieldList = new ArrayList<String>();
+    final List<String> valueList = new ArrayList<String>();
+    for (int i = 0; i < details.getLength(); i++) {
+      if (fieldSet.contains(details.getField(i))
+          || "id".equals(details.getField(i))) {
+        fieldList.add(details.getField(i));
+        valueList.add(details.getValue(i));
+      }
+    }
+    final String[] fields = fieldList.toArray(new String[fieldList.size()]);
+    final String[] values = valueList.toArray(new String[valueList.size()]);
+    return new HitDetails(fields, values);
+  }
+
   /* Hackish solution for stringifying queries. Code from BooleanQuery.
    * This is necessary because a BooleanQuery.toString produces
    * statements like feed:http://www.google.com which doesn't work, we
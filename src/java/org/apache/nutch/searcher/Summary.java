@@ -111,6 +111,16 @@ public class Summary implements Writable {
     return buffer.toString();
   }
 
+  /** Returns the estimated memory size in bytes, for caching. */
+  public long estimateSize() {
+    long size = WeightedCache.OBJECT_OVERHEAD;
+    for (int i = 0; i < fragments.size(); i++) {
+      size += WeightedCache.OBJECT_OVERHEAD
+        + 2 * fragments.get(i).getText().length();
+    }
+    return size;
+  }
+
   /**
    * Returns a HTML representation of this Summary.
    * HTML output for <b>Highlight</b> fragments is
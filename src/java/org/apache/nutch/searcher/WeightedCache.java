@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A thread-safe LRU cache bounded by the number of entries and by the total
+ * weight (estimated memory size in bytes) of its values. Values must not be
+ * modified once cached.
+ */
+public class WeightedCache<K, V> {
+
+  /** Rough per object overhead in bytes, for weight estimates. */
+  public static final int OBJECT_OVERHEAD = 48;
+
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+
+    Entry(V value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  private final int maxEntries;
+  private final long maxWeight;
+
+  private final LinkedHashMap<K, Entry<V>> entries =
+    new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+  private long weight;
+
+  private long lookups;
+  private long hits;
+  private long evictions;
+
+  /**
+   * @param maxEntries maximum number of entries
+   * @param maxWeight maximum total weight of the values
+   */
+  public WeightedCache(int maxEntries, long maxWeight) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  /** Returns the cached value for a key, or null. */
+  public synchronized V get(K key) {
+    lookups++;
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /** Adds a value with a weight, evicting least recently used values. */
+  public synchronized void put(K key, V value, long valueWeight) {
+    if (valueWeight > maxWeight) {
+      return;
+    }
+    Entry<V> old = entries.put(key, new Entry<V>(value, valueWeight));
+    if (old != null) {
+      weight -= old.weight;
+    }
+    weight += valueWeight;
+    Iterator<Entry<V>> i = entries.values().iterator();
+    while ((entries.size() > maxEntries || weight > maxWeight) && i.hasNext()) {
+      weight -= i.next().weight;
+      i.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Adds a value with a weight unless the key already has one, e.g. cached
+   * by another thread meanwhile.
+   *
+   * @return the cached value of the key, or <code>value</code> if there was
+   *         none
+   */
+  public synchronized V putIfAbsent(K key, V value, long valueWeight) {
+    Entry<V> old = entries.get(key);
+    if (old != null) {
+      return old.value;
+    }
+    put(key, value, valueWeight);
+    return value;
+  }
+
+  /** Removes the value of a key and returns it, or null. */
+  public synchronized V remove(K key) {
+    Entry<V> old = entries.remove(key);
+    if (old == null) {
+      return null;
+    }
+    weight -= old.weight;
+    return old.value;
+  }
+
+  /** Removes all entries. */
+  public synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+
+  /** Returns the number of entries. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the total weight of the cached values. */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /** Returns the number of lookups. */
+  public synchronized long getLookups() {
+    return lookups;
+  }
+
+  /** Returns the number of lookups that found a value. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Returns the number of lookups that found no value. */
+  public synchronized long getMisses() {
+    return lookups - hits;
+  }
+
+  /** Returns the number of values evicted to stay within the bounds. */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Returns the fraction of lookups that found a value. */
+  public synchronized float getHitRate() {
+    return lookups == 0 ? 0.0f : (float)hits / lookups;
+  }
+
+  public synchronized String toString() {
+    return "entries=" + entries.size() + ", weight=" + weight
+      + ", lookups=" + lookups + ", hits=" + hits + ", evictions="
+      + evictions + ", hitRate=" + getHitRate();
+  }
+}
@@ -17,6 +17,9 @@
 package org.apache.nutch.searcher.response;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -34,11 +37,14 @@ import org.apache.nutch.searcher.Hits;
 import org.apache.nutch.searcher.NutchBean;
 import org.apache.nutch.searcher.Query;
 import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.searcher.response.StreamingResponseWriter.HitWriter;
 import org.apache.nutch.util.NutchConfiguration;
 
 /**
  * Servlet that allows returning search results in multiple different formats
- * through a ResponseWriter Nutch extension point.
+ * through a ResponseWriter Nutch extension point.  Writers which implement
+ * {@link StreamingResponseWriter} are sent the hits in batches, each batch as
+ * soon as its details and summaries are fetched.
  * 
  * @see org.apache.nutch.searcher.response.ResponseWriter
  */
@@ -55,6 +61,7 @@ public class SearchServlet
   private int defaultNumRows = 10;
   private String defaultDedupField = "site";
   private int defaultNumDupes = 1;
+  private int batchSize = 10;
 
   public static final String RESPONSE_TYPE = "rt";
   public static final String QUERY = "query";
@@ -68,6 +75,9 @@ public class SearchServlet
   public static final String SUMMARY = "summary";
   public static final String FIELDS = "field";
 
+  /** Detail fields needed to get the summary of a hit. */
+  private static final String[] SUMMARY_FIELDS = { "segment", "url", "orig" };
+
   /**
    * Initializes servlet configuration default values.  Gets NutchBean and 
    * ResponseWriters.
@@ -86,6 +96,8 @@ public class SearchServlet
       this.defaultDedupField = conf.get("search.response.default.dedupfield",
         "site");
       this.defaultNumDupes = conf.getInt("search.response.default.numdupes", 1);
+      this.batchSize = Math.max(1, conf.getInt("searcher.response.batch.size",
+        10));
       bean = NutchBean.get(config.getServletContext(), this.conf);
       writers = new ResponseWriters(conf);
     }
@@ -152,7 +164,7 @@ public class SearchServlet
     String[] fields = request.getParameterValues(FIELDS);
 
     // parse out the query
-    Query queryObj = Query.parse(query, lang, this.conf);
+    Query queryObj = bean.parse(query, lang);
     if (NutchBean.LOG.isInfoEnabled()) {
       NutchBean.LOG.info("query: " + query);
       NutchBean.LOG.info("lang: " + lang);
@@ -175,7 +187,6 @@ public class SearchServlet
     int end = (int)Math.min(hits.getLength(), start + rows);
     int numHits = (end > start) ? (end - start) : 0;
     Hit[] show = hits.getHits(start, numHits);
-    HitDetails[] details = bean.getDetails(show);
 
     // setup the SearchResults object, used in response writing
     SearchResults results = new SearchResults();
@@ -189,24 +200,91 @@ public class SearchServlet
     results.setEnd(end);
     results.setTotalHits(totalHits);
     results.setHits(show);
+    results.setWithSummary(withSummary);
+
+    // set return fields if any specified, if not all fields are returned
+    if (fields != null && fields.length > 0) {
+      results.setFields(fields);
+    }
+
+    // stream the hits out batch by batch if the writer supports it
+    String[] detailFields = getDetailFields(fields, withSummary);
+    if (writer instanceof StreamingResponseWriter) {
+      HitWriter hitWriter = ((StreamingResponseWriter)writer).startResponse(
+        results, request, response);
+      writeHits(hitWriter, show, detailFields, withSummary ? queryObj : null);
+      hitWriter.close();
+      return;
+    }
+
+    HitDetails[] details = bean.getDetails(show, detailFields);
     results.setDetails(details);
 
     // are we returning summaries with results, if not avoid network hit
     if (withSummary) {
       Summary[] summaries = bean.getSummary(details, queryObj);
       results.setSummaries(summaries);
-      results.setWithSummary(true);
     }
-    else {
-      results.setWithSummary(false);
+
+    // call the response writer to write out content to HttpResponse directly
+    writer.writeResponse(results, request, response);
+  }
+
+  /**
+   * Writes out the hits in batches.  The details and the summaries of a batch
+   * are each fetched in one call, then the batch is written and flushed.
+   * 
+   * @param query The query to summarize the hits for, or null for no
+   * summaries.
+   */
+  private void writeHits(HitWriter hitWriter, Hit[] hits, String[] fields,
+    Query query)
+    throws IOException {
+
+    for (int start = 0; start < hits.length; start += batchSize) {
+      Hit[] batch = new Hit[Math.min(batchSize, hits.length - start)];
+      System.arraycopy(hits, start, batch, 0, batch.length);
+      HitDetails[] details = bean.getDetails(batch, fields);
+      Summary[] summaries = query != null ? getSummaries(details, query)
+        : null;
+      for (int i = 0; i < batch.length; i++) {
+        hitWriter.writeHit(batch[i], details[i],
+          summaries != null ? summaries[i] : null);
+      }
+      hitWriter.flush();
     }
+  }
 
-    // set return fields if any specified, if not all fields are returned
-    if (fields != null && fields.length > 0) {
-      results.setFields(fields);
+  /**
+   * Gets the summaries of a batch.  The response has already been started, so
+   * failed summaries are logged and the hits are written without them.
+   */
+  private Summary[] getSummaries(HitDetails[] details, Query query) {
+    try {
+      return bean.getSummary(details, query);
+    }
+    catch (IOException e) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Summary Error", e);
+      }
+      return null;
     }
+  }
 
-    // call the response writer to write out content to HttpResponse directly
-    writer.writeResponse(results, request, response);
+  /**
+   * Returns the stored fields to read for the hits, the requested fields plus
+   * those needed for summaries, or null to read all fields if none were
+   * requested.
+   */
+  private static String[] getDetailFields(String[] fields,
+    boolean withSummary) {
+    if (fields == null || fields.length == 0) {
+      return null;
+    }
+    Set<String> detailFields = new LinkedHashSet<String>(Arrays.asList(fields));
+    if (withSummary) {
+      detailFields.addAll(Arrays.asList(SUMMARY_FIELDS));
+    }
+    return detailFields.toArray(new String[detailFields.size()]);
   }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher.response;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Summary;
+
+/**
+ * A ResponseWriter which can write search results one hit at a time, as soon
+ * as the details and summary of each hit are ready, instead of holding the
+ * whole response in memory.  The {@link SearchServlet} uses this in preference
+ * to {@link ResponseWriter#writeResponse(SearchResults, HttpServletRequest,
+ * HttpServletResponse)} when a writer implements it.
+ */
+public interface StreamingResponseWriter
+  extends ResponseWriter {
+
+  /**
+   * Writes hits to a response started by {@link #startResponse}.
+   * Hits are written in the order they are passed in.
+   */
+  public interface HitWriter {
+
+    /**
+     * Writes out a single hit.
+     * 
+     * @param hit The hit.
+     * @param details The details of the hit.
+     * @param summary The summary of the hit, or null if there is none.
+     * 
+     * @throws IOException If an error occurs while writing out the hit.
+     */
+    public void writeHit(Hit hit, HitDetails details, Summary summary)
+      throws IOException;
+
+    /**
+     * Sends the hits written so far to the client.
+     * 
+     * @throws IOException If an error occurs while flushing the response.
+     */
+    public void flush()
+      throws IOException;
+
+    /**
+     * Writes out the end of the response and flushes it.
+     * 
+     * @throws IOException If an error occurs while writing out the response.
+     */
+    public void close()
+      throws IOException;
+  }
+
+  /**
+   * Writes out the headers and the start of the search results response.
+   * Only the common values of the results are used, the hits, details and
+   * summaries are written through the returned HitWriter.
+   * 
+   * @param results The SearchResults object containing the common info.
+   * @param request The HttpServletRequest object.
+   * @param response The HttpServletResponse object.
+   * 
+   * @return The HitWriter to write the hits with.
+   * 
+   * @throws IOException If an error occurs while writing out the response.
+   */
+  public HitWriter startResponse(SearchResults results,
+    HttpServletRequest request, HttpServletResponse response)
+    throws IOException;
+
+}
@@ -17,11 +17,10 @@
 
 package org.apache.nutch.servlet;
 
-import org.apache.nutch.metadata.Metadata;
-import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.searcher.NutchBean;
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.RawContent;
 import org.apache.nutch.util.NutchConfiguration;
 
 import org.apache.hadoop.conf.Configuration;
@@ -80,26 +79,18 @@ public class Cached extends HttpServlet {
                       request.getParameter("id"));
     HitDetails details = bean.getDetails(hit);
 
-    // raw bytes
-    byte[] bytes = bean.getContent(details);
+    // raw bytes with the original content type, in one lookup, without
+    // decoding the ParseData or the other headers
+    RawContent content = bean.getRawContent(details);
 
-    // pass all original headers? only these for now.
-    Metadata metadata = bean.getParseData(details).getContentMeta();
-    String contentType = metadata.get(Response.CONTENT_TYPE);
-    //String lastModified = metadata.get(Metadata.LAST_MODIFIED);
-    //String contentLength = metadata.get(Metadata.CONTENT_LENGTH);
-    // better use this, since it may have been truncated during fetch
-    // or give warning if they don't match?
-    int contentLength = bytes.length;
-
-    // response
-    response.setContentType(contentType);
-    response.setContentLength(contentLength);
+    // pass all original headers? only the type for now.
+    // the length of the bytes, since they may have been truncated during
+    // fetch
+    response.setContentType(content.getContentType());
+    response.setContentLength(content.getLength());
 
     OutputStream os = response.getOutputStream();
-    os.write(bytes);
-    // need this or flush more frequently?
-    //os.flush();
+    content.writeTo(os);
     os.close();
 
     return;
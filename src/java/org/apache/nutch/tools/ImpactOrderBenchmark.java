@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.nutch.indexer.IndexMerger;
+import org.apache.nutch.indexer.NutchSimilarity;
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Hits;
+import org.apache.nutch.searcher.IndexSearcher;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the latency and the quality of searches of a generated sample
+ * index: merged as usual and searched fully, merged with
+ * <code>indexer.merge.sort</code> and searched with early termination, and
+ * merged as usual and searched with <code>searcher.max.hits</code>.  Quality
+ * is the overlap of the top urls with those of the full search.  Early
+ * termination finds the same top hits as the full search, but hits with the
+ * same score as the last of them may be ranked differently, since the
+ * documents are numbered differently in the sorted index.
+ */
+public class ImpactOrderBenchmark {
+
+  private static String[] generateWords(int count, Random random) {
+    String[] words = new String[count];
+    for (int i = 0; i < count; i++) {
+      StringBuilder word = new StringBuilder();
+      for (int length = 4 + random.nextInt(5); length > 0; length--) {
+        word.append((char)('a' + random.nextInt(26)));
+      }
+      words[i] = word.toString();
+    }
+    return words;
+  }
+
+  /** Returns a word with a roughly Zipfian distribution. */
+  private static String nextWord(String[] words, Random random) {
+    return words[(int)Math.pow(words.length, random.nextDouble()) - 1];
+  }
+
+  /** Writes an index of pages with skewed boosts, like link analysis
+   * scores, and texts of Zipfian words. */
+  private static void generate(Path index, int docs, String[] words,
+                               Random random) throws Exception {
+    IndexWriter writer = new IndexWriter(index.toString(),
+                                         new WhitespaceAnalyzer(), true);
+    writer.setSimilarity(new NutchSimilarity());
+    for (int i = 0; i < docs; i++) {
+      String site = "www.site" + random.nextInt(docs / 20 + 1) + ".com";
+      String url = "http://" + site + "/" + index.getName() + "/" + i;
+      float boost = (float)Math.pow(10, -Math.log(random.nextDouble()) / 3);
+      Document doc = new Document();
+      doc.add(new Field("url", url, Field.Store.YES, Field.Index.NO));
+      doc.add(new Field("site", site, Field.Store.YES,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("boost", Float.toString(boost), Field.Store.YES,
+                        Field.Index.NO));
+      for (String field : new String[] { "title", "content" }) {
+        StringBuilder text = new StringBuilder();
+        int length = field.equals("title")
+          ? 1 + random.nextInt(8) : 50 + random.nextInt(500);
+        for (int j = 0; j < length; j++) {
+          text.append(nextWord(words, random)).append(' ');
+        }
+        doc.add(new Field(field, text.toString(), Field.Store.NO,
+                          Field.Index.ANALYZED));
+      }
+      doc.setBoost(boost);
+      writer.addDocument(doc);
+    }
+    writer.optimize();
+    writer.close();
+  }
+
+  private static Set<String> urls(IndexSearcher searcher, Hits hits)
+    throws Exception {
+    Hit[] top = hits.getHits(0, hits.getLength());
+    HitDetails[] details = searcher.getDetails(top, new String[] { "url" });
+    Set<String> urls = new HashSet<String>();
+    for (HitDetails detail : details) {
+      urls.add(detail.getValue("url"));
+    }
+    return urls;
+  }
+
+  private static void run(String name, IndexSearcher searcher,
+                          Query[] queries, Set<String>[] expected, int numHits,
+                          int repeat) throws Exception {
+    for (Query query : queries) {                 // warm up
+      searcher.search(query, numHits, null, null, false);
+    }
+    long time = 0;
+    double overlap = 0;
+    int exact = 0;
+    for (int q = 0; q < queries.length; q++) {
+      Hits hits = null;
+      long start = System.nanoTime();
+      for (int r = 0; r < repeat; r++) {
+        hits = searcher.search(queries[q], numHits, null, null, false);
+      }
+      time += System.nanoTime() - start;
+      if (hits.totalIsExact()) {
+        exact++;
+      }
+      Set<String> urls = urls(searcher, hits);
+      if (expected[q] == null) {
+        expected[q] = urls;
+      }
+      if (expected[q].isEmpty()) {
+        overlap += 1.0;
+      } else {
+        urls.retainAll(expected[q]);
+        overlap += (double)urls.size() / expected[q].size();
+      }
+    }
+    System.out.println(name + ": "
+        + (time / repeat / queries.length / 1000) + " us per query, overlap@"
+        + numHits + " " + (float)(overlap / queries.length) + ", "
+        + exact + " of " + queries.length + " totals exact");
+  }
+
+  public static void main(String[] args) throws Exception {
+    String usage = "ImpactOrderBenchmark [-dir dir] [-docs n] [-queries n]"
+      + " [-hits n] [-maxhits n] [-repeat n]";
+    Path dir = new Path("impact-order-benchmark");
+    int docs = 200000;
+    int numQueries = 200;
+    int numHits = 10;
+    int maxHits = 1000;
+    int repeat = 5;
+    for (int i = 0; i < args.length; i++) {
+      if ("-dir".equals(args[i])) {
+        dir = new Path(args[++i]);
+      } else if ("-docs".equals(args[i])) {
+        docs = Integer.parseInt(args[++i]);
+      } else if ("-queries".equals(args[i])) {
+        numQueries = Integer.parseInt(args[++i]);
+      } else if ("-hits".equals(args[i])) {
+        numHits = Integer.parseInt(args[++i]);
+      } else if ("-maxhits".equals(args[i])) {
+        maxHits = Integer.parseInt(args[++i]);
+      } else if ("-repeat".equals(args[i])) {
+        repeat = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(usage);
+        System.exit(-1);
+      }
+    }
+
+    Configuration conf = NutchConfiguration.create();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(dir, true);
+    Random random = new Random(42);
+    String[] words = generateWords(10000, random);
+    Path[] parts = { new Path(dir, "part-00000"), new Path(dir, "part-00001") };
+    for (Path part : parts) {
+      generate(part, docs / parts.length, words, random);
+    }
+
+    Path unsorted = new Path(dir, "unsorted");
+    Path sorted = new Path(dir, "sorted");
+    new IndexMerger(conf).merge(parts, unsorted, new Path(dir, "work"));
+    Configuration sortConf = new Configuration(conf);
+    sortConf.setBoolean("indexer.merge.sort", true);
+    new IndexMerger(sortConf).merge(parts, sorted, new Path(dir, "work"));
+
+    // one and two word queries of more or less frequent words
+    Query[] queries = new Query[numQueries];
+    for (int q = 0; q < numQueries; q++) {
+      String text = nextWord(words, random);
+      if (random.nextBoolean()) {
+        text += " " + nextWord(words, random);
+      }
+      queries[q] = Query.parse(text, conf);
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<String>[] expected = new Set[numQueries];
+    Configuration fullConf = new Configuration(conf);
+    fullConf.setBoolean("searcher.impact.order", false);
+    IndexSearcher searcher = new IndexSearcher(unsorted, fullConf);
+    run("full search", searcher, queries, expected, numHits, repeat);
+    searcher.close();
+
+    searcher = new IndexSearcher(sorted, conf);
+    run("sorted, early termination", searcher, queries, expected, numHits,
+        repeat);
+    searcher.close();
+
+    Configuration maxHitsConf = new Configuration(fullConf);
+    maxHitsConf.setInt("searcher.max.hits", maxHits);
+    searcher = new IndexSearcher(unsorted, maxHitsConf);
+    run("searcher.max.hits=" + maxHits, searcher, queries, expected, numHits,
+        repeat);
+    searcher.close();
+
+    searcher = new IndexSearcher(sorted, maxHitsConf);
+    run("sorted, searcher.max.hits=" + maxHits, searcher, queries, expected,
+        numHits, repeat);
+    searcher.close();
+
+    fs.delete(dir, true);
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.OutlinkExtractor;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures the throughput of {@link OutlinkExtractor} over the text files
+ * given on the command line, e.g. text dumps of large PDF files, with the
+ * hand-written scanner or, with <code>-regex</code>, with the regular
+ * expression selected by <code>parser.outlinks.regex</code>.
+ */
+public class OutlinkExtractorBenchmark {
+
+  private static String read(File file) throws Exception {
+    byte[] bytes = new byte[(int)file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    return new String(bytes, "UTF-8");
+  }
+
+  public static void main(String[] args) throws Exception {
+    String usage = "OutlinkExtractorBenchmark [-regex] [-repeat n] file ...";
+    if (args.length == 0) {
+      System.err.println(usage);
+      System.exit(-1);
+    }
+
+    boolean regex = false;
+    int repeat = 10;
+    List<String> texts = new ArrayList<String>();
+    long chars = 0;
+    for (int i = 0; i < args.length; i++) {
+      if ("-regex".equals(args[i])) {
+        regex = true;
+      } else if ("-repeat".equals(args[i])) {
+        repeat = Integer.parseInt(args[++i]);
+      } else if (args[i].startsWith("-")) {
+        System.err.println(usage);
+        System.exit(-1);
+      } else {
+        String text = read(new File(args[i]));
+        texts.add(text);
+        chars += text.length();
+      }
+    }
+
+    Configuration conf = NutchConfiguration.create();
+    conf.setBoolean("parser.outlinks.regex", regex);
+    long outlinks = 0;
+    long start = System.currentTimeMillis();
+    for (int r = 0; r < repeat; r++) {
+      for (String text : texts) {
+        outlinks += OutlinkExtractor.getOutlinks(text, conf).length;
+      }
+    }
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    System.out.println((regex ? "regex" : "scanner") + ": " + repeat + " x "
+        + texts.size() + " files, " + chars + " chars, "
+        + (outlinks / repeat) + " outlinks per pass, " + elapsed + " ms, "
+        + (chars * repeat * 1000 / elapsed / 1024) + " Kchars/s");
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.HitDetailsList;
+import org.apache.nutch.searcher.Hits;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures the size and the serialization cost of search server responses,
+ * as sent over RPC: the hits of a search and their details.  Generated
+ * responses are written and read back in the compact encoding of
+ * {@link Hits} and {@link HitDetailsList}, with and without compression,
+ * and in the previous encoding, strings with a class name per element.
+ */
+public class RPCEncodingBenchmark {
+
+  private interface Encoding {
+    void write(DataOutput out) throws IOException;
+    void read(DataInput in) throws IOException;
+  }
+
+  private static Hit[] generateHits(int count, Random random) {
+    Hit[] hits = new Hit[count];
+    float score = 10.0f;
+    for (int i = 0; i < count; i++) {
+      score -= random.nextFloat() / count;
+      int doc = random.nextInt(10000000);
+      String key = random.nextInt(4) == 0
+        ? random.nextInt(3) + ":" + doc : Integer.toString(doc);
+      hits[i] = new Hit(key, new FloatWritable(score),
+                        "www.site" + random.nextInt(count / 5 + 1) + ".com");
+    }
+    return hits;
+  }
+
+  private static HitDetails[] generateDetails(Hit[] hits, Random random) {
+    HitDetails[] details = new HitDetails[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      String site = hits[i].getDedupValue();
+      details[i] = new HitDetails(
+          new String[] { "segment", "digest", "tstamp", "boost", "url",
+                         "site", "title" },
+          new String[] { "2009010" + random.nextInt(10) + "123456",
+                         Long.toHexString(random.nextLong())
+                         + Long.toHexString(random.nextLong()),
+                         "2009010" + random.nextInt(10) + "1234567",
+                         Float.toString(random.nextFloat()),
+                         "http://" + site + "/page/" + i + ".html",
+                         site,
+                         "The title of page " + i + " on " + site });
+    }
+    return details;
+  }
+
+  /** The encoding of hits before {@link Hits} was made compact. */
+  private static void writeLegacy(Hits hits, DataOutput out)
+    throws IOException {
+    out.writeLong(hits.getTotal());
+    out.writeBoolean(hits.totalIsExact());
+    out.writeBoolean(hits.isComplete());
+    out.writeInt(hits.getLength());
+    if (hits.getLength() > 0)
+      Text.writeString(out,
+                       hits.getHit(0).getSortValue().getClass().getName());
+    for (int i = 0; i < hits.getLength(); i++) {
+      Hit h = hits.getHit(i);
+      Text.writeString(out, h.getUniqueKey());
+      h.getSortValue().write(out);
+      Text.writeString(out, h.getDedupValue());
+      out.writeBoolean(h.moreFromDupExcluded());
+    }
+  }
+
+  private static Hits readLegacy(DataInput in) throws IOException {
+    long total = in.readLong();
+    boolean totalIsExact = in.readBoolean();
+    boolean complete = in.readBoolean();
+    Hit[] top = new Hit[in.readInt()];
+    if (top.length > 0) {
+      Text.readString(in);                        // always FloatWritable here
+    }
+    for (int i = 0; i < top.length; i++) {
+      String key = Text.readString(in);
+      FloatWritable sortValue = new FloatWritable();
+      sortValue.readFields(in);
+      top[i] = new Hit(key, sortValue, Text.readString(in));
+      top[i].setMoreFromDupExcluded(in.readBoolean());
+    }
+    Hits hits = new Hits(total, top);
+    hits.setTotalIsExact(totalIsExact);
+    hits.setComplete(complete);
+    return hits;
+  }
+
+  private static void run(String name, Encoding encoding, int repeat)
+    throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    DataInputBuffer in = new DataInputBuffer();
+    for (int r = 0; r < repeat; r++) {            // warm up
+      out.reset();
+      encoding.write(out);
+      in.reset(out.getData(), out.getLength());
+      encoding.read(in);
+    }
+    long writing = 0;
+    long reading = 0;
+    for (int r = 0; r < repeat; r++) {
+      out.reset();
+      long start = System.nanoTime();
+      encoding.write(out);
+      long written = System.nanoTime();
+      in.reset(out.getData(), out.getLength());
+      encoding.read(in);
+      reading += System.nanoTime() - written;
+      writing += written - start;
+    }
+    System.out.println(name + ": " + out.getLength() + " bytes, "
+        + (writing / repeat / 1000) + " us to write, "
+        + (reading / repeat / 1000) + " us to read");
+  }
+
+  public static void main(String[] args) throws Exception {
+    String usage = "RPCEncodingBenchmark [-hits n] [-repeat n]";
+    int count = 1000;
+    int repeat = 500;
+    for (int i = 0; i < args.length; i++) {
+      if ("-hits".equals(args[i])) {
+        count = Integer.parseInt(args[++i]);
+      } else if ("-repeat".equals(args[i])) {
+        repeat = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(usage);
+        System.exit(-1);
+      }
+    }
+
+    final Configuration conf = NutchConfiguration.create();
+    Random random = new Random(42);
+    final Hits hits = new Hits(count * 100L, generateHits(count, random));
+    final HitDetails[] details = generateDetails(hits.getHits(0, count),
+                                                 random);
+
+    run("hits, legacy", new Encoding() {
+      public void write(DataOutput out) throws IOException {
+        writeLegacy(hits, out);
+      }
+      public void read(DataInput in) throws IOException {
+        readLegacy(in);
+      }
+    }, repeat);
+    run("hits, compact", new Encoding() {
+      public void write(DataOutput out) throws IOException {
+        hits.write(out);
+      }
+      public void read(DataInput in) throws IOException {
+        new Hits().readFields(in);
+      }
+    }, repeat);
+
+    run("details, legacy", new Encoding() {
+      public void write(DataOutput out) throws IOException {
+        ObjectWritable.writeObject(out, details, HitDetails[].class, conf);
+      }
+      public void read(DataInput in) throws IOException {
+        ObjectWritable.readObject(in, conf);
+      }
+    }, repeat);
+    final int threshold = conf.getInt("searcher.rpc.compress.threshold", 4096);
+    int[] thresholds = { -1, threshold < 0 ? 0 : threshold };
+    for (final int t : thresholds) {
+      run("details, compact" + (t < 0 ? "" : ", compressed"), new Encoding() {
+        public void write(DataOutput out) throws IOException {
+          ObjectWritable.writeObject(out, new HitDetailsList(details, t),
+                                     HitDetailsList.class, conf);
+        }
+        public void read(DataInput in) throws IOException {
+          ObjectWritable.readObject(in, conf);
+        }
+      }, repeat);
+    }
+  }
+}
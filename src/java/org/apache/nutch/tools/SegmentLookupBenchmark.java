@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.searcher.FetchedSegments;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures lookups per second of the parse texts of a generated sample
+ * segment at 1 to 64 threads: with the shared, synchronized
+ * {@link MapFile.Reader}s of {@link MapFileOutputFormat}, and with
+ * {@link FetchedSegments}, which reads with a pool of readers per part,
+ * configured by <code>searcher.segment.readers</code>,
+ * <code>searcher.segment.index.interval</code> and
+ * <code>searcher.segment.io.buffer.size</code>, both the parse texts alone
+ * and summaries of them.
+ */
+public class SegmentLookupBenchmark {
+
+  private static final String SEGMENT = "20090101000000";
+
+  private static Text url(int i) {
+    return new Text("http://www.site" + (i % 1000) + ".com/page" + i);
+  }
+
+  /** Writes the parse texts of a segment, partitioned and compressed like
+   * the output of a parse. */
+  private static void generate(FileSystem fs, Path segment, int docs,
+                               int parts, Configuration conf)
+    throws Exception {
+    Random random = new Random(42);
+    String[] words = new String[5000];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = Integer.toString(random.nextInt(), 36);
+    }
+    HashPartitioner<Text, Writable> partitioner =
+      new HashPartitioner<Text, Writable>();
+    List<TreeSet<Text>> urls = new ArrayList<TreeSet<Text>>();
+    for (int p = 0; p < parts; p++) {
+      urls.add(new TreeSet<Text>());
+    }
+    for (int i = 0; i < docs; i++) {
+      urls.get(partitioner.getPartition(url(i), null, parts)).add(url(i));
+    }
+    for (int p = 0; p < parts; p++) {
+      Path part = new Path(new Path(segment, ParseText.DIR_NAME),
+                           "part-" + String.format("%05d", p));
+      MapFile.Writer writer = new MapFile.Writer(conf, fs, part.toString(),
+          Text.class, ParseText.class, CompressionType.RECORD);
+      for (Text url : urls.get(p)) {
+        StringBuilder text = new StringBuilder();
+        for (int length = 100 + random.nextInt(400); length > 0; length--) {
+          text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        writer.append(url, new ParseText(text.toString()));
+      }
+      writer.close();
+    }
+  }
+
+  private static HitDetails details(int doc) {
+    return new HitDetails(new String[] { "segment", "url" },
+                          new String[] { SEGMENT, url(doc).toString() });
+  }
+
+  /** A lookup of the document with a number. */
+  private interface Lookup {
+    void lookup(int doc) throws Exception;
+  }
+
+  private static void run(String name, final Lookup lookup, final int docs,
+                          int lookups, int threadCount) throws Exception {
+    final AtomicInteger remaining = new AtomicInteger(lookups);
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threads.length; t++) {
+      final Random random = new Random(t);
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            while (remaining.decrementAndGet() >= 0) {
+              lookup.lookup(random.nextInt(docs));
+            }
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long time = System.nanoTime() - start;
+    if (!errors.isEmpty()) {
+      throw new RuntimeException(errors.get(0));
+    }
+    System.out.println(name + ", " + threadCount + " threads: "
+        + (long)(lookups * 1e9 / time) + " lookups per second");
+  }
+
+  public static void main(String[] args) throws Exception {
+    String usage = "SegmentLookupBenchmark [-dir dir] [-docs n] [-parts n]"
+      + " [-lookups n] [-maxthreads n] [-readers n] [-interval n]";
+    Path dir = new Path("segment-lookup-benchmark");
+    int docs = 50000;
+    int parts = 2;
+    int lookups = 20000;
+    int maxThreads = 64;
+    Configuration conf = NutchConfiguration.create();
+    for (int i = 0; i < args.length; i++) {
+      if ("-dir".equals(args[i])) {
+        dir = new Path(args[++i]);
+      } else if ("-docs".equals(args[i])) {
+        docs = Integer.parseInt(args[++i]);
+      } else if ("-parts".equals(args[i])) {
+        parts = Integer.parseInt(args[++i]);
+      } else if ("-lookups".equals(args[i])) {
+        lookups = Integer.parseInt(args[++i]);
+      } else if ("-maxthreads".equals(args[i])) {
+        maxThreads = Integer.parseInt(args[++i]);
+      } else if ("-readers".equals(args[i])) {
+        conf.setInt("searcher.segment.readers", Integer.parseInt(args[++i]));
+      } else if ("-interval".equals(args[i])) {
+        conf.setInt("searcher.segment.index.interval",
+                    Integer.parseInt(args[++i]));
+      } else {
+        System.err.println(usage);
+        System.exit(-1);
+      }
+    }
+
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(dir, true);
+    Path segment = new Path(dir, SEGMENT);
+    generate(fs, segment, docs, parts, conf);
+
+    final MapFile.Reader[] readers = MapFileOutputFormat.getReaders(fs,
+        new Path(segment, ParseText.DIR_NAME), conf);
+    final HashPartitioner<Text, ParseText> partitioner =
+      new HashPartitioner<Text, ParseText>();
+    Lookup mapFile = new Lookup() {
+      public void lookup(int doc) throws Exception {
+        if (MapFileOutputFormat.getEntry(readers, partitioner, url(doc),
+                                         new ParseText()) == null) {
+          throw new IllegalStateException("Not found: " + url(doc));
+        }
+      }
+    };
+
+    final FetchedSegments segments = new FetchedSegments(conf, dir);
+    Lookup parseTexts = new Lookup() {
+      public void lookup(int doc) throws Exception {
+        if (segments.getParseText(details(doc)) == null) {
+          throw new IllegalStateException("Not found: " + url(doc));
+        }
+      }
+    };
+    final Query query = Query.parse("foo", conf);
+    Lookup summaries = new Lookup() {
+      public void lookup(int doc) throws Exception {
+        segments.getSummary(details(doc), query);
+      }
+    };
+
+    String pooled = conf.getInt("searcher.segment.readers", 4)
+      + " readers per part, index interval "
+      + conf.getInt("searcher.segment.index.interval", 0);
+    run("MapFile.Reader", mapFile, docs, lookups, 1);  // warm up
+    run("parse texts, " + pooled, parseTexts, docs, lookups, 1);
+    run("summaries, " + pooled, summaries, docs, lookups, 1);
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      run("MapFile.Reader", mapFile, docs, lookups, threads);
+      run("parse texts, " + pooled, parseTexts, docs, lookups, threads);
+      run("summaries, " + pooled, summaries, docs, lookups, threads);
+    }
+
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
+    segments.close();
+    fs.delete(dir, true);
+    System.exit(0);                               // the segment updater
+  }
+}
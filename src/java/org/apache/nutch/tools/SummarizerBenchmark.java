@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.searcher.Summarizer;
+import org.apache.nutch.searcher.SummarizerFactory;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures the latency of summarizer plugins on the same texts and query.
+ * The texts are read from the files given on the command line, e.g. parse
+ * text dumps of large pages, or else generated: random words with the query
+ * terms scattered sparsely, so that the whole text must be searched.
+ */
+public class SummarizerBenchmark {
+
+  private static List<String> generate(int docs, int size, String[] terms) {
+    Random random = new Random(42);
+    List<String> texts = new ArrayList<String>();
+    for (int d = 0; d < docs; d++) {
+      StringBuilder text = new StringBuilder(size + 16);
+      while (text.length() < size) {
+        if (terms.length > 0 && random.nextInt(2000) == 0) {
+          text.append(terms[random.nextInt(terms.length)]);
+        } else {
+          // short words, like in natural language, with some punctuation
+          int length = 1 + random.nextInt(random.nextInt(10) + 1);
+          for (int i = 0; i < length; i++) {
+            text.append((char)('a' + random.nextInt(26)));
+          }
+          if (random.nextInt(12) == 0) {
+            text.append(random.nextBoolean() ? '.' : ',');
+          }
+        }
+        text.append(' ');
+      }
+      texts.add(text.toString());
+    }
+    return texts;
+  }
+
+  private static String read(File file) throws Exception {
+    byte[] bytes = new byte[(int)file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    return new String(bytes, "UTF-8");
+  }
+
+  public static void main(String[] args) throws Exception {
+    String usage = "SummarizerBenchmark [-plugins summary-basic,...] "
+      + "[-query q] [-docs n] [-size chars] [-repeat n] [file ...]";
+    String plugins = "summary-basic,summary-lucene,summary-window";
+    String queryString = "apache lucene";
+    int docs = 20;
+    int size = 100 * 1024;
+    int repeat = 5;
+    List<String> texts = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-plugins".equals(args[i])) {
+        plugins = args[++i];
+      } else if ("-query".equals(args[i])) {
+        queryString = args[++i];
+      } else if ("-docs".equals(args[i])) {
+        docs = Integer.parseInt(args[++i]);
+      } else if ("-size".equals(args[i])) {
+        size = Integer.parseInt(args[++i]);
+      } else if ("-repeat".equals(args[i])) {
+        repeat = Integer.parseInt(args[++i]);
+      } else if (args[i].startsWith("-")) {
+        System.err.println(usage);
+        System.exit(-1);
+      } else {
+        texts.add(read(new File(args[i])));
+      }
+    }
+
+    for (String plugin : plugins.split(",")) {
+      Configuration conf = NutchConfiguration.create();
+      conf.set("plugin.includes",
+               "nutch-extensionpoints|query-basic|" + plugin.trim());
+      Summarizer summarizer = new SummarizerFactory(conf).getSummarizer();
+      if (summarizer == null) {
+        System.err.println(plugin + ": no summarizer found");
+        continue;
+      }
+      Query query = Query.parse(queryString, conf);
+      if (texts.isEmpty()) {
+        texts = generate(docs, size, query.getTerms());
+      }
+      long chars = 0;
+      for (String text : texts) {
+        chars += text.length();
+        summarizer.getSummary(text, query);     // warm up
+      }
+
+      long max = 0;
+      long fragments = 0;
+      long start = System.nanoTime();
+      for (int r = 0; r < repeat; r++) {
+        for (String text : texts) {
+          long before = System.nanoTime();
+          fragments += summarizer.getSummary(text, query)
+            .getFragments().length;
+          max = Math.max(max, System.nanoTime() - before);
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      int summaries = repeat * texts.size();
+      System.out.println(plugin + ": " + summaries + " summaries of "
+          + (chars / texts.size()) + " chars, "
+          + (elapsed / summaries / 1000) + " us mean, " + (max / 1000)
+          + " us max, " + (fragments / summaries) + " fragments per summary");
+    }
+  }
+}
@@ -20,11 +20,22 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -62,6 +73,16 @@ import com.ibm.icu.text.CharsetMatch;
  *        available;</li>
  *    <li>Run step (2) to guess what the most probable answer is.</li>
  * </p>
+ *
+ * <p>
+ * Auto detection runs in tiers, cheapest first, and stops at the first tier
+ * which decides (see {@link Tier}): a byte order mark, pure ASCII content,
+ * valid UTF-8 content, a trusted declared charset, the charset last detected
+ * for the same host if the content declares none, and only then ICU's
+ * <code>CharsetDetector</code>.
+ * The number of documents decided by each tier is available from
+ * {@link #getTierCounts()}.
+ * </p>
  */
 public class EncodingDetector {
 
@@ -104,6 +125,23 @@ public class EncodingDetector {
     }
   }
 
+  /** The tiers of auto detection, in the order they are tried. */
+  public static enum Tier {
+    /** Content starts with a byte order mark. */
+    BOM,
+    /** Content is pure ASCII, so any declared charset will do. */
+    ASCII,
+    /** Content is valid UTF-8 and contains multi-byte sequences. */
+    UTF8,
+    /** Content decodes without errors in its declared charset. */
+    DECLARED,
+    /** Content declares no charset and decodes without errors in the
+     * charset last detected for its host. */
+    HOST,
+    /** ICU charset detection. */
+    ICU
+  }
+
   public static final Log LOG = LogFactory.getLog(EncodingDetector.class);
 
   public static final int NO_THRESHOLD = -1;
@@ -111,6 +149,28 @@ public class EncodingDetector {
   public static final String MIN_CONFIDENCE_KEY =
     "encodingdetector.charset.min.confidence";
 
+  public static final String TRUST_DECLARED_KEY =
+    "encodingdetector.trust.declared";
+
+  public static final String HOST_CACHE_SIZE_KEY =
+    "encodingdetector.host.cache.size";
+
+  private static final int CONFIDENT = 100;
+
+  private static final AtomicLong[] TIER_COUNTS =
+    new AtomicLong[Tier.values().length];
+
+  // I used 1000 bytes at first, but  found that some documents have 
+  // meta tag well past the first 1000 bytes. 
+  // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
+  private static final int CHUNK_SIZE = 2000;
+  private static Pattern metaPattern =
+    Pattern.compile("<meta\\s+([^>]*http-equiv=\"?content-type\"?[^>]*)>",
+                    Pattern.CASE_INSENSITIVE);
+  private static Pattern charsetPattern =
+    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
+                    Pattern.CASE_INSENSITIVE);
+
   private static final HashMap<String, String> ALIASES =
     new HashMap<String, String>();
 
@@ -148,50 +208,302 @@ public class EncodingDetector {
     //ALIASES.put("TIS620", "Cp874");
     //ALIASES.put("ISO-8859-11", "Cp874");
 
+    for (int i = 0; i < TIER_COUNTS.length; i++) {
+      TIER_COUNTS[i] = new AtomicLong();
+    }
   }
 
   private int minConfidence;
 
+  private boolean trustDeclared;
+
   private CharsetDetector detector;
 
   private List<EncodingClue> clues;
 
+  private Map<String, String> hostEncodings;
+
   public EncodingDetector(Configuration conf) {
     minConfidence = conf.getInt(MIN_CONFIDENCE_KEY, -1);
-    detector = new CharsetDetector();
+    trustDeclared = conf.getBoolean(TRUST_DECLARED_KEY, false);
     clues = new ArrayList<EncodingClue>();
+    hostEncodings = getHostEncodings(conf);
   }
 
   public void autoDetectClues(Content content, boolean filter) {
     byte[] data = content.getContent();
+    String declared = parseCharacterEncoding(
+        content.getMetadata().get(Response.CONTENT_TYPE));
 
     if (minConfidence >= 0 && DETECTABLES.contains(content.getContentType())
         && data.length > MIN_LENGTH) {
-      CharsetMatch[] matches = null;
-
-      // do all these in a try/catch; setText and detect/detectAll
-      // will sometimes throw exceptions
-      try {
-        detector.enableInputFilter(filter);
-        if (data.length > MIN_LENGTH) {
-          detector.setText(data);
-          matches = detector.detectAll();
+      Tier tier = detectFast(content, declared);
+      if (tier == null) {
+        detectICU(content, filter);
+        tier = Tier.ICU;
+      }
+      TIER_COUNTS[tier.ordinal()].incrementAndGet();
+    }
+
+    // add character encoding coming from HTTP response header
+    addClue(declared, "header");
+  }
+
+  /**
+   * Runs the tiers before ICU detection.
+   * @return the tier which decided, or null if ICU detection is needed
+   */
+  private Tier detectFast(Content content, String declared) {
+    byte[] data = content.getContent();
+
+    String bom = detectBOM(data);
+    if (bom != null) {
+      addClue(bom, "bom", CONFIDENT);
+      return Tier.BOM;
+    }
+
+    switch (scanUTF8(data)) {
+    case ASCII:
+      // every ASCII compatible charset decodes this the same way, so leave
+      // the choice to the declared charset or the default
+      return Tier.ASCII;
+    case UTF8:
+      addClue("utf-8", "detect", CONFIDENT);
+      return Tier.UTF8;
+    default:
+      break;
+    }
+
+    if (declared == null && content.getContentType().endsWith("html")) {
+      declared = sniffCharacterEncoding(data);
+    }
+    if (trustDeclared && declared != null && decodes(data, declared)) {
+      addClue(declared, "declared", CONFIDENT);
+      return Tier.DECLARED;
+    }
+
+    // the host's charset is only a guess for pages which declare none, and
+    // ranks below any confident clue added later
+    String host = getHost(content);
+    if (declared == null && hostEncodings != null && host != null) {
+      String cached;
+      synchronized (hostEncodings) {
+        cached = hostEncodings.get(host);
+      }
+      if (cached != null && decodes(data, cached)) {
+        addClue(cached, "host");
+        return Tier.HOST;
+      }
+    }
+
+    return null;
+  }
+
+  private void detectICU(Content content, boolean filter) {
+    byte[] data = content.getContent();
+    if (detector == null) {
+      detector = new CharsetDetector();
+    }
+    CharsetMatch[] matches = null;
+
+    // do all these in a try/catch; setText and detect/detectAll
+    // will sometimes throw exceptions
+    try {
+      detector.enableInputFilter(filter);
+      detector.setText(data);
+      matches = detector.detectAll();
+    } catch (Exception e) {
+      LOG.debug("Exception from ICU4J (ignoring): ");
+      e.printStackTrace(LogUtil.getDebugStream(LOG));
+    }
+
+    if (matches != null) {
+      for (CharsetMatch match : matches) {
+        addClue(match.getName(), "detect", match.getConfidence());
+      }
+      // remember a confident result as a clue for the host's next pages
+      String host = getHost(content);
+      if (hostEncodings != null && host != null && matches.length > 0
+          && matches[0].getConfidence() >= minConfidence) {
+        String encoding = resolveEncodingAlias(matches[0].getName());
+        if (encoding != null) {
+          synchronized (hostEncodings) {
+            hostEncodings.put(host, encoding);
+          }
         }
-      } catch (Exception e) {
-        LOG.debug("Exception from ICU4J (ignoring): ");
-        e.printStackTrace(LogUtil.getDebugStream(LOG));
       }
+    }
+  }
 
-      if (matches != null) {
-        for (CharsetMatch match : matches) {
-          addClue(match.getName(), "detect", match.getConfidence());
+  /** Returns the charset indicated by a byte order mark, or null. */
+  private static String detectBOM(byte[] data) {
+    if (data.length >= 3 && (data[0] & 0xff) == 0xef
+        && (data[1] & 0xff) == 0xbb && (data[2] & 0xff) == 0xbf) {
+      return "utf-8";
+    }
+    if (data.length >= 2) {
+      if ((data[0] & 0xff) == 0xfe && (data[1] & 0xff) == 0xff) {
+        return "utf-16be";
+      }
+      if ((data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xfe) {
+        return "utf-16le";
+      }
+    }
+    return null;
+  }
+
+  private static enum Scan { ASCII, UTF8, OTHER }
+
+  /** Checks whether data is pure ASCII, valid UTF-8 or something else. */
+  private static Scan scanUTF8(byte[] data) {
+    boolean ascii = true;
+    int i = 0;
+    final int length = data.length;
+    while (i < length) {
+      int b = data[i] & 0xff;
+      if (b < 0x80) {
+        if (b == 0) {
+          return Scan.OTHER;                      // probably UTF-16 or binary
         }
+        i++;
+        continue;
       }
+      ascii = false;
+      int n;
+      int min;
+      if (b >= 0xc2 && b <= 0xdf) {
+        n = 1; min = 0x80;
+      } else if (b >= 0xe0 && b <= 0xef) {
+        n = 2; min = 0x800;
+      } else if (b >= 0xf0 && b <= 0xf4) {
+        n = 3; min = 0x10000;
+      } else {
+        return Scan.OTHER;
+      }
+      if (i + n >= length) {
+        // a sequence cut off at the end of truncated content is fine
+        for (int j = i + 1; j < length; j++) {
+          if ((data[j] & 0xc0) != 0x80) return Scan.OTHER;
+        }
+        break;
+      }
+      int c = b & (0x3f >> n);
+      for (int j = 1; j <= n; j++) {
+        int cb = data[i + j] & 0xff;
+        if ((cb & 0xc0) != 0x80) {
+          return Scan.OTHER;
+        }
+        c = (c << 6) | (cb & 0x3f);
+      }
+      if (c < min || c > 0x10ffff || (c >= 0xd800 && c <= 0xdfff)) {
+        return Scan.OTHER;                        // overlong or surrogate
+      }
+      i += n + 1;
     }
+    return ascii ? Scan.ASCII : Scan.UTF8;
+  }
 
-    // add character encoding coming from HTTP response header
-    addClue(parseCharacterEncoding(
-        content.getMetadata().get(Response.CONTENT_TYPE)), "header");
+  /** True if data decodes in the given charset without errors. */
+  private static boolean decodes(byte[] data, String encoding) {
+    try {
+      Charset.forName(encoding).newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT)
+        .decode(ByteBuffer.wrap(data));
+      return true;
+    } catch (CharacterCodingException e) {
+      return false;
+    } catch (IllegalArgumentException e) {        // unsupported charset
+      return false;
+    }
+  }
+
+  private static String getHost(Content content) {
+    try {
+      return new URL(content.getBaseUrl()).getHost().toLowerCase();
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  /** Returns the host to charset cache shared by all detectors of a
+   * configuration, or null if it is disabled. */
+  @SuppressWarnings("serial")
+  private static Map<String, String> getHostEncodings(Configuration conf) {
+    final int size = conf.getInt(HOST_CACHE_SIZE_KEY, 0);
+    if (size <= 0) {
+      return null;
+    }
+    final String key = EncodingDetector.class.getName() + ".hosts";
+    synchronized (EncodingDetector.class) {
+      ObjectCache objectCache = ObjectCache.get(conf);
+      @SuppressWarnings("unchecked")
+      Map<String, String> hosts = (Map<String, String>)objectCache.getObject(key);
+      if (hosts == null) {
+        hosts = new LinkedHashMap<String, String>(size, 0.75f, true) {
+          protected boolean removeEldestEntry(Map.Entry<String, String> e) {
+            return size() > size;
+          }
+        };
+        objectCache.setObject(key, hosts);
+      }
+      return hosts;
+    }
+  }
+
+  /**
+   * Returns the number of documents decided by each {@link Tier} in this
+   * JVM, indexed by {@link Tier#ordinal()}.
+   */
+  public static long[] getTierCounts() {
+    long[] counts = new long[TIER_COUNTS.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = TIER_COUNTS[i].get();
+    }
+    return counts;
+  }
+
+  /**
+   * Given a <code>byte[]</code> representing an html file of an 
+   * <em>unknown</em> encoding,  read out 'charset' parameter in the meta tag   
+   * from the first <code>CHUNK_SIZE</code> bytes.
+   * If there's no meta tag for Content-Type or no charset is specified,
+   * <code>null</code> is returned.  <br />
+   * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
+   * can't be handled with this. 
+   * We need to do something similar to what's done by mozilla
+   * (http://lxr.mozilla.org/seamonkey/source/parser/htmlparser/src/nsParser.cpp#1993).
+   * See also http://www.w3.org/TR/REC-xml/#sec-guessing
+   * <br />
+   *
+   * @param content <code>byte[]</code> representation of an html file
+   */
+  public static String sniffCharacterEncoding(byte[] content) {
+    int length = content.length < CHUNK_SIZE ? 
+                 content.length : CHUNK_SIZE;
+
+    // We don't care about non-ASCII parts so that it's sufficient
+    // to just inflate each byte to a 16-bit value by padding. 
+    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into 
+    // {U+0041, U+0082, U+00B7}. 
+    String str = "";
+    try {
+      str = new String(content, 0, length,
+                       Charset.forName("ASCII").toString());
+    } catch (UnsupportedEncodingException e) {
+      // code should never come here, but just in case... 
+      return null;
+    }
+
+    Matcher metaMatcher = metaPattern.matcher(str);
+    String encoding = null;
+    if (metaMatcher.find()) {
+      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
+      if (charsetMatcher.find()) 
+        encoding = new String(charsetMatcher.group(1));
+    }
+
+    return encoding;
   }
 
   public void addClue(String value, String source, int confidence) {
@@ -89,6 +89,12 @@ public class DOMContentUtils {
     }
   }
   
+  /** Returns the link parameters for an element name (in lower case), or
+   * <code>null</code> if outlinks are not taken from that element. */
+  LinkParams getLinkParams(String elName) {
+    return (LinkParams)linkParams.get(elName);
+  }
+
   /**
    * This method takes a {@link StringBuffer} and a DOM {@link Node},
    * and will append all the content text found beneath the DOM node to 
@@ -316,7 +322,7 @@ public class DOMContentUtils {
    * 
    * @throws MalformedURLException If the url is not a well formed URL.
    */
-  private URL fixEmbeddedParams(URL base, String target) 
+  URL fixEmbeddedParams(URL base, String target) 
     throws MalformedURLException{
     
     // the target contains params information or the base doesn't then no
@@ -21,13 +21,12 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.net.URL;
 import java.net.MalformedURLException;
-import java.nio.charset.Charset;
 import java.io.*;
-import java.util.regex.*;
 
 import org.cyberneko.html.parsers.*;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.w3c.dom.*;
 import org.apache.html.dom.*;
 
@@ -44,63 +43,8 @@ import org.apache.nutch.util.*;
 public class HtmlParser implements Parser {
   public static final Log LOG = LogFactory.getLog("org.apache.nutch.parse.html");
 
-  // I used 1000 bytes at first, but  found that some documents have 
-  // meta tag well past the first 1000 bytes. 
-  // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
-  private static final int CHUNK_SIZE = 2000;
-  private static Pattern metaPattern =
-    Pattern.compile("<meta\\s+([^>]*http-equiv=\"?content-type\"?[^>]*)>",
-                    Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPattern =
-    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
-                    Pattern.CASE_INSENSITIVE);
-  
   private String parserImpl;
 
-  /**
-   * Given a <code>byte[]</code> representing an html file of an 
-   * <em>unknown</em> encoding,  read out 'charset' parameter in the meta tag   
-   * from the first <code>CHUNK_SIZE</code> bytes.
-   * If there's no meta tag for Content-Type or no charset is specified,
-   * <code>null</code> is returned.  <br />
-   * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
-   * can't be handled with this. 
-   * We need to do something similar to what's done by mozilla
-   * (http://lxr.mozilla.org/seamonkey/source/parser/htmlparser/src/nsParser.cpp#1993).
-   * See also http://www.w3.org/TR/REC-xml/#sec-guessing
-   * <br />
-   *
-   * @param content <code>byte[]</code> representation of an html file
-   */
-
-  private static String sniffCharacterEncoding(byte[] content) {
-    int length = content.length < CHUNK_SIZE ? 
-                 content.length : CHUNK_SIZE;
-
-    // We don't care about non-ASCII parts so that it's sufficient
-    // to just inflate each byte to a 16-bit value by padding. 
-    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into 
-    // {U+0041, U+0082, U+00B7}. 
-    String str = "";
-    try {
-      str = new String(content, 0, length,
-                       Charset.forName("ASCII").toString());
-    } catch (UnsupportedEncodingException e) {
-      // code should never come here, but just in case... 
-      return null;
-    }
-
-    Matcher metaMatcher = metaPattern.matcher(str);
-    String encoding = null;
-    if (metaMatcher.find()) {
-      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
-      if (charsetMatcher.find()) 
-        encoding = new String(charsetMatcher.group(1));
-    }
-
-    return encoding;
-  }
-
   private String defaultCharEncoding;
 
   private Configuration conf;
@@ -110,6 +54,12 @@ public class HtmlParser implements Parser {
   private HtmlParseFilters htmlParseFilters;
   
   private String cachingPolicy;
+
+  private boolean streaming;
+
+  private boolean streamingDom;
+
+  private int streamingTextLimit;
   
   public ParseResult getParse(Content content) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
@@ -127,22 +77,34 @@ public class HtmlParser implements Parser {
     Metadata metadata = new Metadata();
 
     // parse the content
-    DocumentFragment root;
+    DocumentFragment root = null;
+    StreamingContentHandler handler = null;
     try {
       byte[] contentInOctets = content.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
 
       EncodingDetector detector = new EncodingDetector(conf);
       detector.autoDetectClues(content, true);
-      detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
+      detector.addClue(EncodingDetector.sniffCharacterEncoding(contentInOctets),
+                       "sniffed");
       String encoding = detector.guessEncoding(content, defaultCharEncoding);
 
       metadata.set(Metadata.ORIGINAL_CHAR_ENCODING, encoding);
       metadata.set(Metadata.CHAR_ENCODING_FOR_CONVERSION, encoding);
 
       input.setEncoding(encoding);
-      if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (streaming) {
+        // a DOM is only built for the HtmlParseFilters
+        if (streamingDom && !htmlParseFilters.isEmpty()) {
+          HTMLDocumentImpl doc = new HTMLDocumentImpl();
+          doc.setErrorChecking(false);
+          root = doc.createDocumentFragment();
+        }
+        handler = parseStreaming(input, metaTags, base, root);
+      } else {
+        if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
+        root = parse(input);
+      }
     } catch (IOException e) {
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     } catch (DOMException e) {
@@ -153,7 +115,12 @@ public class HtmlParser implements Parser {
       e.printStackTrace(LogUtil.getWarnStream(LOG));
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     }
-      
+
+    if (handler != null) {
+      return getStreamingParse(content, handler, metaTags, base, metadata,
+                               root);
+    }
+
     // get meta directives
     HTMLMetaProcessor.getMetaTags(metaTags, root, base);
     if (LOG.isTraceEnabled()) {
@@ -182,6 +149,74 @@ public class HtmlParser implements Parser {
       }
     }
     
+    return createParseResult(content, metaTags, title, text, outlinks,
+                             metadata, root);
+  }
+
+  /**
+   * Extracts text, title, outlinks and meta tags in a single pass over the
+   * SAX events of the document.  A DOM is only built into <code>root</code>
+   * if it is not <code>null</code>.
+   */
+  private StreamingContentHandler parseStreaming(InputSource input,
+                                                 HTMLMetaTags metaTags,
+                                                 URL base,
+                                                 DocumentFragment root)
+    throws Exception {
+    DOMBuilder builder = null;
+    if (root != null) {
+      builder = new DOMBuilder(root.getOwnerDocument(), root);
+    }
+    StreamingContentHandler handler =
+      new StreamingContentHandler(utils, metaTags, base, streamingTextLimit,
+                                  builder);
+    if (LOG.isTraceEnabled()) { LOG.trace("Parsing (streaming)..."); }
+    XMLReader reader = parserImpl.equalsIgnoreCase("tagsoup") ?
+      createTagSoupReader() : createNekoReader();
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+                       handler);
+    reader.parse(input);
+    return handler;
+  }
+
+  /**
+   * Builds the parse result from a streaming parse.  {@link HtmlParseFilter}s
+   * are only run if a DOM was built.
+   */
+  private ParseResult getStreamingParse(Content content,
+                                        StreamingContentHandler handler,
+                                        HTMLMetaTags metaTags, URL base,
+                                        Metadata metadata,
+                                        DocumentFragment root) {
+    if (handler.isTextTruncated() && LOG.isDebugEnabled()) {
+      LOG.debug("text truncated to " + streamingTextLimit + " characters for "
+                + content.getUrl());
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
+    }
+    String text = "";
+    String title = "";
+    Outlink[] outlinks = new Outlink[0];
+    if (!metaTags.getNoIndex()) {               // okay to index
+      text = handler.getText();
+      title = handler.getTitle();
+    }
+    if (!metaTags.getNoFollow()) {              // okay to follow links
+      outlinks = handler.getOutlinks(base);
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("found "+outlinks.length+" outlinks in "+content.getUrl());
+      }
+    }
+    return createParseResult(content, metaTags, title, text, outlinks,
+                             metadata, root);
+  }
+
+  private ParseResult createParseResult(Content content, HTMLMetaTags metaTags,
+                                        String title, String text,
+                                        Outlink[] outlinks, Metadata metadata,
+                                        DocumentFragment root) {
     ParseStatus status = new ParseStatus(ParseStatus.SUCCESS);
     if (metaTags.getRefresh()) {
       status.setMinorCode(ParseStatus.SUCCESS_REDIRECT);
@@ -193,9 +228,12 @@ public class HtmlParser implements Parser {
     ParseResult parseResult = ParseResult.createParseResult(content.getUrl(), 
                                                  new ParseImpl(text, parseData));
 
-    // run filters on parse
-    ParseResult filteredParse = this.htmlParseFilters.filter(content, parseResult, 
-                                                             metaTags, root);
+    // run filters on parse, unless streaming without a DOM
+    ParseResult filteredParse = parseResult;
+    if (root != null) {
+      filteredParse = this.htmlParseFilters.filter(content, parseResult,
+                                                   metaTags, root);
+    }
     if (metaTags.getNoCache()) {             // not okay to cache
       for (Map.Entry<org.apache.hadoop.io.Text, Parse> entry : filteredParse) 
         entry.getValue().getData().getParseMeta().set(Nutch.CACHING_FORBIDDEN_KEY, 
@@ -204,6 +242,28 @@ public class HtmlParser implements Parser {
     return filteredParse;
   }
 
+  private XMLReader createTagSoupReader() throws SAXException {
+    org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+    reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+    reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+    return reader;
+  }
+
+  private XMLReader createNekoReader() {
+    SAXParser parser = new SAXParser();
+    try {
+      parser.setProperty("http://cyberneko.org/html/properties/default-encoding",
+              defaultCharEncoding);
+      parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
+              false);
+      parser.setFeature("http://cyberneko.org/html/features/report-errors",
+              LOG.isTraceEnabled());
+    } catch (SAXException e) {}
+    return parser;
+  }
+
   private DocumentFragment parse(InputSource input) throws Exception {
     if (parserImpl.equalsIgnoreCase("tagsoup"))
       return parseTagSoup(input);
@@ -289,6 +349,10 @@ public class HtmlParser implements Parser {
     this.utils = new DOMContentUtils(conf);
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy",
         Nutch.CACHING_FORBIDDEN_CONTENT);
+    this.streaming = getConf().getBoolean("parser.html.streaming", false);
+    this.streamingDom = getConf().getBoolean("parser.html.streaming.dom", true);
+    this.streamingTextLimit =
+      getConf().getInt("parser.html.streaming.text.limit", 1048576);
   }
 
   public Configuration getConf() {
@@ -0,0 +1,462 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler which extracts text, title, outlinks and META directives
+ * from an HTML document in a single pass, without building a DOM tree.
+ *
+ * <p>The extracted content follows the rules of {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor}: text of <code>script</code> and
+ * <code>style</code> elements is skipped, META and BASE tags are only
+ * honoured before <code>body</code>, and outlinks are taken from the
+ * elements configured for {@link DOMContentUtils}.  The text, the title,
+ * each anchor and the text node being read are all bounded by
+ * <code>maxTextLength</code>, so memory use does not depend on the size of
+ * the document.
+ *
+ * <p>If a {@link DOMBuilder} is given all events are passed on to it as
+ * well, so that a DOM is still available to those {@link
+ * org.apache.nutch.parse.HtmlParseFilter}s which need one.
+ */
+public class StreamingContentHandler extends DefaultHandler
+  implements LexicalHandler {
+
+  /** An outlink element which has been started, but not yet closed. */
+  private static class OpenLink {
+    private final DOMContentUtils.LinkParams params;
+    private final String target;
+    private final int depth;
+    private final StringBuilder anchor = new StringBuilder();
+    private int anchorDepth;
+    private boolean aborted;
+    private boolean discard;
+    // direct children, see DOMContentUtils.shouldThrowAwayLink()
+    private int children;
+    private int significantChildren;
+    private boolean onlyNestedLink;
+
+    public OpenLink(DOMContentUtils.LinkParams params, String target,
+                    int depth) {
+      this.params = params;
+      this.target = target;
+      this.depth = depth;
+      this.anchorDepth = "a".equals(params.elName) ? 1 : 0;
+    }
+  }
+
+  private final DOMContentUtils utils;
+  private final HTMLMetaTags metaTags;
+  private final URL currURL;
+  private final int maxTextLength;
+  private final DOMBuilder domBuilder;
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder title = new StringBuilder();
+  private final StringBuilder pending = new StringBuilder();
+  private final ArrayList<OpenLink> links = new ArrayList<OpenLink>();
+  private final ArrayList<OpenLink> openLinks = new ArrayList<OpenLink>();
+
+  private int depth;
+  private int skipDepth;
+  private boolean inBody;
+  private boolean inTitle;
+  private boolean titleSeen;
+  private boolean textTruncated;
+  private URL baseTag;
+
+  /**
+   * @param utils provides the outlink configuration
+   * @param metaTags receives the META directives found in the document
+   * @param currURL the URL of the document
+   * @param maxTextLength maximum number of characters to keep of the text,
+   *        the title and each anchor, or a negative value for no limit
+   * @param domBuilder if not <code>null</code>, all events are passed on to
+   *        this builder
+   */
+  public StreamingContentHandler(DOMContentUtils utils, HTMLMetaTags metaTags,
+                                 URL currURL, int maxTextLength,
+                                 DOMBuilder domBuilder) {
+    this.utils = utils;
+    this.metaTags = metaTags;
+    this.currURL = currURL;
+    this.maxTextLength = maxTextLength;
+    this.domBuilder = domBuilder;
+    metaTags.reset();
+  }
+
+  /** Returns the text of the document. */
+  public String getText() {
+    return text.toString();
+  }
+
+  /** Returns the title of the document. */
+  public String getTitle() {
+    return title.toString().trim();
+  }
+
+  /** True if text was dropped because <code>maxTextLength</code> was
+   * reached. */
+  public boolean isTextTruncated() {
+    return textTruncated;
+  }
+
+  /**
+   * Returns the outlinks of the document, resolved against its BASE tag if
+   * one was found, or against <code>base</code> otherwise.
+   */
+  public Outlink[] getOutlinks(URL base) {
+    if (baseTag != null) {
+      base = baseTag;
+    }
+    boolean embeddedParams = base.toString().indexOf(';') > 0;
+    ArrayList<Outlink> outlinks = new ArrayList<Outlink>(links.size());
+    for (OpenLink link : links) {
+      if (link.discard) {
+        continue;
+      }
+      try {
+        URL url = embeddedParams ?
+          utils.fixEmbeddedParams(base, link.target) :
+          new URL(base, link.target);
+        outlinks.add(new Outlink(url.toString(), link.anchor.toString()));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+    return outlinks.toArray(new Outlink[outlinks.size()]);
+  }
+
+  public void setDocumentLocator(Locator locator) {
+    if (domBuilder != null) domBuilder.setDocumentLocator(locator);
+  }
+
+  public void startDocument() throws SAXException {
+    if (domBuilder != null) domBuilder.startDocument();
+  }
+
+  public void endDocument() throws SAXException {
+    flushText();
+    if (domBuilder != null) domBuilder.endDocument();
+  }
+
+  public void startElement(String uri, String localName, String qName,
+                           Attributes atts) throws SAXException {
+    flushText();
+    String name = elementName(localName, qName);
+
+    OpenLink parent = openLinks.isEmpty() ?
+      null : openLinks.get(openLinks.size() - 1);
+    if (parent != null && parent.depth + 1 == depth) {
+      addChild(parent, true, name.equals(parent.params.elName));
+    }
+    if ("a".equals(name)) {
+      for (int i = 0; i < openLinks.size(); i++) {
+        OpenLink link = openLinks.get(i);
+        if (++link.anchorDepth > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+    depth++;
+
+    if ("body".equals(name)) {
+      inBody = true;
+    } else if (!inBody) {
+      if ("meta".equals(name)) {
+        HTMLMetaProcessor.processMeta(metaTags,
+                                      getAttribute(atts, "name"),
+                                      getAttribute(atts, "http-equiv"),
+                                      getAttribute(atts, "content"),
+                                      currURL);
+      } else if ("base".equals(name)) {
+        String href = getAttribute(atts, "href");
+        if (href != null) {
+          HTMLMetaProcessor.processBase(metaTags, href, currURL);
+          if (baseTag == null) {
+            try {
+              baseTag = new URL(href);
+            } catch (MalformedURLException e) {}
+          }
+        }
+      } else if ("title".equals(name) && !titleSeen) {
+        inTitle = true;
+      }
+    }
+
+    DOMContentUtils.LinkParams params = utils.getLinkParams(name);
+    if (params != null) {
+      startLink(params, atts);
+    }
+
+    if ("script".equals(name) || "style".equals(name)) {
+      skipDepth++;
+    }
+
+    if (domBuilder != null) domBuilder.startElement(uri, localName, qName, atts);
+  }
+
+  public void endElement(String uri, String localName, String qName)
+    throws SAXException {
+    flushText();
+    String name = elementName(localName, qName);
+    depth--;
+
+    if ("script".equals(name) || "style".equals(name)) {
+      if (skipDepth > 0) skipDepth--;
+    } else if ("title".equals(name) && inTitle) {
+      inTitle = false;
+      titleSeen = true;
+    }
+
+    for (int i = openLinks.size() - 1; i >= 0; i--) {
+      OpenLink link = openLinks.get(i);
+      if (link.depth == depth) {
+        endLink(link);
+        openLinks.remove(i);
+      } else if ("a".equals(name)) {
+        link.anchorDepth--;
+      }
+    }
+
+    if (domBuilder != null) domBuilder.endElement(uri, localName, qName);
+  }
+
+  public void characters(char[] ch, int start, int length)
+    throws SAXException {
+    if (skipDepth == 0
+        && (inTitle || !openLinks.isEmpty() || !textFull())) {
+      int keep = length;
+      if (maxTextLength >= 0 && pending.length() + length > maxTextLength) {
+        keep = Math.max(0, maxTextLength - pending.length());
+        textTruncated = true;
+      }
+      pending.append(ch, start, keep);
+    } else if (skipDepth == 0 && length > 0) {
+      textTruncated = true;
+    }
+    if (domBuilder != null) domBuilder.characters(ch, start, length);
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length)
+    throws SAXException {
+    if (domBuilder != null) domBuilder.ignorableWhitespace(ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data)
+    throws SAXException {
+    if (domBuilder != null) domBuilder.processingInstruction(target, data);
+  }
+
+  public void startPrefixMapping(String prefix, String uri)
+    throws SAXException {
+    if (domBuilder != null) domBuilder.startPrefixMapping(prefix, uri);
+  }
+
+  public void endPrefixMapping(String prefix) throws SAXException {
+    if (domBuilder != null) domBuilder.endPrefixMapping(prefix);
+  }
+
+  public void skippedEntity(String name) throws SAXException {
+    if (domBuilder != null) domBuilder.skippedEntity(name);
+  }
+
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    // comments are not part of the text, so they only end a text node
+    flushText();
+    if (domBuilder != null) domBuilder.comment(ch, start, length);
+  }
+
+  public void startCDATA() throws SAXException {
+    if (domBuilder != null) domBuilder.startCDATA();
+  }
+
+  public void endCDATA() throws SAXException {
+    if (domBuilder != null) domBuilder.endCDATA();
+  }
+
+  public void startDTD(String name, String publicId, String systemId)
+    throws SAXException {
+    if (domBuilder != null) domBuilder.startDTD(name, publicId, systemId);
+  }
+
+  public void endDTD() throws SAXException {
+    if (domBuilder != null) domBuilder.endDTD();
+  }
+
+  public void startEntity(String name) throws SAXException {
+    if (domBuilder != null) domBuilder.startEntity(name);
+  }
+
+  public void endEntity(String name) throws SAXException {
+    if (domBuilder != null) domBuilder.endEntity(name);
+  }
+
+  private void startLink(DOMContentUtils.LinkParams params, Attributes atts) {
+    String target = null;
+    boolean noFollow = false;
+    boolean post = false;
+    for (int i = 0; i < atts.getLength(); i++) {
+      String attrName = elementName(atts.getLocalName(i), atts.getQName(i));
+      if (params.attrName.equals(attrName)) {
+        target = atts.getValue(i);
+      } else if ("rel".equals(attrName) &&
+                 "nofollow".equalsIgnoreCase(atts.getValue(i))) {
+        noFollow = true;
+      } else if ("method".equals(attrName) &&
+                 "post".equalsIgnoreCase(atts.getValue(i))) {
+        post = true;
+      }
+    }
+    OpenLink link = new OpenLink(params, target, depth - 1);
+    if (target == null || noFollow || post) {
+      link.discard = true;
+    } else {
+      links.add(link);
+    }
+    openLinks.add(link);
+  }
+
+  private void endLink(OpenLink link) {
+    if (link.discard) {
+      return;
+    }
+    if (link.children == 0) {
+      // this has no inner structure
+      link.discard = link.params.childLen != 0;
+    } else if (link.children <= 3 && link.significantChildren == 1
+               && link.onlyNestedLink) {
+      // single nested link, possibly surrounded by whitespace
+      link.discard = true;
+    }
+    // trim the anchor in place
+    int end = link.anchor.length();
+    while (end > 0 && link.anchor.charAt(end - 1) == ' ') end--;
+    link.anchor.setLength(end);
+  }
+
+  private void addChild(OpenLink link, boolean significant,
+                        boolean sameElement) {
+    link.children++;
+    if (significant) {
+      link.significantChildren++;
+      link.onlyNestedLink = link.significantChildren == 1 && sameElement;
+    }
+  }
+
+  /** Ends the current text node. */
+  private void flushText() {
+    if (pending.length() == 0) {
+      return;
+    }
+    String value = collapseWhitespace(pending);
+    pending.setLength(0);
+
+    OpenLink parent = openLinks.isEmpty() ?
+      null : openLinks.get(openLinks.size() - 1);
+    if (parent != null && parent.depth == depth - 1) {
+      addChild(parent, value.length() > 0, false);
+    }
+    if (value.length() == 0) {
+      return;
+    }
+
+    if (!append(text, value)) {
+      textTruncated = true;
+    }
+    if (inTitle) {
+      append(title, value);
+    }
+    for (int i = 0; i < openLinks.size(); i++) {
+      OpenLink link = openLinks.get(i);
+      if (!link.discard && !link.aborted) {
+        append(link.anchor, value);
+      }
+    }
+  }
+
+  /**
+   * Appends <code>value</code> to <code>sb</code>, separated by a space, but
+   * not beyond <code>maxTextLength</code>.  Returns false if anything was
+   * dropped.
+   */
+  private boolean append(StringBuilder sb, String value) {
+    if (maxTextLength >= 0 && sb.length() >= maxTextLength) {
+      return false;
+    }
+    if (sb.length() > 0) sb.append(' ');
+    if (maxTextLength >= 0 && sb.length() + value.length() > maxTextLength) {
+      sb.append(value, 0, maxTextLength - sb.length());
+      return false;
+    }
+    sb.append(value);
+    return true;
+  }
+
+  private boolean textFull() {
+    return maxTextLength >= 0 && text.length() >= maxTextLength;
+  }
+
+  /** Equivalent of <code>s.replaceAll("\\s+", " ").trim()</code>. */
+  private static String collapseWhitespace(CharSequence s) {
+    StringBuilder sb = new StringBuilder(s.length());
+    boolean space = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r'
+          || c == '\f' || c == '\u000B') {
+        space = sb.length() > 0;
+      } else {
+        if (space) {
+          sb.append(' ');
+          space = false;
+        }
+        sb.append(c);
+      }
+    }
+    // String.trim() also strips the remaining control characters
+    return sb.toString().trim();
+  }
+
+  private static String elementName(String localName, String qName) {
+    String name = (qName != null && qName.length() > 0) ? qName : localName;
+    return name.toLowerCase();
+  }
+
+  private static String getAttribute(Attributes atts, String name) {
+    for (int i = 0; i < atts.getLength(); i++) {
+      if (name.equals(elementName(atts.getLocalName(i), atts.getQName(i)))) {
+        return atts.getValue(i);
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.cyberneko.html.parsers.SAXParser;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+/**
+ * Unit tests for StreamingContentHandler.  The streaming extraction is
+ * checked against the DOM based extraction of {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor}.
+ */
+public class TestStreamingContentHandler extends TestCase {
+
+  private static final String[] testPages = {
+    "<html><head><title> title </title><script> script </script>"
+    + "</head><body> body <a href=\"http://www.nutch.org\">"
+    + " anchor </a><!--comment-->"
+    + "</body></html>",
+    "<html><head><title> title </title><script> script </script>"
+    + "</head><body> body <a href=\"/\">"
+    + " home </a><!--comment-->"
+    + "<style> style </style>"
+    + " <a href=\"bot.html\">"
+    + " bots </a>"
+    + "</body></html>",
+    "<html><head><title> my title </title>"
+    + "</head><body>"
+    + "<img src=\"logo.gif\" usemap=\"#green\" border=\"0\">"
+    + "<map name=\"green\">"
+    + "<area shape=\"rect\" coords=\"128,132,241,179\" href=\"#bottom\">"
+    + "</map>"
+    + "<a name=\"bottom\"/><h1> the bottom </h1> "
+    + "<iframe src=\"../docs/index.html\"/>"
+    + "</body></html>",
+    "<html><head>\n <title> my\t\n  title\r\n </title>\n"
+    + " </head>\n"
+    + " <body>\n"
+    + "    <h1> Whitespace\ttest  </h1> \n"
+    + "\t<a href=\"../index.html\">\n  \twhitespace  test\r\n\t</a>  \t\n"
+    + "    <p> This is<span> a whitespace<span></span> test</span>. Newlines\n"
+    + "should appear as space too.</p><p>Tabs\tare spaces too.\n</p>"
+    + "</body>  </html>",
+    "<html><head></head><body>"
+    + "<a href=\"http://www.nutch.org\" rel=\"nofollow\"> ignore </a>"
+    + "<a href=\"nested.html\"><a href=\"inner.html\">inner</a></a>"
+    + "<form method='POST' action='/search.jsp'><p>test1</p></form>"
+    + "<form method='GET' action='/dummy.jsp'><p>test2</p></form>"
+    + "</body></html>",
+    "<html><head><title> title </title>"
+    + "<base href=\"http://www.apache.org/base/\">"
+    + "<meta name=\"Keywords\" content=\"nutch, search\">"
+    + "<meta http-equiv=\"refresh\" content=\"5; url=other.html\">"
+    + "</head><body>"
+    + "<a href=\"g\">anchor1</a>"
+    + "<meta name=\"robots\" content=\"noindex\">"
+    + "</body></html>",
+  };
+
+  private static final String baseHref = "http://www.nutch.org/docs/";
+
+  private Configuration conf;
+  private DOMContentUtils utils;
+  private URL base;
+
+  public TestStreamingContentHandler(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("parser.html.form.use_action", true);
+    utils = new DOMContentUtils(conf);
+    base = new URL(baseHref);
+  }
+
+  private DocumentFragment parseDOM(String page) throws Exception {
+    DOMFragmentParser parser = new DOMFragmentParser();
+    DocumentFragment node = new HTMLDocumentImpl().createDocumentFragment();
+    parser.parse(new InputSource(new ByteArrayInputStream(page.getBytes())),
+                 node);
+    return node;
+  }
+
+  private StreamingContentHandler parseStreaming(String page,
+                                                 HTMLMetaTags metaTags,
+                                                 int maxTextLength)
+    throws Exception {
+    StreamingContentHandler handler =
+      new StreamingContentHandler(utils, metaTags, base, maxTextLength, null);
+    SAXParser parser = new SAXParser();
+    parser.setContentHandler(handler);
+    parser.setProperty("http://xml.org/sax/properties/lexical-handler",
+                       handler);
+    parser.parse(new InputSource(new ByteArrayInputStream(page.getBytes())));
+    return handler;
+  }
+
+  public void testSameAsDOM() throws Exception {
+    for (int i = 0; i < testPages.length; i++) {
+      DocumentFragment root = parseDOM(testPages[i]);
+      HTMLMetaTags domTags = new HTMLMetaTags();
+      HTMLMetaProcessor.getMetaTags(domTags, root, base);
+      StringBuffer text = new StringBuffer();
+      utils.getText(text, root);
+      StringBuffer title = new StringBuffer();
+      utils.getTitle(title, root);
+      ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+      URL baseTag = utils.getBase(root);
+      utils.getOutlinks(baseTag != null ? baseTag : base, outlinks, root);
+
+      HTMLMetaTags streamTags = new HTMLMetaTags();
+      StreamingContentHandler handler =
+        parseStreaming(testPages[i], streamTags, -1);
+
+      assertEquals("text of page " + i, text.toString(), handler.getText());
+      assertEquals("title of page " + i, title.toString().trim(),
+                   handler.getTitle());
+      assertEquals("outlinks of page " + i, outlinks,
+                   Arrays.asList(handler.getOutlinks(base)));
+      assertEquals("meta tags of page " + i, domTags.toString(),
+                   streamTags.toString());
+    }
+  }
+
+  public void testMetaTags() throws Exception {
+    HTMLMetaTags metaTags = new HTMLMetaTags();
+    StreamingContentHandler handler =
+      parseStreaming(testPages[5], metaTags, -1);
+    assertEquals("nutch, search",
+                 metaTags.getGeneralTags().getProperty("keywords"));
+    assertTrue(metaTags.getRefresh());
+    assertEquals(5, metaTags.getRefreshTime());
+    assertEquals(new URL("http://www.apache.org/base/"),
+                 metaTags.getBaseHref());
+    // robots meta tags after body are ignored
+    assertFalse(metaTags.getNoIndex());
+    Outlink[] outlinks = handler.getOutlinks(base);
+    assertEquals(1, outlinks.length);
+    assertEquals("http://www.apache.org/base/g", outlinks[0].getToUrl());
+  }
+
+  public void testTextLimit() throws Exception {
+    HTMLMetaTags metaTags = new HTMLMetaTags();
+    StreamingContentHandler handler =
+      parseStreaming(testPages[1], metaTags, 10);
+    assertEquals("title body", handler.getText());
+    assertTrue(handler.isTextTruncated());
+    // the limit applies to each anchor, not to the text of the page
+    Outlink[] outlinks = handler.getOutlinks(base);
+    assertEquals(2, outlinks.length);
+    assertEquals("bots", outlinks[1].getAnchor());
+  }
+
+  public void testBoundedAnchorAndTitle() throws Exception {
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      words.append("word ");
+    }
+    String page = "<html><head><title>" + words + "</title></head>"
+      + "<body><a href=\"/big\">" + words + "</a></body></html>";
+    HTMLMetaTags metaTags = new HTMLMetaTags();
+    StreamingContentHandler handler = parseStreaming(page, metaTags, 12);
+    assertEquals("word word wo", handler.getText());
+    assertEquals("word word wo", handler.getTitle());
+    assertTrue(handler.isTextTruncated());
+    Outlink[] outlinks = handler.getOutlinks(base);
+    assertEquals(1, outlinks.length);
+    assertEquals("word word wo", outlinks[0].getAnchor());
+  }
+
+}
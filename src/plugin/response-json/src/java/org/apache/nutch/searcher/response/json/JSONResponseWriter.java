@@ -16,7 +16,10 @@
  */
 package org.apache.nutch.searcher.response.json;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.HashSet;
 import java.util.Set;
@@ -33,14 +36,15 @@ import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
 import org.apache.nutch.searcher.Summary;
 import org.apache.nutch.searcher.response.RequestUtils;
-import org.apache.nutch.searcher.response.ResponseWriter;
 import org.apache.nutch.searcher.response.SearchResults;
+import org.apache.nutch.searcher.response.StreamingResponseWriter;
 
 /**
  * A ResponseWriter implementation that returns search results in JSON format.
+ * Streamed responses are written one document at a time.
  */
 public class JSONResponseWriter
-  implements ResponseWriter {
+  implements StreamingResponseWriter {
 
   private String contentType = null;
   private Configuration conf;
@@ -61,14 +65,24 @@ public class JSONResponseWriter
     this.prettyPrint = conf.getBoolean("searcher.response.prettyprint", true);
   }
 
-  public void writeResponse(SearchResults results, HttpServletRequest request,
-    HttpServletResponse response)
-    throws IOException {
-
-    // the function name, if any wrapping the JSON output
-    String func = RequestUtils.getStringParameter(request, "func");
+  /**
+   * Returns the fields to return, or an empty set to return all fields.
+   */
+  private static Set<String> getFieldSet(SearchResults results) {
+    String[] searchFields = results.getFields();
+    Set<String> fieldSet = new HashSet<String>();
+    if (searchFields != null && searchFields.length > 0) {
+      for (int i = 0; i < searchFields.length; i++) {
+        fieldSet.add(searchFields[i]);
+      }
+    }
+    return fieldSet;
+  }
 
-    // create the JSON object and add common values
+  /**
+   * Creates the JSON object with the common values of the results.
+   */
+  private static JSONObject getResultsObject(SearchResults results) {
     JSONObject jsonObj = new JSONObject();
     jsonObj.accumulate("query", results.getQuery());
     jsonObj.accumulate("lang", results.getLang());
@@ -79,53 +93,80 @@ public class JSONResponseWriter
     jsonObj.accumulate("rows", results.getRows());
     jsonObj.accumulate("totalhits", results.getTotalHits());
     jsonObj.accumulate("withSummary", results.isWithSummary());
-
     String[] searchFields = results.getFields();
-    Set<String> fieldSet = new HashSet<String>();
     if (searchFields != null && searchFields.length > 0) {
       jsonObj.accumulate("fields", StringUtils.join(searchFields, ","));
-      for (int i = 0; i < searchFields.length; i++) {
-        fieldSet.add(searchFields[i]);
+    }
+    return jsonObj;
+  }
+
+  /**
+   * Creates the JSON object for a single document.
+   */
+  private static JSONObject getDocumentObject(Hit hit, HitDetails detail,
+    Summary summary, Set<String> fieldSet) {
+
+    // every document has an indexno and an indexdocno
+    JSONObject result = new JSONObject();
+    result.accumulate("indexno", hit.getIndexNo());
+    result.accumulate("indexkey", hit.getUniqueKey());
+
+    // don't add summaries not including summaries
+    if (summary != null) {
+      result.accumulate("summary", summary.toString());
+    }
+
+    // add the fields from hit details
+    JSONObject fields = new JSONObject();
+    for (int k = 0; k < detail.getLength(); k++) {
+      String name = detail.getField(k);
+      String[] values = detail.getValues(name);
+
+      // if we specified fields to return, only return those fields
+      if (fieldSet.size() == 0 || fieldSet.contains(name)) {
+        JSONArray valuesAr = new JSONArray();
+        for (int m = 0; m < values.length; m++) {
+          valuesAr.add(values[m]);
+        }
+        fields.accumulate(name, valuesAr);
       }
     }
+    result.accumulate("fields", fields);
+    return result;
+  }
+
+  /**
+   * Sets the content type and the cache control headers.
+   */
+  private void setHeaders(HttpServletResponse response) {
+    SimpleDateFormat sdf = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'");
+    long relExpiresInMillis = System.currentTimeMillis()
+      + (1000 * maxAgeInSeconds);
+    response.setContentType(contentType);
+    response.setHeader("Cache-Control", "max-age=" + maxAgeInSeconds);
+    response.setHeader("Expires", sdf.format(relExpiresInMillis));
+  }
+
+  public void writeResponse(SearchResults results, HttpServletRequest request,
+    HttpServletResponse response)
+    throws IOException {
+
+    // the function name, if any wrapping the JSON output
+    String func = RequestUtils.getStringParameter(request, "func");
+
+    // create the JSON object and add common values
+    JSONObject jsonObj = getResultsObject(results);
+    Set<String> fieldSet = getFieldSet(results);
 
     // add the documents from search hits
     JSONArray docsAr = new JSONArray();
     HitDetails[] details = results.getDetails();
     Hit[] hits = results.getHits();
     Summary[] summaries = results.getSummaries();
+    boolean withSummary = summaries != null && results.isWithSummary();
     for (int i = 0; i < details.length; i++) {
-      
-      // every document has an indexno and an indexdocno
-      JSONObject result = new JSONObject();
-      HitDetails detail = details[i];
-      Hit hit = hits[i];
-      result.accumulate("indexno", hit.getIndexNo());
-      result.accumulate("indexkey", hit.getUniqueKey());
-      
-      // don't add summaries not including summaries
-      if (summaries != null && results.isWithSummary()) {
-        Summary summary = summaries[i];
-        result.accumulate("summary", summary.toString());
-      }
-      
-      // add the fields from hit details
-      JSONObject fields = new JSONObject();
-      for (int k = 0; k < detail.getLength(); k++) {
-        String name = detail.getField(k);
-        String[] values = detail.getValues(name);
-        
-        // if we specified fields to return, only return those fields
-        if (fieldSet.size() == 0 || fieldSet.contains(name)) {
-          JSONArray valuesAr = new JSONArray();
-          for (int m = 0; m < values.length; m++) {
-            valuesAr.add(values[m]);
-          }
-          fields.accumulate(name, valuesAr);
-        }
-      }
-      result.accumulate("fields", fields);
-      docsAr.add(result);
+      docsAr.add(getDocumentObject(hits[i], details[i],
+        withSummary ? summaries[i] : null, fieldSet));
     }
 
     jsonObj.accumulate("documents", docsAr);
@@ -142,16 +183,64 @@ public class JSONResponseWriter
     }
 
     // Cache control headers
-    SimpleDateFormat sdf = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'");
-    long relExpiresInMillis = System.currentTimeMillis()
-      + (1000 * maxAgeInSeconds);
-    response.setContentType(contentType);
-    response.setHeader("Cache-Control", "max-age=" + maxAgeInSeconds);
-    response.setHeader("Expires", sdf.format(relExpiresInMillis));
+    setHeaders(response);
     
     // write out the content to the response
-    response.getOutputStream().write(builder.toString().getBytes());
+    response.getOutputStream().write(builder.toString().getBytes("UTF-8"));
     response.flushBuffer();
   }
 
+  public HitWriter startResponse(SearchResults results,
+    HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+
+    final String func = RequestUtils.getStringParameter(request, "func");
+    final Set<String> fieldSet = getFieldSet(results);
+    final boolean withSummary = results.isWithSummary();
+    setHeaders(response);
+    final Writer out = new BufferedWriter(new OutputStreamWriter(
+      response.getOutputStream(), "UTF-8"));
+    final HttpServletResponse httpResponse = response;
+
+    // write the common values as an object left open for the documents
+    String common = prettyPrint ? getResultsObject(results).toString(2)
+      : getResultsObject(results).toString();
+    common = common.substring(0, common.lastIndexOf('}')).trim();
+    if (StringUtils.isNotBlank(func)) {
+      out.write(func + "(");
+    }
+    out.write(common);
+    out.write(prettyPrint ? ",\n  \"documents\": [" : ",\"documents\":[");
+
+    return new HitWriter() {
+      private boolean first = true;
+
+      public void writeHit(Hit hit, HitDetails details, Summary summary)
+        throws IOException {
+        JSONObject doc = getDocumentObject(hit, details,
+          withSummary ? summary : null, fieldSet);
+        if (!first) {
+          out.write(',');
+        }
+        first = false;
+        out.write(prettyPrint ? "\n" + doc.toString(2) : doc.toString());
+      }
+
+      public void flush()
+        throws IOException {
+        out.flush();
+        httpResponse.flushBuffer();
+      }
+
+      public void close()
+        throws IOException {
+        out.write(prettyPrint ? "\n  ]\n}" : "]}");
+        if (StringUtils.isNotBlank(func)) {
+          out.write(")");
+        }
+        flush();
+      }
+    };
+  }
+
 }
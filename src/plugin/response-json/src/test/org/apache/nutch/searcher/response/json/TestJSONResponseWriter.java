@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher.response.json;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.searcher.response.SearchResults;
+import org.apache.nutch.searcher.response.StreamingResponseWriter.HitWriter;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Compares streamed responses with those built as a single object. */
+public class TestJSONResponseWriter extends TestCase {
+
+  private static final String TEXT =
+    "<b>&amp;\"'</b> Gr\u00fc\u00dfe \u65e5\u672c";
+
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+  }
+
+  /** Returns a response writing its content to <code>out</code>. */
+  private static HttpServletResponse response(
+    final ByteArrayOutputStream out) {
+    final ServletOutputStream stream = new ServletOutputStream() {
+      public void write(int b) {
+        out.write(b);
+      }
+    };
+    return (HttpServletResponse)Proxy.newProxyInstance(
+      HttpServletResponse.class.getClassLoader(),
+      new Class[] { HttpServletResponse.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return "getOutputStream".equals(method.getName()) ? stream : null;
+        }
+      });
+  }
+
+  /** Returns a request without parameters. */
+  private static HttpServletRequest request() {
+    return (HttpServletRequest)Proxy.newProxyInstance(
+      HttpServletRequest.class.getClassLoader(),
+      new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return null;
+        }
+      });
+  }
+
+  private static SearchResults results(String[] fields) {
+    Hit[] hits = new Hit[3];
+    HitDetails[] details = new HitDetails[hits.length];
+    Summary[] summaries = new Summary[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new Hit(i, "key " + i + " " + TEXT);
+      details[i] = new HitDetails(
+        new String[] { "url", "title", "title", "segment" },
+        new String[] { "http://www.example.com/?a=" + i + "&b=\"'",
+                       TEXT, "\u00e9t\u00e9 " + i, "20090101000000" });
+      summaries[i] = new Summary();
+      summaries[i].add(new Summary.Fragment("\u00c0 " + TEXT + " "));
+      summaries[i].add(new Summary.Highlight("<q>"));
+      summaries[i].add(new Summary.Ellipsis());
+    }
+    SearchResults results = new SearchResults();
+    results.setResponseType("json");
+    results.setQuery(TEXT);
+    results.setLang("de");
+    results.setStart(0);
+    results.setRows(10);
+    results.setEnd(hits.length);
+    results.setTotalHits(42);
+    results.setHits(hits);
+    results.setDetails(details);
+    results.setSummaries(summaries);
+    results.setWithSummary(true);
+    results.setFields(fields);
+    return results;
+  }
+
+  private void assertSameResponse(SearchResults results, boolean prettyPrint)
+    throws Exception {
+    conf.setBoolean("searcher.response.prettyprint", prettyPrint);
+    JSONResponseWriter writer = new JSONResponseWriter();
+    writer.setConf(conf);
+    writer.setContentType("application/json");
+
+    ByteArrayOutputStream object = new ByteArrayOutputStream();
+    writer.writeResponse(results, request(), response(object));
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    HitWriter hitWriter = writer.startResponse(results, request(),
+      response(streamed));
+    for (int i = 0; i < results.getHits().length; i++) {
+      hitWriter.writeHit(results.getHits()[i], results.getDetails()[i],
+        results.getSummaries()[i]);
+      hitWriter.flush();
+    }
+    hitWriter.close();
+
+    assertEquals(
+      JSONObject.fromObject(new String(object.toByteArray(), "UTF-8"))
+        .toString(),
+      JSONObject.fromObject(new String(streamed.toByteArray(), "UTF-8"))
+        .toString());
+  }
+
+  public void testSameAsObject() throws Exception {
+    assertSameResponse(results(null), true);
+    assertSameResponse(results(null), false);
+  }
+
+  public void testSameAsObjectWithFields() throws Exception {
+    assertSameResponse(results(new String[] { "url", "title" }), true);
+  }
+
+  public void testEscaping() throws Exception {
+    conf.setBoolean("searcher.response.prettyprint", false);
+    JSONResponseWriter writer = new JSONResponseWriter();
+    writer.setConf(conf);
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    SearchResults results = results(null);
+    HitWriter hitWriter = writer.startResponse(results, request(),
+      response(streamed));
+    hitWriter.writeHit(results.getHits()[0], results.getDetails()[0],
+      results.getSummaries()[0]);
+    hitWriter.close();
+
+    JSONObject json = JSONObject.fromObject(
+      new String(streamed.toByteArray(), "UTF-8"));
+    assertEquals(TEXT, json.getString("query"));
+    JSONArray documents = json.getJSONArray("documents");
+    assertEquals(1, documents.size());
+    JSONObject document = documents.getJSONObject(0);
+    assertEquals("key 0 " + TEXT, document.getString("indexkey"));
+    assertEquals(results.getSummaries()[0].toString(),
+      document.getString("summary"));
+    assertEquals(TEXT,
+      document.getJSONObject("fields").getJSONArray("title").getString(0));
+  }
+}
@@ -16,8 +16,11 @@
  */
 package org.apache.nutch.searcher.response.xml;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.HashSet;
 import java.util.Set;
@@ -37,8 +40,8 @@ import org.apache.nutch.html.Entities;
 import org.apache.nutch.searcher.Hit;
 import org.apache.nutch.searcher.HitDetails;
 import org.apache.nutch.searcher.Summary;
-import org.apache.nutch.searcher.response.ResponseWriter;
 import org.apache.nutch.searcher.response.SearchResults;
+import org.apache.nutch.searcher.response.StreamingResponseWriter;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -46,9 +49,11 @@ import org.w3c.dom.Node;
 
 /**
  * A ResponseWriter implementation that returns search results in XML format.
+ * Streamed responses are written one document at a time, without building
+ * the document tree.
  */
 public class XMLResponseWriter
-  implements ResponseWriter {
+  implements StreamingResponseWriter {
 
   private String contentType = null;
   private Configuration conf;
@@ -189,8 +194,6 @@ public class XMLResponseWriter
       addNode(xmldoc, searchEl, "start", String.valueOf(results.getStart()));
       addNode(xmldoc, searchEl, "end", String.valueOf(results.getEnd()));
       addNode(xmldoc, searchEl, "rows", String.valueOf(results.getRows()));
-      addNode(xmldoc, searchEl, "totalhits",
-        String.valueOf(results.getTotalHits()));
       addNode(xmldoc, searchEl, "withSummary",
         String.valueOf(results.isWithSummary()));
 
@@ -280,4 +283,169 @@ public class XMLResponseWriter
     }
 
   }
+
+  /**
+   * Escapes the text for use as XML character data or attribute value.
+   */
+  private static String escapeXml(String text) {
+    if (text == null) {
+      return "";
+    }
+    text = getLegalXml(text);
+    StringBuilder buffer = null;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      String entity = null;
+      switch (c) {
+        case '&': entity = "&amp;"; break;
+        case '<': entity = "&lt;"; break;
+        case '>': entity = "&gt;"; break;
+        case '"': entity = "&quot;"; break;
+      }
+      if (entity != null && buffer == null) {
+        buffer = new StringBuilder(text.length() + 16);
+        buffer.append(text, 0, i);
+      }
+      if (buffer != null) {
+        if (entity != null) {
+          buffer.append(entity);
+        }
+        else {
+          buffer.append(c);
+        }
+      }
+    }
+    return (buffer != null) ? buffer.toString() : text;
+  }
+
+  /**
+   * Starts a new line at the given depth when pretty printing.
+   */
+  private void writeIndent(Writer out, int depth)
+    throws IOException {
+    if (prettyPrint) {
+      out.write('\n');
+      for (int i = 0; i < depth; i++) {
+        out.write("  ");
+      }
+    }
+  }
+
+  /**
+   * Writes out an element containing only the text supplied.
+   */
+  private void writeNode(Writer out, int depth, String name, String text)
+    throws IOException {
+    writeIndent(out, depth);
+    out.write("<" + name + ">");
+    out.write(escapeXml(text));
+    out.write("</" + name + ">");
+  }
+
+  public HitWriter startResponse(SearchResults results,
+    HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+
+    final Set<String> fieldSet = new HashSet<String>();
+    final boolean withSummary = results.isWithSummary();
+    final Writer out = new BufferedWriter(new OutputStreamWriter(
+      response.getOutputStream(), "UTF-8"));
+    final HttpServletResponse httpResponse = response;
+
+    // cache control headers
+    SimpleDateFormat sdf = new SimpleDateFormat(
+      "E, d MMM yyyy HH:mm:ss 'GMT'");
+    long relExpiresInMillis = System.currentTimeMillis()
+      + (1000 * maxAgeInSeconds);
+    response.setContentType(contentType);
+    response.setHeader("Cache-Control", "max-age=" + maxAgeInSeconds);
+    response.setHeader("Expires", sdf.format(relExpiresInMillis));
+
+    // write out the common nodes, leaving the documents node open
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    writeIndent(out, 0);
+    out.write("<results>");
+    writeIndent(out, 1);
+    out.write("<search>");
+    writeNode(out, 2, "query", results.getQuery());
+    writeNode(out, 2, "totalhits", String.valueOf(results.getTotalHits()));
+    if (results.getLang() != null) {
+      writeNode(out, 2, "lang", results.getLang());
+    }
+    if (results.getSort() != null) {
+      writeNode(out, 2, "sort", results.getSort());
+    }
+    writeNode(out, 2, "reverse", results.isReverse() ? "true" : "false");
+    writeNode(out, 2, "start", String.valueOf(results.getStart()));
+    writeNode(out, 2, "end", String.valueOf(results.getEnd()));
+    writeNode(out, 2, "rows", String.valueOf(results.getRows()));
+    writeNode(out, 2, "withSummary", String.valueOf(withSummary));
+    String[] searchFields = results.getFields();
+    if (searchFields != null && searchFields.length > 0) {
+      writeNode(out, 2, "fields", StringUtils.join(searchFields, ","));
+      for (int i = 0; i < searchFields.length; i++) {
+        fieldSet.add(searchFields[i]);
+      }
+    }
+    writeIndent(out, 1);
+    out.write("</search>");
+    writeIndent(out, 1);
+    out.write("<documents>");
+
+    return new HitWriter() {
+
+      public void writeHit(Hit hit, HitDetails details, Summary summary)
+        throws IOException {
+
+        // every document has an indexno and an indexdocno
+        writeIndent(out, 2);
+        out.write("<document indexno=\"" + hit.getIndexNo()
+          + "\" indexkey=\"" + escapeXml(hit.getUniqueKey()) + "\">");
+
+        // don't add summaries not including summaries
+        if (summary != null && withSummary) {
+          writeNode(out, 3, "summary", Entities.encode(summary.toString()));
+        }
+
+        // add the fields from hit details
+        writeIndent(out, 3);
+        out.write("<fields>");
+        for (int j = 0; j < details.getLength(); j++) {
+          String fieldName = details.getField(j);
+          String[] fieldValues = details.getValues(fieldName);
+
+          // if we specified fields to return, only return those fields
+          if (fieldSet.size() == 0 || fieldSet.contains(fieldName)) {
+            writeIndent(out, 4);
+            out.write("<field name=\"" + escapeXml(fieldName) + "\">");
+            for (int k = 0; k < fieldValues.length; k++) {
+              writeNode(out, 5, "value", Entities.encode(fieldValues[k]));
+            }
+            writeIndent(out, 4);
+            out.write("</field>");
+          }
+        }
+        writeIndent(out, 3);
+        out.write("</fields>");
+        writeIndent(out, 2);
+        out.write("</document>");
+      }
+
+      public void flush()
+        throws IOException {
+        out.flush();
+        httpResponse.flushBuffer();
+      }
+
+      public void close()
+        throws IOException {
+        writeIndent(out, 1);
+        out.write("</documents>");
+        writeIndent(out, 0);
+        out.write("</results>");
+        writeIndent(out, 0);
+        flush();
+      }
+    };
+  }
 }
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher.response.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.searcher.response.SearchResults;
+import org.apache.nutch.searcher.response.StreamingResponseWriter.HitWriter;
+import org.apache.nutch.util.NutchConfiguration;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/** Compares streamed responses with those built as a document tree. */
+public class TestXMLResponseWriter extends TestCase {
+
+  private static final String TEXT =
+    "<b>&amp;\"'</b> Gr\u00fc\u00dfe \u65e5\u672c";
+
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+  }
+
+  /** Returns a response writing its content to <code>out</code>. */
+  private static HttpServletResponse response(
+    final ByteArrayOutputStream out) {
+    final ServletOutputStream stream = new ServletOutputStream() {
+      public void write(int b) {
+        out.write(b);
+      }
+    };
+    return (HttpServletResponse)Proxy.newProxyInstance(
+      HttpServletResponse.class.getClassLoader(),
+      new Class[] { HttpServletResponse.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return "getOutputStream".equals(method.getName()) ? stream : null;
+        }
+      });
+  }
+
+  /** Returns a request without parameters. */
+  private static HttpServletRequest request() {
+    return (HttpServletRequest)Proxy.newProxyInstance(
+      HttpServletRequest.class.getClassLoader(),
+      new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return null;
+        }
+      });
+  }
+
+  private static SearchResults results(String[] fields) {
+    Hit[] hits = new Hit[3];
+    HitDetails[] details = new HitDetails[hits.length];
+    Summary[] summaries = new Summary[hits.length];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new Hit(i, "key " + i + " " + TEXT);
+      details[i] = new HitDetails(
+        new String[] { "url", "title", "title", "segment" },
+        new String[] { "http://www.example.com/?a=" + i + "&b=\"'",
+                       TEXT, "\u00e9t\u00e9 " + i, "20090101000000" });
+      summaries[i] = new Summary();
+      summaries[i].add(new Summary.Fragment("\u00c0 " + TEXT + " "));
+      summaries[i].add(new Summary.Highlight("<q>"));
+      summaries[i].add(new Summary.Ellipsis());
+    }
+    SearchResults results = new SearchResults();
+    results.setResponseType("xml");
+    results.setQuery(TEXT);
+    results.setLang("de");
+    results.setStart(0);
+    results.setRows(10);
+    results.setEnd(hits.length);
+    results.setTotalHits(42);
+    results.setHits(hits);
+    results.setDetails(details);
+    results.setSummaries(summaries);
+    results.setWithSummary(true);
+    results.setFields(fields);
+    return results;
+  }
+
+  private static Document parse(byte[] xml) throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+      .parse(new ByteArrayInputStream(xml));
+    removeWhitespace(doc);
+    return doc;
+  }
+
+  /** Removes the text nodes added by pretty printing. */
+  private static void removeWhitespace(Node node) {
+    Node child = node.getFirstChild();
+    while (child != null) {
+      Node next = child.getNextSibling();
+      if (child.getNodeType() == Node.TEXT_NODE
+          && child.getNodeValue().trim().length() == 0) {
+        node.removeChild(child);
+      } else {
+        removeWhitespace(child);
+      }
+      child = next;
+    }
+  }
+
+  private void assertSameResponse(SearchResults results, boolean prettyPrint)
+    throws Exception {
+    conf.setBoolean("searcher.response.prettyprint", prettyPrint);
+    XMLResponseWriter writer = new XMLResponseWriter();
+    writer.setConf(conf);
+    writer.setContentType("text/xml");
+
+    ByteArrayOutputStream dom = new ByteArrayOutputStream();
+    writer.writeResponse(results, request(), response(dom));
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    HitWriter hitWriter = writer.startResponse(results, request(),
+      response(streamed));
+    for (int i = 0; i < results.getHits().length; i++) {
+      hitWriter.writeHit(results.getHits()[i], results.getDetails()[i],
+        results.getSummaries()[i]);
+      hitWriter.flush();
+    }
+    hitWriter.close();
+
+    String message = new String(dom.toByteArray(), "UTF-8") + "\n"
+      + new String(streamed.toByteArray(), "UTF-8");
+    assertTrue(message, parse(dom.toByteArray()).isEqualNode(
+      parse(streamed.toByteArray())));
+  }
+
+  public void testSameAsDocument() throws Exception {
+    assertSameResponse(results(null), true);
+    assertSameResponse(results(null), false);
+  }
+
+  public void testSameAsDocumentWithFields() throws Exception {
+    assertSameResponse(results(new String[] { "url", "title" }), true);
+  }
+
+  public void testEscaping() throws Exception {
+    conf.setBoolean("searcher.response.prettyprint", false);
+    XMLResponseWriter writer = new XMLResponseWriter();
+    writer.setConf(conf);
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    SearchResults results = results(null);
+    HitWriter hitWriter = writer.startResponse(results, request(),
+      response(streamed));
+    hitWriter.writeHit(results.getHits()[0], results.getDetails()[0], null);
+    hitWriter.close();
+
+    Document doc = parse(streamed.toByteArray());
+    assertEquals(TEXT,
+      doc.getElementsByTagName("query").item(0).getTextContent());
+    assertEquals("key 0 " + TEXT, doc.getElementsByTagName("document")
+      .item(0).getAttributes().getNamedItem("indexkey").getNodeValue());
+    assertEquals(0, doc.getElementsByTagName("summary").getLength());
+  }
+}
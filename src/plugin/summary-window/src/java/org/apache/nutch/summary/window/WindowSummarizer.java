@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.summary.window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.searcher.Summarizer;
+import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.searcher.Summary.Ellipsis;
+import org.apache.nutch.searcher.Summary.Fragment;
+import org.apache.nutch.searcher.Summary.Highlight;
+
+/**
+ * Summarizes a text by a window of <code>searcher.summary.length</code>
+ * words: the first which contains all query terms, or else the one with the
+ * most distinct query terms, and then the most matches.  Unlike the basic
+ * summarizer, the text is not analyzed: words are runs of letters and
+ * digits, compared to the query terms ignoring case, in a single pass which
+ * only keeps the offsets of the last words and matches.  At most
+ * <code>searcher.summary.max.chars</code> characters are scanned.
+ */
+public class WindowSummarizer implements Summarizer {
+
+  private int sumContext = 5;
+  private int sumLength = 20;
+  private int maxChars = 65536;
+  private Configuration conf;
+
+  public Configuration getConf() {
+    return conf;
+  }
+
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    this.sumContext = conf.getInt("searcher.summary.context", 5);
+    this.sumLength = Math.max(1, conf.getInt("searcher.summary.length", 20));
+    this.maxChars = conf.getInt("searcher.summary.max.chars", 65536);
+  }
+
+  private static final boolean[] ASCII_WORD_CHARS = new boolean[128];
+
+  static {
+    for (char c = 0; c < 128; c++) {
+      ASCII_WORD_CHARS[c] = Character.isLetterOrDigit(c);
+    }
+  }
+
+  private static boolean isWordChar(char c) {
+    return c < 128 ? ASCII_WORD_CHARS[c] : Character.isLetterOrDigit(c);
+  }
+
+  /** Returns the index of the term equal to a word, or -1. */
+  private static int match(String text, int start, int end, String[] terms) {
+    int length = end - start;
+    char first = Character.toLowerCase(text.charAt(start));
+    for (int i = 0; i < terms.length; i++) {
+      if (terms[i].length() == length && terms[i].charAt(0) == first
+          && text.regionMatches(true, start, terms[i], 0, length)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String[] getTerms(Query query) {
+    List<String> terms = new ArrayList<String>();
+    for (String term : query.getTerms()) {
+      if (term.length() > 0 && !terms.contains(term)) {
+        terms.add(term);
+      }
+    }
+    return terms.toArray(new String[terms.size()]);
+  }
+
+  public Summary getSummary(String text, Query query) {
+    String[] terms = getTerms(query);
+    int limit = maxChars > 0 ? Math.min(text.length(), maxChars)
+                             : text.length();
+
+    // matches up to span words apart share a window with their context
+    int span = Math.max(1, sumLength - 2 * sumContext);
+    int[] starts = new int[sumLength];            // ring of word offsets
+    int[] matchWords = new int[span];             // ring of recent matches
+    int[] matchTerms = new int[span];
+    int head = 0;
+    int count = 0;
+    int[] termCounts = new int[terms.length];
+    int distinct = 0;
+
+    // by default, the first words of the text
+    int bestDistinct = 0;
+    int bestCount = 0;
+    int bestStartWord = 0;
+    int bestStart = -1;
+    int bestEndWord = sumLength - 1;
+    int bestEnd = -1;
+
+    int word = 0;
+    int lastEnd = -1;
+    int pos = 0;
+    while (pos < limit) {
+      while (pos < limit && !isWordChar(text.charAt(pos))) {
+        pos++;
+      }
+      if (pos >= limit) {
+        break;
+      }
+      int start = pos;
+      while (pos < limit && isWordChar(text.charAt(pos))) {
+        pos++;
+      }
+      lastEnd = pos;
+      starts[word % sumLength] = start;
+      if (word == 0) {
+        bestStart = start;
+      }
+      if (word == bestEndWord) {
+        bestEnd = pos;
+      }
+
+      int term = match(text, start, pos, terms);
+      if (term >= 0) {
+        while (count > 0 && matchWords[head] <= word - span) {
+          if (--termCounts[matchTerms[head]] == 0) {  // expire old matches
+            distinct--;
+          }
+          head = (head + 1) % span;
+          count--;
+        }
+        int tail = (head + count) % span;
+        matchWords[tail] = word;
+        matchTerms[tail] = term;
+        count++;
+        if (termCounts[term]++ == 0) {
+          distinct++;
+        }
+
+        if (distinct > bestDistinct
+            || (distinct == bestDistinct && count > bestCount)) {
+          bestDistinct = distinct;
+          bestCount = count;
+          bestStartWord = Math.max(0, matchWords[head] - sumContext);
+          bestStart = starts[bestStartWord % sumLength];
+          bestEndWord = bestStartWord + sumLength - 1;
+          bestEnd = word == bestEndWord ? pos : -1;
+        }
+      }
+
+      if (bestDistinct == terms.length && bestEnd >= 0) {
+        break;                                    // can't find more terms
+      }
+      word++;
+    }
+
+    Summary summary = new Summary();
+    if (bestStart < 0) {
+      return summary;                             // no words
+    }
+    if (bestEnd < 0) {
+      bestEnd = lastEnd;                          // text ended first
+    }
+
+    if (bestStartWord > 0) {
+      summary.add(new Ellipsis());
+    }
+    int fragment = bestStart;
+    pos = bestStart;
+    while (pos < bestEnd) {                       // highlight the window
+      while (pos < bestEnd && !isWordChar(text.charAt(pos))) {
+        pos++;
+      }
+      int start = pos;
+      while (pos < bestEnd && isWordChar(text.charAt(pos))) {
+        pos++;
+      }
+      if (start < pos && match(text, start, pos, terms) >= 0) {
+        if (fragment < start) {
+          summary.add(new Fragment(text.substring(fragment, start)));
+        }
+        summary.add(new Highlight(text.substring(start, pos)));
+        fragment = pos;
+      }
+    }
+    if (fragment < bestEnd) {
+      summary.add(new Fragment(text.substring(fragment, bestEnd)));
+    }
+    for (pos = bestEnd; pos < text.length(); pos++) {
+      if (isWordChar(text.charAt(pos))) {
+        summary.add(new Ellipsis());              // more text follows
+        break;
+      }
+    }
+    return summary;
+  }
+}
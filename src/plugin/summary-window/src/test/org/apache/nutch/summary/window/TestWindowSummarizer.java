@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.summary.window;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.util.NutchConfiguration;
+
+public class TestWindowSummarizer extends TestCase {
+
+  private Configuration conf;
+  private WindowSummarizer summarizer;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("searcher.summary.context", 2);
+    conf.setInt("searcher.summary.length", 8);
+    summarizer = new WindowSummarizer();
+    summarizer.setConf(conf);
+  }
+
+  private static String words(int from, int to) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      buf.append("w").append(i).append(' ');
+    }
+    return buf.toString();
+  }
+
+  private static String highlights(Summary summary) {
+    StringBuilder buf = new StringBuilder();
+    Summary.Fragment[] fragments = summary.getFragments();
+    for (int i = 0; i < fragments.length; i++) {
+      if (fragments[i].isHighlight()) {
+        buf.append(fragments[i].getText()).append(' ');
+      }
+    }
+    return buf.toString().trim();
+  }
+
+  public void testBestWindow() throws Exception {
+    // one term early, both terms close together later
+    String text = words(0, 10) + "Apache " + words(10, 40)
+      + "apache, Lucene! " + words(40, 80);
+    Summary summary = summarizer.getSummary(text,
+                                            Query.parse("apache lucene", conf));
+    assertEquals("apache Lucene", highlights(summary));
+    assertEquals(" ... w38 w39 apache, Lucene! w40 w41 w42 w43 ... ",
+                 summary.toString());
+  }
+
+  public void testFirstCompleteWindow() throws Exception {
+    String text = words(0, 20) + "foo " + words(20, 40) + "foo w foo "
+      + words(40, 60);
+    Summary summary = summarizer.getSummary(text, Query.parse("foo", conf));
+    assertEquals(" ... w18 w19 foo w20 w21 w22 w23 w24 ... ",
+                 summary.toString());
+  }
+
+  public void testMostMatches() throws Exception {
+    String text = "foo " + words(0, 20) + "foo w foo w foo " + words(20, 40);
+    Summary summary = summarizer.getSummary(text,
+                                            Query.parse("foo bar", conf));
+    assertEquals("foo foo foo", highlights(summary));
+    assertTrue(summary.getFragments()[0].isEllipsis());
+  }
+
+  public void testNoMatch() throws Exception {
+    Summary summary = summarizer.getSummary(words(0, 20),
+                                            Query.parse("foo", conf));
+    assertEquals("w0 w1 w2 w3 w4 w5 w6 w7 ... ", summary.toString());
+
+    summary = summarizer.getSummary("a b", Query.parse("foo", conf));
+    assertEquals("a b", summary.toString());
+    assertEquals(0, summarizer.getSummary(" ,. ", Query.parse("foo", conf))
+                 .getFragments().length);
+  }
+
+  public void testMaxChars() throws Exception {
+    conf.setInt("searcher.summary.max.chars", 100);
+    summarizer.setConf(conf);
+    String text = words(0, 100) + "foo";
+    Summary summary = summarizer.getSummary(text, Query.parse("foo", conf));
+    assertEquals("", highlights(summary));
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.admin.searcher;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.searcher.Hit;
+import org.apache.nutch.searcher.HitDetails;
+import org.apache.nutch.searcher.Hits;
+import org.apache.nutch.searcher.Query;
+import org.apache.nutch.searcher.RawContent;
+import org.apache.nutch.searcher.SearchBean;
+import org.apache.nutch.searcher.SegmentBean;
+import org.apache.nutch.searcher.Summary;
+import org.apache.nutch.util.NutchConfiguration;
+
+public class TestMultipleSearcher extends TestCase {
+
+  /** Details name the bean and the hit, batched calls are counted. */
+  private static class TestSearchBean implements SearchBean {
+    private final String _name;
+    private int _calls;
+
+    public TestSearchBean(String name) {
+      _name = name;
+    }
+
+    public HitDetails getDetails(Hit hit) throws IOException {
+      return new HitDetails(new String[] { "segment", "key" },
+              new String[] { _name, _name + hit.getUniqueKey() });
+    }
+
+    public synchronized HitDetails[] getDetails(Hit[] hits) throws IOException {
+      _calls++;
+      HitDetails[] details = new HitDetails[hits.length];
+      for (int i = 0; i < hits.length; i++) {
+        details[i] = getDetails(hits[i]);
+      }
+      return details;
+    }
+
+    public HitDetails[] getDetails(Hit[] hits, String[] fields)
+            throws IOException {
+      return getDetails(hits);
+    }
+
+    public Hits search(Query query, int numHits, String dedupField,
+            String sortField, boolean reverse) throws IOException {
+      return new Hits(0, new Hit[0]);
+    }
+
+    public Hits search(Query query, int numHits, int maxHitsPerDup,
+            String dedupField, String sortField, boolean reverse)
+            throws IOException {
+      return new Hits(0, new Hit[0]);
+    }
+
+    public Hits search(Query query, int numHits, int maxHitsPerDup,
+            String dedupField, String sortField, boolean reverse,
+            long deadline) throws IOException {
+      return new Hits(0, new Hit[0]);
+    }
+
+    public String getExplanation(Query query, Hit hit) throws IOException {
+      return null;
+    }
+
+    public boolean ping() throws IOException {
+      return true;
+    }
+
+    public void close() throws IOException {
+    }
+  }
+
+  /** Summaries echo the details key, batched calls are counted. */
+  private static class TestSegmentBean implements SegmentBean {
+    private final String _segment;
+    private int _calls;
+
+    public TestSegmentBean(String segment) {
+      _segment = segment;
+    }
+
+    public String[] getSegmentNames() throws IOException {
+      return new String[] { _segment };
+    }
+
+    public Summary getSummary(HitDetails details, Query query)
+            throws IOException {
+      Summary summary = new Summary();
+      summary.add(new Summary.Fragment(details.getValue("key")));
+      return summary;
+    }
+
+    public synchronized Summary[] getSummary(HitDetails[] details, Query query)
+            throws IOException {
+      _calls++;
+      Summary[] summaries = new Summary[details.length];
+      for (int i = 0; i < details.length; i++) {
+        summaries[i] = getSummary(details[i], query);
+      }
+      return summaries;
+    }
+
+    public byte[] getContent(HitDetails details) throws IOException {
+      return null;
+    }
+
+    public RawContent getRawContent(HitDetails details) throws IOException {
+      return null;
+    }
+
+    public ParseData getParseData(HitDetails details) throws IOException {
+      return null;
+    }
+
+    public ParseText getParseText(HitDetails details) throws IOException {
+      return null;
+    }
+
+    public long getFetchDate(HitDetails details) throws IOException {
+      return 0;
+    }
+
+    public void close() throws IOException {
+    }
+  }
+
+  public void testBatchedDetailsAndSummaries() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    TestSearchBean a = new TestSearchBean("a");
+    TestSearchBean b = new TestSearchBean("b");
+    TestSegmentBean segmentA = new TestSegmentBean("a");
+    TestSegmentBean segmentB = new TestSegmentBean("b");
+    MultipleSearcher searcher = new MultipleSearcher(new ThreadPool(),
+            new SearchBean[] { a, b },
+            new SegmentBean[] { segmentA, segmentB });
+
+    Hit[] hits = new Hit[10];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new Hit(i % 3 == 0 ? 1 : 0, Integer.toString(i));
+    }
+    HitDetails[] details = searcher.getDetails(hits);
+    assertEquals(1, a._calls);
+    assertEquals(1, b._calls);
+    for (int i = 0; i < hits.length; i++) {
+      String name = i % 3 == 0 ? "b" : "a";
+      assertEquals(name + i, details[i].getValue("key"));
+    }
+
+    Summary[] summaries = searcher.getSummary(details, Query.parse("foo",
+            conf));
+    assertEquals(1, segmentA._calls);
+    assertEquals(1, segmentB._calls);
+    for (int i = 0; i < hits.length; i++) {
+      assertEquals(details[i].getValue("key"), summaries[i].toString());
+    }
+
+    assertEquals(0, searcher.getDetails(new Hit[0]).length);
+    searcher.close();
+  }
+}
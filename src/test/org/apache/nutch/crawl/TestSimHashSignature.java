@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.ParseImpl;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+public class TestSimHashSignature extends TestCase {
+
+  private static final String TEXT =
+    "Nutch is a well matured, production ready Web crawler. Nutch 1.x"
+    + " enables fine grained configuration, relying on Apache Hadoop data"
+    + " structures, which are great for batch processing. Being pluggable"
+    + " and modular of course has its benefits, Nutch provides extensible"
+    + " interfaces such as Parse, Index and ScoringFilter for custom"
+    + " implementations e.g. Apache Tika for parsing. Additionally,"
+    + " pluggable indexing exists for Apache Solr, Elastic Search and"
+    + " others. Nutch can run on a single machine, but gains a lot of its"
+    + " strength from running in a Hadoop cluster.";
+
+  private Signature signature;
+
+  protected void setUp() {
+    Configuration conf = NutchConfiguration.create();
+    signature = new SimHashSignature();
+    signature.setConf(conf);
+  }
+
+  private long fingerprint(String text) {
+    byte[] sig = signature.calculate(null, new ParseImpl(text, null));
+    assertEquals(SimHashSignature.SIGNATURE_LEN, sig.length);
+    return SimHashSignature.getFingerprint(sig);
+  }
+
+  public void testSame() {
+    assertEquals(fingerprint(TEXT), fingerprint(TEXT));
+    // case, punctuation and short tokens are ignored
+    assertEquals(fingerprint(TEXT),
+        fingerprint(TEXT.toUpperCase().replace(',', ' ') + " a b"));
+  }
+
+  public void testNear() {
+    long fp = fingerprint(TEXT);
+    long near = fingerprint(TEXT.replace("single machine", "single computer"));
+    long far = fingerprint("Lucene is a high performance, full featured"
+        + " text search engine library written entirely in Java.");
+    assertTrue(SimHashSignature.distance(fp, near) <= 6);
+    assertTrue(SimHashSignature.distance(fp, far) > 6);
+  }
+
+  public void testFallback() {
+    Content content = new Content("http://www.example.com/",
+        "http://www.example.com/", "content".getBytes(), "text/plain",
+        new Metadata(), NutchConfiguration.create());
+    byte[] sig = signature.calculate(content, new ParseImpl("", null));
+    byte[] md5 = new MD5Signature().calculate(content,
+        new ParseImpl("", null));
+    assertTrue(Arrays.equals(md5, sig));
+  }
+}
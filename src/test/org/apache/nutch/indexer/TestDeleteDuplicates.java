@@ -101,6 +101,42 @@ public class TestDeleteDuplicates extends TestCase {
     return idx;
   }
   
+  private Path createNearIndex(String name) throws Exception {
+    Path idx = new Path(root, name);
+    Path sub = new Path(idx, "part-0000");
+    Directory dir = FSDirectory.getDirectory(sub.toString());
+    IndexWriter writer = new IndexWriter(dir, new NutchDocumentAnalyzer(conf), true, 
+      MaxFieldLength.UNLIMITED);
+    // 2 bits apart
+    writer.addDocument(makeDoc(name, "0123456789abcdef0000000000000000",
+        "http://www.example.com/1", 1.0f, 10L));
+    writer.addDocument(makeDoc(name, "0123456789abcdec0000000000000000",
+        "http://www.example.com/2", 2.0f, 10L));
+    // far away
+    writer.addDocument(makeDoc(name, "fedcba98765432100000000000000000",
+        "http://www.example.com/3", 1.0f, 10L));
+    writer.close();
+    return idx;
+  }
+  
+  private Path createNearTieIndex(String name) throws Exception {
+    Path idx = new Path(root, name);
+    Path sub = new Path(idx, "part-0000");
+    Directory dir = FSDirectory.getDirectory(sub.toString());
+    IndexWriter writer = new IndexWriter(dir, new NutchDocumentAnalyzer(conf), true, 
+      MaxFieldLength.UNLIMITED);
+    // exact duplicates with equal scores
+    writer.addDocument(makeDoc(name, "0123456789abcdef0000000000000000",
+        "http://www.example.com/long", 1.0f, 10L));
+    writer.addDocument(makeDoc(name, "0123456789abcdef0000000000000000",
+        "http://www.example.com/1", 1.0f, 10L));
+    // a near duplicate of both, with an url of a length in between
+    writer.addDocument(makeDoc(name, "0123456789abcdee0000000000000000",
+        "http://www.example.com/22", 1.0f, 10L));
+    writer.close();
+    return idx;
+  }
+  
   private Document makeDoc(String segment, String digest, String url, float boost, long time) {
     Document doc = new Document();
     doc.add(new Field("segment", segment, Field.Store.YES, Field.Index.NO));
@@ -194,6 +230,39 @@ public class TestDeleteDuplicates extends TestCase {
     reader.close();
   }
   
+  public void testNearDuplicates() throws Exception {
+    Path index = createNearIndex("index6");
+    DeleteDuplicates dedup = new DeleteDuplicates(conf);
+    dedup.dedup(new Path[]{index});
+    FsDirectory dir = new FsDirectory(fs, new Path(index, "part-0000"), false, conf);
+    IndexReader reader = IndexReader.open(dir);
+    assertEquals("near duplicates disabled", 3, reader.numDocs());
+    reader.close();
+    
+    Configuration nearConf = new Configuration(conf);
+    nearConf.setInt("dedup.near.distance", 2);
+    dedup = new DeleteDuplicates(nearConf);
+    dedup.dedup(new Path[]{index});
+    reader = IndexReader.open(dir);
+    assertEquals("near duplicate deleted", 2, reader.numDocs());
+    assertTrue("lower score deleted", reader.isDeleted(0));
+    reader.close();
+  }
+  
+  public void testNearDuplicatesOfSurvivors() throws Exception {
+    Path index = createNearTieIndex("index7");
+    Configuration nearConf = new Configuration(conf);
+    nearConf.setInt("dedup.near.distance", 2);
+    DeleteDuplicates dedup = new DeleteDuplicates(nearConf);
+    dedup.dedup(new Path[]{index});
+    FsDirectory dir = new FsDirectory(fs, new Path(index, "part-0000"), false, conf);
+    IndexReader reader = IndexReader.open(dir);
+    // phase 2 keeps the shorter url, which is also better than the near one
+    assertEquals(1, reader.numDocs());
+    assertFalse(reader.isDeleted(1));
+    reader.close();
+  }
+  
   public void testRededuplicate() throws Exception {
     DeleteDuplicates dedup = new DeleteDuplicates(conf);
     dedup.dedup(new Path[]{index4, index5});
@@ -78,4 +78,67 @@ public class TestOutlinkExtractor extends TestCase {
     assertEquals("Wrong URL", "ftp://www.nutch.org", outlinks[0].getToUrl());
     assertEquals("Wrong URL", "ftp://www.google.de", outlinks[1].getToUrl());
   }
+
+  private static final String[] conformanceTexts = {
+    "no links here, just words: and colons: everywhere",
+    "mailto:nutch-dev@lucene.apache.org and news:comp.lang.java",
+    "http://host:8080/path?q=a&b=c#frag-ment and more",
+    "x:y ab:c abc:/ abc:// 1http://www.nutch.org -http://www.nutch.org",
+    "http://example.com/%20%zz%2 https://example.com/a%2Fb#",
+    "http://example.com/#!bang ftp://ftp.example.com/pub/file.tar.gz.",
+    "(see http://www.nutch.org/index.html), \"http://a.b/c\"",
+    "HTTP://WWW.NUTCH.ORG/A/B.HTML svn+ssh://svn.apache.org/repos",
+    "urn:isbn:0451450523 file:///tmp/x.txt javascript:void(0)",
+    "http:http://www.nutch.org ::http:// http://a http://ab",
+  };
+
+  private static void assertConforms(String text) {
+    Outlink[] expected = OutlinkExtractor.getOutlinksRegex(text, "anchor");
+    Outlink[] actual = OutlinkExtractor.getOutlinksScanner(text, "anchor");
+    assertEquals("number of outlinks in: " + text,
+                 expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("outlink " + i + " in: " + text, expected[i], actual[i]);
+    }
+  }
+
+  public void testScannerConformance() {
+    for (int i = 0; i < conformanceTexts.length; i++) {
+      assertConforms(conformanceTexts[i]);
+    }
+
+    // long runs exercise the length limits of scheme, path and fragment
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < 130; i++) sb.append('a');
+    sb.append("://x ");
+    sb.append("http://x/");
+    for (int i = 0; i < 400; i++) sb.append('p');
+    sb.append(" http://x/#");
+    for (int i = 0; i < 1100; i++) sb.append('f');
+    assertConforms(sb.toString());
+  }
+
+  public void testScannerConformanceRandom() {
+    final String alphabet = "ahtp:/.%#2fF-+@ ?=&!x";
+    java.util.Random random = new java.util.Random(42);
+    for (int n = 0; n < 2000; n++) {
+      StringBuffer sb = new StringBuffer();
+      int length = random.nextInt(80);
+      for (int i = 0; i < length; i++) {
+        sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      assertConforms(sb.toString());
+    }
+  }
+
+  public void testRegexFallback() {
+    Configuration regexConf = NutchConfiguration.create();
+    regexConf.setBoolean("parser.outlinks.regex", true);
+    Outlink[] outlinks = OutlinkExtractor.getOutlinks(
+        "Test with ftp://www.nutch.org is it found? " +
+        "What about www.google.com at ftp://www.google.de", regexConf);
+    assertEquals(2, outlinks.length);
+    assertEquals("Wrong URL", "ftp://www.nutch.org", outlinks[0].getToUrl());
+    assertEquals("Wrong URL", "ftp://www.google.de", outlinks[1].getToUrl());
+  }
 }
@@ -164,6 +164,79 @@ public class TestPluginSystem extends TestCase {
         }
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testSnapshot() throws Exception {
+        File file = new File(System.getProperty("test.build.data", "/tmp"),
+                "plugin-snapshot-test");
+        file.delete();
+        Configuration snapshotConf = new Configuration(conf);
+        snapshotConf.set("plugin.snapshot.file", file.getAbsolutePath());
+        assertNull(PluginSnapshot.get(snapshotConf).read(snapshotConf, null));
+        new PluginRepository(snapshotConf);
+        assertTrue(file.exists());
+
+        PluginRepository cached = new PluginRepository(snapshotConf);
+        assertEquals(repository.getPluginDescriptors().length,
+                cached.getPluginDescriptors().length);
+        Extension[] extensions = cached
+                .getExtensionPoint(getGetExtensionId()).getExtensions();
+        assertEquals(fPluginCount, extensions.length);
+        for (int i = 0; i < extensions.length; i++) {
+            assertEquals(getParameterValue(),
+                    extensions[i].getAttribute(getGetConfigElementName()));
+            Object object = extensions[i].getExtensionInstance();
+            assertEquals("Hello World",
+                    ((ITestExtension) object).testGetExtension("Hello"));
+        }
+        PluginDescriptor expected = repository
+                .getPluginDescriptor("org.apache.nutch.plugin.0");
+        PluginDescriptor descriptor = cached
+                .getPluginDescriptor("org.apache.nutch.plugin.0");
+        assertEquals(expected.getPluginPath(), descriptor.getPluginPath());
+        assertEquals(expected.getPluginClass(), descriptor.getPluginClass());
+        assertEquals(expected.getNotExportedLibUrls().length,
+                descriptor.getNotExportedLibUrls().length);
+        assertEquals(expected.getNotExportedLibUrls()[0],
+                descriptor.getNotExportedLibUrls()[0]);
+
+        // a new plugin invalidates the snapshot
+        File extra = new File(getPluginFolder(), "DummyPlugin" + fPluginCount);
+        extra.mkdir();
+        fFolders.add(extra);
+        createPluginManifest(fPluginCount, extra.getAbsolutePath());
+        assertNull(PluginSnapshot.get(snapshotConf).read(snapshotConf, null));
+        new PluginRepository(snapshotConf);
+        assertNotNull(PluginSnapshot.get(snapshotConf).read(snapshotConf, null));
+
+        // and so does a different configuration
+        snapshotConf.set("plugin.excludes", "DummyPlugin0");
+        assertNull(PluginSnapshot.get(snapshotConf).read(snapshotConf, null));
+        file.delete();
+    }
+
+    /**
+     * A relative snapshot file is kept in hadoop.tmp.dir, not in the plugin
+     * folders.
+     */
+    public void testRelativeSnapshotFile() throws Exception {
+        File tmp = new File(System.getProperty("test.build.data", "/tmp"),
+                "plugin-snapshot-tmp");
+        Configuration snapshotConf = new Configuration(conf);
+        snapshotConf.set("hadoop.tmp.dir", tmp.getAbsolutePath());
+        snapshotConf.set("plugin.snapshot.file", "plugin-registry.snapshot");
+        File file = PluginSnapshot.get(snapshotConf).getFile();
+        assertEquals(new File(tmp, "plugin-registry.snapshot")
+                .getAbsoluteFile(), file.getAbsoluteFile());
+        new PluginRepository(snapshotConf);
+        assertTrue(file.exists());
+        assertFalse(new File(getPluginFolder(), "plugin-registry.snapshot")
+                .exists());
+        file.delete();
+        tmp.delete();
+    }
+
     /**
      * @return a PluginFolderPath
      */
@@ -20,6 +20,8 @@ package org.apache.nutch.protocol;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.WritableTestUtils;
 import org.apache.tika.mime.MimeTypes;
@@ -54,6 +56,30 @@ public class TestContent extends TestCase {
     assertEquals("text/html", r.getMetadata().get("CONTENTYPE"));
   }
 
+  public void testReadPartial() throws Exception {
+    SpellCheckedMetadata metaData = new SpellCheckedMetadata();
+    metaData.add("Host", "www.foo.com");
+    metaData.add("Content-Type", "text/html; charset=UTF-8");
+    metaData.add("Set-Cookie", "a=1");
+    metaData.add("Set-Cookie", "b=2");
+    Content c = new Content("http://www.foo.com/", "http://www.foo.com/",
+                            "<html/>".getBytes("UTF8"), "text/html",
+                            metaData, conf);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    c.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Content read = Content.read(in, "Content-Type");
+    assertEquals(out.getLength(), in.getPosition());
+    assertEquals("http://www.foo.com/", read.getUrl());
+    assertEquals("text/html", read.getContentType());
+    assertEquals("<html/>", new String(read.getContent(), "UTF8"));
+    assertEquals(1, read.getMetadata().size());
+    assertEquals("text/html; charset=UTF-8",
+                 read.getMetadata().get("Content-Type"));
+  }
+
   /** Unit tests for getContentType(String, String, byte[]) method. */
   public void testGetContentType() throws Exception {
     Content c = null;
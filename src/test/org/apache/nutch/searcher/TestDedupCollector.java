@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+
+/** Unit tests for DedupCollector, Hits.limitPerDup and writing Hits. */
+public class TestDedupCollector extends TestCase {
+
+  private static final int SITES = 7;
+
+  private RAMDirectory dir;
+  private org.apache.lucene.search.IndexSearcher searcher;
+
+  protected void setUp() throws Exception {
+    dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      Document doc = new Document();
+      // skew sites, so that a few sites have most of the hits
+      int site = Math.min(random.nextInt(SITES), random.nextInt(SITES));
+      doc.add(new Field("site", "site" + site, Field.Store.YES,
+                        Field.Index.NOT_ANALYZED));
+      StringBuilder text = new StringBuilder();
+      int count = 1 + random.nextInt(10);
+      for (int j = 0; j < count; j++) {
+        text.append("foo ");
+      }
+      for (int j = random.nextInt(20); j > 0; j--) {
+        text.append("bar ");
+      }
+      doc.add(new Field("content", text.toString(), Field.Store.NO,
+                        Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    searcher = new org.apache.lucene.search.IndexSearcher(dir);
+  }
+
+  protected void tearDown() throws Exception {
+    searcher.close();
+  }
+
+  private Hits toHits(TopDocs docs, String[] sites) {
+    Hit[] hits = new Hit[docs.scoreDocs.length];
+    for (int i = 0; i < hits.length; i++) {
+      ScoreDoc doc = docs.scoreDocs[i];
+      hits[i] = new Hit(Integer.toString(doc.doc),
+                        new FloatWritable(doc.score), sites[doc.doc]);
+    }
+    return new Hits(docs.totalHits, hits);
+  }
+
+  public void testSameAsLimitedTopDocs() throws Exception {
+    TermQuery query = new TermQuery(new Term("content", "foo"));
+    String[] sites = FieldCache.DEFAULT.getStrings(searcher.getIndexReader(),
+                                                   "site");
+    TopDocs all = searcher.search(query, null, 500);
+    for (int numHits = 1; numHits <= 30; numHits += 7) {
+      for (int maxHitsPerDup = 1; maxHitsPerDup <= 3; maxHitsPerDup++) {
+        // all hits, limited after ranking
+        Hits expected = toHits(all, sites).limitPerDup(numHits, maxHitsPerDup);
+        DedupCollector collector =
+          new DedupCollector(numHits, maxHitsPerDup, sites);
+        searcher.search(query, collector);
+        DedupCollector.DedupTopDocs docs = collector.topDocs();
+        assertEquals(500, docs.totalHits);
+        assertEquals(!expected.totalIsExact(), docs.excluded);
+        assertEquals(expected.getLength(), docs.scoreDocs.length);
+        for (int i = 0; i < docs.scoreDocs.length; i++) {
+          Hit hit = expected.getHit(i);
+          assertEquals(hit.getUniqueKey(),
+                       Integer.toString(docs.scoreDocs[i].doc));
+          assertEquals(hit.moreFromDupExcluded(),
+                       docs.moreFromDupExcluded[i]);
+        }
+      }
+    }
+  }
+
+  public void testFewHits() throws Exception {
+    String[] sites = FieldCache.DEFAULT.getStrings(searcher.getIndexReader(),
+                                                   "site");
+    DedupCollector collector = new DedupCollector(10, 1, sites);
+    searcher.search(new TermQuery(new Term("site", "site6")), collector);
+    DedupCollector.DedupTopDocs docs = collector.topDocs();
+    assertTrue(docs.totalHits > 1);
+    assertEquals(1, docs.scoreDocs.length);
+    assertTrue(docs.moreFromDupExcluded[0]);
+
+    collector = new DedupCollector(10, 1, sites);
+    searcher.search(new TermQuery(new Term("site", "none")), collector);
+    docs = collector.topDocs();
+    assertEquals(0, docs.totalHits);
+    assertEquals(0, docs.scoreDocs.length);
+    assertFalse(docs.excluded);
+  }
+
+  public void testLimitPerDup() throws Exception {
+    String[] values = { "a", "b", "a", "a", "c", "b", "b", "d" };
+    Hit[] top = new Hit[values.length];
+    for (int i = 0; i < top.length; i++) {
+      top[i] = new Hit(Integer.toString(i),
+                       new FloatWritable(values.length - i), values[i]);
+    }
+    Hits hits = new Hits(100, top).limitPerDup(4, 1);
+    assertEquals(4, hits.getLength());
+    assertEquals("0", hits.getHit(0).getUniqueKey());
+    assertEquals("1", hits.getHit(1).getUniqueKey());
+    assertEquals("4", hits.getHit(2).getUniqueKey());
+    assertEquals("7", hits.getHit(3).getUniqueKey());
+    assertTrue(hits.getHit(0).moreFromDupExcluded());
+    assertTrue(hits.getHit(1).moreFromDupExcluded());
+    assertFalse(hits.getHit(2).moreFromDupExcluded());
+    assertFalse(hits.totalIsExact());
+    assertEquals(100, hits.getTotal());
+  }
+
+  public void testWritable() throws Exception {
+    Hit[] top = { new Hit("1", new FloatWritable(2.0f), "a"),
+                  new Hit("2", new FloatWritable(1.0f), "b") };
+    top[0].setMoreFromDupExcluded(true);
+    Hits hits = new Hits(10, top);
+    hits.setTotalIsExact(false);
+    hits.setComplete(false);
+    DataOutputBuffer out = new DataOutputBuffer();
+    hits.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Hits read = new Hits();
+    read.readFields(in);
+    assertEquals(10, read.getTotal());
+    assertFalse(read.totalIsExact());
+    assertFalse(read.isComplete());
+    assertEquals(2, read.getLength());
+    assertTrue(read.getHit(0).moreFromDupExcluded());
+    assertFalse(read.getHit(1).moreFromDupExcluded());
+    assertEquals("b", read.getHit(1).getDedupValue());
+  }
+
+  public void testWritableKeysAndSortValues() throws Exception {
+    String[] keys = { "0", "123456789", "3:17", "007", "1234567890", "a:1",
+                      "2:x", "", "12:", ":5" };
+    Hit[] top = new Hit[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      top[i] = new Hit(keys[i], new Text("v" + i), i % 3 == 0 ? "a" : "b");
+    }
+    Hits read = writeAndRead(new Hits(keys.length, top));
+    assertEquals(keys.length, read.getLength());
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(keys[i], read.getHit(i).getUniqueKey());
+      assertEquals(new Text("v" + i), read.getHit(i).getSortValue());
+      assertEquals(i % 3 == 0 ? "a" : "b", read.getHit(i).getDedupValue());
+    }
+
+    WritableComparable[] values = { new IntWritable(-5),
+                                    new LongWritable(1L << 40),
+                                    new FloatWritable(-0.5f),
+                                    new BooleanWritable(true) };
+    for (WritableComparable value : values) {
+      read = writeAndRead(new Hits(1, new Hit[] { new Hit("1", value, "") }));
+      assertEquals(value, read.getHit(0).getSortValue());
+    }
+
+    // hits built from request parameters have no sort value
+    read = writeAndRead(new Hits(1, new Hit[] { new Hit(0, "4") }));
+    assertEquals("4", read.getHit(0).getUniqueKey());
+    assertNull(read.getHit(0).getSortValue());
+
+    assertEquals(0, writeAndRead(new Hits(0, new Hit[0])).getLength());
+  }
+
+  private static Hits writeAndRead(Hits hits) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    hits.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Hits read = new Hits();
+    read.readFields(in);
+    assertEquals(out.getLength(), in.getPosition());
+    return read;
+  }
+}
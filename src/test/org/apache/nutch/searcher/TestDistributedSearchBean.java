@@ -0,0 +1,325 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for DistributedSearchBean. */
+public class TestDistributedSearchBean extends TestCase {
+
+  /** Returns one hit per query term, keyed by the term, after a delay. */
+  private static class TestBean implements SearchBean {
+    private volatile long delay;
+    private volatile boolean fail;
+    private volatile long deadline;
+    private String name = "";
+
+    TestBean(long delay) {
+      this.delay = delay;
+    }
+
+    TestBean(long delay, String name) {
+      this.delay = delay;
+      this.name = name;
+    }
+
+    public Hits search(Query query, int numHits, String dedupField,
+                       String sortField, boolean reverse) throws IOException {
+      return search(query, numHits, 0, dedupField, sortField, reverse);
+    }
+
+    public Hits search(Query query, int numHits, int maxHitsPerDup,
+                       String dedupField, String sortField, boolean reverse)
+      throws IOException {
+      return search(query, numHits, maxHitsPerDup, dedupField, sortField,
+                    reverse, Long.MAX_VALUE);
+    }
+
+    public Hits search(Query query, int numHits, int maxHitsPerDup,
+                       String dedupField, String sortField, boolean reverse,
+                       long deadline)
+      throws IOException {
+      this.deadline = deadline;
+      if (fail) {
+        throw new IOException("failed");
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        throw new IOException("interrupted");
+      }
+      String[] terms = query.getTerms();
+      Hit[] hits = new Hit[terms.length];
+      for (int i = 0; i < terms.length; i++) {
+        hits[i] = new Hit(terms[i], new FloatWritable(1.0f), terms[i]);
+      }
+      return new Hits(terms.length, hits);
+    }
+
+    public String getExplanation(Query query, Hit hit) throws IOException {
+      if (fail) {
+        throw new IOException("failed");
+      }
+      return name + " " + hit.getUniqueKey();
+    }
+
+    public HitDetails getDetails(Hit hit) throws IOException {
+      if (fail) {
+        throw new IOException("failed");
+      }
+      return new HitDetails(new String[] { "key", "replica" },
+                            new String[] { hit.getUniqueKey(), name });
+    }
+
+    public HitDetails[] getDetails(Hit[] hits) throws IOException {
+      HitDetails[] details = new HitDetails[hits.length];
+      for (int i = 0; i < hits.length; i++) {
+        details[i] = getDetails(hits[i]);
+      }
+      return details;
+    }
+
+    public HitDetails[] getDetails(Hit[] hits, String[] fields)
+      throws IOException {
+      return getDetails(hits);
+    }
+
+    public boolean ping() {
+      return true;
+    }
+
+    public void close() {}
+  }
+
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+  }
+
+  public void testPartialResults() throws Exception {
+    conf.setLong("searcher.distributed.timeout", 200);
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[] { new TestBean(0), new TestBean(5000) });
+    try {
+      long start = System.currentTimeMillis();
+      Hits hits = bean.search(Query.parse("foo", conf), 10, null, null, false);
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      assertEquals(1, hits.getLength());
+      assertEquals(0, hits.getHit(0).getIndexNo());
+      assertFalse(hits.totalIsExact());
+      assertEquals(1, bean.getTimedOut());
+      assertEquals(1, bean.getPartialRequests());
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testRejected() throws Exception {
+    conf.setInt("searcher.distributed.threads", 1);
+    conf.setInt("searcher.distributed.queue.size", 1);
+    conf.setLong("searcher.distributed.timeout", 2000);
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[] { new TestBean(100), new TestBean(100),
+                           new TestBean(100) });
+    try {
+      Hits hits = bean.search(Query.parse("foo", conf), 10, null, null, false);
+      assertEquals(2, hits.getLength());
+      assertFalse(hits.totalIsExact());
+      assertEquals(1, bean.getRejected());
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testHedgedRequests() throws Exception {
+    conf.setLong("searcher.distributed.timeout", 5000);
+    TestBean fast = new TestBean(1);
+    TestBean slow = new TestBean(30);
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[][] { { fast, slow } });
+    try {
+      Query query = Query.parse("foo", conf);
+      for (int i = 0; i < 30; i++) {               // learn response times
+        bean.search(query, 10, null, null, false);
+      }
+      assertEquals(0, bean.getHedged());
+      assertTrue(bean.getLatencyHistogram(0).getCount() >= 30);
+
+      fast.delay = 4000;
+      long start = System.currentTimeMillis();
+      Hits hits = bean.search(query, 10, null, null, false);
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      assertEquals(1, hits.getLength());
+      assertTrue(hits.totalIsExact());
+      assertEquals(1, bean.getHedged());
+      assertEquals(1, bean.getHedgeWins());
+      assertEquals(0, bean.getPartialRequests());
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testFailover() throws Exception {
+    TestBean failing = new TestBean(0);
+    failing.fail = true;
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[][] { { failing, new TestBean(0) } });
+    try {
+      Query query = Query.parse("foo", conf);
+      for (int i = 0; i < 3; i++) {
+        Hits hits = bean.search(query, 10, null, null, false);
+        assertEquals(1, hits.getLength());
+        assertTrue(hits.totalIsExact());
+      }
+      assertEquals(1, bean.getFailed());           // then out of rotation
+      assertEquals(0, bean.getPartialRequests());
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testReplicaOfHit() throws Exception {
+    TestBean first = new TestBean(0, "first");
+    TestBean second = new TestBean(0, "second");
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[][] { { first, second } });
+    try {
+      Query query = Query.parse("foo", conf);
+      Hit hit = bean.search(query, 10, null, null, false).getHit(0);
+      String replica = hit.getUniqueKey().startsWith("0@") ? "first"
+        : "second";
+      assertTrue(hit.getUniqueKey().endsWith("@foo"));
+      assertEquals(replica, bean.getDetails(hit).getValue("replica"));
+      assertEquals("foo", bean.getDetails(hit).getValue("key"));
+      assertEquals(replica + " foo", bean.getExplanation(query, hit));
+
+      // hits of one shard found by different replicas
+      Hit[] hits = { new Hit(0, "1@a"), new Hit(0, "0@b"), new Hit(0, "1@c") };
+      HitDetails[] details = bean.getDetails(hits);
+      assertEquals("a", details[0].getValue("key"));
+      assertEquals("second", details[0].getValue("replica"));
+      assertEquals("b", details[1].getValue("key"));
+      assertEquals("first", details[1].getValue("replica"));
+      assertEquals("c", details[2].getValue("key"));
+      assertEquals("second", details[2].getValue("replica"));
+      assertEquals("second a", bean.getExplanation(query, hits[0]));
+
+      // another replica only when the one which found the hit fails
+      second.fail = true;
+      assertEquals("first", bean.getDetails(hits[0]).getValue("replica"));
+      assertEquals("first", bean.getDetails(hits)[2].getValue("replica"));
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testFailedShard() throws Exception {
+    TestBean failing = new TestBean(0);
+    failing.fail = true;
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[] { new TestBean(0), failing });
+    try {
+      Query query = Query.parse("foo", conf);
+      for (int i = 0; i < 2; i++) {                // failed, then dead
+        Hits hits = bean.search(query, 10, null, null, false);
+        assertEquals(1, hits.getLength());
+        assertFalse(hits.totalIsExact());
+        assertFalse(hits.isComplete());
+      }
+      assertEquals(1, bean.getFailed());
+      assertEquals(2, bean.getPartialRequests());
+    } finally {
+      bean.close();
+    }
+  }
+
+  public void testConcurrentRequests() throws Exception {
+    final DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[] { new TestBean(1), new TestBean(2) });
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final String term = "term" + t;
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 20; i++) {
+              Hits hits = bean.search(Query.parse(term, conf), 10, null, null,
+                                      false);
+              assertEquals(2, hits.getLength());
+              assertEquals(term, hits.getHit(0).getUniqueKey());
+              assertEquals(term, hits.getHit(1).getUniqueKey());
+              HitDetails[] details = bean.getDetails(hits.getHits(0, 2));
+              assertEquals(term, details[0].getValue("key"));
+            }
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    bean.close();
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertEquals(threads.length * 20 * 2, bean.getRequests());
+  }
+
+  public void testDeadline() throws Exception {
+    conf.setLong("searcher.distributed.timeout", 5000);
+    conf.setLong("searcher.distributed.deadline.margin", 50);
+    TestBean fast = new TestBean(0);
+    DistributedSearchBean bean = new DistributedSearchBean(conf,
+        new SearchBean[] { fast, new TestBean(5000) });
+    try {
+      long start = System.currentTimeMillis();
+      long deadline = start + 200;
+      Hits hits = bean.search(Query.parse("foo", conf), 10, 0, null, null,
+                              false, deadline);
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      assertEquals(1, hits.getLength());
+      assertFalse(hits.isComplete());
+      assertEquals(deadline - 50, fast.deadline);  // shards stop earlier
+    } finally {
+      bean.close();
+    }
+
+    // without a deadline, shards search without one, the timeout only
+    // bounds the wait for them
+    bean = new DistributedSearchBean(conf, new SearchBean[] { fast });
+    try {
+      Hits hits = bean.search(Query.parse("foo", conf), 10, null, null, false);
+      assertTrue(hits.isComplete());
+      assertEquals(Long.MAX_VALUE, fast.deadline);
+    } finally {
+      bean.close();
+    }
+  }
+}
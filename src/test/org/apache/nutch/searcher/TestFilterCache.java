@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for the filter cache of LuceneQueryOptimizer. */
+public class TestFilterCache extends TestCase {
+
+  private static BooleanQuery query(String field, String value) {
+    BooleanQuery query = new BooleanQuery();
+    TermQuery term = new TermQuery(new Term(field, value));
+    term.setBoost(0.0f);
+    query.add(term, BooleanClause.Occur.MUST);
+    return query;
+  }
+
+  private static Filter filter(String value) {
+    return new QueryWrapperFilter(new TermQuery(new Term("f", value)));
+  }
+
+  public void testEviction() throws Exception {
+    WeightedCache<BooleanQuery, Filter> cache =
+      new WeightedCache<BooleanQuery, Filter>(3, 1000);
+    Filter a = filter("a");
+    assertSame(a, cache.putIfAbsent(query("f", "a"), a, 100));
+    cache.putIfAbsent(query("f", "b"), filter("b"), 100);
+    cache.putIfAbsent(query("f", "c"), filter("c"), 100);
+    assertSame(a, cache.get(query("f", "a")));    // b is now the oldest
+    cache.putIfAbsent(query("f", "d"), filter("d"), 100);
+    assertEquals(3, cache.size());
+    assertNull(cache.get(query("f", "b")));
+    assertNotNull(cache.get(query("f", "a")));
+    assertEquals(1, cache.getEvictions());
+
+    // by weight
+    cache.putIfAbsent(query("f", "e"), filter("e"), 800);
+    assertTrue(cache.getWeight() <= 1000);
+    assertNotNull(cache.get(query("f", "e")));
+    assertEquals(3, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // too heavy to cache at all
+    Filter f = filter("f");
+    assertSame(f, cache.putIfAbsent(query("f", "f"), f, 2000));
+    assertNull(cache.get(query("f", "f")));
+
+    // the first filter cached for a query is kept
+    Filter other = filter("e");
+    assertNotSame(other, cache.putIfAbsent(query("f", "e"), other, 800));
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  public void testFieldPolicies() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    for (int i = 0; i < 100; i++) {
+      Document doc = new Document();
+      doc.add(new Field("site", "site" + (i % 50), Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("lang", i % 2 == 0 ? "en" : "de", Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("content", "foo", Field.Store.NO,
+                        Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    org.apache.lucene.search.IndexSearcher searcher =
+      new org.apache.lucene.search.IndexSearcher(dir);
+
+    Configuration conf = NutchConfiguration.create();
+    conf.set("searcher.filter.cache.always", "site");
+    conf.set("searcher.filter.cache.never", "lang");
+    LuceneQueryOptimizer optimizer = new LuceneQueryOptimizer(conf);
+    WeightedCache<BooleanQuery, Filter> cache = optimizer.getFilterCache();
+
+    BooleanQuery siteQuery = query("site", "site7"); // rare, but always cached
+    siteQuery.add(new TermQuery(new Term("content", "foo")),
+                  BooleanClause.Occur.MUST);
+    TopDocs docs = optimizer.optimize(siteQuery, searcher, 10, null, false);
+    assertEquals(2, docs.totalHits);
+    assertEquals(1, cache.size());
+    optimizer.optimize(siteQuery, searcher, 10, null, false);
+    assertEquals(1, cache.getHits());
+
+    BooleanQuery langQuery = query("lang", "en");    // frequent, never cached
+    langQuery.add(new TermQuery(new Term("content", "foo")),
+                  BooleanClause.Occur.MUST);
+    docs = optimizer.optimize(langQuery, searcher, 10, null, false);
+    assertEquals(50, docs.totalHits);
+    assertEquals(1, cache.size());
+
+    // warming caches the filter without searching
+    optimizer.warm(query("site", "site8"), searcher, searcher.getIndexReader());
+    assertEquals(2, cache.size());
+    searcher.close();
+  }
+}
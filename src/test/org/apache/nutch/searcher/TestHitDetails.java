@@ -55,4 +55,44 @@ public class TestHitDetails extends TestCase {
     assertEquals(1, vals.length);
     assertEquals("baz", vals[0]);
   }
+
+  public void testHitDetailsList() throws Exception {
+    HitDetails[] details = new HitDetails[100];
+    for (int i = 0; i < details.length; i++) {
+      details[i] = new HitDetails(
+          new String[] { "segment", "url", "title", "anchor", "anchor" },
+          new String[] { "20090101", "http://www.example.com/" + i,
+                         "Page \u00e9 " + i, "", "link " + (i % 7) });
+    }
+    int[] thresholds = { -1, 0, 1000000 };
+    int[] sizes = new int[thresholds.length];
+    for (int t = 0; t < thresholds.length; t++) {
+      DataOutputBuffer dob = new DataOutputBuffer();
+      new HitDetailsList(details, thresholds[t]).write(dob);
+      sizes[t] = dob.getLength();
+
+      DataInputBuffer dib = new DataInputBuffer();
+      dib.reset(dob.getData(), dob.getLength());
+      HitDetailsList list = new HitDetailsList();
+      list.readFields(dib);
+      assertEquals(dob.getLength(), dib.getPosition());
+      HitDetails[] after = list.getDetails();
+      assertEquals(details.length, after.length);
+      for (int i = 0; i < details.length; i++) {
+        assertEquals(details[i].getLength(), after[i].getLength());
+        for (int j = 0; j < details[i].getLength(); j++) {
+          assertEquals(details[i].getField(j), after[i].getField(j));
+          assertEquals(details[i].getValue(j), after[i].getValue(j));
+        }
+      }
+    }
+    assertTrue(sizes[1] < sizes[0] / 2);          // compressed
+    assertEquals(sizes[0], sizes[2]);             // below the threshold
+  }
+
+  public void testEstimateSize() {
+    HitDetails small = new HitDetails("segment", "http://a/");
+    HitDetails large = new HitDetails("segment", "http://a/long/path/");
+    assertTrue(large.estimateSize() > small.estimateSize());
+  }
 }
@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for MappedDirectory and CachingFsDirectory. */
+public class TestIndexDirectories extends TestCase {
+
+  private static final int DOCS = 500;
+
+  private File root;
+  private File index;
+  private FSDirectory expected;
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    root = new File(System.getProperty("test.build.data", "/tmp"),
+                    "index-directories-test");
+    FileUtil.fullyDelete(root);
+    index = new File(root, "index");
+    IndexWriter writer = new IndexWriter(index, new WhitespaceAnalyzer(), true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.setUseCompoundFile(false);
+    Random random = new Random(1);
+    for (int i = 0; i < DOCS; i++) {
+      Document doc = new Document();
+      doc.add(new Field("url", "http://host/" + i, Field.Store.YES,
+                        Field.Index.NOT_ANALYZED));
+      StringBuilder text = new StringBuilder();
+      for (int j = random.nextInt(50); j >= 0; j--) {
+        text.append("word").append(random.nextInt(1000)).append(' ');
+      }
+      doc.add(new Field("content", text.toString(), Field.Store.YES,
+                        Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    expected = FSDirectory.getDirectory(index);
+    conf = NutchConfiguration.create();
+    conf.setInt("searcher.fs.block.size", 100);
+    conf.setLong("searcher.fs.block.cache.max.bytes", 10000);
+  }
+
+  protected void tearDown() throws Exception {
+    expected.close();
+    FileUtil.fullyDelete(root);
+  }
+
+  /** Reads every file in random pieces, also through clones. */
+  private void assertSameFiles(Directory directory) throws Exception {
+    Random random = new Random(2);
+    String[] names = expected.list();
+    for (int i = 0; i < names.length; i++) {
+      IndexInput in = expected.openInput(names[i]);
+      IndexInput actual = directory.openInput(names[i]);
+      int length = (int)in.length();
+      assertEquals(length, actual.length());
+      byte[] all = new byte[length];
+      in.readBytes(all, 0, length);
+      for (int j = 0; j < 50 && length > 0; j++) {
+        IndexInput reader = j % 2 == 0 ? actual : (IndexInput)actual.clone();
+        int start = random.nextInt(length);
+        int count = random.nextInt(Math.min(length - start, 1000) + 1);
+        reader.seek(start);
+        byte[] read = new byte[count];
+        if (count > 0 && random.nextBoolean()) {
+          read[0] = reader.readByte();
+          reader.readBytes(read, 1, count - 1);
+        } else {
+          reader.readBytes(read, 0, count);
+        }
+        for (int k = 0; k < count; k++) {
+          assertEquals(names[i] + "@" + (start + k), all[start + k], read[k]);
+        }
+        assertEquals(start + count, reader.getFilePointer());
+      }
+      in.close();
+      actual.close();
+    }
+    IndexReader reader = IndexReader.open(directory);
+    assertEquals(DOCS, reader.numDocs());
+    assertEquals("http://host/123", reader.document(123).get("url"));
+    reader.close();
+  }
+
+  public void testMappedDirectory() throws Exception {
+    assertSameFiles(new MappedDirectory(expected, index));
+  }
+
+  public void testBlockCache() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    CachingFsDirectory directory = new CachingFsDirectory(fs,
+      new Path(index.getPath()), CachingFsDirectory.createBlockCache(conf),
+      conf);
+    assertSameFiles(directory);
+  }
+
+  public void testSharedBlockCache() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    WeightedCache<Long, byte[]> blocks =
+      CachingFsDirectory.createBlockCache(conf);
+    CachingFsDirectory first =
+      new CachingFsDirectory(fs, new Path(index.getPath()), blocks, conf);
+    CachingFsDirectory second =
+      new CachingFsDirectory(fs, new Path(index.getPath()), blocks, conf);
+    assertSameFiles(first);
+    assertSameFiles(second);
+    assertSameFiles(first);
+    assertTrue(blocks.size() > 0);
+    assertTrue(blocks.getWeight() <= 10000);        // one bound for both
+  }
+
+  public void testLocalCopies() throws Exception {
+    File local = new File(root, "local");
+    conf.set("searcher.fs.local.dir", local.getPath());
+    FileSystem fs = FileSystem.getLocal(conf);
+    CachingFsDirectory directory = new CachingFsDirectory(fs,
+      new Path(index.getPath()), CachingFsDirectory.createBlockCache(conf),
+      conf);
+    assertSameFiles(directory);
+    File[] copies = local.listFiles()[0].listFiles();
+    assertTrue(copies.length > 0);
+    for (int i = 0; i < copies.length; i++) {
+      String name = copies[i].getName();
+      assertTrue(name, name.endsWith(".tii") || name.endsWith(".tis")
+                 || name.endsWith(".frq") || name.endsWith(".nrm")
+                 || name.endsWith(".fdx"));
+    }
+
+    // copies no longer in the index are removed
+    new File(copies[0].getParentFile(), "_old.tis").createNewFile();
+    new CachingFsDirectory(fs, new Path(index.getPath()),
+                           CachingFsDirectory.createBlockCache(conf), conf);
+    assertEquals(copies.length, copies[0].getParentFile().listFiles().length);
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for IndexSearcher. */
+public class TestIndexSearcher extends TestCase {
+
+  private static final int DOCS = 20;
+
+  private File dir;
+  private Configuration conf;
+  private IndexSearcher searcher;
+
+  protected void setUp() throws Exception {
+    dir = new File(System.getProperty("test.build.data", "/tmp"),
+                   "index-searcher-test");
+    FileUtil.fullyDelete(dir);
+    writeIndex(0);
+    conf = NutchConfiguration.create();
+    conf.set("fs.default.name", "file:///");
+    conf.set("searcher.warmup.queries", "anchor");
+    searcher = new IndexSearcher(new Path(dir.getAbsolutePath()), conf);
+  }
+
+  /** Writes a new index, whose documents are numbered from first. */
+  private void writeIndex(int first) throws Exception {
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    for (int i = first; i < first + DOCS; i++) {
+      Document doc = new Document();
+      doc.add(new Field("url", "http://host/" + i, Field.Store.YES,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("title", "title " + i, Field.Store.YES,
+                        Field.Index.ANALYZED));
+      doc.add(new Field("segment", "20090101000000", Field.Store.YES,
+                        Field.Index.NO));
+      doc.add(new Field("anchor", "anchor " + i, Field.Store.YES,
+                        Field.Index.ANALYZED));
+      doc.add(new Field("anchor", "more anchor " + i, Field.Store.YES,
+                        Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+  }
+
+  protected void tearDown() throws Exception {
+    searcher.close();
+    FileUtil.fullyDelete(dir);
+  }
+
+  private Hit[] getHits(int... docs) {
+    Hit[] hits = new Hit[docs.length];
+    for (int i = 0; i < docs.length; i++) {
+      hits[i] = new Hit(0, Integer.toString(docs[i]));
+    }
+    return hits;
+  }
+
+  public void testAllFields() throws Exception {
+    HitDetails[] details = searcher.getDetails(getHits(7, 3, 12));
+    assertEquals(3, details.length);
+    assertEquals("http://host/7", details[0].getValue("url"));
+    assertEquals("http://host/3", details[1].getValue("url"));
+    assertEquals("title 12", details[2].getValue("title"));
+    assertEquals(2, details[2].getValues("anchor").length);
+    assertEquals(5, details[2].getLength());
+  }
+
+  public void testSelectedFields() throws Exception {
+    HitDetails[] details = searcher.getDetails(getHits(7, 3, 12),
+                                               new String[] { "url", "title" });
+    assertEquals(3, details.length);
+    for (int i = 0; i < details.length; i++) {
+      assertEquals(2, details[i].getLength());
+      assertNull(details[i].getValue("anchor"));
+      assertNull(details[i].getValue("segment"));
+    }
+    assertEquals("http://host/7", details[0].getValue("url"));
+    assertEquals("title 3", details[1].getValue("title"));
+    assertEquals("http://host/12", details[2].getValue("url"));
+
+    // fields which are not stored are ignored
+    details = searcher.getDetails(getHits(1), new String[] { "none" });
+    assertEquals(0, details[0].getLength());
+
+    // all fields if none are named
+    details = searcher.getDetails(getHits(1), null);
+    assertEquals(5, details[0].getLength());
+  }
+
+  public void testDeadline() throws Exception {
+    Query query = Query.parse("anchor", conf);
+    Hits hits = searcher.search(query, 5, 0, null, null, false,
+                                System.currentTimeMillis() + 60000);
+    assertTrue(hits.isComplete());
+    assertTrue(hits.totalIsExact());
+    assertEquals(DOCS, hits.getTotal());
+
+    hits = searcher.search(query, 5, 1, "site", null, false,
+                           System.currentTimeMillis() - 1);
+    assertFalse(hits.isComplete());
+    assertFalse(hits.totalIsExact());
+    assertEquals(0, hits.getLength());
+  }
+
+  public void testReopen() throws Exception {
+    assertFalse(searcher.reopen());
+    Hit[] old = getHits(3);
+    writeIndex(100);
+    assertTrue(searcher.reopen());
+
+    // hits of the previous generation still get their details
+    assertEquals("http://host/3",
+                 searcher.getDetails(old)[0].getValue("url"));
+    HitDetails[] details = searcher.getDetails(
+      new Hit[] { new Hit(0, "1:3"), new Hit(0, "3") });
+    assertEquals("http://host/103", details[0].getValue("url"));
+    assertEquals("http://host/3", details[1].getValue("url"));
+
+    // new hits are found in the new generation
+    Hits hits = searcher.search(Query.parse("anchor", conf), 1, null, null,
+                                false);
+    assertEquals(DOCS, hits.getTotal());
+    assertTrue(hits.getHit(0).getUniqueKey().startsWith("1:"));
+
+    // older generations stay open while a next one replaces them
+    writeIndex(200);
+    assertTrue(searcher.reopen());
+    assertEquals("http://host/203",
+                 searcher.getDetails(new Hit(0, "2:3")).getValue("url"));
+    assertEquals("http://host/103",
+                 searcher.getDetails(new Hit(0, "1:3")).getValue("url"));
+    assertEquals("http://host/3",
+                 searcher.getDetails(old)[0].getValue("url"));
+  }
+
+  public void testReopenGrace() throws Exception {
+    searcher.close();
+    conf.setLong("searcher.reopen.grace", 0);
+    conf.setLong("searcher.cache.expire", 0);
+    searcher = new IndexSearcher(new Path(dir.getAbsolutePath()), conf);
+    final AtomicInteger notified = new AtomicInteger();
+    searcher.addReopenListener(new Runnable() {
+      public void run() {
+        notified.incrementAndGet();
+      }
+    });
+    Hit[] old = getHits(3);
+    writeIndex(100);
+    assertTrue(searcher.reopen());
+    assertEquals(1, notified.get());              // replaced
+    assertFalse(searcher.reopen());               // closes expired ones
+    assertEquals(2, notified.get());              // closed
+    try {
+      searcher.getDetails(old);
+      fail("generation 0 should be closed");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // the grace is at least the expiry of cached results
+    searcher.close();
+    conf.setLong("searcher.cache.expire", 600);
+    searcher = new IndexSearcher(new Path(dir.getAbsolutePath()), conf);
+    old = getHits(3);
+    writeIndex(200);
+    assertTrue(searcher.reopen());
+    assertFalse(searcher.reopen());
+    assertEquals("http://host/103",
+                 searcher.getDetails(old)[0].getValue("url"));
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import junit.framework.TestCase;
+
+/** Unit tests for LatencyHistogram. */
+public class TestLatencyHistogram extends TestCase {
+
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(-1, histogram.getPercentile(0.5));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.add(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertBetween(500, 600, histogram.getPercentile(0.5));
+    assertBetween(950, 1140, histogram.getPercentile(0.95));
+    assertBetween(1000, 1200, histogram.getPercentile(1.0));
+    assertEquals(1, histogram.getPercentile(0.0001));
+    histogram.clear();
+    assertEquals(0, histogram.getCount());
+  }
+
+  public void testExtremes() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.add(0);
+    histogram.add(Long.MAX_VALUE);
+    assertEquals(1, histogram.getPercentile(0.5));
+    assertTrue(histogram.getPercentile(1.0) > 1000000);
+  }
+
+  private static void assertBetween(long min, long max, long value) {
+    assertTrue(value + " not in [" + min + ", " + max + "]",
+               value >= min && value <= max);
+  }
+}
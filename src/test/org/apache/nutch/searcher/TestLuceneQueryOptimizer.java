@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.nutch.indexer.ImpactOrder;
+import org.apache.nutch.indexer.IndexSorter;
+import org.apache.nutch.indexer.NutchSimilarity;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for the time and hit limits of LuceneQueryOptimizer, and for
+ * stopping early in an index sorted by boost. */
+public class TestLuceneQueryOptimizer extends TestCase {
+
+  private static final long FAR = Long.MAX_VALUE - 1;
+
+  private RAMDirectory dir;
+  private org.apache.lucene.search.IndexSearcher searcher;
+  private String[] sites;
+
+  protected void setUp() throws Exception {
+    dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    Random random = new Random(17);
+    for (int i = 0; i < 5000; i++) {
+      Document doc = new Document();
+      doc.add(new Field("site", "site" + random.nextInt(20), Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("lang", i % 3 == 0 ? "en" : "de", Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("date", Integer.toString(1000 + random.nextInt(9000)),
+                        Field.Store.NO, Field.Index.NOT_ANALYZED));
+      StringBuilder text = new StringBuilder();
+      for (int j = random.nextInt(5); j >= 0; j--) {
+        text.append(random.nextBoolean() ? "foo " : "bar ");
+      }
+      doc.add(new Field("content", text.toString(), Field.Store.NO,
+                        Field.Index.ANALYZED));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    searcher = new org.apache.lucene.search.IndexSearcher(dir);
+    sites = FieldCache.DEFAULT.getStrings(searcher.getIndexReader(), "site");
+  }
+
+  protected void tearDown() throws Exception {
+    searcher.close();
+  }
+
+  private static BooleanQuery query(boolean filtered) {
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("content", "foo")),
+              BooleanClause.Occur.MUST);
+    if (filtered) {
+      TermQuery lang = new TermQuery(new Term("lang", "en"));
+      lang.setBoost(0.0f);
+      query.add(lang, BooleanClause.Occur.MUST);
+    }
+    return query;
+  }
+
+  private static void assertSameDocs(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.totalHits, actual.totalHits);
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score,
+                   0.0f);
+    }
+  }
+
+  public void testSameAsUnlimited() throws Exception {
+    LuceneQueryOptimizer optimizer =
+      new LuceneQueryOptimizer(NutchConfiguration.create());
+    for (int f = 0; f < 2; f++) {
+      BooleanQuery query = query(f == 1);
+      assertSameDocs(optimizer.optimize(query, searcher, 20, null, false),
+                     optimizer.optimize(query, searcher, 20, 0, null, null,
+                                        false, FAR));
+      assertSameDocs(optimizer.optimize(query, searcher, 20, 2, sites, null,
+                                        false),
+                     optimizer.optimize(query, searcher, 20, 2, sites, null,
+                                        false, FAR));
+      assertSameDocs(optimizer.optimize(query, searcher, 20, "date", true),
+                     optimizer.optimize(query, searcher, 20, 0, null, "date",
+                                        true, FAR));
+    }
+  }
+
+  public void testDeadline() throws Exception {
+    LuceneQueryOptimizer optimizer =
+      new LuceneQueryOptimizer(NutchConfiguration.create());
+    TopDocs docs = optimizer.optimize(query(true), searcher, 20, 0, null,
+                                      null, false,
+                                      System.currentTimeMillis() - 1);
+    assertTrue(docs instanceof LuceneQueryOptimizer.PartialTopDocs);
+    assertTrue(((LuceneQueryOptimizer.PartialTopDocs)docs).timedOut);
+    assertEquals(0, docs.scoreDocs.length);
+
+    docs = optimizer.optimize(query(true), searcher, 20, 0, null, null, false,
+                              System.currentTimeMillis() + 60000);
+    assertFalse(docs instanceof LuceneQueryOptimizer.PartialTopDocs);
+  }
+
+  public void testMaxHits() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("searcher.max.hits", 100);
+    LuceneQueryOptimizer optimizer = new LuceneQueryOptimizer(conf);
+    TopDocs all = new LuceneQueryOptimizer(NutchConfiguration.create())
+      .optimize(query(false), searcher, 20, null, false);
+    TopDocs docs = optimizer.optimize(query(false), searcher, 20, null, false);
+    assertTrue(docs instanceof LuceneQueryOptimizer.PartialTopDocs);
+    assertFalse(((LuceneQueryOptimizer.PartialTopDocs)docs).timedOut);
+    assertEquals(20, docs.scoreDocs.length);
+    // estimated from the part of the index searched
+    assertTrue(docs.totalHits > all.totalHits / 2);
+    assertTrue(docs.totalHits < all.totalHits * 2);
+
+    // searches sorted by a field are not limited
+    all = new LuceneQueryOptimizer(NutchConfiguration.create())
+      .optimize(query(false), searcher, 20, "date", true);
+    docs = optimizer.optimize(query(false), searcher, 20, "date", true);
+    assertFalse(docs instanceof LuceneQueryOptimizer.PartialTopDocs);
+    assertSameDocs(all, docs);
+  }
+
+  public void testParallelSlices() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("searcher.parallel.threads", 3);
+    conf.setInt("searcher.parallel.slice.min.docs", 1000);
+    LuceneQueryOptimizer parallel = new LuceneQueryOptimizer(conf);
+    LuceneQueryOptimizer optimizer =
+      new LuceneQueryOptimizer(NutchConfiguration.create());
+    try {
+      for (int f = 0; f < 2; f++) {
+        BooleanQuery query = query(f == 1);
+        for (int numHits : new int[] { 1, 20, 5000 }) {
+          assertSameDocs(optimizer.optimize(query, searcher, numHits, null,
+                                            false),
+                         parallel.optimize(query, searcher, numHits, null,
+                                           false));
+          assertSameDocs(optimizer.optimize(query, searcher, numHits, "date",
+                                            true),
+                         parallel.optimize(query, searcher, numHits, "date",
+                                           true));
+          for (int maxHitsPerDup = 1; maxHitsPerDup <= 3; maxHitsPerDup++) {
+            DedupCollector.DedupTopDocs expected = (DedupCollector.DedupTopDocs)
+              optimizer.optimize(query, searcher, numHits, maxHitsPerDup,
+                                 sites, null, false);
+            DedupCollector.DedupTopDocs docs = (DedupCollector.DedupTopDocs)
+              parallel.optimize(query, searcher, numHits, maxHitsPerDup,
+                                sites, null, false);
+            assertSameDocs(expected, docs);
+            assertEquals(expected.excluded, docs.excluded);
+            for (int i = 0; i < docs.scoreDocs.length; i++) {
+              assertEquals(expected.moreFromDupExcluded[i],
+                           docs.moreFromDupExcluded[i]);
+            }
+          }
+        }
+      }
+      assertEquals(4, parallel.getSliceCount());
+      for (int i = 0; i < 4; i++) {
+        assertTrue(parallel.getSliceLatency(i).getCount() > 0);
+      }
+
+      TopDocs docs = parallel.optimize(query(true), searcher, 20, 0, null,
+                                       null, false,
+                                       System.currentTimeMillis() - 1);
+      assertTrue(((LuceneQueryOptimizer.PartialTopDocs)docs).timedOut);
+      assertEquals(0, docs.scoreDocs.length);
+    } finally {
+      parallel.close();
+    }
+
+    // each slice stops at its share of the hits
+    conf.setInt("searcher.max.hits", 100);
+    parallel = new LuceneQueryOptimizer(conf);
+    try {
+      TopDocs all = optimizer.optimize(query(false), searcher, 20, null,
+                                       false);
+      TopDocs docs = parallel.optimize(query(false), searcher, 20, null,
+                                       false);
+      assertFalse(((LuceneQueryOptimizer.PartialTopDocs)docs).timedOut);
+      assertEquals(20, docs.scoreDocs.length);
+      assertTrue(docs.totalHits > all.totalHits / 2);
+      assertTrue(docs.totalHits < all.totalHits * 2);
+
+      all = optimizer.optimize(query(false), searcher, 20, "date", true);
+      docs = parallel.optimize(query(false), searcher, 20, "date", true);
+      assertFalse(docs instanceof LuceneQueryOptimizer.PartialTopDocs);
+      assertSameDocs(all, docs);
+    } finally {
+      parallel.close();
+    }
+  }
+
+  public void testImpactOrder() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    RAMDirectory unsorted = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(unsorted, new WhitespaceAnalyzer(),
+                                         true,
+                                         IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.setSimilarity(new NutchSimilarity());
+    Random random = new Random(23);
+    String[] words = { "foo", "bar", "baz", "qux" };
+    for (int i = 0; i < 5000; i++) {
+      Document doc = new Document();
+      doc.add(new Field("site", "site" + random.nextInt(50), Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      doc.add(new Field("lang", i % 3 == 0 ? "en" : "de", Field.Store.NO,
+                        Field.Index.NOT_ANALYZED));
+      for (String field : new String[] { "title", "content" }) {
+        StringBuilder text = new StringBuilder();
+        for (int j = random.nextInt(field == "title" ? 4 : 40); j >= 0; j--) {
+          text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        doc.add(new Field(field, text.toString(), Field.Store.NO,
+                          Field.Index.ANALYZED));
+      }
+      // a few pages with high boosts, like link analysis scores
+      doc.setBoost((float)Math.pow(10, -Math.log(random.nextDouble()) / 3));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    assertNull(ImpactOrder.read(IndexReader.open(unsorted)));
+
+    RAMDirectory sorted = new RAMDirectory();
+    new IndexSorter(conf).sort(unsorted, sorted);
+    org.apache.lucene.search.IndexSearcher sortedSearcher =
+      new org.apache.lucene.search.IndexSearcher(sorted);
+    sortedSearcher.setSimilarity(new NutchSimilarity());
+    ImpactOrder impacts = ImpactOrder.read(sortedSearcher.getIndexReader());
+    assertNotNull(impacts);
+    String[] sortedSites = FieldCache.DEFAULT.getStrings(
+        sortedSearcher.getIndexReader(), "site");
+
+    BooleanQuery[] queries = new BooleanQuery[4];
+    queries[0] = query(false);
+    queries[1] = query(true);
+    queries[2] = new BooleanQuery();                // several fields
+    TermQuery title = new TermQuery(new Term("title", "baz"));
+    title.setBoost(2.0f);
+    queries[2].add(title, BooleanClause.Occur.SHOULD);
+    queries[2].add(new TermQuery(new Term("content", "baz")),
+                   BooleanClause.Occur.SHOULD);
+    queries[3] = query(false);                      // with a phrase
+    PhraseQuery phrase = new PhraseQuery();
+    phrase.add(new Term("content", "foo"));
+    phrase.add(new Term("content", "bar"));
+    queries[3].add(phrase, BooleanClause.Occur.SHOULD);
+
+    LuceneQueryOptimizer optimizer = new LuceneQueryOptimizer(conf);
+    Configuration parallelConf = NutchConfiguration.create();
+    parallelConf.setInt("searcher.parallel.threads", 3);
+    parallelConf.setInt("searcher.parallel.slice.min.docs", 1000);
+    LuceneQueryOptimizer parallel = new LuceneQueryOptimizer(parallelConf);
+    int early = 0;
+    for (BooleanQuery query : queries) {
+      for (int numHits : new int[] { 1, 10, 100 }) {
+        TopDocs all = optimizer.optimize(query, sortedSearcher, numHits, 0,
+                                         null, null, false, Long.MAX_VALUE);
+        TopDocs docs = optimizer.optimize(query, sortedSearcher, numHits, 0,
+                                          null, null, false, Long.MAX_VALUE,
+                                          impacts);
+        if (docs instanceof LuceneQueryOptimizer.PartialTopDocs) {
+          assertFalse(((LuceneQueryOptimizer.PartialTopDocs)docs).timedOut);
+          early++;
+        }
+        assertEquals(all.scoreDocs.length, docs.scoreDocs.length);
+        for (int i = 0; i < all.scoreDocs.length; i++) {
+          assertEquals(all.scoreDocs[i].doc, docs.scoreDocs[i].doc);
+          assertEquals(all.scoreDocs[i].score, docs.scoreDocs[i].score, 0.0f);
+        }
+        docs = parallel.optimize(query, sortedSearcher, numHits, 0, null,
+                                 null, false, Long.MAX_VALUE, impacts);
+        assertEquals(all.scoreDocs.length, docs.scoreDocs.length);
+        for (int i = 0; i < all.scoreDocs.length; i++) {
+          assertEquals(all.scoreDocs[i].doc, docs.scoreDocs[i].doc);
+        }
+
+        all = optimizer.optimize(query, sortedSearcher, numHits, 1,
+                                 sortedSites, null, false, Long.MAX_VALUE);
+        docs = optimizer.optimize(query, sortedSearcher, numHits, 1,
+                                  sortedSites, null, false, Long.MAX_VALUE,
+                                  impacts);
+        assertEquals(all.scoreDocs.length, docs.scoreDocs.length);
+        for (int i = 0; i < all.scoreDocs.length; i++) {
+          assertEquals(all.scoreDocs[i].doc, docs.scoreDocs[i].doc);
+        }
+      }
+    }
+    assertTrue(early > 0);
+    parallel.close();
+
+    // a changed index is no longer in order
+    writer = new IndexWriter(sorted, new WhitespaceAnalyzer(), false,
+                             IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.addDocument(new Document());
+    writer.close();
+    assertNull(ImpactOrder.read(IndexReader.open(sorted)));
+    sortedSearcher.close();
+  }
+}
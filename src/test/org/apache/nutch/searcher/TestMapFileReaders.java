@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for MapFileReaders. */
+public class TestMapFileReaders extends TestCase {
+
+  private static final int PARTS = 3;
+  private static final int KEYS = 1000;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("io.map.index.interval", 16);
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("test.build.data", "."),
+                   "test-map-file-readers");
+    fs.delete(dir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  private static Text key(int i) {
+    return new Text("http://www.example.com/" + i);
+  }
+
+  /** Writes the even keys, partitioned like a MapFileOutputFormat. */
+  private Path write(String name, CompressionType compression)
+    throws Exception {
+    Path out = new Path(dir, name);
+    HashPartitioner<Text, Writable> partitioner =
+      new HashPartitioner<Text, Writable>();
+    List<TreeSet<Text>> keys = new ArrayList<TreeSet<Text>>();
+    for (int p = 0; p < PARTS; p++) {
+      keys.add(new TreeSet<Text>());
+    }
+    for (int i = 0; i < KEYS; i += 2) {
+      keys.get(partitioner.getPartition(key(i), null, PARTS)).add(key(i));
+    }
+    for (int p = 0; p < PARTS; p++) {
+      MapFile.Writer writer = new MapFile.Writer(conf, fs,
+          new Path(out, "part-0000" + p).toString(), Text.class, Text.class,
+          compression);
+      for (Text key : keys.get(p)) {
+        writer.append(key, new Text("value of " + key));
+      }
+      writer.close();
+    }
+    return out;
+  }
+
+  private void assertLookups(MapFileReaders readers) throws Exception {
+    assertEquals(PARTS, readers.getPartCount());
+    for (int i = 0; i < KEYS; i++) {
+      Text value = (Text)readers.get(key(i), new Text());
+      if (i % 2 == 0) {
+        assertEquals("value of " + key(i), value.toString());
+      } else {
+        assertNull(value);
+      }
+    }
+    assertNull(readers.get(new Text(""), new Text()));
+    assertNull(readers.get(new Text("zzz"), new Text()));
+  }
+
+  public void testLookups() throws Exception {
+    for (CompressionType compression : new CompressionType[] {
+           CompressionType.NONE, CompressionType.RECORD,
+           CompressionType.BLOCK }) {
+      Path out = write(compression.toString(), compression);
+      for (int interval : new int[] { 0, 1, 5 }) {
+        conf.setInt("searcher.segment.index.interval", interval);
+        MapFileReaders readers = new MapFileReaders(fs, out, conf);
+        try {
+          assertLookups(readers);
+        } finally {
+          readers.close();
+        }
+      }
+    }
+  }
+
+  public void testMissingIndex() throws Exception {
+    Path out = write("missing", CompressionType.NONE);
+    fs.delete(new Path(new Path(out, "part-00001"), MapFile.INDEX_FILE_NAME),
+              false);
+    conf.setInt("searcher.segment.index.interval", 0);
+    try {
+      new MapFileReaders(fs, out, conf);
+      fail("opened a part without index");
+    } catch (IOException e) {
+      // expected, with the readers opened so far closed
+    }
+  }
+
+  public void testConcurrentLookups() throws Exception {
+    Path out = write("concurrent", CompressionType.RECORD);
+    conf.setInt("searcher.segment.readers", 2);
+    final MapFileReaders readers = new MapFileReaders(fs, out, conf);
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            assertLookups(readers);
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    readers.close();
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+}
@@ -105,6 +105,43 @@ public class TestQuery extends TestCase {
                              terms));
   }
 
+  public void testParseCache() throws Exception {
+    WeightedCache<String, Query> cache =
+      new WeightedCache<String, Query>(10, 1024 * 1024);
+    Query query = Query.parse("foo \"bar baz\" -qux", null, cache, conf);
+    Query cached = Query.parse("foo \"bar baz\" -qux", null, cache, conf);
+    assertEquals(1, cache.getHits());
+    assertNotSame(query, cached);
+    assertEquals(query, cached);
+    query.addRequiredTerm("more");                // copies may be added to
+    assertEquals(3, Query.parse("foo \"bar baz\" -qux", null, cache, conf)
+                 .getClauses().length);
+    assertEquals(cached, Query.parse("foo \"bar baz\" -qux", conf));
+  }
+
+  public void testTranslationCache() throws Exception {
+    WeightedCache<Query, org.apache.lucene.search.BooleanQuery> cache =
+      new WeightedCache<Query, org.apache.lucene.search.BooleanQuery>(10,
+          1024 * 1024);
+    QueryFilters filters = new QueryFilters(conf, cache);
+    Query query = Query.parse("foo site:example.com", conf);
+    org.apache.lucene.search.BooleanQuery translated = filters.filter(query);
+    org.apache.lucene.search.BooleanQuery cached =
+      filters.filter(Query.parse("foo site:example.com", conf));
+    assertEquals(1, cache.getHits());
+    assertNotSame(translated, cached);
+    assertEquals(translated, cached);
+    assertEquals(translated, new QueryFilters(conf).filter(query));
+
+    // clauses differing only by field are different queries
+    Query site = new Query(conf);
+    site.addRequiredTerm("example.com", "site");
+    Query url = new Query(conf);
+    url.addRequiredTerm("example.com", "url");
+    assertFalse(site.equals(url));
+    assertFalse(filters.filter(site).equals(filters.filter(url)));
+  }
+
   public static void main(String[] args) throws Exception {
     TestQuery test = new TestQuery("test");
     test.testComplex();
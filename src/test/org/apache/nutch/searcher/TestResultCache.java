@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+public class TestResultCache extends TestCase {
+
+  private Configuration conf;
+
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+  }
+
+  private static Hits makeHits(long total, int length) {
+    Hit[] top = new Hit[length];
+    for (int i = 0; i < length; i++) {
+      top[i] = new Hit(0, Integer.toString(i),
+                       new FloatWritable(length - i), "site" + i);
+    }
+    return new Hits(total, top);
+  }
+
+  public void testNormalize() throws Exception {
+    assertEquals(ResultCache.normalize(Query.parse("foo bar", conf)),
+                 ResultCache.normalize(Query.parse("bar foo", conf)));
+    assertFalse(ResultCache.normalize(Query.parse("foo", conf)).equals(
+                ResultCache.normalize(Query.parse("-foo", conf))));
+    assertFalse(ResultCache.normalize(Query.parse("site:foo", conf)).equals(
+                ResultCache.normalize(Query.parse("foo", conf))));
+    assertFalse(ResultCache.normalize(Query.parse("\"foo bar\"", conf)).equals(
+                ResultCache.normalize(Query.parse("foo bar", conf))));
+  }
+
+  public void testGetPut() throws Exception {
+    ResultCache cache = new ResultCache(10, 1024 * 1024, 0);
+    Query query = Query.parse("foo bar", conf);
+    assertNull(cache.get(query, 10, "site", null, false));
+    cache.put(query, 10, "site", null, false, makeHits(100, 10), 5);
+
+    // same query in different order, fewer hits
+    Hits hits = cache.get(Query.parse("bar foo", conf), 5, "site", null, false);
+    assertNotNull(hits);
+    assertEquals(100, hits.getTotal());
+    assertEquals(5, hits.getLength());
+    assertEquals("0", hits.getHit(0).getUniqueKey());
+
+    // more hits than cached, or other parameters
+    assertNull(cache.get(query, 20, "site", null, false));
+    assertNull(cache.get(query, 10, "url", null, false));
+    assertNull(cache.get(query, 10, "site", "date", false));
+    assertNull(cache.get(query, 10, "site", null, true));
+
+    // all hits are cached
+    cache.put(query, 20, null, null, false, makeHits(3, 3), 5);
+    assertEquals(3, cache.get(query, 50, null, null, false).getLength());
+
+    // cached hits are not modified by callers
+    hits.getHit(0).setMoreFromDupExcluded(true);
+    hits = cache.get(query, 5, "site", null, false);
+    assertFalse(hits.getHit(0).moreFromDupExcluded());
+
+    assertEquals(2, cache.size());
+    assertEquals(8, cache.getLookups());
+    assertEquals(3, cache.getHits());
+    assertEquals(15, cache.getSavedTime());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+    assertNull(cache.get(query, 5, "site", null, false));
+
+    // hits of a search stopped at its deadline are not cached
+    Hits partial = makeHits(100, 10);
+    partial.setComplete(false);
+    cache.put(query, 10, "site", null, false, partial, 5);
+    assertNull(cache.get(query, 5, "site", null, false));
+    assertEquals(0, cache.size());
+  }
+
+  public void testNullDedupValues() throws Exception {
+    ResultCache cache = new ResultCache(10, 1024 * 1024, 0);
+    Query query = Query.parse("foo", conf);
+    Hit[] top = new Hit[3];
+    for (int i = 0; i < top.length; i++) {
+      top[i] = new Hit(0, Integer.toString(i), new FloatWritable(3 - i), null);
+    }
+    cache.put(query, 10, null, null, false, new Hits(3, top), 1);
+    assertEquals(1, cache.size());
+    assertTrue(cache.getBytes() > 0);
+    Hits hits = cache.get(query, 10, null, null, false);
+    assertEquals(3, hits.getLength());
+    assertEquals("2", hits.getHit(2).getUniqueKey());
+  }
+
+  public void testEviction() throws Exception {
+    ResultCache cache = new ResultCache(2, 1024 * 1024, 0);
+    Query a = Query.parse("a", conf);
+    Query b = Query.parse("b", conf);
+    Query c = Query.parse("c", conf);
+    cache.put(a, 10, null, null, false, makeHits(10, 10), 1);
+    cache.put(b, 10, null, null, false, makeHits(10, 10), 1);
+    assertNotNull(cache.get(a, 10, null, null, false));
+    cache.put(c, 10, null, null, false, makeHits(10, 10), 1);
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(a, 10, null, null, false));
+    assertNull(cache.get(b, 10, null, null, false));
+
+    // memory bound
+    long size = cache.getBytes() / 2;
+    cache = new ResultCache(100, size + size / 2, 0);
+    cache.put(a, 10, null, null, false, makeHits(10, 10), 1);
+    cache.put(b, 10, null, null, false, makeHits(10, 10), 1);
+    assertEquals(1, cache.size());
+    assertNotNull(cache.get(b, 10, null, null, false));
+  }
+
+  public void testExpire() throws Exception {
+    ResultCache cache = new ResultCache(10, 1024 * 1024, 1);
+    Query query = Query.parse("foo", conf);
+    cache.put(query, 10, null, null, false, makeHits(10, 10), 1);
+    Thread.sleep(10);
+    assertNull(cache.get(query, 10, null, null, false));
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.searcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+/** Unit tests for SolrSearchBean, against a stand-in for a Solr server. */
+public class TestSolrSearchBean extends TestCase {
+
+  /** Returns its documents for any query, except that <code>id:(...)</code>
+   * queries return only the documents with those ids.  Only the requested
+   * fields are returned, and requests are recorded. */
+  private static class TestSolrServer extends SolrServer {
+    private static final long serialVersionUID = 1L;
+
+    private final List<SolrDocument> docs = new ArrayList<SolrDocument>();
+    private final List<SolrParams> requests = new ArrayList<SolrParams>();
+
+    void add(String id, String title, String anchor, float score) {
+      SolrDocument doc = new SolrDocument();
+      doc.addField("id", id);
+      doc.addField("segment", "20090101");
+      doc.addField("url", id);
+      doc.addField("title", title);
+      doc.addField("anchor", anchor);
+      doc.addField("score", score);
+      docs.add(doc);
+    }
+
+    public NamedList<Object> request(SolrRequest request) {
+      SolrParams params = request.getParams();
+      requests.add(params);
+      String q = params.get(CommonParams.Q);
+      String fl = params.get(CommonParams.FL);
+      Set<String> fields = fl == null
+        ? null : new HashSet<String>(Arrays.asList(fl.split(",")));
+      int rows = params.getInt(CommonParams.ROWS, 10);
+
+      SolrDocumentList results = new SolrDocumentList();
+      for (SolrDocument doc : docs) {
+        if (results.size() == rows) {
+          break;
+        }
+        if (q.startsWith("id:(")
+            && q.indexOf("\"" + doc.getFieldValue("id") + "\"") < 0) {
+          continue;
+        }
+        SolrDocument result = new SolrDocument();
+        for (String name : doc.getFieldNames()) {
+          if (fields == null || fields.contains(name)) {
+            result.addField(name, doc.getFieldValue(name));
+          }
+        }
+        results.add(result);
+      }
+      results.setNumFound(results.size());
+
+      NamedList<Object> response = new NamedList<Object>();
+      response.add("responseHeader", new NamedList<Object>());
+      response.add("response", results);
+      return response;
+    }
+  }
+
+  private Configuration conf;
+  private TestSolrServer solr;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set("searcher.solr.details.fields", "segment,url,title");
+    solr = new TestSolrServer();
+    for (int i = 0; i < 5; i++) {
+      solr.add("http://www.example.com/" + i, "Title " + i, "anchor " + i,
+               5 - i);
+    }
+  }
+
+  public void testDetailsFetchedWithHits() throws Exception {
+    SolrSearchBean bean = new SolrSearchBean(conf, solr);
+    Hits hits = bean.search(Query.parse("foo", conf), 3, null, null, false);
+    assertEquals(3, hits.getLength());
+    assertEquals(1, solr.requests.size());
+    String fl = solr.requests.get(0).get(CommonParams.FL);
+    assertTrue(fl, fl.indexOf("title") >= 0);
+    assertTrue(fl, fl.indexOf("anchor") < 0);
+
+    Hit[] show = hits.getHits(0, 3);
+    HitDetails[] details =
+      bean.getDetails(show, new String[] { "segment", "url", "title" });
+    assertEquals(1, solr.requests.size());        // served from the hits
+    for (int i = 0; i < details.length; i++) {
+      assertEquals("Title " + i, details[i].getValue("title"));
+      assertNull(details[i].getValue("anchor"));
+    }
+    details = bean.getDetails(show, new String[] { "title" });
+    assertEquals(1, solr.requests.size());
+    assertEquals("Title 2", details[2].getValue("title"));
+    assertNull(details[2].getValue("segment"));
+
+    // other fields are fetched in one request
+    details = bean.getDetails(show, new String[] { "anchor" });
+    assertEquals(2, solr.requests.size());
+    for (int i = 0; i < details.length; i++) {
+      assertEquals("anchor " + i, details[i].getValue("anchor"));
+      assertEquals(show[i].getUniqueKey(), details[i].getValue("id"));
+    }
+
+    // without a field list, the fields fetched with the hits are served
+    details = bean.getDetails(show);
+    assertEquals(2, solr.requests.size());
+    for (int i = 0; i < details.length; i++) {
+      assertEquals("Title " + i, details[i].getValue("title"));
+      assertNull(details[i].getValue("anchor"));
+    }
+    assertEquals("Title 1", bean.getDetails(show[1]).getValue("title"));
+    assertEquals(2, solr.requests.size());
+
+    // and fetched, if no longer cached
+    details = bean.getDetails(new Hit[] {
+      new Hit(0, "http://www.example.com/4") });
+    assertEquals(3, solr.requests.size());
+    String detailsFl = solr.requests.get(2).get(CommonParams.FL);
+    assertTrue(detailsFl, detailsFl.indexOf("title") >= 0);
+    assertTrue(detailsFl, detailsFl.indexOf("anchor") < 0);
+    assertEquals("Title 4", details[0].getValue("title"));
+    bean.close();
+  }
+
+  public void testUncachedDetails() throws Exception {
+    SolrSearchBean bean = new SolrSearchBean(conf, solr);
+    Hit[] hits = { new Hit(0, "http://www.example.com/4"),
+                   new Hit(0, "http://www.example.com/2") };
+    HitDetails[] details =
+      bean.getDetails(hits, new String[] { "title" });
+    assertEquals(1, solr.requests.size());
+    assertEquals("Title 4", details[0].getValue("title"));
+    assertEquals("Title 2", details[1].getValue("title"));
+    assertNull(details[0].getValue("anchor"));    // restricted to the fields
+    assertNull(bean.getDetails(new Hit(0, "http://www.example.com/9")));
+
+    // without details fields, all fields are fetched with the details only
+    conf.set("searcher.solr.details.fields", "");
+    bean = new SolrSearchBean(conf, solr);
+    solr.requests.clear();
+    bean.search(Query.parse("foo", conf), 3, null, null, false);
+    String fl = solr.requests.get(0).get(CommonParams.FL);
+    assertTrue(fl, fl.indexOf("title") < 0);
+    details = bean.getDetails(hits);
+    assertEquals(2, solr.requests.size());
+    assertEquals("anchor 4", details[0].getValue("anchor"));
+  }
+}
@@ -167,5 +167,12 @@ public class TestSummary extends TestCase {
     summary.add(new Fragment("fragment1.2"));
     WritableTestUtils.testWritable(summary);
   }
+
+  public void testEstimateSize() {
+    Summary summary = new Summary();
+    long empty = summary.estimateSize();
+    summary.add(new Fragment("some text"));
+    assertTrue(summary.estimateSize() > empty);
+  }
   
 }
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.searcher;
+
+import junit.framework.TestCase;
+
+public class TestWeightedCache extends TestCase {
+
+  public void testEntries() {
+    WeightedCache<String, String> cache =
+      new WeightedCache<String, String>(2, 1000);
+    cache.put("a", "A", 10);
+    cache.put("b", "B", 10);
+    assertEquals("A", cache.get("a"));
+    cache.put("c", "C", 10);
+    assertEquals(2, cache.size());
+    assertEquals(20, cache.getWeight());
+    assertNull(cache.get("b"));
+    assertEquals("A", cache.get("a"));
+    assertEquals("C", cache.get("c"));
+    assertEquals(4, cache.getLookups());
+    assertEquals(3, cache.getHits());
+
+    // replacing a value updates the weight
+    cache.put("a", "AA", 15);
+    assertEquals(25, cache.getWeight());
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  public void testWeight() {
+    WeightedCache<String, String> cache =
+      new WeightedCache<String, String>(100, 100);
+    cache.put("a", "A", 40);
+    cache.put("b", "B", 40);
+    cache.put("c", "C", 40);
+    assertEquals(2, cache.size());
+    assertNull(cache.get("a"));
+    // too heavy to cache at all
+    cache.put("d", "D", 101);
+    assertNull(cache.get("d"));
+    assertEquals(2, cache.size());
+  }
+}
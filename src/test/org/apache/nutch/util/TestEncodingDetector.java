@@ -1,6 +1,7 @@
 package org.apache.nutch.util;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.metadata.Metadata;
@@ -74,4 +75,92 @@ public class TestEncodingDetector extends TestCase {
     assertEquals("utf-8", encoding.toLowerCase());
   }
 
+  private static long tierCount(EncodingDetector.Tier tier) {
+    return EncodingDetector.getTierCounts()[tier.ordinal()];
+  }
+
+  private static String guess(Configuration conf, byte[] data,
+                              String contentType) {
+    Metadata metadata = new Metadata();
+    if (contentType != null) {
+      metadata.set(Response.CONTENT_TYPE, contentType);
+    }
+    Content content = new Content("http://www.example.com",
+        "http://www.example.com/", data, "text/html", metadata, conf);
+    EncodingDetector detector = new EncodingDetector(conf);
+    detector.autoDetectClues(content, true);
+    return detector.guessEncoding(content, "windows-1252");
+  }
+
+  public void testTiers() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 50);
+
+    // byte order mark
+    long count = tierCount(EncodingDetector.Tier.BOM);
+    byte[] bom = "\ufeffsome text".getBytes("utf-16be");
+    assertEquals("utf-16be", guess(conf, bom, null));
+    assertEquals(count + 1, tierCount(EncodingDetector.Tier.BOM));
+
+    // pure ASCII is left to the declared charset
+    count = tierCount(EncodingDetector.Tier.ASCII);
+    byte[] ascii = "<html><body>plain ascii</body></html>".getBytes("us-ascii");
+    assertEquals("iso-8859-2",
+                 guess(conf, ascii, "text/html; charset=ISO-8859-2"));
+    assertEquals("windows-1252", guess(conf, ascii, null));
+    assertEquals(count + 2, tierCount(EncodingDetector.Tier.ASCII));
+
+    // valid UTF-8 overrides a wrong declaration
+    count = tierCount(EncodingDetector.Tier.UTF8);
+    assertEquals("utf-8",
+                 guess(conf, contentInOctets, "text/html; charset=ISO-8859-1"));
+    assertEquals(count + 1, tierCount(EncodingDetector.Tier.UTF8));
+
+    // trusted declaration
+    conf.setBoolean(EncodingDetector.TRUST_DECLARED_KEY, true);
+    count = tierCount(EncodingDetector.Tier.DECLARED);
+    byte[] cyrillic = "\u041f\u0440\u0438\u0432\u0435\u0442 \u043c\u0438\u0440"
+      .getBytes("windows-1251");
+    assertEquals("windows-1251",
+                 guess(conf, cyrillic, "text/html; charset=windows-1251"));
+    assertEquals(count + 1, tierCount(EncodingDetector.Tier.DECLARED));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testHostTier() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 50);
+    conf.setInt(EncodingDetector.HOST_CACHE_SIZE_KEY, 10);
+    new EncodingDetector(conf);
+    Map<String, String> hosts = (Map<String, String>)ObjectCache.get(conf)
+      .getObject(EncodingDetector.class.getName() + ".hosts");
+    hosts.put("www.example.com", "windows-1251");
+
+    byte[] cyrillic = "\u041f\u0440\u0438\u0432\u0435\u0442 \u043c\u0438\u0440"
+      .getBytes("windows-1251");
+    long count = tierCount(EncodingDetector.Tier.HOST);
+    assertEquals("windows-1251", guess(conf, cyrillic, null));
+    assertEquals(count + 1, tierCount(EncodingDetector.Tier.HOST));
+
+    // pages which declare a charset are not decided by the host's
+    conf.setBoolean(EncodingDetector.TRUST_DECLARED_KEY, true);
+    byte[] meta = ("<html><head><meta http-equiv=\"Content-Type\" "
+        + "content=\"text/html; charset=koi8-r\"></head><body>")
+        .getBytes("us-ascii");
+    byte[] page = new byte[meta.length + cyrillic.length];
+    System.arraycopy(meta, 0, page, 0, meta.length);
+    System.arraycopy(cyrillic, 0, page, meta.length, cyrillic.length);
+    assertEquals("koi8-r", guess(conf, page, null));
+    assertEquals(count + 1, tierCount(EncodingDetector.Tier.HOST));
+  }
+
+  public void testSniffCharacterEncoding() throws Exception {
+    byte[] html = ("<html><head><meta http-equiv=\"Content-Type\" "
+        + "content=\"text/html; charset=koi8-r\"></head></html>")
+        .getBytes("us-ascii");
+    assertEquals("koi8-r", EncodingDetector.sniffCharacterEncoding(html));
+    assertNull(EncodingDetector.sniffCharacterEncoding(
+        "<html></html>".getBytes("us-ascii")));
+  }
+
 }
@@ -36,7 +36,7 @@
   // get the lang from request
   String queryLang = request.getParameter("lang");
   if (queryLang == null) { queryLang = ""; }
-  Query query = Query.parse(request.getParameter("query"), queryLang, nutchConf);
+  Query query = bean.parse(request.getParameter("query"), queryLang);
   String language =
     ResourceBundle.getBundle("org.nutch.jsp.explain", request.getLocale())
     .getLocale().getLanguage();
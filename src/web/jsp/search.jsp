@@ -130,7 +130,7 @@
   // get the lang from request
   String queryLang = request.getParameter("lang");
   if (queryLang == null) { queryLang = ""; }
-  Query query = Query.parse(queryString, queryLang, nutchConf);
+  Query query = bean.parse(queryString, queryLang);
   bean.LOG.info("query: " + queryString);
   bean.LOG.info("lang: " + queryLang);
 